@@ -0,0 +1,99 @@
+package com.example.fotoconmetadatos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compara la decodificación anterior (inSampleSize fijo de 4) con la ajustada a
+ * la celda sobre una foto sintética de 12 MP. Los tiempos quedan en logcat con
+ * la etiqueta "ThumbnailBench".
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailDecodeBenchmark {
+
+    private static final String TAG = "ThumbnailBench";
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int ROUNDS = 10;
+
+    private File photo;
+    private ThumbnailLoader loader;
+    private int targetSize;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        photo = new File(context.getCacheDir(), "bench_photo.jpg");
+        Bitmap source = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(source);
+        Paint paint = new Paint();
+        for (int i = 0; i < 200; i++) {
+            paint.setColor(Color.HSVToColor(new float[]{i * 1.8f, 0.6f, 0.9f}));
+            canvas.drawCircle((i * 97) % WIDTH, (i * 53) % HEIGHT, 40 + i, paint);
+        }
+        try (FileOutputStream out = new FileOutputStream(photo)) {
+            source.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        source.recycle();
+
+        loader = new ThumbnailLoader(context.getContentResolver(), ThumbnailCache.get(context),
+                new DiskThumbnailCache(new File(context.getCacheDir(), "bench_thumbs"), 0));
+        targetSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_height);
+    }
+
+    @After
+    public void tearDown() {
+        photo.delete();
+    }
+
+    @Test
+    public void targetSizedDecodeUsesLessMemory() {
+        long fixedBytes = 0;
+        long fixedNanos = 0;
+        long sizedBytes = 0;
+        long sizedNanos = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 4;
+            Bitmap fixed = BitmapFactory.decodeFile(photo.getPath(), options);
+            fixedNanos += SystemClock.elapsedRealtimeNanos() - start;
+            fixedBytes = fixed.getAllocationByteCount();
+            fixed.recycle();
+
+            start = SystemClock.elapsedRealtimeNanos();
+            Bitmap sized = loader.decodeForTarget(() -> new FileInputStream(photo), targetSize);
+            sizedNanos += SystemClock.elapsedRealtimeNanos() - start;
+            assertNotNull(sized);
+            assertTrue(Math.min(sized.getWidth(), sized.getHeight()) >= targetSize);
+            sizedBytes = sized.getByteCount();
+            sized.recycle();
+        }
+
+        Log.i(TAG, String.format("inSampleSize=4: %d ms/foto, %d KB; ajustado a %d px: %d ms/foto, %d KB",
+                fixedNanos / ROUNDS / 1_000_000, fixedBytes / 1024,
+                targetSize, sizedNanos / ROUNDS / 1_000_000, sizedBytes / 1024));
+        assertTrue(sizedBytes < fixedBytes);
+    }
+}
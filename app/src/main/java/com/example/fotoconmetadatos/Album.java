@@ -0,0 +1,60 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Locale;
+
+/**
+ * Qué parte de MediaStore muestra la galería. Por defecto solo las fotos que
+ * saca la app, en {@link #CAPTURE_DIRECTORY}: la consulta filtra por carpeta y
+ * su coste depende de cuántas fotos tomamos, no del tamaño de la biblioteca
+ * del teléfono. "Todas" es opcional.
+ *
+ * Cada álbum tiene su índice EXIF, su galería guardada y su caché de
+ * miniaturas ({@link #fileName}), así que cambiar de uno a otro no obliga a
+ * volver a leer nada. No depende de Android.
+ */
+public enum Album {
+    CAPTURES("captures", "MIS FOTOS"),
+    ALL("all", "TODAS LAS FOTOS");
+
+    /** Carpeta donde guarda la cámara de la app, relativa al almacenamiento (RELATIVE_PATH sin la barra final). */
+    public static final String CAPTURE_DIRECTORY = "Pictures/FotoConMetaDatos";
+
+    /** Se guarda en las preferencias; no cambiar. */
+    public final String key;
+    public final String title;
+
+    Album(String key, String title) {
+        this.key = key;
+        this.title = title;
+    }
+
+    /** El de {@code key}, o el de capturas si no existe (primer arranque, valor viejo). */
+    public static Album forKey(String key) {
+        for (Album album : values()) {
+            if (album.key.equals(key)) return album;
+        }
+        return CAPTURES;
+    }
+
+    /** El otro álbum, para el botón que alterna. */
+    public Album other() {
+        return this == CAPTURES ? ALL : CAPTURES;
+    }
+
+    /**
+     * Nombre de un archivo o carpeta propio del álbum. "Todas" conserva los
+     * nombres de antes de haber álbumes y sigue usando lo ya guardado.
+     */
+    public String fileName(String base) {
+        return this == ALL ? base : key + "_" + base;
+    }
+
+    /**
+     * BUCKET_ID que MediaStore da a las fotos de {@code directory} (ruta
+     * absoluta, sin barra final): el hashCode de la ruta en minúsculas. La
+     * columna está indexada, así que la consulta no recorre la tabla entera.
+     */
+    public static long bucketIdOf(String directory) {
+        return directory.toLowerCase(Locale.ROOT).hashCode();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.fotoconmetadatos;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+
+/**
+ * Los trabajos largos de {@link MainActivity}, fuera de la actividad: viven lo
+ * que el proceso, así que siguen aunque ella se recree (rotación, cambio de
+ * idioma). La actividad se engancha a cada uno en onCreate y se suelta en
+ * onDestroy; ver {@link JobSlot}.
+ */
+final class BackgroundJobs {
+
+    private static BackgroundJobs instance;
+
+    static synchronized BackgroundJobs get() {
+        if (instance == null) instance = new BackgroundJobs();
+        return instance;
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Geoetiquetado por lotes; el resultado es el progreso final. */
+    final JobSlot<MetadataBatchJob.Progress, MetadataBatchJob.Progress> retag =
+            new JobSlot<>(mainHandler::post, PhotoLoader.backgroundThreads("retag-job"));
+
+    /** Copias sin GPS para compartir. */
+    final JobSlot<PhotoExporter.Result, Shared> export =
+            new JobSlot<>(mainHandler::post, PhotoLoader.backgroundThreads("export-job"));
+
+    /** Resultado de {@link #export}. */
+    static final class Shared {
+        final PhotoExporter.Result result;
+        /** La carpeta con una copia por foto, o el ZIP. */
+        final File output;
+
+        Shared(PhotoExporter.Result result, File output) {
+            this.result = result;
+            this.output = output;
+        }
+    }
+
+    /** Informe de metadatos en CSV o GeoJSON; no informa progreso. */
+    final JobSlot<Void, Report> report =
+            new JobSlot<>(mainHandler::post, PhotoLoader.backgroundThreads("report-job"));
+
+    /** Resultado de {@link #report}. */
+    static final class Report {
+        final int rows;
+        final int total;
+        /** Ruta o URI donde quedó, para mostrarla. */
+        final String destination;
+
+        Report(int rows, int total, String destination) {
+            this.rows = rows;
+            this.total = total;
+            this.destination = destination;
+        }
+    }
+
+    // El diario del lote se mira una vez por proceso, no en cada recreación
+    private boolean retagJournalChecked;
+
+    private BackgroundJobs() {
+    }
+
+    /**
+     * true solo la primera vez en el proceso. Después, un lote que no está en
+     * curso es uno que el usuario detuvo: no se retoma solo.
+     */
+    boolean claimRetagJournal() {
+        if (retagJournalChecked) return false;
+        retagJournalChecked = true;
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.fotoconmetadatos;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bitmaps mutables que ya salieron de la caché y pueden reutilizarse como
+ * {@code inBitmap} al decodificar otra miniatura. Limitado por bytes; al llenarse
+ * se descartan primero los más antiguos.
+ */
+public class BitmapPool {
+
+    private final List<Bitmap> bitmaps = new ArrayList<>();
+    private final long maxBytes;
+    private long currentBytes;
+    private long reuseCount;
+    private long missCount;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        long size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) return;
+
+        bitmaps.add(bitmap);
+        currentBytes += size;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Devuelve el bitmap más pequeño cuya memoria alcanza para {@code width} x {@code height},
+     * o null. Desde API 19 inBitmap acepta cualquier bitmap con suficientes bytes.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        int best = -1;
+        long bestSize = Long.MAX_VALUE;
+        for (int i = 0; i < bitmaps.size(); i++) {
+            Bitmap candidate = bitmaps.get(i);
+            long size = candidate.getAllocationByteCount();
+            if (size >= needed && size < bestSize && candidate.getConfig() == config) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        if (best < 0) {
+            missCount++;
+            return null;
+        }
+        reuseCount++;
+        currentBytes -= bestSize;
+        return bitmaps.remove(best);
+    }
+
+    public synchronized void trimTo(long bytes) {
+        while (currentBytes > bytes && !bitmaps.isEmpty()) {
+            Bitmap oldest = bitmaps.remove(0);
+            currentBytes -= oldest.getAllocationByteCount();
+        }
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        return 4;
+    }
+}
@@ -7,9 +7,9 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.provider.MediaStore;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -19,22 +19,14 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import androidx.exifinterface.media.ExifInterface;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 
-import java.io.IOException;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.io.InputStream;
-import java.io.OutputStream;
 
-import java.io.File;               // Para crear archivos locales
-import java.io.FileInputStream;    // Para leer archivos locales
-import java.io.FileOutputStream;
 
 public class CameraActivity extends AppCompatActivity {
 
@@ -47,10 +39,13 @@ public class CameraActivity extends AppCompatActivity {
 
     private ActivityResultLauncher<Intent> cameraLauncher;
     private Uri currentPhotoUri;
+    private CheckBox cbBurst;
+    private int burstCount;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        DebugMetrics.install();
         setContentView(R.layout.activity_camera);
 
         tvStatus = findViewById(R.id.tvStatus);
@@ -62,15 +57,19 @@ public class CameraActivity extends AppCompatActivity {
         cameraLauncher = registerForActivityResult(
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
-                    if (result.getResultCode() == RESULT_OK && currentPhotoUri != null) {
-                        addExifData(currentPhotoUri);
-                        addPhotoToGallery(currentPhotoUri);
-                        Toast.makeText(this, "Foto guardada con éxito", Toast.LENGTH_SHORT).show();
-                        finish();
+                    if (currentPhotoUri == null) return;
+                    if (result.getResultCode() == RESULT_OK) {
+                        onPhotoTaken(currentPhotoUri);
+                    } else {
+                        // Cancelada: la entrada reservada en MediaStore quedó vacía
+                        getContentResolver().delete(currentPhotoUri, null, null);
+                        currentPhotoUri = null;
+                        if (burstCount > 0) finish();
                     }
                 });
 
         btnCapture.setOnClickListener(v -> checkPermissionsAndTakePhoto());
+        cbBurst = findViewById(R.id.cbBurst);
 
         // Solicitar ubicación
         requestLocationUpdate();
@@ -120,7 +119,7 @@ public class CameraActivity extends AppCompatActivity {
         ContentValues values = new ContentValues();
         values.put(MediaStore.Images.Media.DISPLAY_NAME, "IMG_" + System.currentTimeMillis() + ".jpg");
         values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-        values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/FotoConMetaDatos");
+        values.put(MediaStore.Images.Media.RELATIVE_PATH, Album.CAPTURE_DIRECTORY);
 
         currentPhotoUri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
 
@@ -133,55 +132,22 @@ public class CameraActivity extends AppCompatActivity {
         }
     }
 
-    private void addExifData(Uri photoUri) {
-        try {
-            // Copiar el contenido del Uri a un archivo temporal
-            File tempFile = new File(getCacheDir(), "temp.jpg");
-            try (InputStream in = getContentResolver().openInputStream(photoUri);
-                 OutputStream out = new java.io.FileOutputStream(tempFile)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                }
-            }
-
-            // Modificar metadatos usando ExifInterface(File)
-            ExifInterface exif = new ExifInterface(tempFile);
-            String dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.getDefault()).format(new Date());
-            exif.setAttribute(ExifInterface.TAG_DATETIME, dateTime);
-            if (currentLocation != null) {
-                exif.setLatLong(currentLocation.getLatitude(), currentLocation.getLongitude());
-            }
-            exif.saveAttributes();
-
-            // Copiar de nuevo al Uri final
-            try (InputStream in = new java.io.FileInputStream(tempFile);
-                 OutputStream out = getContentResolver().openOutputStream(photoUri, "w")) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                }
-            }
-
-            tempFile.delete(); // borrar temporal
-            Toast.makeText(this, "Metadatos agregados correctamente", Toast.LENGTH_SHORT).show();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Error al agregar metadatos: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
-    }
-
-
-
-
-    private void addPhotoToGallery(Uri photoUri) {
-        if (photoUri != null) {
-            Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-            mediaScanIntent.setData(photoUri);
-            sendBroadcast(mediaScanIntent);
+    private void onPhotoTaken(Uri photoUri) {
+        // La hora y la ubicación son las del disparo, aunque la cola las escriba después
+        String dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.getDefault()).format(new Date());
+        double latitude = currentLocation != null ? currentLocation.getLatitude() : Double.NaN;
+        double longitude = currentLocation != null ? currentLocation.getLongitude() : Double.NaN;
+        CaptureQueue.get(this).enqueue(photoUri, dateTime, latitude, longitude);
+        currentPhotoUri = null;
+
+        if (cbBurst != null && cbBurst.isChecked()) {
+            // Ráfaga: la cámara vuelve a abrirse sin esperar al EXIF
+            burstCount++;
+            tvStatus.setText("Ráfaga: " + burstCount + " fotos. Cancela en la cámara para terminar.");
+            takePhoto();
+        } else {
+            Toast.makeText(this, "Foto guardada con éxito", Toast.LENGTH_SHORT).show();
+            finish();
         }
     }
 
@@ -0,0 +1,352 @@
+package com.example.fotoconmetadatos;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cola persistente del trabajo que sigue a cada captura: escribir el EXIF y
+ * avisar al escáner de medios. La cámara encola y vuelve enseguida; un solo
+ * hilo de fondo procesa las fotos en orden.
+ *
+ * Cada paso terminado queda anotado en un diario de solo anexado, así que si
+ * el proceso muere la foto sigue en el paso que le faltaba al volver a abrir
+ * la cola. Los dos pasos se pueden repetir sin daño: reescribir el EXIF con
+ * las mismas etiquetas da el mismo archivo y un segundo escaneo no cambia nada.
+ */
+public class CaptureQueue {
+
+    private static final int MAGIC = 0x43505131; // "CPQ1"
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_ENQUEUED = 1;
+    private static final byte RECORD_EXIF_WRITTEN = 2;
+    private static final byte RECORD_FINISHED = 3;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 500;
+
+    private static final Metrics.Timer ENQUEUE = Metrics.timer("capture.enqueue");
+    private static final Metrics.Timer WRITE_EXIF = Metrics.timer("capture.write_exif");
+    private static final Metrics.Timer SCAN = Metrics.timer("capture.scan");
+    // Desde que la cámara encola hasta que la foto queda escaneada
+    private static final Metrics.Timer LATENCY = Metrics.timer("capture.latency");
+    private static final Metrics.Counter RETRIES = Metrics.counter("capture.retries");
+    private static final Metrics.Counter DROPPED = Metrics.counter("capture.dropped");
+
+    /** Lo que hay que hacer con cada foto; se llama desde el hilo de la cola. */
+    interface Processor {
+        void writeExif(Task task) throws IOException;
+
+        void scan(Task task) throws IOException;
+    }
+
+    /** Una captura pendiente: la foto y lo que había al dispararla. */
+    static final class Task {
+        final long seq;
+        final String uri;
+        final String dateTime;
+        final double latitude;
+        final double longitude;
+        boolean exifWritten;
+        // 0 para las que vienen del diario: su espera incluye el cierre de la app
+        long enqueuedNanos;
+
+        Task(long seq, String uri, String dateTime, double latitude, double longitude) {
+            this.seq = seq;
+            this.uri = uri;
+            this.dateTime = dateTime;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        ExifSpliceWriter newWriter() {
+            ExifSpliceWriter writer = new ExifSpliceWriter().setDateTime(dateTime);
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) writer.setLatLong(latitude, longitude);
+            return writer;
+        }
+    }
+
+    private static CaptureQueue instance;
+
+    public static synchronized CaptureQueue get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new CaptureQueue(new File(app.getFilesDir(), "capture_queue.bin"),
+                    new MediaStoreProcessor(app), PhotoLoader.backgroundThreads("capture"));
+        }
+        return instance;
+    }
+
+    private final File journalFile;
+    private final Processor processor;
+    private final ExecutorService executor;
+    private final Map<Long, Task> pending = new LinkedHashMap<>();
+    private DataOutputStream journal;
+    private long nextSeq;
+
+    CaptureQueue(File journalFile, Processor processor, ThreadFactory threads) {
+        this.journalFile = journalFile;
+        this.processor = processor;
+        this.executor = Executors.newSingleThreadExecutor(threads);
+        load();
+        // Lo que quedó a medias en la ejecución anterior sigue primero
+        for (Task task : new ArrayList<>(pending.values())) {
+            executor.execute(() -> process(task));
+        }
+    }
+
+    /**
+     * Encola la foto recién tomada. Solo anexa un registro al diario: se puede
+     * llamar desde el hilo principal. {@code dateTime} va en formato EXIF; NaN
+     * en las coordenadas deja la foto sin GPS.
+     */
+    public void enqueue(Uri photoUri, String dateTime, double latitude, double longitude) {
+        enqueue(photoUri.toString(), dateTime, latitude, longitude);
+    }
+
+    void enqueue(String uri, String dateTime, double latitude, double longitude) {
+        long start = ENQUEUE.start();
+        Task task;
+        synchronized (this) {
+            task = new Task(nextSeq++, uri, dateTime, latitude, longitude);
+            task.enqueuedNanos = System.nanoTime();
+            pending.put(task.seq, task);
+            try {
+                DataOutputStream out = journal();
+                writeEnqueued(out, task);
+                // Sin fsync: sobrevive a la muerte del proceso, que es el caso habitual
+                out.flush();
+            } catch (IOException e) {
+                // Sin diario la foto igual se procesa; solo no sobreviviría a un cierre
+                e.printStackTrace();
+            }
+        }
+        executor.execute(() -> process(task));
+        ENQUEUE.stop(start);
+    }
+
+    /** Fotos que todavía no terminaron ambos pasos. */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /** Espera a que la cola quede vacía; para pruebas y para el cierre ordenado. */
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (!pending.isEmpty()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                wait(left);
+            }
+        }
+        return true;
+    }
+
+    /** Detiene el hilo; lo pendiente queda en el diario para la próxima vez. */
+    void shutdown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        synchronized (this) {
+            closeJournal();
+        }
+    }
+
+    private void process(Task task) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!task.exifWritten) {
+                    long start = WRITE_EXIF.start();
+                    try {
+                        processor.writeExif(task);
+                    } finally {
+                        WRITE_EXIF.stop(start);
+                    }
+                    task.exifWritten = true;
+                    record(RECORD_EXIF_WRITTEN, task.seq);
+                }
+                long start = SCAN.start();
+                try {
+                    processor.scan(task);
+                } finally {
+                    SCAN.stop(start);
+                }
+                break;
+            } catch (FileNotFoundException e) {
+                // La foto se borró antes de procesarla: no hay nada que reintentar
+                DROPPED.increment();
+                e.printStackTrace();
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+                // Tras el último intento se da por terminada: la foto queda sin EXIF
+                if (attempt >= MAX_ATTEMPTS) {
+                    DROPPED.increment();
+                    break;
+                }
+                RETRIES.increment();
+                try {
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    // Cierre: la captura sigue en el diario
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        record(RECORD_FINISHED, task.seq);
+        if (task.enqueuedNanos != 0) LATENCY.record(System.nanoTime() - task.enqueuedNanos);
+        synchronized (this) {
+            pending.remove(task.seq);
+            if (pending.isEmpty()) {
+                // Nada pendiente: el diario se vacía en vez de crecer con cada foto
+                closeJournal();
+                journalFile.delete();
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized void record(byte type, long seq) {
+        try {
+            DataOutputStream out = journal();
+            out.writeByte(type);
+            out.writeLong(seq);
+            out.flush();
+        } catch (IOException e) {
+            // Al reabrir se repetiría el paso, lo que no hace daño
+            e.printStackTrace();
+        }
+    }
+
+    private DataOutputStream journal() throws IOException {
+        if (journal == null) {
+            boolean fresh = !journalFile.exists() || journalFile.length() == 0;
+            journal = new DataOutputStream(new FileOutputStream(journalFile, true));
+            if (fresh) {
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+            }
+        }
+        return journal;
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+
+    private void load() {
+        if (!journalFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                journalFile.delete();
+                return;
+            }
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    long seq = in.readLong();
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                    if (type == RECORD_ENQUEUED) {
+                        String uri = in.readUTF();
+                        String dateTime = in.readUTF();
+                        double latitude = in.readDouble();
+                        double longitude = in.readDouble();
+                        pending.put(seq, new Task(seq, uri, dateTime, latitude, longitude));
+                    } else if (type == RECORD_EXIF_WRITTEN) {
+                        Task task = pending.get(seq);
+                        if (task != null) task.exifWritten = true;
+                    } else if (type == RECORD_FINISHED) {
+                        pending.remove(seq);
+                    } else {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // Fin del diario, o un registro a medias del cierre anterior
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (pending.isEmpty()) {
+            journalFile.delete();
+            return;
+        }
+        // Reescribe solo lo pendiente: descarta lo terminado y un posible registro a medias
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Task task : pending.values()) {
+                writeEnqueued(out, task);
+                if (task.exifWritten) {
+                    out.writeByte(RECORD_EXIF_WRITTEN);
+                    out.writeLong(task.seq);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(journalFile)) tmp.delete();
+    }
+
+    private static void writeEnqueued(DataOutputStream out, Task task) throws IOException {
+        out.writeByte(RECORD_ENQUEUED);
+        out.writeLong(task.seq);
+        out.writeUTF(task.uri);
+        out.writeUTF(task.dateTime);
+        out.writeDouble(task.latitude);
+        out.writeDouble(task.longitude);
+    }
+
+    /** Los pasos reales: EXIF en el lugar sobre MediaStore y el aviso al escáner. */
+    private static final class MediaStoreProcessor implements Processor {
+        private final Context context;
+
+        MediaStoreProcessor(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void writeExif(Task task) throws IOException {
+            MediaStoreExif.rewrite(context.getContentResolver(), Uri.parse(task.uri), task.newWriter());
+        }
+
+        @Override
+        public void scan(Task task) {
+            Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
+            mediaScanIntent.setData(Uri.parse(task.uri));
+            context.sendBroadcast(mediaScanIntent);
+        }
+    }
+}
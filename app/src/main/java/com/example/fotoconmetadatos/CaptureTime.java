@@ -0,0 +1,147 @@
+package com.example.fotoconmetadatos;
+
+/**
+ * Conversión entre el texto EXIF "aaaa:MM:dd HH:mm:ss" y milisegundos. EXIF no
+ * guarda zona horaria, así que la hora se trata como UTC: el valor conserva la
+ * hora de pared de la cámara, se ordena bien y los límites de día caen en la
+ * medianoche local de la foto. Sin objetos intermedios ni SimpleDateFormat.
+ */
+public final class CaptureTime {
+
+    /** Fecha desconocida; al ser el menor long, queda al final en orden descendente. */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private CaptureTime() {
+    }
+
+    /** Milisegundos de la fecha EXIF, o {@link #UNKNOWN} si no es válida. */
+    public static long parseExif(CharSequence text) {
+        if (text == null || text.length() < 19) return UNKNOWN;
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        char dateSeparator = text.charAt(4);
+        if ((dateSeparator != ':' && dateSeparator != '-') || text.charAt(7) != dateSeparator
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return UNKNOWN;
+        }
+        // Las cámaras sin reloj escriben "0000:00:00 00:00:00"
+        if (year <= 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return UNKNOWN;
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    /** Texto EXIF de {@code millis}, o cadena vacía si es {@link #UNKNOWN}. */
+    public static String formatExif(long millis) {
+        if (millis == UNKNOWN) return "";
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(millis, MILLIS_PER_DAY) / 1000);
+        int[] civil = civilFromDays(days);
+
+        char[] out = new char[19];
+        put(out, 0, civil[0], 4);
+        out[4] = ':';
+        put(out, 5, civil[1], 2);
+        out[7] = ':';
+        put(out, 8, civil[2], 2);
+        out[10] = ' ';
+        put(out, 11, secondOfDay / 3600, 2);
+        out[13] = ':';
+        put(out, 14, secondOfDay / 60 % 60, 2);
+        out[16] = ':';
+        put(out, 17, secondOfDay % 60, 2);
+        return new String(out);
+    }
+
+    /** "aaaa-MM-ddTHH:mm:ss" sin zona, como la hora de pared de EXIF; cadena vacía si es {@link #UNKNOWN}. */
+    public static String formatIso(long millis) {
+        if (millis == UNKNOWN) return "";
+        char[] out = formatExif(millis).toCharArray();
+        out[4] = '-';
+        out[7] = '-';
+        out[10] = 'T';
+        return new String(out);
+    }
+
+    /** Fecha "dd/MM/aaaa" del día de {@code millis}, para cabeceras de sección. */
+    public static String formatDay(long millis) {
+        int[] civil = civilFromDays(Math.floorDiv(millis, MILLIS_PER_DAY));
+        char[] out = new char[10];
+        put(out, 0, civil[2], 2);
+        out[2] = '/';
+        put(out, 3, civil[1], 2);
+        out[5] = '/';
+        put(out, 6, civil[0], 4);
+        return new String(out);
+    }
+
+    /** Milisegundos de las 00:00 de esa fecha (mes de 1 a 12). */
+    public static long dayStart(int year, int month, int day) {
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    /** Inicio (00:00) del día de {@code millis}. */
+    public static long startOfDay(long millis) {
+        return Math.floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+    }
+
+    /** Inicio del día 1 del mes de {@code millis}. */
+    public static long startOfMonth(long millis) {
+        int[] civil = civilFromDays(Math.floorDiv(millis, MILLIS_PER_DAY));
+        return daysFromCivil(civil[0], civil[1], 1) * MILLIS_PER_DAY;
+    }
+
+    /** Año y mes de {@code millis} como aaaa * 12 + (mes - 1); sirve de clave de mes. */
+    public static int monthKey(long millis) {
+        int[] civil = civilFromDays(Math.floorDiv(millis, MILLIS_PER_DAY));
+        return civil[0] * 12 + civil[1] - 1;
+    }
+
+    // Días desde 1970-01-01 del calendario gregoriano proléptico
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    static int[] civilFromDays(long days) {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return new int[]{year, month, day};
+    }
+
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void put(char[] out, int at, int value, int width) {
+        for (int i = at + width - 1; i >= at; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.fotoconmetadatos;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Trace;
+import android.widget.Toast;
+
+import java.io.PrintWriter;
+
+/**
+ * Lado Android de {@link Metrics}: manda sus secciones a {@link Trace} y las
+ * muestra en JSON desde la app o desde
+ * {@code adb shell dumpsys activity com.example.fotoconmetadatos/.MainActivity metrics}
+ * (añadir {@code --reset} para ponerlas a cero después de volcarlas).
+ */
+final class DebugMetrics {
+
+    static final String DUMP_ARG = "metrics";
+    private static final String RESET_ARG = "--reset";
+
+    private static final Metrics.Tracer SYSTEM_TRACE = new Metrics.Tracer() {
+        @Override
+        public void begin(String section) {
+            Trace.beginSection(section);
+        }
+
+        @Override
+        public void end() {
+            Trace.endSection();
+        }
+    };
+
+    private DebugMetrics() {
+    }
+
+    /** Se puede llamar en cada onCreate: solo cambia el trazador. */
+    static void install() {
+        Metrics.setTracer(SYSTEM_TRACE);
+    }
+
+    static boolean isDebuggable(Context context) {
+        return (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    /**
+     * Atiende {@code dumpsys ... metrics}; devuelve false si los argumentos no
+     * son para las métricas y el volcado normal de la actividad debe seguir.
+     */
+    static boolean dump(PrintWriter writer, String[] args) {
+        if (args == null || args.length == 0 || !DUMP_ARG.equals(args[0])) return false;
+        writer.println(Metrics.toJson());
+        if (args.length > 1 && RESET_ARG.equals(args[1])) {
+            Metrics.reset();
+        }
+        return true;
+    }
+
+    /** Pantalla de depuración: el JSON con opciones para copiarlo o reiniciar. */
+    static void show(Activity activity) {
+        String json = Metrics.toJson();
+        new AlertDialog.Builder(activity)
+                .setTitle("Métricas")
+                .setMessage(json)
+                .setPositiveButton("Copiar", (dialog, which) -> {
+                    ClipboardManager clipboard =
+                            (ClipboardManager) activity.getSystemService(Context.CLIPBOARD_SERVICE);
+                    clipboard.setPrimaryClip(ClipData.newPlainText("metrics", json));
+                    Toast.makeText(activity, "Métricas copiadas", Toast.LENGTH_SHORT).show();
+                })
+                .setNeutralButton("Reiniciar", (dialog, which) -> Metrics.reset())
+                .setNegativeButton("Cerrar", null)
+                .show();
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.fotoconmetadatos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Segundo nivel de caché: miniaturas ya comprimidas en un directorio de cacheDir,
+ * limitado por bytes con desalojo LRU. El estado vive en un diario de texto
+ * ("P clave tamaño", "R clave", "D clave") que se lee al abrir, así que arrancar
+ * no requiere listar el directorio.
+ *
+ * Cada archivo se escribe primero en un temporal y se renombra antes de anotarlo
+ * en el diario: una entrada del diario siempre apunta a un archivo completo.
+ */
+public class DiskThumbnailCache {
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String HEADER = "thumbs 1";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Reescribir el diario cuando tenga muchas más líneas que entradas vivas
+    private static final int MIN_COMPACT_LINES = 2000;
+
+    /** Escribe el contenido de una entrada; por ejemplo, un Bitmap comprimido. */
+    public interface EntryWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong tmpCounter = new AtomicLong();
+    private Writer journal;
+    private long currentBytes;
+    private int journalLines;
+    private boolean opened;
+    private boolean journalTruncated;
+    private long hitCount;
+    private long missCount;
+
+    public DiskThumbnailCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Devuelve el archivo de la entrada, o null si no está en la caché. */
+    public synchronized File get(String key) {
+        if (!open()) return null;
+        if (entries.get(key) == null) { // get() también actualiza el orden LRU
+            missCount++;
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            // Borrado por el sistema al liberar caché
+            currentBytes -= entries.remove(key);
+            appendJournal("D " + key);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        appendJournal("R " + key);
+        return file;
+    }
+
+    /**
+     * Guarda una entrada. El contenido se escribe fuera del bloqueo en un temporal
+     * propio, así que dos hilos pueden guardar a la vez sin pisarse.
+     */
+    public boolean put(String key, EntryWriter writer) {
+        if (!isValidKey(key)) return false;
+        synchronized (this) {
+            if (!open()) return false;
+        }
+
+        File tmp = new File(directory, key + "." + tmpCounter.incrementAndGet() + TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            tmp.delete();
+            return false;
+        }
+
+        synchronized (this) {
+            File file = new File(directory, key);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return false;
+            }
+            Long previous = entries.put(key, file.length());
+            if (previous != null) currentBytes -= previous;
+            currentBytes += file.length();
+            appendJournal("P " + key + " " + file.length());
+            trimToSize();
+            flushJournal();
+        }
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        if (!open()) return;
+        Long size = entries.remove(key);
+        if (size != null) {
+            currentBytes -= size;
+            new File(directory, key).delete();
+            appendJournal("D " + key);
+            flushJournal();
+        }
+    }
+
+    public synchronized long size() {
+        open();
+        return currentBytes;
+    }
+
+    public synchronized int entryCount() {
+        open();
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** Escribe las lecturas pendientes del diario; llamar al pasar a segundo plano. */
+    public synchronized void flush() {
+        flushJournal();
+    }
+
+    private static boolean isValidKey(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '@')) return false;
+        }
+        return !key.isEmpty() && !key.equals(JOURNAL) && !key.equals(JOURNAL_TMP);
+    }
+
+    private boolean open() {
+        if (opened) return journal != null;
+        opened = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) return false;
+
+        File journalFile = new File(directory, JOURNAL);
+        boolean valid = false;
+        if (journalFile.exists()) {
+            valid = readJournal(journalFile);
+        }
+        if (!valid) {
+            // Sin diario confiable no se sabe qué archivos están completos: empezar de cero
+            entries.clear();
+            currentBytes = 0;
+            deleteContents();
+        }
+        try {
+            if (!valid || journalTruncated || journalLines > MIN_COMPACT_LINES) {
+                rebuildJournal();
+            } else {
+                journal = openJournal(true);
+            }
+        } catch (IOException e) {
+            journal = null;
+            return false;
+        }
+        trimToSize();
+        return true;
+    }
+
+    private boolean readJournal(File journalFile) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) return false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && parts[0].equals("P")) {
+                    long size = Long.parseLong(parts[2]);
+                    Long previous = entries.put(parts[1], size);
+                    if (previous != null) currentBytes -= previous;
+                    currentBytes += size;
+                } else if (parts.length == 2 && parts[0].equals("R")) {
+                    entries.get(parts[1]); // Actualiza el orden de acceso
+                } else if (parts.length == 2 && parts[0].equals("D")) {
+                    Long previous = entries.remove(parts[1]);
+                    if (previous != null) currentBytes -= previous;
+                } else {
+                    journalTruncated = true; // Última línea incompleta
+                    break;
+                }
+            }
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private Writer openJournal(boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(directory, JOURNAL), append), StandardCharsets.UTF_8));
+    }
+
+    // Reescribe el diario con solo las entradas vivas y borra archivos huérfanos
+    private void rebuildJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        File tmp = new File(directory, JOURNAL_TMP);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write("P " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        if (!tmp.renameTo(new File(directory, JOURNAL))) {
+            throw new IOException("No se pudo reemplazar el diario");
+        }
+        journalLines = entries.size();
+        journal = openJournal(true);
+        deleteOrphans();
+    }
+
+    private void deleteOrphans() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(JOURNAL) && !entries.containsKey(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteContents() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            currentBytes -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            appendJournal("D " + eldest.getKey());
+            it.remove();
+        }
+    }
+
+    private void appendJournal(String line) {
+        if (journal == null) return;
+        try {
+            journal.write(line);
+            journal.write('\n');
+            journalLines++;
+        } catch (IOException e) {
+            journal = null;
+        }
+    }
+
+    private void flushJournal() {
+        if (journal == null) return;
+        try {
+            journal.flush();
+            if (journalLines > MIN_COMPACT_LINES && journalLines > 2 * entries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.fotoconmetadatos;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fotos repetidas de la galería. Cada foto lleva un {@link PerceptualHash}
+ * guardado en el {@link ExifIndex} junto a su EXIF, así que solo se calcula
+ * una vez por archivo; los hashes se cargan en un {@link HammingIndex} para
+ * encontrar las tomas casi iguales sin comparar todas con todas.
+ *
+ * {@link #update} se llama con cada galería nueva: solo decodifica las fotos
+ * que aún no tienen hash (las capturas recién llegadas) y quita las que ya no
+ * están. Hace E/S: llamarlo desde un hilo de fondo, de a uno. {@link #groups}
+ * se puede pedir desde otro hilo mientras tanto y ve lo calculado hasta ese
+ * momento. No depende de Android.
+ */
+public class DuplicateIndex {
+
+    /** Hasta esta distancia de Hamming dos fotos se consideran la misma toma. */
+    public static final int NEAR_DISTANCE = 8;
+    // Fotos por tanda: tras cada una se guarda el índice EXIF
+    private static final int BATCH = 64;
+
+    private static final Metrics.Timer UPDATE = Metrics.timer("duplicates.update");
+    private static final Metrics.Timer HASH = Metrics.timer("duplicates.hash");
+    private static final Metrics.Counter HASH_ERRORS = Metrics.counter("duplicates.hash_errors");
+
+    /** Calcula el hash perceptual de una foto a partir de una decodificación pequeña. */
+    public interface Hasher {
+        long hash(long id) throws IOException;
+    }
+
+    private final ExifIndex exifIndex;
+    private final PagedPhotoSource.PageLoader loader;
+    private final Hasher hasher;
+    // Protegido por this; el resto del estado es del hilo de update()
+    private final HammingIndex hashes = new HammingIndex();
+    // Ilegibles en esta sesión: no se reintentan en cada galería
+    private final Set<Long> failed = new HashSet<>();
+
+    /**
+     * {@code loader} lee el EXIF de las fotos que aún no están en el índice,
+     * porque el hash se guarda en su entrada.
+     */
+    public DuplicateIndex(ExifIndex exifIndex, PagedPhotoSource.PageLoader loader, Hasher hasher) {
+        this.exifIndex = exifIndex;
+        this.loader = loader;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Pone el índice al día con {@code store}: calcula los hashes que falten y
+     * quita las fotos borradas. Devuelve cuántos hashes se calcularon. Se
+     * puede cortar interrumpiendo el hilo; lo ya calculado queda guardado.
+     */
+    public int update(PhotoStore store) throws Exception {
+        long start = UPDATE.start();
+        try {
+            return updateHashes(store);
+        } finally {
+            UPDATE.stop(start);
+        }
+    }
+
+    /** Fotos indexadas, con hash. */
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Grupos de fotos casi iguales de la última galería, cada uno como lista de
+     * _ID sin orden. Las fotos sin repetir no aparecen.
+     */
+    public synchronized long[][] groups() {
+        return hashes.groups(NEAR_DISTANCE);
+    }
+
+    private int updateHashes(PhotoStore store) throws Exception {
+        // Lo indexado que ya no está en la galería se da de baja. Sin rowOf(): la
+        // galería puede estar a la vista y su mapa por _ID se arma en el hilo principal
+        long[] sortedIds = new long[store.size()];
+        for (int row = 0; row < sortedIds.length; row++) sortedIds[row] = store.idAt(row);
+        Arrays.sort(sortedIds);
+        synchronized (this) {
+            for (long id : hashes.ids()) {
+                if (Arrays.binarySearch(sortedIds, id) < 0) hashes.remove(id);
+            }
+        }
+
+        int[] missing = new int[BATCH];
+        int missingCount = 0;
+        int computed = 0;
+        for (int row = 0; row < store.size(); row++) {
+            long id = store.idAt(row);
+            ExifIndex.Entry entry = exifIndex.get(id, store.dateModifiedAt(row), store.fileSizeAt(row));
+            if (entry != null && entry.hasHash) {
+                synchronized (this) {
+                    hashes.put(id, entry.hash);
+                }
+            } else {
+                // Sin hash vigente: si la foto cambió, el hash viejo ya no la representa
+                synchronized (this) {
+                    hashes.remove(id);
+                }
+                if (failed.contains(id)) continue;
+                missing[missingCount++] = row;
+                if (missingCount == BATCH) {
+                    computed += hashRows(store, missing, missingCount);
+                    missingCount = 0;
+                }
+            }
+        }
+        computed += hashRows(store, missing, missingCount);
+        return computed;
+    }
+
+    private int hashRows(PhotoStore store, int[] rows, int count) throws Exception {
+        if (count == 0) return 0;
+        // El hash va en la entrada EXIF: las que no tienen se leen antes
+        int[] unread = new int[count];
+        int unreadCount = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (exifIndex.get(store.idAt(row), store.dateModifiedAt(row), store.fileSizeAt(row)) == null) {
+                unread[unreadCount++] = row;
+            }
+        }
+        if (unreadCount > 0) loader.resolveExif(store, Arrays.copyOf(unread, unreadCount));
+
+        int computed = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                int row = rows[i];
+                long id = store.idAt(row);
+                long hash;
+                long start = HASH.start();
+                try {
+                    hash = hasher.hash(id);
+                } catch (IOException e) {
+                    HASH_ERRORS.increment();
+                    failed.add(id);
+                    e.printStackTrace();
+                    continue;
+                } finally {
+                    HASH.stop(start);
+                }
+                if (exifIndex.putHash(id, store.dateModifiedAt(row), store.fileSizeAt(row), hash)) {
+                    synchronized (this) {
+                        hashes.put(id, hash);
+                    }
+                    computed++;
+                }
+            }
+        } finally {
+            exifIndex.flush();
+        }
+        return computed;
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.fotoconmetadatos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lector mínimo de EXIF para JPEG. Recorre los marcadores hasta encontrar el
+ * segmento APP1 "Exif", lee solo IFD0 (DateTime y Orientation) y el IFD de GPS, y deja de
+ * leer en cuanto termina ese segmento o llega a SOS. No es thread-safe: cada
+ * hilo debe usar su propia instancia, que reutiliza el mismo búfer.
+ *
+ * También localiza la miniatura JPEG de IFD1, que queda dentro del búfer del
+ * lector hasta la siguiente lectura (ver {@link #getBuffer()}). Si se pide,
+ * sigue tras el Exif hasta el SOF y da el ancho y alto de la imagen: quien
+ * va a decodificarla se ahorra abrirla solo para conocer sus dimensiones.
+ */
+public final class ExifHeaderReader {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    // Un segmento ocupa como máximo 65535 bytes más su marcador
+    private static final int BUFFER_SIZE = 64 * 1024 + 4096;
+    private static final int CHUNK = 4096;
+    private static final int MAX_IFD_ENTRIES = 512;
+
+    /** Resultado reutilizable; latitud y longitud son NaN cuando no hay GPS. */
+    public static final class Result {
+        public String dateTime;
+        public double latitude;
+        public double longitude;
+        /** Valor EXIF de Orientation (1 a 8); 1 si no viene o no es válido. */
+        public int orientation;
+        /** Posición de la miniatura de IFD1 en {@link #getBuffer()}, o -1 si no hay. */
+        public int thumbnailOffset;
+        public int thumbnailLength;
+        /** Dimensiones del SOF, sin rotar; 0 si no se pidieron o no se encontró el SOF. */
+        public int width;
+        public int height;
+
+        public Result() {
+            reset();
+        }
+
+        public void reset() {
+            dateTime = "";
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            orientation = 1;
+            thumbnailOffset = -1;
+            thumbnailLength = 0;
+            width = 0;
+            height = 0;
+        }
+
+        public boolean hasLocation() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+    }
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private InputStream in;
+    private int pos;
+    private int limit;
+    private long bytesRead;
+    // La miniatura ya está en el búfer: no se puede compactar ni sobrescribir
+    private boolean pinned;
+
+    /**
+     * Lee los metadatos de {@code input} en {@code result}. Devuelve false si el
+     * flujo no es un JPEG; un JPEG con segmentos dañados devuelve true con los
+     * campos que se pudieron leer. No cierra el flujo.
+     */
+    public boolean read(InputStream input, Result result) throws IOException {
+        return read(input, result, false);
+    }
+
+    /**
+     * Como {@link #read(InputStream, Result)}; con {@code frameSize} no para
+     * en el Exif y sigue hasta el SOF para llenar {@link Result#width} y
+     * {@link Result#height}. Si el SOF no se alcanza sin mover la miniatura
+     * en el búfer, quedan en 0.
+     */
+    public boolean read(InputStream input, Result result, boolean frameSize) throws IOException {
+        result.reset();
+        in = input;
+        pos = 0;
+        limit = 0;
+        bytesRead = 0;
+        pinned = false;
+        boolean exifRead = false;
+        try {
+            if (!ensure(2) || (buf[0] & 0xFF) != 0xFF || (buf[1] & 0xFF) != MARKER_SOI) {
+                return false;
+            }
+            pos = 2;
+
+            while (ensure(2)) {
+                if ((buf[pos] & 0xFF) != 0xFF) {
+                    return true; // Flujo de marcadores roto
+                }
+                int marker = buf[pos + 1] & 0xFF;
+                pos += 2;
+                if (marker == 0xFF) {
+                    pos--; // Relleno entre marcadores
+                    continue;
+                }
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return true;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue; // Marcadores sin longitud
+                }
+                if (!ensure(2)) return true;
+                int length = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+                if (length < 2) return true;
+                pos += 2;
+                int payload = length - 2;
+
+                if (!exifRead && marker == MARKER_APP1 && payload >= 6 && ensure(6) && isExifHeader(pos)) {
+                    if (ensure(payload)) {
+                        parseTiff(pos + 6, payload - 6, result);
+                    } else {
+                        parseTiff(pos + 6, limit - pos - 6, result); // Segmento truncado
+                    }
+                    if (!frameSize) return true;
+                    exifRead = true;
+                    pinned = true;
+                } else if (frameSize && isStartOfFrame(marker)) {
+                    // Precisión (1 byte), alto y ancho (2 bytes cada uno)
+                    if (payload >= 5 && ensure(5)) {
+                        result.height = u16(pos + 1, false);
+                        result.width = u16(pos + 3, false);
+                    }
+                    return true;
+                }
+                if (!skip(payload)) return true;
+            }
+            return true;
+        } finally {
+            in = null;
+        }
+    }
+
+    /** Búfer interno; contiene la miniatura indicada en el último {@link Result}. */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /** Bytes consumidos del flujo en la última llamada a {@link #read}. */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    // SOF0 a SOF15, salvo DHT (C4), JPG (C8) y DAC (CC)
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private boolean isExifHeader(int at) {
+        return buf[at] == 'E' && buf[at + 1] == 'x' && buf[at + 2] == 'i' && buf[at + 3] == 'f'
+                && buf[at + 4] == 0 && buf[at + 5] == 0;
+    }
+
+    // Garantiza n bytes disponibles desde pos; lee por bloques para no hacer lecturas de 2 bytes
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) return true;
+        if (n > buf.length) return false;
+        if (pos + n > buf.length) {
+            if (pinned) return false;
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit - pos < n) {
+            int want = Math.min(buf.length - limit, Math.max(pos + n - limit, CHUNK));
+            int count = in.read(buf, limit, want);
+            if (count < 0) return false;
+            limit += count;
+            bytesRead += count;
+        }
+        return true;
+    }
+
+    private boolean skip(int n) throws IOException {
+        int buffered = Math.min(n, limit - pos);
+        pos += buffered;
+        long remaining = n - buffered;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (pinned) return false;
+                // Algunos flujos no soportan skip: se descarta leyendo
+                pos = 0;
+                limit = 0;
+                int count = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (count < 0) return false;
+                skipped = count;
+            }
+            remaining -= skipped;
+            bytesRead += skipped;
+        }
+        return true;
+    }
+
+    private void parseTiff(int start, int length, Result result) {
+        if (length < 8) return;
+        boolean little;
+        if (buf[start] == 'I' && buf[start + 1] == 'I') {
+            little = true;
+        } else if (buf[start] == 'M' && buf[start + 1] == 'M') {
+            little = false;
+        } else {
+            return;
+        }
+        if (u16(start + 2, little) != 42) return;
+
+        long ifd0 = u32(start + 4, little);
+        int gpsOffset = -1;
+        int entries = ifdEntryCount(start, length, ifd0, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = start + (int) ifd0 + 2 + i * 12;
+            int tag = u16(entry, little);
+            if (tag == TAG_DATETIME) {
+                result.dateTime = readAscii(start, length, entry, little);
+            } else if (tag == TAG_ORIENTATION && u16(entry + 2, little) == TYPE_SHORT) {
+                int value = u16(entry + 8, little);
+                if (value >= 1 && value <= 8) result.orientation = value;
+            } else if (tag == TAG_GPS_IFD && u16(entry + 2, little) == TYPE_LONG) {
+                long offset = u32(entry + 8, little);
+                if (offset < length) gpsOffset = (int) offset;
+            }
+        }
+        if (gpsOffset >= 0) {
+            parseGps(start, length, gpsOffset, little, result);
+        }
+
+        // El enlace al siguiente IFD solo es fiable si IFD0 cabe entero
+        int declared = ifd0 + 2 <= length ? u16(start + (int) ifd0, little) : 0;
+        if (entries == declared && declared > 0) {
+            long nextAt = ifd0 + 2 + declared * 12L;
+            if (nextAt + 4 <= length) {
+                parseThumbnail(start, length, u32(start + (int) nextAt, little), little, result);
+            }
+        }
+    }
+
+    private void parseThumbnail(int start, int length, long ifd1, boolean little, Result result) {
+        long offset = -1;
+        long size = -1;
+        int entries = ifdEntryCount(start, length, ifd1, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = start + (int) ifd1 + 2 + i * 12;
+            int tag = u16(entry, little);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = u32(entry + 8, little);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                size = u32(entry + 8, little);
+            }
+        }
+        if (offset > 0 && size > 0 && offset + size <= length) {
+            result.thumbnailOffset = start + (int) offset;
+            result.thumbnailLength = (int) size;
+        }
+    }
+
+    private void parseGps(int start, int length, int ifd, boolean little, Result result) {
+        char latRef = 0;
+        char lonRef = 0;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        int entries = ifdEntryCount(start, length, ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = start + ifd + 2 + i * 12;
+            int tag = u16(entry, little);
+            switch (tag) {
+                case TAG_GPS_LATITUDE_REF:
+                    latRef = (char) (buf[entry + 8] & 0xFF);
+                    break;
+                case TAG_GPS_LONGITUDE_REF:
+                    lonRef = (char) (buf[entry + 8] & 0xFF);
+                    break;
+                case TAG_GPS_LATITUDE:
+                    latitude = readDegrees(start, length, entry, little);
+                    break;
+                case TAG_GPS_LONGITUDE:
+                    longitude = readDegrees(start, length, entry, little);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if ((latRef != 'N' && latRef != 'S') || (lonRef != 'E' && lonRef != 'W')
+                || Double.isNaN(latitude) || Double.isNaN(longitude)
+                || latitude > 90 || longitude > 180) {
+            return;
+        }
+        result.latitude = latRef == 'S' ? -latitude : latitude;
+        result.longitude = lonRef == 'W' ? -longitude : longitude;
+    }
+
+    // Número de entradas que caben completas dentro del segmento
+    private int ifdEntryCount(int start, int length, long ifd, boolean little) {
+        if (ifd < 8 || ifd + 2 > length) return 0;
+        int count = u16(start + (int) ifd, little);
+        int fit = (int) ((length - ifd - 2) / 12);
+        return Math.min(Math.min(count, fit), MAX_IFD_ENTRIES);
+    }
+
+    private String readAscii(int start, int length, int entry, boolean little) {
+        if (u16(entry + 2, little) != TYPE_ASCII) return "";
+        long count = u32(entry + 4, little);
+        int at;
+        if (count <= 4) {
+            at = entry + 8;
+        } else {
+            long offset = u32(entry + 8, little);
+            if (offset + count > length) return "";
+            at = start + (int) offset;
+        }
+        int end = at;
+        while (end < at + count && buf[end] != 0) end++;
+        return new String(buf, at, end - at, StandardCharsets.US_ASCII);
+    }
+
+    // Grados, minutos y segundos como tres RATIONAL
+    private double readDegrees(int start, int length, int entry, boolean little) {
+        if (u16(entry + 2, little) != TYPE_RATIONAL || u32(entry + 4, little) != 3) {
+            return Double.NaN;
+        }
+        long offset = u32(entry + 8, little);
+        if (offset + 24 > length) return Double.NaN;
+        int at = start + (int) offset;
+        double value = 0;
+        double scale = 1;
+        for (int i = 0; i < 3; i++) {
+            long numerator = u32(at + i * 8, little);
+            long denominator = u32(at + i * 8 + 4, little);
+            if (denominator == 0) return Double.NaN;
+            value += (double) numerator / denominator / scale;
+            scale *= 60;
+        }
+        return value;
+    }
+
+    private int u16(int at, boolean little) {
+        int a = buf[at] & 0xFF;
+        int b = buf[at + 1] & 0xFF;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private long u32(int at, boolean little) {
+        long a = buf[at] & 0xFF;
+        long b = buf[at + 1] & 0xFF;
+        long c = buf[at + 2] & 0xFF;
+        long d = buf[at + 3] & 0xFF;
+        return little
+                ? (d << 24) | (c << 16) | (b << 8) | a
+                : (a << 24) | (b << 16) | (c << 8) | d;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.fotoconmetadatos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Índice persistente de metadatos EXIF, indexado por el _ID de MediaStore.
+ * Una entrada solo es válida si DATE_MODIFIED y SIZE coinciden con los de la imagen.
+ * Junto al EXIF guarda el hash perceptual de la foto cuando ya se calculó
+ * (ver {@link DuplicateIndex}).
+ *
+ * El archivo es un registro de solo anexado (altas y bajas); al cargarlo se
+ * reconstruye el mapa en memoria y, si hay demasiados registros obsoletos,
+ * se compacta reescribiéndolo en un temporal que luego se renombra.
+ */
+public class ExifIndex {
+
+    private static final int MAGIC = 0x45584958; // "EXIX"
+    // 2: con hash perceptual; los archivos de la versión 1 se leen y se reescriben
+    private static final int VERSION = 2;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    // Compactar cuando los registros obsoletos superan a los vivos
+    private static final int MIN_COMPACT_RECORDS = 256;
+
+    public static final class Entry {
+        public final long dateModified;
+        public final long size;
+        public final String dateTime;
+        /** {@link #dateTime} ya convertido, o {@link CaptureTime#UNKNOWN}. */
+        public final long captureTime;
+        public final double latitude;
+        public final double longitude;
+        /** Hash perceptual de la imagen; solo vale si {@link #hasHash}. */
+        public final long hash;
+        public final boolean hasHash;
+
+        Entry(long dateModified, long size, String dateTime, double latitude, double longitude) {
+            this(dateModified, size, dateTime, latitude, longitude, 0, false);
+        }
+
+        private Entry(long dateModified, long size, String dateTime, double latitude, double longitude,
+                      long hash, boolean hasHash) {
+            this.dateModified = dateModified;
+            this.size = size;
+            this.dateTime = dateTime;
+            this.captureTime = CaptureTime.parseExif(dateTime);
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.hash = hash;
+            this.hasHash = hasHash;
+        }
+
+        public boolean hasLocation() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+    }
+
+    private final File file;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final List<Long> pendingDeletes = new ArrayList<>();
+    private final Map<Long, Entry> pendingPuts = new HashMap<>();
+    private int recordCount;
+    private boolean loaded;
+    private boolean rewriteNeeded;
+
+    public ExifIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Lee el archivo del índice. Es idempotente; un archivo dañado o truncado
+     * conserva los registros completos y se reescribe en el siguiente flush().
+     */
+    public synchronized void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                rewriteNeeded = true;
+                return;
+            }
+            // Un archivo viejo no admite registros nuevos al final: se reescribe entero
+            if (version < VERSION) rewriteNeeded = true;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long id = in.readLong();
+                if (type == RECORD_PUT) {
+                    entries.put(id, readEntry(in, version));
+                } else if (type == RECORD_DELETE) {
+                    entries.remove(id);
+                } else {
+                    rewriteNeeded = true;
+                    break;
+                }
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            // Último registro incompleto (p. ej. el proceso murió escribiendo)
+            rewriteNeeded = true;
+        } catch (IOException e) {
+            rewriteNeeded = true;
+        }
+    }
+
+    /** Devuelve la entrada de {@code id} solo si sigue vigente para esa fecha y tamaño. */
+    public synchronized Entry get(long id, long dateModified, long size) {
+        load();
+        Entry entry = entries.get(id);
+        if (entry == null || entry.dateModified != dateModified || entry.size != size) {
+            return null;
+        }
+        return entry;
+    }
+
+    /** Guarda los metadatos ya leídos; usar {@link Double#NaN} cuando no hay GPS. */
+    public synchronized Entry put(long id, long dateModified, long size,
+                                  String dateTime, double latitude, double longitude) {
+        load();
+        Entry entry = new Entry(dateModified, size, dateTime != null ? dateTime : "",
+                latitude, longitude);
+        entries.put(id, entry);
+        pendingPuts.put(id, entry);
+        return entry;
+    }
+
+    /**
+     * Guarda el hash perceptual de una foto cuyo EXIF ya está en el índice.
+     * Devuelve false si no hay entrada vigente para esa fecha y tamaño.
+     */
+    public synchronized boolean putHash(long id, long dateModified, long size, long hash) {
+        Entry entry = get(id, dateModified, size);
+        if (entry == null) return false;
+        Entry hashed = new Entry(entry.dateModified, entry.size, entry.dateTime,
+                entry.latitude, entry.longitude, hash, true);
+        entries.put(id, hashed);
+        pendingPuts.put(id, hashed);
+        return true;
+    }
+
+    /** Elimina las entradas cuyo id ya no está en MediaStore. Devuelve cuántas se quitaron. */
+    public synchronized int retainOnly(Set<Long> liveIds) {
+        load();
+        int removed = 0;
+        Iterator<Long> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            Long id = it.next();
+            if (!liveIds.contains(id)) {
+                it.remove();
+                pendingPuts.remove(id);
+                pendingDeletes.add(id);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Igual que {@link #retainOnly(Set)} con los ids ordenados, sin crear un Long por foto. */
+    public synchronized int retainOnly(long[] sortedLiveIds) {
+        load();
+        int removed = 0;
+        Iterator<Long> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            Long id = it.next();
+            if (Arrays.binarySearch(sortedLiveIds, id) < 0) {
+                it.remove();
+                pendingPuts.remove(id);
+                pendingDeletes.add(id);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    /** Escribe los cambios pendientes al final del archivo, o lo compacta si hace falta. */
+    public synchronized void flush() throws IOException {
+        load();
+        int pending = pendingPuts.size() + pendingDeletes.size();
+        int total = recordCount + pending;
+        boolean compact = rewriteNeeded
+                || (total > MIN_COMPACT_RECORDS && total > 2 * entries.size());
+
+        if (compact) {
+            rewrite();
+        } else if (pending > 0) {
+            append();
+        }
+        pendingPuts.clear();
+        pendingDeletes.clear();
+    }
+
+    private void append() throws IOException {
+        boolean fresh = !file.exists() || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (Long id : pendingDeletes) {
+                out.writeByte(RECORD_DELETE);
+                out.writeLong(id);
+            }
+            for (Map.Entry<Long, Entry> e : pendingPuts.entrySet()) {
+                writePut(out, e.getKey(), e.getValue());
+            }
+        }
+        recordCount += pendingPuts.size() + pendingDeletes.size();
+    }
+
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+                writePut(out, e.getKey(), e.getValue());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("No se pudo reemplazar " + file);
+        }
+        recordCount = entries.size();
+        rewriteNeeded = false;
+    }
+
+    private static void writePut(DataOutputStream out, long id, Entry entry) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeLong(id);
+        out.writeLong(entry.dateModified);
+        out.writeLong(entry.size);
+        out.writeUTF(entry.dateTime);
+        out.writeDouble(entry.latitude);
+        out.writeDouble(entry.longitude);
+        out.writeBoolean(entry.hasHash);
+        out.writeLong(entry.hash);
+    }
+
+    private static Entry readEntry(DataInputStream in, int version) throws IOException {
+        long dateModified = in.readLong();
+        long size = in.readLong();
+        String dateTime = in.readUTF();
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        if (version < 2) return new Entry(dateModified, size, dateTime, latitude, longitude);
+        boolean hasHash = in.readBoolean();
+        long hash = in.readLong();
+        return new Entry(dateModified, size, dateTime, latitude, longitude, hash, hasHash);
+    }
+}
@@ -0,0 +1,646 @@
+package com.example.fotoconmetadatos;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * Reescribe el segmento APP1 "Exif" de un JPEG sin decodificar ni copiar la imagen
+ * a un temporal. Solo se leen los marcadores del encabezado y el APP1 original;
+ * el resto del archivo se deja en su lugar o se transfiere tal cual entre canales.
+ *
+ * Se conservan los IFD existentes (IFD0, Exif, Interop, GPS y la miniatura de IFD1)
+ * con su orden de bytes; solo cambian DateTime y las etiquetas de latitud/longitud,
+ * o se quita el IFD GPS entero con {@link #removeLocation}. En ese caso también
+ * se quitan los demás APP1 (XMP, un segundo Exif), que pueden repetir el GPS.
+ */
+public final class ExifSpliceWriter {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP15 = 0xEF;
+
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_INTEROP_IFD = 0xA005;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_GPS_VERSION = 0x0000;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4};
+
+    private static final int MAX_SEGMENT = 0xFFFF;
+    private static final int SHIFT_BUFFER_SIZE = 1 << 20;
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_SEGMENT = new byte[0];
+    private static final long[][] NO_RANGES = new long[0][];
+
+    private String dateTime;
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+    private boolean removeLocation;
+
+    public ExifSpliceWriter setDateTime(String dateTime) {
+        this.dateTime = dateTime;
+        return this;
+    }
+
+    public ExifSpliceWriter setLatLong(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        return this;
+    }
+
+    /**
+     * Quita el IFD GPS; el resto del EXIF se conserva. Los demás APP1 se
+     * quitan enteros: el XMP puede llevar exif:GPSLatitude y exif:GPSLongitude,
+     * y un segundo Exif su propio IFD GPS. Anula {@link #setLatLong}.
+     */
+    public ExifSpliceWriter removeLocation() {
+        this.removeLocation = true;
+        return this;
+    }
+
+    /**
+     * Reescribe el JPEG sobre sí mismo. {@code in} y {@code out} pueden ser el mismo
+     * canal o dos canales del mismo descriptor abierto en modo "rw". Si el APP1 nuevo
+     * cabe en el espacio del anterior se rellena y solo se escribe el encabezado;
+     * si crece, la cola del archivo se desplaza de atrás hacia adelante en bloques.
+     * Los APP1 que quita {@link #removeLocation} se vacían con ceros en su sitio.
+     */
+    public void rewriteInPlace(FileChannel in, FileChannel out) throws IOException {
+        Layout layout = scan(in, removeLocation);
+        for (long[] range : layout.dropped) {
+            // Marcador y longitud se quedan: sin contenido es un APP1 que nadie reconoce
+            writeFully(out, ByteBuffer.allocate((int) (range[1] - range[0] - 4)), range[0] + 4);
+        }
+        int oldLength = (int) (layout.resumeAt - layout.insertAt);
+        byte[] segment = buildSegment(layout.tiff, oldLength);
+        long delta = segment.length - oldLength;
+
+        if (delta > 0) {
+            shiftTail(in, out, layout.resumeAt, in.size(), delta);
+        }
+        writeFully(out, ByteBuffer.wrap(segment), layout.insertAt);
+        out.force(false);
+    }
+
+    /** Escribe en {@code out} una copia del JPEG con el APP1 reconstruido. */
+    public void copyTo(FileChannel in, WritableByteChannel out) throws IOException {
+        prepareCopy(in).writeTo(in, out);
+    }
+
+    /**
+     * Lee el encabezado de {@code in} y arma el APP1 nuevo sin copiar nada
+     * todavía, para conocer el tamaño de la copia antes de escribirla. Si solo
+     * se quita la ubicación y la foto no la tiene en ningún lado, la copia es
+     * el archivo tal cual.
+     */
+    public Splice prepareCopy(FileChannel in) throws IOException {
+        Layout layout = scan(in, removeLocation);
+        long size = in.size();
+        long[][] dropped = layout.dropped.toArray(NO_RANGES);
+        if (onlyRemovesLocation() && !hasLocation(layout.tiff)) {
+            // El Exif se copia tal cual; solo se quitan los otros APP1, si hay
+            return new Splice(new long[]{size, size}, NO_SEGMENT, dropped, size);
+        }
+        return new Splice(new long[]{layout.insertAt, layout.resumeAt}, buildSegment(layout.tiff, 0),
+                dropped, size);
+    }
+
+    /**
+     * Copia de un JPEG preparada con {@link #prepareCopy}: el archivo original
+     * con el APP1 viejo reemplazado por el nuevo y sin los APP1 que se quitan.
+     * Solo guarda ese segmento; la imagen se lee del canal al escribir.
+     */
+    public static final class Splice {
+        // [inicio, fin) de cada tramo del original que no se copia, en orden
+        private final long[][] cuts;
+        // El APP1 nuevo va en lugar de este tramo
+        private final long[] replaced;
+        private final byte[] segment;
+        private final long sourceSize;
+
+        private Splice(long[] replaced, byte[] segment, long[][] dropped, long sourceSize) {
+            this.cuts = Arrays.copyOf(dropped, dropped.length + 1);
+            this.cuts[dropped.length] = replaced;
+            Arrays.sort(this.cuts, Comparator.comparingLong((long[] range) -> range[0])
+                    .thenComparingLong(range -> range[1]));
+            this.replaced = replaced;
+            this.segment = segment;
+            this.sourceSize = sourceSize;
+        }
+
+        /** Bytes de la copia. */
+        public long length() {
+            long length = sourceSize + segment.length;
+            for (long[] cut : cuts) length -= cut[1] - cut[0];
+            return length;
+        }
+
+        /** Pasa la copia por {@code checksum} sin escribirla, p. ej. el CRC de una entrada ZIP. */
+        public void update(FileChannel in, Checksum checksum) throws IOException {
+            byte[] chunk = new byte[CHECKSUM_BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long from = 0;
+            for (long[] cut : cuts) {
+                updateRange(in, from, cut[0] - from, checksum, buffer);
+                if (cut == replaced) checksum.update(segment, 0, segment.length);
+                from = cut[1];
+            }
+            updateRange(in, from, sourceSize - from, checksum, buffer);
+        }
+
+        /** Escribe la copia; la imagen pasa entre canales sin decodificar. */
+        public void writeTo(FileChannel in, WritableByteChannel out) throws IOException {
+            long from = 0;
+            for (long[] cut : cuts) {
+                transferFully(in, from, cut[0] - from, out);
+                if (cut == replaced) {
+                    ByteBuffer buffer = ByteBuffer.wrap(segment);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                from = cut[1];
+            }
+            transferFully(in, from, sourceSize - from, out);
+        }
+
+        private static void updateRange(FileChannel in, long position, long count, Checksum checksum,
+                                         ByteBuffer buffer) throws IOException {
+            long done = 0;
+            while (done < count) {
+                int length = (int) Math.min(buffer.capacity(), count - done);
+                readFully(in, buffer, position + done, length);
+                checksum.update(buffer.array(), 0, length);
+                done += length;
+            }
+        }
+    }
+
+    private boolean onlyRemovesLocation() {
+        return removeLocation && dateTime == null;
+    }
+
+    // Un EXIF ilegible o un puntero GPS roto cuentan como ubicación: se reconstruyen sin ella
+    private static boolean hasLocation(byte[] tiffBytes) {
+        if (tiffBytes == null) return false;
+        Tiff tiff = Tiff.parse(tiffBytes);
+        return tiff == null || tiff.hadGpsPointer;
+    }
+
+    // ---- Lectura del encabezado ----
+
+    private static final class Layout {
+        long insertAt;   // Dónde va el APP1 nuevo
+        long resumeAt;   // Desde dónde se copia el resto sin cambios
+        byte[] tiff;     // TIFF del APP1 original, o null
+        final List<long[]> dropped = new ArrayList<>(); // [inicio, fin) de los APP1 que se quitan
+    }
+
+    // Con dropOtherApp1 sigue hasta el SOS y anota todos los APP1 salvo el primer Exif
+    private static Layout scan(FileChannel in, boolean dropOtherApp1) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(in, header, 0, 2);
+        if ((header.get(0) & 0xFF) != 0xFF || (header.get(1) & 0xFF) != MARKER_SOI) {
+            throw new IOException("No es un JPEG");
+        }
+
+        Layout layout = new Layout();
+        layout.insertAt = 2;
+        long position = 2;
+        long size = in.size();
+
+        while (position + 4 <= size) {
+            readFully(in, header, position, 4);
+            if ((header.get(0) & 0xFF) != 0xFF) {
+                throw new IOException("Marcador JPEG inválido en " + position);
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == MARKER_SOS || marker < MARKER_APP0 || marker > MARKER_APP15) {
+                break; // Fin de los segmentos de aplicación
+            }
+            int length = ((header.get(2) & 0xFF) << 8) | (header.get(3) & 0xFF);
+            if (length < 2) {
+                throw new IOException("Longitud de segmento inválida en " + position);
+            }
+            long next = position + 2 + length;
+
+            if (marker == MARKER_APP0 && layout.insertAt == position) {
+                layout.insertAt = next; // JFIF debe seguir siendo el primer segmento
+            } else if (marker == MARKER_APP1) {
+                byte[] tiff = layout.tiff == null ? readExifTiff(in, position, length) : null;
+                if (tiff != null) {
+                    layout.insertAt = position;
+                    layout.resumeAt = next;
+                    layout.tiff = tiff;
+                    if (!dropOtherApp1) return layout;
+                } else if (dropOtherApp1) {
+                    // XMP, un segundo Exif o cualquier otro: no se revisan, se quitan
+                    layout.dropped.add(new long[]{position, next});
+                }
+            }
+            position = next;
+        }
+
+        if (layout.tiff == null) layout.resumeAt = layout.insertAt;
+        return layout;
+    }
+
+    // El TIFF de un APP1 "Exif\0\0", o null si el segmento es otra cosa
+    private static byte[] readExifTiff(FileChannel in, long position, int length) throws IOException {
+        if (length < 8) return null;
+        ByteBuffer payload = ByteBuffer.allocate(length - 2);
+        readFully(in, payload, position + 4, length - 2);
+        byte[] bytes = payload.array();
+        if (bytes[0] != 'E' || bytes[1] != 'x' || bytes[2] != 'i' || bytes[3] != 'f'
+                || bytes[4] != 0 || bytes[5] != 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(bytes, 6, bytes.length);
+    }
+
+    // ---- Construcción del APP1 ----
+
+    private byte[] buildSegment(byte[] oldTiff, int minLength) throws IOException {
+        Tiff tiff = oldTiff != null ? Tiff.parse(oldTiff) : null;
+        if (tiff == null) {
+            tiff = new Tiff(ByteOrder.BIG_ENDIAN);
+        }
+        applyEdits(tiff);
+
+        byte[] body = tiff.serialize();
+        int length = 4 + 6 + body.length;
+        if (length - 2 > MAX_SEGMENT) {
+            throw new IOException("El segmento EXIF excede 64 KB");
+        }
+        // Con relleno se reutiliza el hueco del APP1 anterior sin mover la imagen
+        if (length < minLength && minLength - 2 <= MAX_SEGMENT) {
+            length = minLength;
+        }
+
+        ByteBuffer segment = ByteBuffer.allocate(length);
+        segment.put((byte) 0xFF).put((byte) MARKER_APP1);
+        segment.putShort((short) (length - 2));
+        segment.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+        segment.put(body);
+        return segment.array();
+    }
+
+    private void applyEdits(Tiff tiff) {
+        if (dateTime != null) {
+            tiff.ifd0.put(ascii(TAG_DATETIME, dateTime));
+        }
+        if (removeLocation) {
+            tiff.gps = null;
+        } else if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+            Ifd gps = tiff.gps != null ? tiff.gps : new Ifd();
+            if (gps.get(TAG_GPS_VERSION) == null) {
+                gps.put(new Entry(TAG_GPS_VERSION, TYPE_BYTE, 4, new byte[]{2, 2, 0, 0}));
+            }
+            gps.put(ascii(TAG_GPS_LATITUDE_REF, latitude >= 0 ? "N" : "S"));
+            gps.put(degrees(TAG_GPS_LATITUDE, Math.abs(latitude), tiff.order));
+            gps.put(ascii(TAG_GPS_LONGITUDE_REF, longitude >= 0 ? "E" : "W"));
+            gps.put(degrees(TAG_GPS_LONGITUDE, Math.abs(longitude), tiff.order));
+            tiff.gps = gps;
+        }
+    }
+
+    private static Entry ascii(int tag, String value) {
+        byte[] text = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[text.length + 1];
+        System.arraycopy(text, 0, bytes, 0, text.length);
+        return new Entry(tag, TYPE_ASCII, bytes.length, bytes);
+    }
+
+    // Grados/minutos/segundos con la misma precisión que ExifInterface.setLatLong
+    private static Entry degrees(int tag, double value, ByteOrder order) {
+        int degrees = (int) value;
+        double minutesFull = (value - degrees) * 60;
+        int minutes = (int) minutesFull;
+        long seconds = Math.round((minutesFull - minutes) * 60 * 10000);
+        ByteBuffer bytes = ByteBuffer.allocate(24).order(order);
+        bytes.putInt(degrees).putInt(1);
+        bytes.putInt(minutes).putInt(1);
+        bytes.putInt((int) seconds).putInt(10000);
+        return new Entry(tag, TYPE_RATIONAL, 3, bytes.array());
+    }
+
+    // ---- Modelo TIFF mínimo ----
+
+    private static final class Entry {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value; // En el orden de bytes del TIFF
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    private static final class Ifd {
+        final List<Entry> entries = new ArrayList<>();
+
+        Entry get(int tag) {
+            for (Entry entry : entries) {
+                if (entry.tag == tag) return entry;
+            }
+            return null;
+        }
+
+        // Mantiene las entradas ordenadas por etiqueta, como exige TIFF
+        void put(Entry entry) {
+            for (int i = 0; i < entries.size(); i++) {
+                int tag = entries.get(i).tag;
+                if (tag == entry.tag) {
+                    entries.set(i, entry);
+                    return;
+                }
+                if (tag > entry.tag) {
+                    entries.add(i, entry);
+                    return;
+                }
+            }
+            entries.add(entry);
+        }
+
+        void remove(int tag) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).tag == tag) {
+                    entries.remove(i);
+                    return;
+                }
+            }
+        }
+
+        int size() {
+            int size = 2 + entries.size() * 12 + 4;
+            for (Entry entry : entries) {
+                if (entry.value.length > 4) size += (entry.value.length + 1) & ~1;
+            }
+            return size;
+        }
+    }
+
+    private static final class Tiff {
+        final ByteOrder order;
+        Ifd ifd0 = new Ifd();
+        Ifd exif;
+        Ifd interop;
+        Ifd gps;
+        Ifd ifd1;
+        byte[] thumbnail;
+        boolean hadGpsPointer;
+
+        Tiff(ByteOrder order) {
+            this.order = order;
+        }
+
+        static Tiff parse(byte[] data) {
+            if (data.length < 8) return null;
+            ByteOrder order;
+            if (data[0] == 'I' && data[1] == 'I') {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (data[0] == 'M' && data[1] == 'M') {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+            if ((buffer.getShort(2) & 0xFFFF) != 42) return null;
+
+            Tiff tiff = new Tiff(order);
+            long ifd0Offset = buffer.getInt(4) & 0xFFFFFFFFL;
+            long[] next = new long[1];
+            tiff.ifd0 = readIfd(buffer, ifd0Offset, next);
+            if (tiff.ifd0 == null) return null;
+
+            tiff.exif = readPointer(buffer, tiff.ifd0, TAG_EXIF_IFD);
+            tiff.hadGpsPointer = tiff.ifd0.get(TAG_GPS_IFD) != null;
+            tiff.gps = readPointer(buffer, tiff.ifd0, TAG_GPS_IFD);
+            if (tiff.exif != null) {
+                tiff.interop = readPointer(buffer, tiff.exif, TAG_INTEROP_IFD);
+            }
+
+            // IFD1 solo se conserva si su miniatura es JPEG y cabe en el segmento
+            if (next[0] != 0 && next[0] != ifd0Offset) {
+                Ifd ifd1 = readIfd(buffer, next[0], new long[1]);
+                if (ifd1 != null && ifd1.get(TAG_STRIP_OFFSETS) == null) {
+                    long offset = longValue(buffer, ifd1.get(TAG_THUMBNAIL_OFFSET));
+                    long length = longValue(buffer, ifd1.get(TAG_THUMBNAIL_LENGTH));
+                    if (offset > 0 && length > 0 && offset + length <= data.length) {
+                        tiff.thumbnail = new byte[(int) length];
+                        System.arraycopy(data, (int) offset, tiff.thumbnail, 0, (int) length);
+                        tiff.ifd1 = ifd1;
+                    }
+                }
+            }
+            return tiff;
+        }
+
+        private static Ifd readPointer(ByteBuffer buffer, Ifd parent, int tag) {
+            Entry pointer = parent.get(tag);
+            parent.remove(tag);
+            long offset = longValue(buffer, pointer);
+            if (offset <= 0) return null;
+            return readIfd(buffer, offset, new long[1]);
+        }
+
+        private static long longValue(ByteBuffer buffer, Entry entry) {
+            if (entry == null || entry.count != 1) return -1;
+            ByteBuffer value = ByteBuffer.wrap(entry.value).order(buffer.order());
+            if (entry.value.length == 4) return value.getInt(0) & 0xFFFFFFFFL;
+            if (entry.value.length == 2) return value.getShort(0) & 0xFFFF;
+            return -1;
+        }
+
+        // Las entradas fuera de rango o de tipo desconocido se descartan
+        private static Ifd readIfd(ByteBuffer buffer, long offset, long[] next) {
+            int limit = buffer.limit();
+            if (offset < 8 || offset + 2 > limit) return null;
+            int count = buffer.getShort((int) offset) & 0xFFFF;
+            if (offset + 2 + count * 12L > limit) return null;
+
+            Ifd ifd = new Ifd();
+            for (int i = 0; i < count; i++) {
+                int at = (int) offset + 2 + i * 12;
+                int tag = buffer.getShort(at) & 0xFFFF;
+                int type = buffer.getShort(at + 2) & 0xFFFF;
+                long valueCount = buffer.getInt(at + 4) & 0xFFFFFFFFL;
+                if (type == 0 || type >= TYPE_SIZES.length) continue;
+                long byteCount = valueCount * TYPE_SIZES[type];
+                if (byteCount > limit) continue;
+
+                int valueAt;
+                if (byteCount <= 4) {
+                    valueAt = at + 8;
+                } else {
+                    long valueOffset = buffer.getInt(at + 8) & 0xFFFFFFFFL;
+                    if (valueOffset + byteCount > limit) continue;
+                    valueAt = (int) valueOffset;
+                }
+                byte[] value = new byte[(int) byteCount];
+                for (int b = 0; b < value.length; b++) {
+                    value[b] = buffer.get(valueAt + b);
+                }
+                ifd.put(new Entry(tag, type, (int) valueCount, value));
+            }
+            long nextAt = offset + 2 + count * 12L;
+            next[0] = nextAt + 4 <= limit ? buffer.getInt((int) nextAt) & 0xFFFFFFFFL : 0;
+            return ifd;
+        }
+
+        byte[] serialize() {
+            // Primero se calculan los desplazamientos; los tamaños no dependen de ellos
+            pointer(ifd0, TAG_EXIF_IFD, exif);
+            pointer(ifd0, TAG_GPS_IFD, gps);
+            if (exif != null) pointer(exif, TAG_INTEROP_IFD, interop);
+            if (ifd1 != null) {
+                ifd1.put(longEntry(TAG_THUMBNAIL_OFFSET, 0));
+                ifd1.put(longEntry(TAG_THUMBNAIL_LENGTH, thumbnail.length));
+            }
+
+            int ifd0At = 8;
+            int exifAt = ifd0At + ifd0.size();
+            int interopAt = exifAt + (exif != null ? exif.size() : 0);
+            int gpsAt = interopAt + (interop != null ? interop.size() : 0);
+            int ifd1At = gpsAt + (gps != null ? gps.size() : 0);
+            int thumbnailAt = ifd1At + (ifd1 != null ? ifd1.size() : 0);
+            int total = thumbnailAt + (thumbnail != null && ifd1 != null ? thumbnail.length : 0);
+
+            setLong(ifd0, TAG_EXIF_IFD, exifAt);
+            setLong(ifd0, TAG_GPS_IFD, gpsAt);
+            if (exif != null) setLong(exif, TAG_INTEROP_IFD, interopAt);
+            if (ifd1 != null) setLong(ifd1, TAG_THUMBNAIL_OFFSET, thumbnailAt);
+
+            ByteBuffer out = ByteBuffer.allocate(total).order(order);
+            out.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            out.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            out.putShort((short) 42);
+            out.putInt(ifd0At);
+
+            writeIfd(out, ifd0, ifd0At, ifd1 != null ? ifd1At : 0);
+            if (exif != null) writeIfd(out, exif, exifAt, 0);
+            if (interop != null) writeIfd(out, interop, interopAt, 0);
+            if (gps != null) writeIfd(out, gps, gpsAt, 0);
+            if (ifd1 != null) {
+                writeIfd(out, ifd1, ifd1At, 0);
+                out.position(thumbnailAt);
+                out.put(thumbnail);
+            }
+            return out.array();
+        }
+
+        private void pointer(Ifd parent, int tag, Ifd child) {
+            if (child != null) {
+                parent.put(longEntry(tag, 0));
+            } else {
+                parent.remove(tag);
+            }
+        }
+
+        private void setLong(Ifd ifd, int tag, int value) {
+            if (ifd.get(tag) != null) ifd.put(longEntry(tag, value));
+        }
+
+        private Entry longEntry(int tag, int value) {
+            return new Entry(tag, TYPE_LONG, 1,
+                    ByteBuffer.allocate(4).order(order).putInt(value).array());
+        }
+
+        private static void writeIfd(ByteBuffer out, Ifd ifd, int at, int next) {
+            out.position(at);
+            out.putShort((short) ifd.entries.size());
+            int dataAt = at + 2 + ifd.entries.size() * 12 + 4;
+            for (Entry entry : ifd.entries) {
+                out.putShort((short) entry.tag);
+                out.putShort((short) entry.type);
+                out.putInt(entry.count);
+                if (entry.value.length <= 4) {
+                    out.put(entry.value);
+                    for (int i = entry.value.length; i < 4; i++) out.put((byte) 0);
+                } else {
+                    out.putInt(dataAt);
+                    int entryEnd = out.position();
+                    out.position(dataAt);
+                    out.put(entry.value);
+                    dataAt += (entry.value.length + 1) & ~1;
+                    out.position(entryEnd);
+                }
+            }
+            out.putInt(next);
+        }
+    }
+
+    // ---- E/S sobre canales ----
+
+    // Mueve [from, end) hacia adelante en delta bytes, empezando por el final
+    private static void shiftTail(FileChannel in, FileChannel out, long from, long end, long delta)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(SHIFT_BUFFER_SIZE,
+                Math.max(end - from, 1)));
+        long chunkEnd = end;
+        while (chunkEnd > from) {
+            long chunkStart = Math.max(from, chunkEnd - buffer.capacity());
+            int length = (int) (chunkEnd - chunkStart);
+            readFully(in, buffer, chunkStart, length);
+            buffer.flip();
+            writeFully(out, buffer, chunkStart + delta);
+            chunkEnd = chunkStart;
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int count = in.read(buffer, position + buffer.position());
+            if (count < 0) throw new EOFException("JPEG truncado");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position)
+            throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            at += out.write(buffer, at);
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count,
+                                      WritableByteChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long sent = in.transferTo(position + done, count - done, out);
+            if (sent <= 0) throw new EOFException("JPEG truncado");
+            done += sent;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.fotoconmetadatos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carga de la galería sobre una {@link MediaLibrary}: {@link #snapshot} arma
+ * el {@link PhotoStore} de toda la biblioteca con una sola consulta y
+ * {@link #resolveExif} lee los EXIF de unas pocas filas en paralelo con un pool
+ * acotado, así que solo se toca el archivo de las fotos que se van a mostrar.
+ * Los métodos hacen E/S: llamarlos desde un hilo de fondo.
+ *
+ * Solo se leen los EXIF de imágenes nuevas o modificadas; el resto sale del
+ * {@link ExifIndex} sin tocar el archivo de la imagen. No depende de Android:
+ * {@link PhotoLoader} le da MediaStore y las pruebas una biblioteca sintética.
+ */
+public class GalleryLoader implements PagedPhotoSource.PageLoader {
+
+    private static final Metrics.Timer SNAPSHOT = Metrics.timer("gallery.snapshot");
+    private static final Metrics.Timer RESOLVE = Metrics.timer("exif.resolve_rows");
+    private static final Metrics.Timer EXIF_READ = Metrics.timer("exif.read");
+    private static final Metrics.Histogram EXIF_BYTES = Metrics.histogram("exif.header_bytes");
+    private static final Metrics.Counter INDEX_HITS = Metrics.counter("exif.index_hits");
+    private static final Metrics.Counter READ_ERRORS = Metrics.counter("exif.read_errors");
+
+    /** De dónde salen las filas y los bytes de cada imagen. */
+    public interface MediaLibrary {
+        /** Huella que cambia con cualquier alta, baja o cambio; null si no hay forma de saberlo. */
+        String fingerprint();
+
+        /**
+         * Todas las imágenes en orden de pantalla (DATE_ADDED DESC, _ID DESC),
+         * con el EXIF sin resolver.
+         */
+        PhotoStore.Builder query() throws IOException;
+
+        InputStream open(long id) throws IOException;
+
+        /** Fecha y GPS de formatos distintos de JPEG (PNG, HEIF, WebP...). */
+        void readOtherFormat(long id, ExifHeaderReader.Result result);
+    }
+
+    private final MediaLibrary library;
+    private final ExifIndex exifIndex;
+    private final ExecutorService exifExecutor;
+    private final ThreadLocal<ExifHeaderReader> exifReader =
+            ThreadLocal.withInitial(ExifHeaderReader::new);
+    private final ThreadLocal<ExifHeaderReader.Result> exifResult =
+            ThreadLocal.withInitial(ExifHeaderReader.Result::new);
+    private final AtomicLong headerBytesRead = new AtomicLong();
+
+    public GalleryLoader(MediaLibrary library, ExifIndex exifIndex, ThreadFactory threads) {
+        this.library = library;
+        this.exifIndex = exifIndex;
+        int workers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.exifExecutor = Executors.newFixedThreadPool(workers, threads);
+    }
+
+    public void shutdown() {
+        exifExecutor.shutdownNow();
+    }
+
+    /** Bytes de JPEG consumidos por el lector de encabezados desde que se creó. */
+    public long getHeaderBytesRead() {
+        return headerBytesRead.get();
+    }
+
+    /**
+     * Arma la galería en una sola pasada, en orden de pantalla. Los EXIF ya
+     * indexados se copian en el acto; el resto queda sin resolver hasta que su
+     * página se muestre. Si la huella de la biblioteca no cambió desde
+     * {@code previous}, lo devuelve sin consultar nada. De paso quita del índice
+     * EXIF las fotos que ya no existen.
+     */
+    @Override
+    public PhotoStore snapshot(PhotoStore previous) throws IOException {
+        String fingerprint = library.fingerprint();
+        if (previous != null && previous.isCurrent(fingerprint)) {
+            return previous;
+        }
+
+        long start = SNAPSHOT.start();
+        try {
+            PhotoStore store = library.query().build(fingerprint);
+            long[] sortedIds = new long[store.size()];
+            int hits = 0;
+            for (int row = 0; row < sortedIds.length; row++) {
+                long id = store.idAt(row);
+                sortedIds[row] = id;
+                ExifIndex.Entry cached = exifIndex.get(id, store.dateModifiedAt(row), store.fileSizeAt(row));
+                if (cached != null) {
+                    store.setExif(row, cached.captureTime, cached.latitude, cached.longitude);
+                    hits++;
+                }
+            }
+            INDEX_HITS.add(hits);
+            Arrays.sort(sortedIds);
+            if (exifIndex.retainOnly(sortedIds) > 0) {
+                exifIndex.flush();
+            }
+            return store;
+        } finally {
+            SNAPSHOT.stop(start);
+        }
+    }
+
+    /**
+     * Lee en paralelo el EXIF de esas filas de {@code store} y lo guarda en el
+     * índice. Devuelve las entradas en el mismo orden que {@code rows}.
+     */
+    @Override
+    public ExifIndex.Entry[] resolveExif(PhotoStore store, int[] rows) throws Exception {
+        long start = RESOLVE.start();
+        try {
+            return resolveInParallel(store, rows);
+        } finally {
+            RESOLVE.stop(start);
+        }
+    }
+
+    private ExifIndex.Entry[] resolveInParallel(PhotoStore store, int[] rows) throws Exception {
+        List<Future<ExifIndex.Entry>> reads = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            long id = store.idAt(row);
+            long dateModified = store.dateModifiedAt(row);
+            long size = store.fileSizeAt(row);
+            reads.add(exifExecutor.submit(() -> readExif(id, dateModified, size)));
+        }
+
+        ExifIndex.Entry[] entries = new ExifIndex.Entry[rows.length];
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                entries[i] = reads.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<ExifIndex.Entry> read : reads) {
+                read.cancel(true);
+            }
+            throw e;
+        } finally {
+            try {
+                exifIndex.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return entries;
+    }
+
+    private ExifIndex.Entry readExif(long id, long dateModified, long size) {
+        // Otro hilo pudo haberla leído mientras tanto
+        ExifIndex.Entry cached = exifIndex.get(id, dateModified, size);
+        if (cached != null) {
+            INDEX_HITS.increment();
+            return cached;
+        }
+
+        long start = EXIF_READ.start();
+        try {
+            return readExifFromFile(id, dateModified, size);
+        } finally {
+            EXIF_READ.stop(start);
+        }
+    }
+
+    private ExifIndex.Entry readExifFromFile(long id, long dateModified, long size) {
+        ExifHeaderReader reader = exifReader.get();
+        ExifHeaderReader.Result exif = exifResult.get();
+        // El resultado es del hilo: sin esto una foto ilegible heredaría los datos de la anterior
+        exif.reset();
+        boolean isJpeg = true;
+
+        try (InputStream inputStream = library.open(id)) {
+            if (inputStream != null) {
+                isJpeg = reader.read(inputStream, exif);
+                headerBytesRead.addAndGet(reader.getBytesRead());
+                EXIF_BYTES.record(reader.getBytesRead());
+            }
+        } catch (IOException e) {
+            // Sin leer queda sin fecha ni GPS; se guarda igual para no reintentar en cada página
+            READ_ERRORS.increment();
+            e.printStackTrace();
+        }
+
+        if (!isJpeg) {
+            library.readOtherFormat(id, exif);
+        }
+
+        return exifIndex.put(id, dateModified, size, exif.dateTime, exif.latitude, exif.longitude);
+    }
+}
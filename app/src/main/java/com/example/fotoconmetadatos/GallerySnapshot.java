@@ -0,0 +1,135 @@
+package com.example.fotoconmetadatos;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * La última galería mostrada, guardada para que el arranque en frío pinte la
+ * cuadrícula antes de consultar MediaStore. Lleva la huella de MediaStore, la
+ * foto que estaba arriba de la pantalla y las columnas de {@link PhotoStore}
+ * alineadas a 8 bytes en little-endian: al leer se mapea el archivo y cada
+ * columna se copia en bloque, sin parsear fila a fila.
+ *
+ * Se escribe en un temporal mapeado que se sincroniza y se renombra, así un
+ * cierre a medias deja el archivo anterior. No depende de Android.
+ */
+public final class GallerySnapshot {
+
+    private static final int MAGIC = 0x47534E31; // "GSN1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+
+    public final PhotoStore store;
+    /** _ID de la primera foto visible, o -1. */
+    public final long anchorId;
+    /** Posición de esa foto en la galería completa, o -1 si se veía otro orden o un filtro. */
+    public final int anchorPosition;
+    /** Píxeles desde el borde de la lista hasta el borde de la celda del ancla. */
+    public final int anchorOffset;
+
+    public GallerySnapshot(PhotoStore store, long anchorId, int anchorPosition, int anchorOffset) {
+        this.store = store;
+        this.anchorId = anchorId;
+        this.anchorPosition = anchorPosition;
+        this.anchorOffset = anchorOffset;
+    }
+
+    /** Posición de la foto del ancla en {@link #store}; 0 si ya no está. */
+    public int scrollPosition() {
+        if (anchorId < 0) return 0;
+        if (anchorPosition >= 0 && anchorPosition < store.size() && store.idAt(anchorPosition) == anchorId) {
+            return anchorPosition;
+        }
+        return Math.max(0, store.rowOf(anchorId));
+    }
+
+    /** Lee la galería guardada; null si no hay o no se puede usar. */
+    public static GallerySnapshot read(File file) {
+        if (!file.exists()) return null;
+        try (FileInputStream input = new FileInputStream(file);
+             FileChannel channel = input.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) return null;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) return null;
+            int size = map.getInt();
+            int nameCount = map.getInt();
+            int nameChars = map.getInt();
+            int anchorPosition = map.getInt();
+            int anchorOffset = map.getInt();
+            int fingerprintBytes = map.getInt();
+            long anchorId = map.getLong();
+            if (size < 0 || nameCount < 0 || nameChars < 0 || fingerprintBytes < -1
+                    || length != totalBytes(size, nameCount, nameChars, fingerprintBytes)) {
+                return null; // Truncado o de otra versión del formato
+            }
+
+            String fingerprint = null;
+            if (fingerprintBytes >= 0) {
+                byte[] utf8 = new byte[fingerprintBytes];
+                map.get(utf8);
+                fingerprint = new String(utf8, StandardCharsets.UTF_8);
+                map.position(HEADER_BYTES + (int) PhotoStore.aligned(fingerprintBytes));
+            }
+            PhotoStore store = PhotoStore.readColumns(map, size, nameCount, nameChars, fingerprint);
+            return new GallerySnapshot(store, anchorId, anchorPosition, anchorOffset);
+        } catch (IOException | RuntimeException e) {
+            // Dañado: se arranca como si no hubiera, y el próximo guardado lo reemplaza
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Escribe la galería en {@code file}. Hace E/S: llamar desde un hilo de fondo. */
+    public void write(File file) throws IOException {
+        String fingerprint = store.getFingerprint();
+        byte[] utf8 = fingerprint != null ? fingerprint.getBytes(StandardCharsets.UTF_8) : null;
+        int fingerprintBytes = utf8 != null ? utf8.length : -1;
+        long total = totalBytes(store.size(), store.nameCount(), store.nameChars(), fingerprintBytes);
+        if (total > Integer.MAX_VALUE) throw new IOException("Galería demasiado grande: " + total + " bytes");
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // Un archivo recién agrandado viene en ceros: el relleno de alineación no se escribe
+            raf.setLength(0);
+            raf.setLength(total);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(store.size())
+                    .putInt(store.nameCount())
+                    .putInt(store.nameChars())
+                    .putInt(anchorPosition)
+                    .putInt(anchorOffset)
+                    .putInt(fingerprintBytes)
+                    .putLong(anchorId);
+            if (utf8 != null) map.put(utf8);
+            map.position(HEADER_BYTES + (int) PhotoStore.aligned(Math.max(0, fingerprintBytes)));
+            store.writeColumns(map);
+            map.force();
+            raf.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("No se pudo reemplazar " + file);
+        }
+    }
+
+    private static long totalBytes(int size, int nameCount, int nameChars, int fingerprintBytes) {
+        return HEADER_BYTES + PhotoStore.aligned(Math.max(0, fingerprintBytes))
+                + PhotoStore.columnBytes(size, nameCount, nameChars);
+    }
+}
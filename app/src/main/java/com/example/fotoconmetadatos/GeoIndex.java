@@ -0,0 +1,324 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Índice espacial de las fotos con GPS: una rejilla de celdas de
+ * {@link #CELL_DEGREES} grados guardada como arreglos ordenados por celda
+ * (fila de latitud, después columna de longitud). Una consulta busca, por
+ * cada fila de celdas que toca, el tramo contiguo de sus columnas con una
+ * búsqueda binaria y solo mira los puntos de ese tramo.
+ *
+ * Los cambios van a un tramo pequeño sin ordenar y las bajas se marcan; cuando
+ * el tramo crece se mezcla con la parte ordenada en O(n), sin reordenar todo.
+ * No es seguro entre hilos: PagedPhotoSource lo usa desde el hilo principal.
+ */
+public final class GeoIndex {
+
+    /** Lado de la celda: 0,01° son unos 1,1 km de latitud. */
+    static final double CELL_DEGREES = 0.01;
+    private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+    private static final int ROWS = (int) Math.round(180 / CELL_DEGREES);
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+    private static final int MIN_PENDING = 256;
+    private static final int MAX_PENDING = 4096;
+
+    // Parte ordenada por celda
+    private int[] cells = new int[0];
+    private long[] ids = new long[0];
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private int sortedSize;
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+
+    // Cambios aún sin mezclar
+    private int[] pendingCells = new int[MIN_PENDING];
+    private long[] pendingIds = new long[MIN_PENDING];
+    private double[] pendingLatitudes = new double[MIN_PENDING];
+    private double[] pendingLongitudes = new double[MIN_PENDING];
+    private int pendingSize;
+
+    // _ID → posición en la parte ordenada (>= 0) o ~posición en la pendiente
+    private final LongIntMap positions = new LongIntMap(1024);
+
+    /** Fotos con GPS en el índice. */
+    public int size() {
+        return positions.size();
+    }
+
+    /** Agrega o mueve la foto; sin coordenadas (NaN) la quita. */
+    public void put(long id, double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            remove(id);
+            return;
+        }
+        int cell = cellOf(latitude, longitude);
+        int position = positions.get(id);
+        if (position >= 0) {
+            if (latitudes[position] == latitude && longitudes[position] == longitude) return;
+            markRemoved(position);
+        } else if (position != LongIntMap.MISSING) {
+            int pending = ~position;
+            pendingCells[pending] = cell;
+            pendingLatitudes[pending] = latitude;
+            pendingLongitudes[pending] = longitude;
+            return;
+        }
+
+        if (pendingSize == pendingIds.length) growPending();
+        pendingCells[pendingSize] = cell;
+        pendingIds[pendingSize] = id;
+        pendingLatitudes[pendingSize] = latitude;
+        pendingLongitudes[pendingSize] = longitude;
+        positions.put(id, ~pendingSize);
+        pendingSize++;
+        if (pendingSize >= Math.max(MIN_PENDING, Math.min(MAX_PENDING, sortedSize / 16))) {
+            merge();
+        }
+    }
+
+    public void remove(long id) {
+        int position = positions.get(id);
+        if (position == LongIntMap.MISSING) return;
+        positions.remove(id);
+        if (position >= 0) {
+            markRemoved(position);
+            return;
+        }
+        // La última pendiente ocupa el hueco
+        int pending = ~position;
+        int last = --pendingSize;
+        if (pending != last) {
+            pendingCells[pending] = pendingCells[last];
+            pendingIds[pending] = pendingIds[last];
+            pendingLatitudes[pending] = pendingLatitudes[last];
+            pendingLongitudes[pending] = pendingLongitudes[last];
+            positions.put(pendingIds[pending], ~pending);
+        }
+    }
+
+    public boolean contains(long id) {
+        return positions.get(id) != LongIntMap.MISSING;
+    }
+
+    /** Vacía el índice. */
+    public void clear() {
+        cells = new int[0];
+        ids = new long[0];
+        latitudes = new double[0];
+        longitudes = new double[0];
+        sortedSize = 0;
+        removed.clear();
+        removedCount = 0;
+        pendingSize = 0;
+        positions.clear();
+    }
+
+    /**
+     * Pone el índice al día con el paso de {@code before} a {@code after}:
+     * quita las fotos borradas y agrega o mueve las que tienen GPS.
+     */
+    public void update(PhotoStore before, PhotoStore after) {
+        PhotoStore.walk(before, after, (beforeRow, afterRow) -> {
+            if (afterRow < 0) {
+                remove(before.idAt(beforeRow));
+            } else {
+                put(after.idAt(afterRow), after.latitudeAt(afterRow), after.longitudeAt(afterRow));
+            }
+        });
+    }
+
+    /**
+     * Escribe en {@code out} los _ID dentro del rectángulo (bordes incluidos).
+     * Si {@code minLongitude > maxLongitude} el rectángulo cruza el antimeridiano.
+     * Devuelve cuántos hay, aunque {@code out} se haya quedado corto.
+     */
+    public int queryBox(double minLatitude, double minLongitude,
+                        double maxLatitude, double maxLongitude, long[] out) {
+        if (minLongitude > maxLongitude) {
+            int count = scan(minLatitude, maxLatitude, minLongitude, 180, Double.NaN, 0, 0, out, 0);
+            return scan(minLatitude, maxLatitude, -180, maxLongitude, Double.NaN, 0, 0, out, count);
+        }
+        return scan(minLatitude, maxLatitude, minLongitude, maxLongitude, Double.NaN, 0, 0, out, 0);
+    }
+
+    /** Como {@link #queryBox}, con las fotos a menos de {@code meters} del punto. */
+    public int queryRadius(double latitude, double longitude, double meters, long[] out) {
+        double deltaLatitude = Math.toDegrees(meters / EARTH_RADIUS_M);
+        double minLatitude = latitude - deltaLatitude;
+        double maxLatitude = latitude + deltaLatitude;
+        double cosine = Math.cos(Math.toRadians(Math.max(Math.abs(minLatitude), Math.abs(maxLatitude))));
+        if (maxLatitude >= 90 || minLatitude <= -90 || deltaLatitude / Math.max(cosine, 1e-9) >= 180) {
+            // Toca un polo: todas las longitudes
+            return scan(minLatitude, maxLatitude, -180, 180, latitude, longitude, meters, out, 0);
+        }
+        double deltaLongitude = deltaLatitude / cosine;
+        double minLongitude = longitude - deltaLongitude;
+        double maxLongitude = longitude + deltaLongitude;
+        if (minLongitude < -180) {
+            int count = scan(minLatitude, maxLatitude, minLongitude + 360, 180, latitude, longitude, meters, out, 0);
+            return scan(minLatitude, maxLatitude, -180, maxLongitude, latitude, longitude, meters, out, count);
+        }
+        if (maxLongitude > 180) {
+            int count = scan(minLatitude, maxLatitude, minLongitude, 180, latitude, longitude, meters, out, 0);
+            return scan(minLatitude, maxLatitude, -180, maxLongitude - 360, latitude, longitude, meters, out, count);
+        }
+        return scan(minLatitude, maxLatitude, minLongitude, maxLongitude, latitude, longitude, meters, out, 0);
+    }
+
+    /** Distancia en metros sobre la esfera (haversine). */
+    public static double distanceMeters(double latitudeA, double longitudeA,
+                                        double latitudeB, double longitudeB) {
+        double phiA = Math.toRadians(latitudeA);
+        double phiB = Math.toRadians(latitudeB);
+        double sinPhi = Math.sin((phiB - phiA) / 2);
+        double sinLambda = Math.sin(Math.toRadians(longitudeB - longitudeA) / 2);
+        double h = sinPhi * sinPhi + Math.cos(phiA) * Math.cos(phiB) * sinLambda * sinLambda;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    // Con centerLatitude NaN filtra solo por el rectángulo; si no, también por distancia
+    private int scan(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                     double centerLatitude, double centerLongitude, double meters,
+                     long[] out, int count) {
+        minLatitude = Math.max(minLatitude, -90);
+        maxLatitude = Math.min(maxLatitude, 90);
+        if (minLatitude > maxLatitude || minLongitude > maxLongitude) return count;
+        boolean byDistance = !Double.isNaN(centerLatitude);
+
+        int firstRow = rowOf(minLatitude);
+        int lastRow = rowOf(maxLatitude);
+        int firstColumn = columnOf(minLongitude);
+        int lastColumn = columnOf(maxLongitude);
+        int from = 0;
+        for (int row = firstRow; row <= lastRow && from < sortedSize; row++) {
+            int start = lowerBound(from, row * COLUMNS + firstColumn);
+            if (start == sortedSize) break;
+            int startRow = cells[start] / COLUMNS;
+            if (startRow > row) {
+                // Filas de celdas vacías: se salta directo a la siguiente con datos
+                row = startRow - 1;
+                from = start;
+                continue;
+            }
+            int end = row * COLUMNS + lastColumn;
+            int i = start;
+            for (; i < sortedSize && cells[i] <= end; i++) {
+                if (removedCount > 0 && removed.get(i)) continue;
+                if (accept(latitudes[i], longitudes[i], minLatitude, maxLatitude, minLongitude,
+                        maxLongitude, byDistance, centerLatitude, centerLongitude, meters)) {
+                    if (count < out.length) out[count] = ids[i];
+                    count++;
+                }
+            }
+            from = i;
+        }
+        for (int i = 0; i < pendingSize; i++) {
+            if (accept(pendingLatitudes[i], pendingLongitudes[i], minLatitude, maxLatitude,
+                    minLongitude, maxLongitude, byDistance, centerLatitude, centerLongitude, meters)) {
+                if (count < out.length) out[count] = pendingIds[i];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean accept(double latitude, double longitude,
+                                  double minLatitude, double maxLatitude,
+                                  double minLongitude, double maxLongitude,
+                                  boolean byDistance, double centerLatitude,
+                                  double centerLongitude, double meters) {
+        if (latitude < minLatitude || latitude > maxLatitude
+                || longitude < minLongitude || longitude > maxLongitude) {
+            return false;
+        }
+        return !byDistance
+                || distanceMeters(centerLatitude, centerLongitude, latitude, longitude) <= meters;
+    }
+
+    private int lowerBound(int from, int cell) {
+        int low = from;
+        int high = sortedSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cells[mid] < cell) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private void markRemoved(int position) {
+        removed.set(position);
+        removedCount++;
+    }
+
+    // Mezcla las pendientes (ordenadas por celda) con la parte ordenada, sin las bajas
+    private void merge() {
+        long[] order = new long[pendingSize];
+        for (int i = 0; i < pendingSize; i++) {
+            order[i] = ((long) pendingCells[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int total = sortedSize - removedCount + pendingSize;
+        int[] mergedCells = new int[total];
+        long[] mergedIds = new long[total];
+        double[] mergedLatitudes = new double[total];
+        double[] mergedLongitudes = new double[total];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (k < total) {
+            if (i < sortedSize && removed.get(i)) {
+                i++;
+                continue;
+            }
+            int pending = j < pendingSize ? (int) order[j] : -1;
+            if (pending < 0 || (i < sortedSize && cells[i] <= pendingCells[pending])) {
+                mergedCells[k] = cells[i];
+                mergedIds[k] = ids[i];
+                mergedLatitudes[k] = latitudes[i];
+                mergedLongitudes[k] = longitudes[i];
+                i++;
+            } else {
+                mergedCells[k] = pendingCells[pending];
+                mergedIds[k] = pendingIds[pending];
+                mergedLatitudes[k] = pendingLatitudes[pending];
+                mergedLongitudes[k] = pendingLongitudes[pending];
+                j++;
+            }
+            positions.put(mergedIds[k], k);
+            k++;
+        }
+
+        cells = mergedCells;
+        ids = mergedIds;
+        latitudes = mergedLatitudes;
+        longitudes = mergedLongitudes;
+        sortedSize = total;
+        removed.clear();
+        removedCount = 0;
+        pendingSize = 0;
+    }
+
+    private void growPending() {
+        int capacity = pendingIds.length * 2;
+        pendingCells = Arrays.copyOf(pendingCells, capacity);
+        pendingIds = Arrays.copyOf(pendingIds, capacity);
+        pendingLatitudes = Arrays.copyOf(pendingLatitudes, capacity);
+        pendingLongitudes = Arrays.copyOf(pendingLongitudes, capacity);
+    }
+
+    private static int cellOf(double latitude, double longitude) {
+        return rowOf(latitude) * COLUMNS + columnOf(longitude);
+    }
+
+    private static int rowOf(double latitude) {
+        return Math.min(ROWS - 1, Math.max(0, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int columnOf(double longitude) {
+        return Math.min(COLUMNS - 1, Math.max(0, (int) Math.floor((longitude + 180) / CELL_DEGREES)));
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.fotoconmetadatos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Búsqueda de hashes de 64 bits por distancia de Hamming con multi-index
+ * hashing: cada hash se parte en cuatro trozos de 16 bits y se guarda en una
+ * tabla por trozo. Si dos hashes difieren en {@code d} bits, algún trozo
+ * difiere en {@code d / 4} o menos, así que basta mirar en cada tabla el
+ * trozo propio y sus vecinos a esa distancia y comprobar solo esos
+ * candidatos, en vez de comparar contra todas las fotos.
+ *
+ * Se construye de a una foto y admite bajas, que se marcan y se limpian al
+ * acumularse. No es thread-safe. No depende de Android.
+ */
+final class HammingIndex {
+
+    /** Mayor distancia admitida en las búsquedas: hasta 2 bits por trozo. */
+    static final int MAX_DISTANCE = 11;
+
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int BUCKETS = 1 << CHUNK_BITS;
+    private static final int NONE = -1;
+    private static final long[] NO_IDS = new long[0];
+
+    // Nodos en arreglos paralelos; un nodo dado de baja sigue en las listas hasta compactar
+    private long[] ids = new long[64];
+    private long[] hashes = new long[64];
+    private boolean[] dead = new boolean[64];
+    // Listas enlazadas por cubeta de cada trozo: primer nodo y siguiente de cada nodo
+    private final int[][] heads = new int[CHUNKS][BUCKETS];
+    private int[][] next = new int[CHUNKS][64];
+    private int count;
+    private int deadCount;
+    private final LongIntMap nodeOfId = new LongIntMap(64);
+    // Marca por búsqueda para no visitar dos veces un nodo que sale en varias tablas
+    private int[] seen = new int[64];
+    private int searchStamp;
+
+    HammingIndex() {
+        for (int[] chunkHeads : heads) Arrays.fill(chunkHeads, NONE);
+    }
+
+    /** Fotos en el índice, sin contar las dadas de baja. */
+    int size() {
+        return count - deadCount;
+    }
+
+    boolean contains(long id) {
+        return nodeOfId.get(id) != LongIntMap.MISSING;
+    }
+
+    /** Hash de {@code id}; solo vale si {@link #contains}. */
+    long hashOf(long id) {
+        int node = nodeOfId.get(id);
+        return node == LongIntMap.MISSING ? 0 : hashes[node];
+    }
+
+    /** _ID de todas las fotos del índice. */
+    long[] ids() {
+        long[] live = new long[size()];
+        int n = 0;
+        for (int node = 0; node < count; node++) {
+            if (!dead[node]) live[n++] = ids[node];
+        }
+        return live;
+    }
+
+    /** Añade o reemplaza el hash de {@code id}. */
+    void put(long id, long hash) {
+        int existing = nodeOfId.get(id);
+        if (existing != LongIntMap.MISSING) {
+            if (hashes[existing] == hash) return;
+            remove(id);
+        }
+        if (count == ids.length) grow();
+        int node = count++;
+        ids[node] = id;
+        hashes[node] = hash;
+        dead[node] = false;
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            int bucket = chunkOf(hash, chunk);
+            next[chunk][node] = heads[chunk][bucket];
+            heads[chunk][bucket] = node;
+        }
+        nodeOfId.put(id, node);
+    }
+
+    void remove(long id) {
+        int node = nodeOfId.get(id);
+        if (node == LongIntMap.MISSING) return;
+        nodeOfId.remove(id);
+        dead[node] = true;
+        deadCount++;
+        if (deadCount > 1024 && deadCount * 2 > count) compact();
+    }
+
+    /** _ID de las fotos a {@code maxDistance} bits o menos de {@code hash}, sin orden. */
+    long[] search(long hash, int maxDistance) {
+        int[] nodes = new int[16];
+        int matches = searchNodes(hash, maxDistance, nodes);
+        if (matches > nodes.length) {
+            nodes = new int[matches];
+            searchNodes(hash, maxDistance, nodes);
+        }
+        long[] found = matches > 0 ? new long[matches] : NO_IDS;
+        for (int i = 0; i < matches; i++) found[i] = ids[nodes[i]];
+        return found;
+    }
+
+    /**
+     * Grupos de fotos casi iguales: componentes conexas del grafo que une dos
+     * fotos a {@code maxDistance} bits o menos. Solo grupos de dos o más, cada
+     * uno como lista de _ID sin orden.
+     */
+    long[][] groups(int maxDistance) {
+        int[] parent = new int[count];
+        for (int node = 0; node < count; node++) parent[node] = node;
+        int[] nodes = new int[16];
+        for (int node = 0; node < count; node++) {
+            if (dead[node]) continue;
+            int matches = searchNodes(hashes[node], maxDistance, nodes);
+            if (matches > nodes.length) {
+                nodes = new int[matches * 2];
+                matches = searchNodes(hashes[node], maxDistance, nodes);
+            }
+            for (int i = 0; i < matches; i++) {
+                union(parent, node, nodes[i]);
+            }
+        }
+
+        int[] sizes = new int[count];
+        for (int node = 0; node < count; node++) {
+            if (!dead[node]) sizes[find(parent, node)]++;
+        }
+        long[][] groupOfRoot = new long[count][];
+        int[] filled = new int[count];
+        List<long[]> groups = new ArrayList<>();
+        for (int node = 0; node < count; node++) {
+            if (dead[node]) continue;
+            int root = find(parent, node);
+            if (sizes[root] < 2) continue;
+            if (groupOfRoot[root] == null) {
+                groupOfRoot[root] = new long[sizes[root]];
+                groups.add(groupOfRoot[root]);
+            }
+            groupOfRoot[root][filled[root]++] = ids[node];
+        }
+        return groups.toArray(new long[0][]);
+    }
+
+    /**
+     * Escribe en {@code out} los nodos vivos a {@code maxDistance} o menos y
+     * devuelve cuántos son; si no caben se cuentan igual para poder repetir.
+     */
+    private int searchNodes(long hash, int maxDistance, int[] out) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("distancia " + maxDistance);
+        }
+        if (++searchStamp == 0) {
+            Arrays.fill(seen, 0);
+            searchStamp = 1;
+        }
+        int probeBits = maxDistance / CHUNKS;
+        int matches = 0;
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            int bucket = chunkOf(hash, chunk);
+            matches = scan(chunk, bucket, hash, maxDistance, out, matches);
+            for (int i = 0; probeBits >= 1 && i < CHUNK_BITS; i++) {
+                int one = bucket ^ (1 << i);
+                matches = scan(chunk, one, hash, maxDistance, out, matches);
+                for (int j = i + 1; probeBits >= 2 && j < CHUNK_BITS; j++) {
+                    matches = scan(chunk, one ^ (1 << j), hash, maxDistance, out, matches);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private int scan(int chunk, int bucket, long hash, int maxDistance, int[] out, int matches) {
+        for (int node = heads[chunk][bucket]; node != NONE; node = next[chunk][node]) {
+            if (seen[node] == searchStamp) continue;
+            seen[node] = searchStamp;
+            if (dead[node] || Long.bitCount(hashes[node] ^ hash) > maxDistance) continue;
+            if (matches < out.length) out[matches] = node;
+            matches++;
+        }
+        return matches;
+    }
+
+    // Reconstruye las tablas solo con los nodos vivos
+    private void compact() {
+        long[] liveIds = new long[size()];
+        long[] liveHashes = new long[liveIds.length];
+        int n = 0;
+        for (int node = 0; node < count; node++) {
+            if (dead[node]) continue;
+            liveIds[n] = ids[node];
+            liveHashes[n++] = hashes[node];
+            nodeOfId.remove(ids[node]);
+        }
+        for (int[] chunkHeads : heads) Arrays.fill(chunkHeads, NONE);
+        count = 0;
+        deadCount = 0;
+        for (int i = 0; i < n; i++) put(liveIds[i], liveHashes[i]);
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        dead = Arrays.copyOf(dead, capacity);
+        seen = Arrays.copyOf(seen, capacity);
+        for (int chunk = 0; chunk < CHUNKS; chunk++) next[chunk] = Arrays.copyOf(next[chunk], capacity);
+    }
+
+    private static int chunkOf(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & (BUCKETS - 1);
+    }
+
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+    }
+}
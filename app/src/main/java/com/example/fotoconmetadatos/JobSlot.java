@@ -0,0 +1,140 @@
+package com.example.fotoconmetadatos;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Un trabajo largo de fondo que no pertenece a la actividad que lo lanza. La
+ * actividad se engancha con {@link #attach} al crearse y se suelta con
+ * {@link #detach} al destruirse: una rotación no corta el trabajo ni lo
+ * duplica, y ningún aviso llega a una actividad destruida. Sin nadie
+ * enganchado se guarda el último progreso, y el resultado espera a la
+ * siguiente.
+ *
+ * Todo salvo el trabajo en sí corre en {@code mainExecutor}; no es
+ * thread-safe fuera de ese hilo. No depende de Android.
+ */
+public final class JobSlot<P, R> {
+
+    /** El trabajo; corre en su propio hilo. */
+    public interface Work<P, R> {
+        /** {@code progress} se puede llamar desde cualquier hilo. */
+        R run(Consumer<P> progress) throws Exception;
+    }
+
+    /** La interfaz enganchada; se llama en el hilo de {@code mainExecutor}. */
+    public interface Ui<P, R> {
+        void onProgress(P progress);
+
+        /** {@code result} es null si hubo {@code error}. También llega tras cancelar. */
+        void onFinished(R result, Exception error);
+    }
+
+    private final Executor mainExecutor;
+    private final ThreadFactory threads;
+    private Ui<P, R> ui;
+    private boolean running;
+    private Runnable canceller;
+    private P lastProgress;
+    // Nadie espera ya el resultado: se descarta al llegar
+    private boolean abandoned;
+    private boolean resultPending;
+    private R result;
+    private Exception error;
+
+    public JobSlot(Executor mainExecutor, ThreadFactory threads) {
+        this.mainExecutor = mainExecutor;
+        this.threads = threads;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Engancha {@code newUi}: recibe enseguida el último progreso, o el resultado que esperaba. */
+    public void attach(Ui<P, R> newUi) {
+        ui = newUi;
+        if (running) {
+            if (lastProgress != null) ui.onProgress(lastProgress);
+        } else if (resultPending) {
+            deliver();
+        }
+    }
+
+    public void detach(Ui<P, R> oldUi) {
+        if (ui == oldUi) ui = null;
+    }
+
+    /**
+     * Lanza {@code work} en un hilo nuevo; {@code canceller} le pide que pare.
+     * Devuelve false sin hacer nada si ya hay un trabajo en curso.
+     */
+    public boolean start(Work<P, R> work, Runnable canceller) {
+        if (running) return false;
+        running = true;
+        this.canceller = canceller;
+        lastProgress = null;
+        abandoned = false;
+        clearResult();
+        threads.newThread(() -> {
+            R value = null;
+            Exception failure = null;
+            try {
+                value = work.run(progress -> mainExecutor.execute(() -> onProgress(progress)));
+            } catch (Exception e) {
+                failure = e;
+            }
+            R finalValue = value;
+            Exception finalFailure = failure;
+            mainExecutor.execute(() -> onFinished(finalValue, finalFailure));
+        }).start();
+        return true;
+    }
+
+    /** Pide al trabajo que pare; su resultado, a medias, llega igual. */
+    public void cancel() {
+        if (running && canceller != null) canceller.run();
+    }
+
+    /** Como {@link #cancel}, pero el resultado se descarta: ya no hay a quién mostrarlo. */
+    public void abandon() {
+        if (running) {
+            abandoned = true;
+            cancel();
+        } else {
+            clearResult();
+        }
+    }
+
+    private void onProgress(P progress) {
+        // El progreso se encola antes que el final: uno que llegue sin trabajo es viejo
+        if (!running) return;
+        lastProgress = progress;
+        if (ui != null) ui.onProgress(progress);
+    }
+
+    private void onFinished(R value, Exception failure) {
+        running = false;
+        canceller = null;
+        lastProgress = null;
+        if (abandoned) return;
+        result = value;
+        error = failure;
+        resultPending = true;
+        if (ui != null) deliver();
+    }
+
+    private void deliver() {
+        R value = result;
+        Exception failure = error;
+        clearResult();
+        ui.onFinished(value, failure);
+    }
+
+    private void clearResult() {
+        resultPending = false;
+        result = null;
+        error = null;
+    }
+}
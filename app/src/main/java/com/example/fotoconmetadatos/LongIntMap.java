@@ -0,0 +1,100 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Arrays;
+
+/**
+ * Mapa long → int sin objetos por entrada: direccionamiento abierto con sondeo
+ * lineal sobre dos arreglos. Sirve para buscar la fila o la posición de una
+ * foto por su _ID en colecciones de cientos de miles.
+ */
+final class LongIntMap {
+
+    /** Valor devuelto por {@link #get} cuando la clave no está. */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+        }
+        return MISSING;
+    }
+
+    void put(long key, int value) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) rehash(keys.length * 2);
+    }
+
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+        if (!used[slot]) return;
+
+        // Borrado con desplazamiento hacia atrás: la secuencia de sondeo queda sin huecos
+        int hole = slot;
+        for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        used[hole] = false;
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
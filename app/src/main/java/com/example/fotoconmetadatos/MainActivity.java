@@ -1,16 +1,26 @@
 package com.example.fotoconmetadatos;
 
 import android.Manifest;
+import android.app.AlertDialog;
+import android.app.DatePickerDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
+import android.database.ContentObserver;
+import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
@@ -19,33 +29,164 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import androidx.exifinterface.media.ExifInterface;
+import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
     private static final int REQUEST_PERMISSIONS = 200;
+    // Un código por acción: al conceder el permiso se sigue con la que lo pidió
+    private static final int REQUEST_LOCATION_NEARBY = 201;
+    private static final int REQUEST_LOCATION_GEOTAG = 202;
+    // Radio del filtro "cerca de aquí": lo que abarca una obra o una parcela
+    private static final double NEARBY_RADIUS_M = 250;
+    // Una captura produce varios avisos seguidos (alta, EXIF, escaneo): se agrupan
+    private static final long REFRESH_DELAY_MS = 300;
+    private static final String RETAG_JOURNAL = "retag_journal.bin";
+    private static final String GALLERY_SNAPSHOT = "gallery_snapshot.bin";
+    private static final String EXIF_INDEX = "exif_index.bin";
+    private static final String PREF_ALBUM = "album";
+    // Copias sin GPS para compartir; se vacía antes de cada exportación
+    private static final String SHARE_DIR = "share";
+    // Más URIs que esto no caben con holgura en el Intent: mejor un ZIP
+    private static final int MAX_SHARE_FILES = 100;
+    private static final Metrics.Timer SNAPSHOT_RESTORE = Metrics.timer("gallery.snapshot_restore");
     private RecyclerView recyclerView;
+    private Button btnAlbum;
+    private Button btnNearby;
+    private Button btnSortByDate;
+    private Button btnJumpToDate;
+    private Button btnGeotag;
+    private Button btnDuplicates;
+    private Button btnShare;
+    private Button btnReport;
+    private TextView tvTitle;
+    private FusedLocationProviderClient fusedLocationClient;
     private PhotoAdapter photoAdapter;
-    private List<PhotoItem> photoList;
+    // Álbum a la vista; photoLoader y duplicateIndex son los suyos
+    private Album album;
+    private final Map<Album, AlbumState> albums = new EnumMap<>(Album.class);
+    private PhotoLoader photoLoader;
+    private ExecutorService pageExecutor;
+    private PagedPhotoSource photoSource;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshRunnable = this::loadPhotos;
+    private boolean observingMedia;
+    // Los trabajos largos son del proceso: siguen si la actividad se recrea
+    private final BackgroundJobs jobs = BackgroundJobs.get();
+    private final JobSlot.Ui<MetadataBatchJob.Progress, MetadataBatchJob.Progress> retagUi =
+            new JobSlot.Ui<>() {
+                @Override
+                public void onProgress(MetadataBatchJob.Progress progress) {
+                    if (tvTitle != null) tvTitle.setText("Geoetiquetando " + progress);
+                }
+
+                @Override
+                public void onFinished(MetadataBatchJob.Progress result, Exception error) {
+                    finishRetagJob(result, error);
+                }
+            };
+    private final JobSlot.Ui<PhotoExporter.Result, BackgroundJobs.Shared> exportUi =
+            new JobSlot.Ui<>() {
+                @Override
+                public void onProgress(PhotoExporter.Result progress) {
+                    if (tvTitle != null) tvTitle.setText("Exportando " + progress);
+                }
+
+                @Override
+                public void onFinished(BackgroundJobs.Shared shared, Exception error) {
+                    finishExport(shared, error);
+                }
+            };
+    private final JobSlot.Ui<Void, BackgroundJobs.Report> reportUi =
+            new JobSlot.Ui<>() {
+                @Override
+                public void onProgress(Void progress) {
+                }
+
+                @Override
+                public void onFinished(BackgroundJobs.Report report, Exception error) {
+                    finishReport(report, error);
+                }
+            };
+    // Guardado de la galería al pasar a segundo plano; no se corta en onDestroy
+    private final ExecutorService snapshotExecutor =
+            Executors.newSingleThreadExecutor(PhotoLoader.backgroundThreads("snapshot"));
+    private int savedRevision = -1;
+    private long savedAnchorId = -1;
+    // Hashes de las fotos nuevas tras cada galería; la pasada anterior se corta
+    private DuplicateIndex duplicateIndex;
+    private final ExecutorService duplicateExecutor =
+            Executors.newSingleThreadExecutor(PhotoLoader.backgroundThreads("duplicates"));
+    private Future<?> duplicateUpdate;
+
+    // Lo de cada álbum que se conserva para volver a él sin consultar ni leer otra vez
+    private static final class AlbumState {
+        final ExifIndex exifIndex;
+        final PhotoLoader loader;
+        final DuplicateIndex duplicateIndex;
+        // Galería y posición de la lista al dejar el álbum; null si no se abrió en esta sesión
+        PhotoStore store;
+        int scrollPosition;
+        int scrollOffset;
+
+        AlbumState(ExifIndex exifIndex, PhotoLoader loader, DuplicateIndex duplicateIndex) {
+            this.exifIndex = exifIndex;
+            this.loader = loader;
+            this.duplicateIndex = duplicateIndex;
+        }
+    }
+
+    // Mientras la galería está visible, cualquier cambio en MediaStore la actualiza
+    private final ContentObserver mediaObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mainHandler.removeCallbacks(refreshRunnable);
+            mainHandler.postDelayed(refreshRunnable, REFRESH_DELAY_MS);
+        }
+    };
 
     // Nuevo launcher moderno para abrir la cámara (más seguro que startActivity)
     private final ActivityResultLauncher<Intent> cameraLauncher =
             registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
-                // Aquí puedes recargar la galería al volver de la cámara
-                loadPhotos();
+                // La galería se actualiza en onResume: solo se aplica lo que cambió
             });
 
+    // Informe en un documento elegido por el usuario (Drive, Descargas, USB...)
+    private final ActivityResultLauncher<String> csvDocumentLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument(MetadataExporter.Format.CSV.mimeType),
+            uri -> exportReportTo(uri, MetadataExporter.Format.CSV));
+    private final ActivityResultLauncher<String> geoJsonDocumentLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument(MetadataExporter.Format.GEOJSON.mimeType),
+            uri -> exportReportTo(uri, MetadataExporter.Format.GEOJSON));
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        DebugMetrics.install();
         Log.d(TAG, "onCreate iniciado");
 
         try {
@@ -53,18 +194,45 @@ public class MainActivity extends AppCompatActivity {
             Log.d(TAG, "Layout cargado");
 
             recyclerView = findViewById(R.id.recyclerView);
+            btnAlbum = findViewById(R.id.btnAlbum);
             Button btnTakePhoto = findViewById(R.id.btnTakePhoto);
+            btnNearby = findViewById(R.id.btnNearby);
+            btnSortByDate = findViewById(R.id.btnSortByDate);
+            btnJumpToDate = findViewById(R.id.btnJumpToDate);
+            btnGeotag = findViewById(R.id.btnGeotag);
+            btnDuplicates = findViewById(R.id.btnDuplicates);
+            btnShare = findViewById(R.id.btnShare);
+            btnReport = findViewById(R.id.btnReport);
+            tvTitle = findViewById(R.id.tvTitle);
 
-            if (recyclerView == null || btnTakePhoto == null) {
+            if (recyclerView == null || btnTakePhoto == null || btnAlbum == null || btnNearby == null
+                    || btnSortByDate == null || btnJumpToDate == null || btnGeotag == null
+                    || btnDuplicates == null || btnShare == null || btnReport == null) {
                 Toast.makeText(this, "Error: Views no encontradas", Toast.LENGTH_LONG).show();
                 Log.e(TAG, "Error: recyclerView o btnTakePhoto es null");
                 return;
             }
 
-            recyclerView.setLayoutManager(new GridLayoutManager(this, 2));
-            photoList = new ArrayList<>();
-            photoAdapter = new PhotoAdapter(photoList);
+            GridLayoutManager layoutManager = new GridLayoutManager(this, 2);
+            recyclerView.setLayoutManager(layoutManager);
+            // Por defecto solo nuestras capturas: la consulta no depende del tamaño de la biblioteca
+            album = Album.forKey(getPreferences(MODE_PRIVATE).getString(PREF_ALBUM, null));
+            AlbumState state = albumState(album);
+            photoLoader = state.loader;
+            duplicateIndex = state.duplicateIndex;
+            btnAlbum.setText(album.other().title);
+            ThumbnailLoader.get(this, album);
+            // Un solo hilo de consultas: las páginas salen en el orden en que se piden
+            pageExecutor = Executors.newSingleThreadExecutor(PhotoLoader.backgroundThreads("page"));
+            photoSource = new PagedPhotoSource(photoLoader, pageExecutor, mainHandler::post);
+            photoSource.setListener(sourceListener);
+            photoAdapter = new PhotoAdapter(photoSource);
+            // Arranque en frío: la última galería se pinta ya y onResume la reconcilia con MediaStore
+            GallerySnapshot snapshot = readGallerySnapshot();
             recyclerView.setAdapter(photoAdapter);
+            if (snapshot != null) {
+                layoutManager.scrollToPositionWithOffset(snapshot.scrollPosition(), snapshot.anchorOffset);
+            }
 
             btnTakePhoto.setOnClickListener(v -> {
                 Log.d(TAG, "Botón tomar foto presionado");
@@ -78,7 +246,40 @@ public class MainActivity extends AppCompatActivity {
                 }
             });
 
+            fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+            btnAlbum.setOnClickListener(v -> switchAlbum());
+            btnNearby.setOnClickListener(v -> toggleNearby());
+            btnSortByDate.setOnClickListener(v -> toggleSortByDate());
+            btnJumpToDate.setOnClickListener(v -> pickDateToJump());
+            btnGeotag.setOnClickListener(v -> geotagPhotosWithoutLocation());
+            btnDuplicates.setOnClickListener(v -> toggleDuplicates());
+            btnShare.setOnClickListener(v -> shareWithoutLocation());
+            btnReport.setOnClickListener(v -> chooseReport());
+            if (tvTitle != null && DebugMetrics.isDebuggable(this)) {
+                // Pantalla de depuración: mantener pulsado el título
+                tvTitle.setOnLongClickListener(v -> {
+                    DebugMetrics.show(this);
+                    return true;
+                });
+            }
+
             checkPermissions();
+            // Tras una rotación el lote sigue en curso: solo se vuelve a mostrar
+            jobs.retag.attach(retagUi);
+            if (jobs.retag.isRunning()) {
+                btnGeotag.setText("DETENER");
+            } else {
+                resumeRetagJob();
+            }
+            jobs.export.attach(exportUi);
+            if (jobs.export.isRunning()) btnShare.setText("DETENER");
+            jobs.report.attach(reportUi);
+            if (jobs.report.isRunning()) {
+                btnReport.setText("DETENER");
+                if (tvTitle != null) tvTitle.setText("Exportando datos...");
+            }
+            // Las capturas que quedaron a medias al cerrarse la app siguen en segundo plano
+            CaptureQueue.get(this);
 
         } catch (Exception e) {
             Log.e(TAG, "Error FATAL en onCreate", e);
@@ -87,6 +288,21 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (hasPermissions()) {
+            startObservingMedia();
+        }
+    }
+
+    private void startObservingMedia() {
+        if (observingMedia) return;
+        getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+        observingMedia = true;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -132,80 +348,692 @@ public class MainActivity extends AppCompatActivity {
 
     private void loadPhotos() {
         Log.d(TAG, "Cargando fotos...");
+        photoSource.refresh();
+    }
 
-        photoList.clear();
+    // Índice EXIF, loader y repetidas de cada álbum; se crean la primera vez que se abre
+    private AlbumState albumState(Album album) {
+        AlbumState state = albums.get(album);
+        if (state == null) {
+            ExifIndex exifIndex = new ExifIndex(new File(getFilesDir(), album.fileName(EXIF_INDEX)));
+            PhotoLoader loader = new PhotoLoader(this, album, exifIndex);
+            state = new AlbumState(exifIndex, loader,
+                    new DuplicateIndex(exifIndex, loader, new PhotoHasher(getContentResolver())));
+            albums.put(album, state);
+        }
+        return state;
+    }
 
-        String[] projection = {
-                MediaStore.Images.Media._ID,
-                MediaStore.Images.Media.DISPLAY_NAME,
-                MediaStore.Images.Media.DATE_ADDED
-        };
+    /**
+     * Alterna entre nuestras capturas y todas las fotos. El álbum que se deja
+     * queda en memoria con su posición; el otro se muestra enseguida con su
+     * última galería (de memoria o de su archivo) y el refresco aplica solo lo
+     * que cambió desde entonces.
+     */
+    private void switchAlbum() {
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        saveGallerySnapshot();
+        AlbumState previous = albums.get(album);
+        previous.store = photoSource.getStore();
+        previous.scrollPosition = 0;
+        previous.scrollOffset = 0;
+        // Filtro y orden no pasan al otro álbum: al volver la posición es de la galería
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION && !photoSource.isFiltered()
+                && !photoSource.isSortedByCaptureTime()) {
+            View firstView = layoutManager.findViewByPosition(first);
+            previous.scrollPosition = first;
+            previous.scrollOffset = firstView != null ? firstView.getTop() - recyclerView.getPaddingTop() : 0;
+        }
+        if (duplicateUpdate != null) duplicateUpdate.cancel(true);
 
-        String sortOrder = MediaStore.Images.Media.DATE_ADDED + " DESC";
+        album = album.other();
+        getPreferences(MODE_PRIVATE).edit().putString(PREF_ALBUM, album.key).apply();
+        AlbumState state = albumState(album);
+        photoLoader = state.loader;
+        duplicateIndex = state.duplicateIndex;
+        ThumbnailLoader.get(this, album);
+        savedRevision = -1;
+        savedAnchorId = -1;
+        GallerySnapshot snapshot = state.store == null ? readGallerySnapshot(album) : null;
+        if (snapshot != null) {
+            state.store = snapshot.store;
+            state.scrollPosition = snapshot.scrollPosition();
+            state.scrollOffset = snapshot.anchorOffset;
+        }
+        photoSource.switchTo(photoLoader, state.store);
+        if (snapshot != null) {
+            savedRevision = photoSource.getRevision();
+            savedAnchorId = snapshot.anchorId;
+        }
 
-        try (Cursor cursor = getContentResolver().query(
-                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                null,
-                null,
-                sortOrder)) {
+        btnAlbum.setText(album.other().title);
+        btnNearby.setText("CERCA DE AQUÍ");
+        btnDuplicates.setText("REPETIDAS");
+        btnSortByDate.setText("POR FECHA DE CAPTURA");
+        btnJumpToDate.setEnabled(false);
+        btnGeotag.setEnabled(true);
+        layoutManager.scrollToPositionWithOffset(Math.min(state.scrollPosition,
+                Math.max(0, photoSource.size() - 1)), state.scrollOffset);
+        Log.d(TAG, "Álbum " + album.key + ": " + photoSource.size() + " fotos guardadas");
+        if (hasPermissions()) loadPhotos();
+    }
 
-            if (cursor == null) {
-                Log.w(TAG, "Cursor es null");
-                return;
+    private void toggleNearby() {
+        if (photoSource.isFiltered() && !photoSource.isGrouped()) {
+            photoSource.showAll();
+            btnNearby.setText("CERCA DE AQUÍ");
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_LOCATION_NEARBY);
+            return;
+        }
+        fusedLocationClient.getLastLocation()
+                .addOnSuccessListener(this, location -> {
+                    if (location != null) {
+                        showNearby(location);
+                    } else {
+                        Toast.makeText(this, "Ubicación no disponible", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error al obtener ubicación", e);
+                    Toast.makeText(this, "Error al obtener ubicación", Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    private void showNearby(Location location) {
+        // Lo que ya está en el índice aparece enseguida; el resto llega mientras se lee el EXIF
+        photoSource.showNear(location.getLatitude(), location.getLongitude(), NEARBY_RADIUS_M);
+        btnNearby.setText("VER TODAS");
+        btnDuplicates.setText("REPETIDAS");
+        recyclerView.scrollToPosition(0);
+        Log.d(TAG, "Filtro cerca de " + location.getLatitude() + ", " + location.getLongitude()
+                + ": " + photoSource.size() + " fotos");
+    }
+
+    private void toggleDuplicates() {
+        if (photoSource.isGrouped()) {
+            photoSource.showAll();
+            btnDuplicates.setText("REPETIDAS");
+            return;
+        }
+        // Los grupos salen de los hashes ya calculados; la pasada de fondo puede seguir
+        pageExecutor.execute(() -> {
+            long[][] groups = duplicateIndex.groups();
+            mainHandler.post(() -> showDuplicates(groups));
+        });
+    }
+
+    private void showDuplicates(long[][] groups) {
+        photoSource.showGroups(groups);
+        btnDuplicates.setText("VER TODAS");
+        btnNearby.setText("CERCA DE AQUÍ");
+        recyclerView.scrollToPosition(0);
+        if (photoSource.size() == 0) {
+            boolean pending = duplicateIndex.size() < photoSource.getStore().size();
+            Toast.makeText(this, pending ? "Aún buscando fotos repetidas..." : "No hay fotos repetidas",
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Calcula en segundo plano los hashes de las fotos que aún no tienen (las
+     * recién capturadas) y, si se están viendo las repetidas, actualiza los grupos.
+     */
+    private void updateDuplicates() {
+        PhotoStore store = photoSource.getStore();
+        if (duplicateUpdate != null) duplicateUpdate.cancel(true);
+        duplicateUpdate = duplicateExecutor.submit(() -> {
+            try {
+                int computed = duplicateIndex.update(store);
+                if (computed > 0) Log.d(TAG, "Hashes calculados: " + computed);
+                long[][] groups = duplicateIndex.groups();
+                mainHandler.post(() -> {
+                    if (photoSource.isGrouped()) photoSource.showGroups(groups);
+                });
+            } catch (InterruptedException e) {
+                // Llegó otra galería: la pasada siguiente sigue donde quedó esta
+            } catch (Exception e) {
+                Log.e(TAG, "Error al buscar fotos repetidas", e);
             }
+        });
+    }
 
-            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
-            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DISPLAY_NAME);
+    private void toggleSortByDate() {
+        boolean byCapture = !photoSource.isSortedByCaptureTime();
+        // Ordena las columnas que ya están en memoria; el EXIF que falte se lee por tandas
+        photoSource.setSortByCaptureTime(byCapture);
+        btnSortByDate.setText(byCapture ? "POR FECHA DE ALTA" : "POR FECHA DE CAPTURA");
+        btnJumpToDate.setEnabled(byCapture);
+        recyclerView.scrollToPosition(0);
+    }
 
-            while (cursor.moveToNext()) {
-                long id = cursor.getLong(idColumn);
-                String name = cursor.getString(nameColumn);
+    private void pickDateToJump() {
+        TimelineIndex timeline = photoSource.getTimeline();
+        if (timeline == null || timeline.size() == 0) return;
+        // Abre el selector en la fecha de lo que se está viendo
+        int first = ((GridLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition();
+        long shown = timeline.timeAt(Math.min(timeline.size() - 1,
+                photoAdapter.toPhotoPosition(Math.max(0, first))));
+        if (shown == CaptureTime.UNKNOWN) shown = System.currentTimeMillis();
+        int[] civil = CaptureTime.civilFromDays(Math.floorDiv(shown, CaptureTime.MILLIS_PER_DAY));
+        new DatePickerDialog(this,
+                (picker, year, month, dayOfMonth) -> jumpToDate(year, month + 1, dayOfMonth),
+                civil[0], civil[1] - 1, civil[2]).show();
+    }
 
-                Uri imageUri = ContentUris.withAppendedId(
-                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+    private void jumpToDate(int year, int month, int day) {
+        TimelineIndex timeline = photoSource.getTimeline();
+        if (timeline == null) return;
+        long start = CaptureTime.dayStart(year, month, day);
+        // Primera foto de ese día o, si no hay, de la fecha anterior más cercana
+        int position = timeline.positionAtOrBefore(start + CaptureTime.MILLIS_PER_DAY - 1);
+        if (position >= timeline.size()) {
+            Toast.makeText(this, "No hay fotos de esa fecha o anteriores", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int adapterPosition = photoAdapter.toAdapterPosition(position);
+        if (timeline.isHeader(adapterPosition - 1)) adapterPosition--; // Desde la cabecera del día
+        ((GridLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(adapterPosition, 0);
 
-                String dateTime = "";
-                String location = "";
+        int[] range = timeline.dayRange(start);
+        Toast.makeText(this, (range[1] - range[0]) + " fotos del " + CaptureTime.formatDay(start),
+                Toast.LENGTH_SHORT).show();
+    }
 
-                try (InputStream inputStream = getContentResolver().openInputStream(imageUri)) {
-                    if (inputStream != null) {
-                        ExifInterface exif = new ExifInterface(inputStream);
-                        dateTime = exif.getAttribute(ExifInterface.TAG_DATETIME);
-                        if (dateTime == null) dateTime = "";
+    private void geotagPhotosWithoutLocation() {
+        if (jobs.retag.isRunning()) {
+            jobs.retag.cancel();
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_LOCATION_GEOTAG);
+            return;
+        }
+        fusedLocationClient.getLastLocation()
+                .addOnSuccessListener(this, location -> {
+                    if (location == null) {
+                        Toast.makeText(this, "Ubicación no disponible", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    // Hace falta el EXIF de toda la vista para saber cuáles no tienen GPS
+                    btnGeotag.setEnabled(false);
+                    photoSource.resolveAll(() -> {
+                        btnGeotag.setEnabled(true);
+                        confirmGeotag(location);
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error al obtener ubicación", e);
+                    Toast.makeText(this, "Error al obtener ubicación", Toast.LENGTH_SHORT).show();
+                });
+    }
 
-                        double[] latLong = exif.getLatLong();
-                        if (latLong != null) {
-                            location = String.format("%.4f, %.4f", latLong[0], latLong[1]);
-                        }
+    private void confirmGeotag(Location location) {
+        long[] ids = photoSource.idsInView((store, row) -> !store.hasLocation(row));
+        if (ids.length == 0) {
+            Toast.makeText(this, "Todas las fotos ya tienen ubicación", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Geoetiquetar")
+                .setMessage(ids.length + " fotos sin ubicación. ¿Guardar en ellas la ubicación actual ("
+                        + String.format("%.4f", location.getLatitude()) + ", "
+                        + String.format("%.4f", location.getLongitude()) + ")?")
+                .setPositiveButton("GUARDAR", (dialog, which) -> {
+                    try {
+                        startRetagJob(MetadataBatchJob.create(new File(getFilesDir(), RETAG_JOURNAL), ids,
+                                new MetadataBatchJob.Tags(null, location.getLatitude(), location.getLongitude())));
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error al crear el lote", e);
+                        Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
                     }
-                } catch (IOException e) {
-                    Log.e(TAG, "Error leyendo EXIF de " + name, e);
+                })
+                .setNegativeButton("CANCELAR", null)
+                .show();
+    }
+
+    // Un lote que no terminó (proceso cerrado a mitad) sigue donde quedó
+    private void resumeRetagJob() {
+        if (!jobs.claimRetagJournal()) return;
+        MetadataBatchJob job = MetadataBatchJob.resume(new File(getFilesDir(), RETAG_JOURNAL));
+        if (job != null && job.getRemaining() > 0) {
+            Log.d(TAG, "Retomando lote: faltan " + job.getRemaining() + " de " + job.getTotal());
+            startRetagJob(job);
+        }
+    }
+
+    private void startRetagJob(MetadataBatchJob job) {
+        if (!jobs.retag.start(retagWork(job, getApplicationContext().getContentResolver()), job::cancel)) return;
+        btnGeotag.setText("DETENER");
+    }
+
+    // Estático: el trabajo no debe retener la actividad que lo lanzó
+    private static JobSlot.Work<MetadataBatchJob.Progress, MetadataBatchJob.Progress> retagWork(
+            MetadataBatchJob job, ContentResolver resolver) {
+        MetadataBatchJob.Target target = (id, writer) -> MediaStoreExif.rewrite(resolver,
+                ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id), writer);
+        return progress -> job.run(target, MetadataBatchJob.defaultWorkers(), new MetadataBatchJob.Listener() {
+            @Override
+            public void onProgress(MetadataBatchJob.Progress current) {
+                progress.accept(current);
+            }
+
+            @Override
+            public void onItemFailed(long id, Exception e) {
+                // Fotos de otras apps: sin permiso de escritura llega RecoverableSecurityException
+                Log.e(TAG, "No se pudo geoetiquetar la foto " + id, e);
+            }
+        });
+    }
+
+    private void finishRetagJob(MetadataBatchJob.Progress result, Exception error) {
+        btnGeotag.setText("GEOETIQUETAR");
+        if (tvTitle != null) tvTitle.setText("Galería de Fotos");
+        if (error != null) {
+            Log.e(TAG, "Error en el lote de geoetiquetado", error);
+            Toast.makeText(this, "Error: " + error.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        Log.d(TAG, "Lote de geoetiquetado: " + result);
+        String message = result.isFinished()
+                ? "Geoetiquetadas " + result.done + " fotos" + (result.failed > 0 ? ", " + result.failed + " con error" : "")
+                : "Geoetiquetado detenido: " + (result.done + result.failed) + " de " + result.total;
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        if (hasPermissions()) loadPhotos();
+    }
+
+    /** Comparte las fotos de la vista actual (todas, las cercanas o las repetidas) sin su GPS. */
+    private void shareWithoutLocation() {
+        if (jobs.export.isRunning()) {
+            jobs.export.cancel();
+            return;
+        }
+        long[] ids = photoSource.idsInView((store, row) -> true);
+        if (ids.length == 0) {
+            Toast.makeText(this, "No hay fotos para compartir", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        PhotoStore store = photoSource.getStore();
+        String[] names = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) names[i] = store.nameAt(store.rowOf(ids[i]));
+
+        AlertDialog.Builder dialog = new AlertDialog.Builder(this)
+                .setTitle("Compartir sin ubicación")
+                .setMessage(ids.length + " fotos. Se quita el GPS del EXIF; la imagen no se toca.")
+                .setPositiveButton("ZIP", (d, which) -> startExport(ids, names, true))
+                .setNegativeButton("CANCELAR", null);
+        if (ids.length <= MAX_SHARE_FILES) {
+            dialog.setNeutralButton("FOTOS", (d, which) -> startExport(ids, names, false));
+        }
+        dialog.show();
+    }
+
+    private void startExport(long[] ids, String[] names, boolean zip) {
+        PhotoExporter job = new PhotoExporter(mediaStoreSource(getApplicationContext().getContentResolver()));
+        File dir = new File(getCacheDir(), SHARE_DIR);
+        if (!jobs.export.start(exportWork(job, ids, names, dir, zip), job::cancel)) return;
+        btnShare.setText("DETENER");
+    }
+
+    private static PhotoExporter.Source mediaStoreSource(ContentResolver resolver) {
+        return id -> {
+            ParcelFileDescriptor pfd = resolver.openFileDescriptor(
+                    ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id), "r");
+            if (pfd == null) throw new IOException("No se pudo abrir la foto " + id);
+            // Cerrar el canal cierra el stream y con él el descriptor
+            return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+        };
+    }
+
+    // Estático, como retagWork: la exportación no retiene la actividad
+    private static JobSlot.Work<PhotoExporter.Result, BackgroundJobs.Shared> exportWork(
+            PhotoExporter job, long[] ids, String[] names, File dir, boolean zip) {
+        return progress -> {
+            PhotoExporter.Listener listener = new PhotoExporter.Listener() {
+                @Override
+                public void onProgress(PhotoExporter.Result current) {
+                    progress.accept(current);
                 }
 
-                photoList.add(new PhotoItem(id, imageUri.toString(), name, dateTime, location));
+                @Override
+                public void onItemFailed(long id, Exception e) {
+                    // PNG, HEIC o fotos ilegibles: no se comparten antes que salir con GPS
+                    Log.e(TAG, "No se pudo exportar la foto " + id, e);
+                }
+            };
+            clearDirectory(dir);
+            if (!zip) {
+                return new BackgroundJobs.Shared(
+                        job.exportToDirectory(ids, names, dir, MetadataBatchJob.defaultWorkers(), listener), dir);
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("No se pudo crear " + dir);
+            File zipFile = new File(dir, "fotos_sin_ubicacion.zip");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(zipFile), 64 * 1024)) {
+                return new BackgroundJobs.Shared(
+                        job.exportToZip(ids, names, out, MetadataBatchJob.defaultWorkers(), listener), zipFile);
+            }
+        };
+    }
+
+    private void finishExport(BackgroundJobs.Shared shared, Exception error) {
+        btnShare.setText("COMPARTIR");
+        if (tvTitle != null) tvTitle.setText("Galería de Fotos");
+        if (error != null) {
+            Log.e(TAG, "Error al exportar", error);
+            Toast.makeText(this, "Error: " + error.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        PhotoExporter.Result result = shared.result;
+        File output = shared.output;
+        Log.d(TAG, "Exportación: " + result);
+        if (!result.isFinished() || result.exported == 0) {
+            Toast.makeText(this, result.exported == 0 ? "No se pudo exportar ninguna foto" : "Exportación detenida",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (result.failed > 0) {
+            Toast.makeText(this, result.failed + " fotos no se pudieron limpiar y no se comparten",
+                    Toast.LENGTH_LONG).show();
+        }
+
+        String authority = getPackageName() + ".fileprovider";
+        Intent share;
+        if (output.isDirectory()) {
+            ArrayList<Uri> uris = new ArrayList<>();
+            File[] files = output.listFiles();
+            if (files != null) {
+                for (File file : files) uris.add(FileProvider.getUriForFile(this, authority, file));
+            }
+            share = new Intent(Intent.ACTION_SEND_MULTIPLE);
+            share.setType("image/jpeg");
+            share.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+        } else {
+            share = new Intent(Intent.ACTION_SEND);
+            share.setType("application/zip");
+            share.putExtra(Intent.EXTRA_STREAM, FileProvider.getUriForFile(this, authority, output));
+        }
+        share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, "Compartir fotos"));
+    }
+
+    /**
+     * Informe con nombre, fecha y GPS de toda la biblioteca, sea cual sea el
+     * álbum a la vista y sin filtros.
+     */
+    private void chooseReport() {
+        if (jobs.report.isRunning()) {
+            jobs.report.cancel();
+            return;
+        }
+        String[] options = {"CSV en la app", "GeoJSON en la app", "CSV en...", "GeoJSON en..."};
+        new AlertDialog.Builder(this)
+                .setTitle("Exportar datos de todas las fotos")
+                .setItems(options, (dialog, which) -> {
+                    MetadataExporter.Format format = which % 2 == 0
+                            ? MetadataExporter.Format.CSV : MetadataExporter.Format.GEOJSON;
+                    String name = "fotos." + format.extension;
+                    if (which >= 2) {
+                        (format == MetadataExporter.Format.CSV ? csvDocumentLauncher : geoJsonDocumentLauncher)
+                                .launch(name);
+                        return;
+                    }
+                    File dir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
+                    if (dir == null) dir = new File(getFilesDir(), "exports");
+                    File file = new File(dir, name);
+                    startReport(format, file.getPath(), () -> {
+                        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                            throw new IOException("No se pudo crear " + file.getParentFile());
+                        }
+                        return new FileOutputStream(file);
+                    });
+                })
+                .show();
+    }
+
+    private void exportReportTo(Uri uri, MetadataExporter.Format format) {
+        if (uri == null) return; // El usuario canceló el selector
+        ContentResolver resolver = getApplicationContext().getContentResolver();
+        startReport(format, uri.toString(), () -> {
+            OutputStream out = resolver.openOutputStream(uri, "wt");
+            if (out == null) throw new IOException("No se pudo abrir " + uri);
+            return out;
+        });
+    }
+
+    private interface OutputOpener {
+        OutputStream open() throws IOException;
+    }
+
+    private void startReport(MetadataExporter.Format format, String destination, OutputOpener opener) {
+        // Un loader propio sobre todas las fotos, cualquiera que sea el álbum a la vista.
+        // Comparte el índice de ese álbum, pero no el loader: el de la actividad se apaga con ella
+        PhotoLoader loader = new PhotoLoader(this, Album.ALL, albumState(Album.ALL).exifIndex);
+        MetadataExporter job = new MetadataExporter(loader);
+        if (!jobs.report.start(reportWork(job, loader, format, destination, opener), job::cancel)) {
+            loader.shutdown();
+            return;
+        }
+        btnReport.setText("DETENER");
+        if (tvTitle != null) tvTitle.setText("Exportando datos...");
+    }
+
+    // Estático, como retagWork: el informe no retiene la actividad
+    private static JobSlot.Work<Void, BackgroundJobs.Report> reportWork(
+            MetadataExporter job, PhotoLoader loader, MetadataExporter.Format format,
+            String destination, OutputOpener opener) {
+        return progress -> {
+            // Consulta y galería propias, armadas en este hilo: el hilo principal
+            // sigue escribiendo EXIF en la de la vista y no se comparte nada con él
+            try {
+                PhotoStore store = loader.snapshot(null);
+                try (Writer out = new OutputStreamWriter(
+                        new BufferedOutputStream(opener.open(), 64 * 1024), StandardCharsets.UTF_8)) {
+                    return new BackgroundJobs.Report(job.export(store, format, out), store.size(), destination);
+                }
+            } finally {
+                loader.shutdown();
             }
+        };
+    }
+
+    private void finishReport(BackgroundJobs.Report report, Exception error) {
+        btnReport.setText("INFORME");
+        if (tvTitle != null) tvTitle.setText("Galería de Fotos");
+        if (error != null) {
+            Log.e(TAG, "Error al exportar los datos", error);
+            Toast.makeText(this, "Error: " + error.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        int rows = report.rows;
+        int total = report.total;
+        Log.d(TAG, "Informe: " + rows + " de " + total + " fotos en " + report.destination);
+        Toast.makeText(this, (rows < total ? "Exportación detenida: " + rows + " de " + total : rows + " fotos")
+                + " en " + report.destination, Toast.LENGTH_LONG).show();
+    }
 
-            photoAdapter.updateData(photoList);
+    private static void clearDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.delete()) Log.w(TAG, "No se pudo borrar " + file);
+        }
+    }
+
+    private final PagedPhotoSource.Listener sourceListener = new PagedPhotoSource.Listener() {
+        @Override
+        public void onInserted(int position, int count) {
+            photoAdapter.onPhotosInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            photoAdapter.onPhotosRemoved(position, count);
+        }
 
-            if (photoList.isEmpty()) {
-                Toast.makeText(this, "No hay fotos disponibles", Toast.LENGTH_SHORT).show();
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            photoAdapter.onPhotosMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            photoAdapter.onPhotosChanged(position, count, payload);
+        }
+
+        @Override
+        public void onViewReset(int count) {
+            photoAdapter.notifyDataSetChanged();
+        }
+
+        @Override
+        public void onSnapshot(int count) {
+            if (count == 0 && !photoSource.isFiltered()) {
+                Toast.makeText(MainActivity.this, "No hay fotos disponibles", Toast.LENGTH_SHORT).show();
             } else {
-                Log.d(TAG, "Cargadas " + photoList.size() + " fotos");
+                Log.d(TAG, "Galería con " + count + " fotos");
             }
+            updateDuplicates();
+        }
 
-        } catch (Exception e) {
+        @Override
+        public void onError(Exception e) {
             Log.e(TAG, "Error al cargar fotos", e);
-            Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            Toast.makeText(MainActivity.this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    };
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // En segundo plano no se escucha: onResume compara con la generación guardada
+        if (observingMedia) {
+            getContentResolver().unregisterContentObserver(mediaObserver);
+            observingMedia = false;
+        }
+        mainHandler.removeCallbacks(refreshRunnable);
+        saveGallerySnapshot();
+        // Guarda el orden de uso de la caché de miniaturas en disco
+        ThumbnailLoader thumbnailLoader = ThumbnailLoader.get(this);
+        thumbnailLoader.getDiskCache().flush();
+        Log.d(TAG, thumbnailLoader.getMemoryCache().stats());
+        if (photoAdapter != null && photoAdapter.getScheduler() != null) {
+            Log.d(TAG, photoAdapter.getScheduler().stats());
+        }
+    }
+
+    // Antes de conectar el adapter: restore() no avisa de nada
+    private GallerySnapshot readGallerySnapshot() {
+        GallerySnapshot snapshot = readGallerySnapshot(album);
+        if (snapshot == null) return null;
+        photoSource.restore(snapshot.store);
+        savedRevision = photoSource.getRevision();
+        savedAnchorId = snapshot.anchorId;
+        return snapshot;
+    }
+
+    private GallerySnapshot readGallerySnapshot(Album album) {
+        if (!hasPermissions()) return null;
+        long start = SNAPSHOT_RESTORE.start();
+        try {
+            GallerySnapshot snapshot = GallerySnapshot.read(new File(getFilesDir(), album.fileName(GALLERY_SNAPSHOT)));
+            if (snapshot == null) return null;
+            Log.d(TAG, "Galería guardada de " + album.key + " con " + snapshot.store.size() + " fotos");
+            return snapshot;
+        } finally {
+            SNAPSHOT_RESTORE.stop(start);
         }
     }
 
+    // Solo si cambió la galería o la foto de arriba; la escritura va en segundo plano
+    private void saveGallerySnapshot() {
+        if (photoSource == null || photoSource.getStore().size() == 0) return;
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        int adapterPosition = layoutManager.findFirstVisibleItemPosition();
+        long anchorId = -1;
+        int anchorPosition = -1;
+        int anchorOffset = 0;
+        if (adapterPosition != RecyclerView.NO_POSITION) {
+            int position = photoAdapter.toPhotoPosition(adapterPosition);
+            PhotoItem anchor = photoSource.peek(position);
+            if (anchor != null) {
+                anchorId = anchor.getId();
+                // Con filtro u orden por captura la posición no es la fila: al volver se busca por _ID
+                if (!photoSource.isFiltered() && !photoSource.isSortedByCaptureTime()) {
+                    anchorPosition = position;
+                }
+                View first = layoutManager.findViewByPosition(adapterPosition);
+                if (first != null) anchorOffset = first.getTop() - recyclerView.getPaddingTop();
+            }
+        }
+        if (photoSource.getRevision() == savedRevision && anchorId == savedAnchorId) return;
+
+        // Copia en el hilo principal: los EXIF que sigan llegando no se mezclan con la escritura
+        GallerySnapshot snapshot = new GallerySnapshot(photoSource.getStore().copy(),
+                anchorId, anchorPosition, anchorOffset);
+        savedRevision = photoSource.getRevision();
+        savedAnchorId = anchorId;
+        File file = new File(getFilesDir(), album.fileName(GALLERY_SNAPSHOT));
+        snapshotExecutor.execute(() -> {
+            try {
+                snapshot.write(file);
+            } catch (IOException e) {
+                Log.e(TAG, "No se pudo guardar la galería", e);
+            }
+        });
+    }
+
+    // adb shell dumpsys activity com.example.fotoconmetadatos/.MainActivity metrics
+    @Override
+    public void dump(@NonNull String prefix, FileDescriptor fd, @NonNull PrintWriter writer, String[] args) {
+        if (!DebugMetrics.dump(writer, args)) {
+            super.dump(prefix, fd, writer, args);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // El lote sigue sin la actividad; si el proceso muere, lo que falte queda en el diario
+        jobs.retag.detach(retagUi);
+        if (photoSource != null) {
+            photoSource.cancel();
+            pageExecutor.shutdownNow();
+            for (AlbumState state : albums.values()) state.loader.shutdown();
+        }
+        // Termina de escribir la galería pendiente y suelta el hilo
+        snapshotExecutor.shutdown();
+        // Los hashes ya calculados están guardados; el resto se calcula en el próximo inicio
+        duplicateExecutor.shutdownNow();
+        jobs.export.detach(exportUi);
+        // Al salir de la app nadie va a compartir la copia; en una rotación sigue
+        if (isFinishing()) jobs.export.abandon();
+        jobs.report.detach(reportUi);
+        if (isFinishing()) jobs.report.abandon();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
                                            @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 
-        if (requestCode == REQUEST_PERMISSIONS) {
+        if (requestCode == REQUEST_LOCATION_NEARBY || requestCode == REQUEST_LOCATION_GEOTAG) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                if (requestCode == REQUEST_LOCATION_NEARBY) {
+                    toggleNearby();
+                } else {
+                    geotagPhotosWithoutLocation();
+                }
+            } else {
+                Toast.makeText(this, "Permiso de ubicación denegado", Toast.LENGTH_SHORT).show();
+            }
+        } else if (requestCode == REQUEST_PERMISSIONS) {
             boolean allGranted = true;
             for (int result : grantResults) {
                 if (result != PackageManager.PERMISSION_GRANTED) {
@@ -215,6 +1043,7 @@ public class MainActivity extends AppCompatActivity {
             }
 
             if (allGranted) {
+                startObservingMedia();
                 loadPhotos();
             } else {
                 Toast.makeText(this, "Permisos necesarios no concedidos",
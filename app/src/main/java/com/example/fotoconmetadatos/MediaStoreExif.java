@@ -0,0 +1,42 @@
+package com.example.fotoconmetadatos;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Reescritura en el lugar del EXIF de una foto de MediaStore. */
+final class MediaStoreExif {
+
+    private static final Metrics.Timer OPEN = Metrics.timer("exif.rewrite_open");
+    private static final Metrics.Timer SPLICE = Metrics.timer("exif.rewrite_splice");
+
+    private MediaStoreExif() {
+    }
+
+    static void rewrite(ContentResolver resolver, Uri photoUri, ExifSpliceWriter writer) throws IOException {
+        // Un solo descriptor "rw": se reescribe el APP1 sin copiar la foto a un temporal
+        long start = OPEN.start();
+        ParcelFileDescriptor opened;
+        try {
+            opened = resolver.openFileDescriptor(photoUri, "rw");
+        } finally {
+            OPEN.stop(start);
+        }
+        try (ParcelFileDescriptor pfd = opened) {
+            if (pfd == null) {
+                throw new IOException("No se pudo abrir " + photoUri);
+            }
+            start = SPLICE.start();
+            try (FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
+                 FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+                writer.rewriteInPlace(in.getChannel(), out.getChannel());
+            } finally {
+                SPLICE.stop(start);
+            }
+        }
+    }
+}
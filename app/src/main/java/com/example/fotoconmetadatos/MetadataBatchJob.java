@@ -0,0 +1,379 @@
+package com.example.fotoconmetadatos;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Escribe la misma fecha y/o ubicación en muchas fotos ya existentes con
+ * {@link ExifSpliceWriter}, el mismo camino que usa la cámara. Las fotos se
+ * reparten en un pool fijo de hilos; quien encola se bloquea cuando hay
+ * demasiadas pendientes, así que la memoria no depende del tamaño del lote.
+ *
+ * El trabajo vive en un diario en disco: primero la lista de _ID y las
+ * etiquetas, después un registro por foto terminada. Si el proceso muere,
+ * {@link #resume} retoma con las que faltan. Reescribir dos veces la misma
+ * foto con las mismas etiquetas da el mismo archivo, así que una foto
+ * escrita pero sin anotar solo se repite.
+ */
+public class MetadataBatchJob {
+
+    private static final int MAGIC = 0x4D424A31; // "MBJ1"
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_DONE = 1;
+    private static final byte RECORD_FAILED = 2;
+
+    // Fotos encoladas por hilo además de la que procesa
+    private static final int QUEUE_PER_WORKER = 2;
+
+    /** Etiquetas a escribir; null o NaN deja la actual. */
+    public static final class Tags {
+        public final String dateTime;
+        public final double latitude;
+        public final double longitude;
+
+        public Tags(String dateTime, double latitude, double longitude) {
+            this.dateTime = dateTime;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        ExifSpliceWriter newWriter() {
+            ExifSpliceWriter writer = new ExifSpliceWriter();
+            if (dateTime != null) writer.setDateTime(dateTime);
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) writer.setLatLong(latitude, longitude);
+            return writer;
+        }
+    }
+
+    /** Reescribe en el lugar la foto {@code id}; se llama desde los hilos del pool. */
+    public interface Target {
+        void rewrite(long id, ExifSpliceWriter writer) throws IOException;
+    }
+
+    /** Se llama desde los hilos del pool. */
+    public interface Listener {
+        void onProgress(Progress progress);
+
+        void onItemFailed(long id, Exception e);
+    }
+
+    /** Estado del lote en un momento dado. */
+    public static final class Progress {
+        public final int total;
+        public final int done;
+        public final int failed;
+        public final long elapsedNanos;
+        // Solo las fotos de esta ejecución, no las que ya estaban hechas al retomar
+        final int processedThisRun;
+
+        Progress(int total, int done, int failed, long elapsedNanos, int processedThisRun) {
+            this.total = total;
+            this.done = done;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.processedThisRun = processedThisRun;
+        }
+
+        public boolean isFinished() {
+            return done + failed >= total;
+        }
+
+        public double photosPerSecond() {
+            return elapsedNanos > 0 ? processedThisRun * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.ROOT, "%d/%d (%d errores, %.1f fotos/s)",
+                    done + failed, total, failed, photosPerSecond());
+        }
+    }
+
+    /** Hilos por defecto: uno por núcleo, entre 2 y 8; con E/S de por medio conviene más de uno. */
+    public static int defaultWorkers() {
+        return Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private final File journalFile;
+    private final long[] ids;
+    private final Tags tags;
+    private final Set<Long> finished = new HashSet<>();
+    private final List<Long> failedIds = new ArrayList<>();
+    private final List<String> failedMessages = new ArrayList<>();
+    private volatile boolean cancelled;
+    private DataOutputStream journal;
+
+    private MetadataBatchJob(File journalFile, long[] ids, Tags tags) {
+        this.journalFile = journalFile;
+        this.ids = ids;
+        this.tags = tags;
+    }
+
+    /** Crea el lote y su diario; reemplaza un diario anterior. */
+    public static MetadataBatchJob create(File journalFile, long[] ids, Tags tags) throws IOException {
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(tags.dateTime != null ? tags.dateTime : "");
+            out.writeDouble(tags.latitude);
+            out.writeDouble(tags.longitude);
+            out.writeInt(ids.length);
+            byte[] block = new byte[8 * ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                long id = ids[i];
+                for (int b = 0; b < 8; b++) block[8 * i + b] = (byte) (id >>> (56 - 8 * b));
+            }
+            out.write(block);
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(journalFile)) {
+            tmp.delete();
+            throw new IOException("No se pudo crear " + journalFile);
+        }
+        return new MetadataBatchJob(journalFile, ids.clone(), tags);
+    }
+
+    /**
+     * Lee un lote a medio hacer. Devuelve null si no hay diario o está dañado en
+     * la cabecera. Un último registro incompleto se ignora y esa foto se repite;
+     * el diario se corta tras el último registro completo para que los
+     * siguientes no queden detrás de los bytes sueltos.
+     */
+    public static MetadataBatchJob resume(File journalFile) {
+        if (!journalFile.exists()) return null;
+        long fileLength = journalFile.length();
+        MetadataBatchJob job;
+        long validLength;
+        try (CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            String dateTime = in.readUTF();
+            double latitude = in.readDouble();
+            double longitude = in.readDouble();
+            int count = in.readInt();
+            // Un largo imposible es una cabecera dañada, no un arreglo que reservar
+            if (count < 0 || count > (fileLength - counter.count) / 8) return null;
+            long[] ids = new long[count];
+            for (int i = 0; i < ids.length; i++) ids[i] = in.readLong();
+
+            job = new MetadataBatchJob(journalFile, ids,
+                    new Tags(dateTime.isEmpty() ? null : dateTime, latitude, longitude));
+            validLength = counter.count;
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    long id = in.readLong();
+                    if (type == RECORD_DONE) {
+                        job.finished.add(id);
+                    } else if (type == RECORD_FAILED) {
+                        String message = in.readUTF();
+                        job.finished.add(id);
+                        job.failedIds.add(id);
+                        job.failedMessages.add(message);
+                    } else {
+                        break;
+                    }
+                    validLength = counter.count;
+                }
+            } catch (EOFException e) {
+                // Fin del diario, o el proceso murió a mitad de un registro
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (validLength < fileLength) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.getChannel().truncate(validLength);
+            } catch (IOException e) {
+                // Sin cortar, lo que se anexe quedaría ilegible: mejor no retomar
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return job;
+    }
+
+    // Bytes consumidos por quien lee, para saber dónde acaba cada registro
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    public Tags getTags() {
+        return tags;
+    }
+
+    public int getTotal() {
+        return ids.length;
+    }
+
+    public synchronized int getRemaining() {
+        return ids.length - finished.size();
+    }
+
+    /** _ID de las fotos que fallaron, también en ejecuciones anteriores. */
+    public synchronized List<Long> getFailedIds() {
+        return Collections.unmodifiableList(new ArrayList<>(failedIds));
+    }
+
+    public synchronized List<String> getFailedMessages() {
+        return Collections.unmodifiableList(new ArrayList<>(failedMessages));
+    }
+
+    /** Deja de encolar; las fotos en curso terminan y quedan anotadas, el resto queda pendiente. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Procesa las fotos que faltan con {@code workers} hilos y bloquea hasta
+     * terminar o cancelar. Al completar el lote el diario se borra.
+     */
+    public Progress run(Target target, int workers, Listener listener) throws IOException, InterruptedException {
+        return run(target, workers, PhotoLoader.backgroundThreads("retag"), listener);
+    }
+
+    Progress run(Target target, int workers, ThreadFactory threads, Listener listener)
+            throws IOException, InterruptedException {
+        List<Long> pending = new ArrayList<>();
+        int alreadyDone;
+        int alreadyFailed;
+        synchronized (this) {
+            for (long id : ids) {
+                if (!finished.contains(id)) pending.add(id);
+            }
+            alreadyFailed = failedIds.size();
+            alreadyDone = finished.size() - alreadyFailed;
+            journal = new DataOutputStream(new FileOutputStream(journalFile, true));
+        }
+
+        final long start = System.nanoTime();
+        final AtomicInteger done = new AtomicInteger(alreadyDone);
+        final AtomicInteger failed = new AtomicInteger(alreadyFailed);
+        final AtomicInteger processed = new AtomicInteger();
+        final int reportEvery = Math.max(1, ids.length / 100);
+        final Semaphore slots = new Semaphore(workers * (QUEUE_PER_WORKER + 1));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threads);
+
+        try {
+            for (Long boxed : pending) {
+                if (cancelled) break;
+                slots.acquire(); // Contrapresión: espera a que se libere un hueco
+                final long id = boxed;
+                executor.execute(() -> {
+                    try {
+                        if (cancelled) return; // Las encoladas sin empezar quedan para después
+                        Exception error = null;
+                        try {
+                            target.rewrite(id, tags.newWriter());
+                        } catch (Exception e) {
+                            error = e;
+                        }
+                        record(id, error);
+                        if (error == null) {
+                            done.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            if (listener != null) listener.onItemFailed(id, error);
+                        }
+                        int count = processed.incrementAndGet();
+                        if (listener != null && count % reportEvery == 0) {
+                            listener.onProgress(new Progress(ids.length, done.get(), failed.get(),
+                                    System.nanoTime() - start, count));
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Sigue esperando: las fotos en curso terminan aunque se haya cancelado
+            }
+        } finally {
+            executor.shutdownNow();
+            synchronized (this) {
+                journal.close();
+                journal = null;
+            }
+        }
+
+        Progress progress = new Progress(ids.length, done.get(), failed.get(),
+                System.nanoTime() - start, processed.get());
+        if (progress.isFinished() && !journalFile.delete()) {
+            throw new IOException("No se pudo borrar " + journalFile);
+        }
+        if (listener != null) listener.onProgress(progress);
+        return progress;
+    }
+
+    // Un registro por foto; se vacía enseguida para que sobreviva a la muerte del proceso
+    private synchronized void record(long id, Exception error) {
+        finished.add(id);
+        String message = null;
+        if (error != null) {
+            message = String.valueOf(error.getMessage());
+            failedIds.add(id);
+            failedMessages.add(message);
+        }
+        try {
+            journal.writeByte(error == null ? RECORD_DONE : RECORD_FAILED);
+            journal.writeLong(id);
+            if (message != null) journal.writeUTF(message);
+            journal.flush();
+        } catch (IOException e) {
+            // Sin diario la foto se repetiría al retomar; escribirla otra vez es inocuo
+            e.printStackTrace();
+        }
+    }
+}
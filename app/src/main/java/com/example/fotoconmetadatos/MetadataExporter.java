@@ -0,0 +1,231 @@
+package com.example.fotoconmetadatos;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Informe de todas las fotos de una galería (nombre, fecha de captura y GPS
+ * de cada una) en CSV o GeoJSON, escrito a medida que se lee. La app le pasa
+ * una galería recién consultada de {@link Album#ALL}: toda la biblioteca.
+ *
+ * Las filas van por tandas: el EXIF que falta se lee en paralelo con
+ * {@link PagedPhotoSource.PageLoader#resolveExif} y cada tanda se formatea en
+ * su hilo, pero se escriben en el orden de la galería y nunca hay más de
+ * {@link #WINDOW} tandas en memoria.
+ *
+ * No modifica la galería que recibe, pero la lee desde sus hilos sin
+ * sincronizar: nadie más debe escribir en ella mientras dura el informe. La de
+ * la vista no sirve (el hilo principal le sigue poniendo EXIF); sí una propia
+ * o una {@link PhotoStore#copy}. No depende de Android.
+ */
+public class MetadataExporter {
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        GEOJSON("application/geo+json", "geojson");
+
+        public final String mimeType;
+        public final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+    }
+
+    /** Filas por tanda. */
+    static final int BATCH = 512;
+    /** Tandas leídas o formateadas por adelantado mientras se escribe la primera. */
+    static final int WINDOW = 4;
+
+    private static final Metrics.Timer EXPORT = Metrics.timer("report.export");
+    private static final Metrics.Counter ROWS = Metrics.counter("report.rows");
+
+    private final PagedPhotoSource.PageLoader loader;
+    private volatile boolean cancelled;
+
+    public MetadataExporter(PagedPhotoSource.PageLoader loader) {
+        this.loader = loader;
+    }
+
+    /** Deja de leer tandas nuevas; {@link #export} termina con lo que ya escribió. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Escribe el informe de todas las fotos de {@code store} en {@code out} y
+     * devuelve cuántas filas escribió. No cierra {@code out}; conviene que tenga búfer.
+     */
+    public int export(PhotoStore store, Format format, Writer out) throws Exception {
+        return export(store, format, out, PhotoLoader.backgroundThreads("report"));
+    }
+
+    int export(PhotoStore store, Format format, Writer out, ThreadFactory threads) throws Exception {
+        long start = EXPORT.start();
+        // Dos hilos bastan: resolveExif ya reparte las lecturas en su propio pool
+        ExecutorService executor = Executors.newFixedThreadPool(2, threads);
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        int total = store.size();
+        int written = 0;
+        try {
+            out.write(format == Format.CSV
+                    ? "id,nombre,fecha_captura,latitud,longitud\n"
+                    : "{\"type\":\"FeatureCollection\",\"features\":[\n");
+            int next = 0;
+            while (next < total || !window.isEmpty()) {
+                // Contrapresión: se adelanta como mucho WINDOW tandas a la escritura
+                while (next < total && window.size() < WINDOW && !cancelled) {
+                    int from = next;
+                    int to = Math.min(total, from + BATCH);
+                    boolean first = from == 0;
+                    window.add(executor.submit(() -> format(store, from, to, format, first)));
+                    next = to;
+                }
+                if (window.isEmpty()) break;
+                String chunk = take(window.poll());
+                out.write(chunk);
+                written = Math.min(total, written + BATCH);
+            }
+            if (format == Format.GEOJSON) out.write("\n]}\n");
+            out.flush();
+            ROWS.add(written);
+            return written;
+        } finally {
+            for (Future<String> pending : window) pending.cancel(true);
+            executor.shutdownNow();
+            EXPORT.stop(start);
+        }
+    }
+
+    private static String take(Future<String> chunk) throws Exception {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        }
+    }
+
+    // Lee el EXIF que falta de [from, to) y da el texto de esas filas
+    private String format(PhotoStore store, int from, int to, Format format, boolean first) throws Exception {
+        int[] unresolved = new int[to - from];
+        int count = 0;
+        for (int row = from; row < to; row++) {
+            if (!store.isExifResolved(row)) unresolved[count++] = row;
+        }
+        ExifIndex.Entry[] entries = count > 0
+                ? loader.resolveExif(store, Arrays.copyOf(unresolved, count))
+                : new ExifIndex.Entry[0];
+
+        StringBuilder text = new StringBuilder((to - from) * 96);
+        int entry = 0;
+        for (int row = from; row < to; row++) {
+            long captureTime;
+            double latitude;
+            double longitude;
+            if (entry < count && unresolved[entry] == row) {
+                ExifIndex.Entry read = entries[entry++];
+                captureTime = read != null ? read.captureTime : CaptureTime.UNKNOWN;
+                latitude = read != null ? read.latitude : Double.NaN;
+                longitude = read != null ? read.longitude : Double.NaN;
+            } else {
+                // Ya resuelta en la galería (del índice o de una página vista)
+                captureTime = store.captureTimeAt(row);
+                latitude = store.latitudeAt(row);
+                longitude = store.longitudeAt(row);
+            }
+            if (format == Format.CSV) {
+                appendCsv(text, store.idAt(row), store.nameAt(row), captureTime, latitude, longitude);
+            } else {
+                if (!first || row > from) text.append(",\n");
+                appendFeature(text, store.idAt(row), store.nameAt(row), captureTime, latitude, longitude);
+            }
+        }
+        return text.toString();
+    }
+
+    static void appendCsv(StringBuilder out, long id, String name, long captureTime,
+                          double latitude, double longitude) {
+        out.append(id).append(',');
+        // RFC 4180: entre comillas si hace falta, con las comillas duplicadas
+        if (name.indexOf(',') >= 0 || name.indexOf('"') >= 0 || name.indexOf('\n') >= 0
+                || name.indexOf('\r') >= 0) {
+            out.append('"').append(name.replace("\"", "\"\"")).append('"');
+        } else {
+            out.append(name);
+        }
+        out.append(',').append(CaptureTime.formatIso(captureTime)).append(',');
+        if (hasLocation(latitude, longitude)) {
+            appendCoordinate(out, latitude);
+            out.append(',');
+            appendCoordinate(out, longitude);
+        } else {
+            out.append(',');
+        }
+        out.append('\n');
+    }
+
+    // Las fotos sin GPS van con geometría nula, como admite RFC 7946
+    static void appendFeature(StringBuilder out, long id, String name, long captureTime,
+                              double latitude, double longitude) {
+        out.append("{\"type\":\"Feature\",\"geometry\":");
+        if (hasLocation(latitude, longitude)) {
+            out.append("{\"type\":\"Point\",\"coordinates\":[");
+            appendCoordinate(out, longitude);
+            out.append(',');
+            appendCoordinate(out, latitude);
+            out.append("]}");
+        } else {
+            out.append("null");
+        }
+        out.append(",\"properties\":{\"id\":").append(id).append(",\"nombre\":");
+        appendJsonString(out, name);
+        out.append(",\"fecha_captura\":");
+        if (captureTime == CaptureTime.UNKNOWN) {
+            out.append("null");
+        } else {
+            out.append('"').append(CaptureTime.formatIso(captureTime)).append('"');
+        }
+        out.append("}}");
+    }
+
+    private static boolean hasLocation(double latitude, double longitude) {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    // Seis decimales (~10 cm) sin String.format ni notación científica
+    static void appendCoordinate(StringBuilder out, double value) {
+        long micros = Math.round(value * 1_000_000);
+        if (micros < 0) {
+            out.append('-');
+            micros = -micros;
+        }
+        out.append(micros / 1_000_000).append('.');
+        String fraction = Long.toString(micros % 1_000_000);
+        for (int i = fraction.length(); i < 6; i++) out.append('0');
+        out.append(fraction);
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(java.util.Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores, histogramas y temporizadores de los caminos calientes (consulta,
+ * EXIF, decodificación, enlace, captura). Registrar no toma ningún lock ni
+ * asigna memoria: cada métrica se pide una vez y se guarda en un campo estático.
+ *
+ * Los temporizadores abren además una sección del {@link Tracer} instalado, que
+ * en la app es {@code android.os.Trace}, así la misma medida aparece en
+ * Perfetto. {@link #toJson} vuelca todo para comparar versiones sin perfilador.
+ */
+public final class Metrics {
+
+    /** Secciones de traza; begin y end se llaman en el mismo hilo. */
+    public interface Tracer {
+        void begin(String section);
+
+        void end();
+    }
+
+    private static final Tracer NO_TRACE = new Tracer() {
+        @Override
+        public void begin(String section) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final long CREATED_NANOS = System.nanoTime();
+
+    private static volatile Tracer tracer = NO_TRACE;
+    private static volatile long resetNanos = CREATED_NANOS;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** {@code name} también es el nombre de la sección de traza. */
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    public static void setTracer(Tracer newTracer) {
+        tracer = newTracer != null ? newTracer : NO_TRACE;
+    }
+
+    /**
+     * Pone todo a cero. Lo que se registre a la vez puede quedar a medias en
+     * un histograma; para comparar una carga con otra alcanza.
+     */
+    public static void reset() {
+        for (Counter counter : COUNTERS.values()) counter.reset();
+        for (Histogram histogram : HISTOGRAMS.values()) histogram.reset();
+        for (Timer timer : TIMERS.values()) timer.histogram.reset();
+        resetNanos = System.nanoTime();
+    }
+
+    /**
+     * Todas las métricas en JSON, ordenadas por nombre. Los tiempos van en
+     * microsegundos; los percentiles salen de los cubos y pueden pasarse del
+     * valor real en hasta un 12,5 %.
+     */
+    public static String toJson() {
+        long now = System.nanoTime();
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n  \"uptime_ms\": ").append((now - CREATED_NANOS) / 1_000_000)
+                .append(",\n  \"since_reset_ms\": ").append((now - resetNanos) / 1_000_000)
+                .append(",\n  \"counters\": {");
+        String separator = "";
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            json.append(separator).append("\n    \"").append(entry.getKey()).append("\": ")
+                    .append(entry.getValue().get());
+            separator = ",";
+        }
+        json.append(separator.isEmpty() ? "}" : "\n  }").append(",\n  \"timers\": {");
+        separator = "";
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(TIMERS).entrySet()) {
+            json.append(separator).append("\n    \"").append(entry.getKey()).append("\": ");
+            entry.getValue().histogram.appendJson(json, 1000, "_us");
+            separator = ",";
+        }
+        json.append(separator.isEmpty() ? "}" : "\n  }").append(",\n  \"histograms\": {");
+        separator = "";
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            json.append(separator).append("\n    \"").append(entry.getKey()).append("\": ");
+            entry.getValue().appendJson(json, 1, "");
+            separator = ",";
+        }
+        json.append(separator.isEmpty() ? "}" : "\n  }").append("\n}");
+        return json.toString();
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        Counter() {
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Distribución de valores no negativos en cubos log-lineales: 8 cubos por
+     * cada potencia de dos, así un percentil no se pasa del real en más de
+     * 1/8, con 488 contadores fijos.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BITS = 3;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        /** Límite superior del cubo donde cae el percentil {@code p} (0..1), sin pasar del máximo. */
+        public long percentile(double p) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BITS);
+            return ((SUB_BUCKETS + sub) * width) + width - 1;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        void appendJson(StringBuilder json, long divisor, String suffix) {
+            long n = count();
+            json.append("{\"count\": ").append(n)
+                    .append(", \"mean").append(suffix).append("\": ")
+                    .append(String.format(Locale.ROOT, "%.1f", n > 0 ? (double) sum() / n / divisor : 0.0))
+                    .append(", \"p50").append(suffix).append("\": ").append(percentile(0.50) / divisor)
+                    .append(", \"p90").append(suffix).append("\": ").append(percentile(0.90) / divisor)
+                    .append(", \"p99").append(suffix).append("\": ").append(percentile(0.99) / divisor)
+                    .append(", \"max").append(suffix).append("\": ").append(max() / divisor)
+                    .append('}');
+        }
+    }
+
+    /**
+     * Duraciones en nanosegundos. Uso:
+     * {@code long start = TIMER.start(); try { ... } finally { TIMER.stop(start); }}
+     */
+    public static final class Timer {
+        private final String name;
+        private final Histogram histogram = new Histogram();
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        public long start() {
+            tracer.begin(name);
+            return System.nanoTime();
+        }
+
+        public void stop(long startNanos) {
+            histogram.record(System.nanoTime() - startNanos);
+            tracer.end();
+        }
+
+        /** Duración medida por otro lado (p. ej. entre dos hilos); no abre sección de traza. */
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.fotoconmetadatos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tabla de nombres internados: todos los caracteres en un solo char[] y cada
+ * nombre como un índice. Los nombres repetidos se guardan una vez. El String
+ * solo se crea al pedirlo con {@link #get}, es decir, al enlazar la celda.
+ */
+final class NameTable {
+
+    private char[] chars = new char[256];
+    private int charCount;
+    // Inicio de cada nombre; el final es el inicio del siguiente
+    private int[] starts = new int[17];
+    private int count;
+    // Direccionamiento abierto: índice del nombre + 1, 0 = libre
+    private int[] slots = new int[32];
+
+    NameTable() {
+    }
+
+    // Ya cerrada: solo para leer
+    private NameTable(char[] chars, int[] starts, int count) {
+        this.chars = chars;
+        this.charCount = chars.length;
+        this.starts = starts;
+        this.count = count;
+        this.slots = null;
+    }
+
+    /** Devuelve el índice del nombre, agregándolo si no estaba. */
+    int intern(char[] data, int offset, int length) {
+        if (slots == null) throw new IllegalStateException("Tabla ya cerrada con trim()");
+        int hash = hash(data, offset, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int ref = slots[slot] - 1;
+            if (equals(ref, data, offset, length)) return ref;
+            slot = (slot + 1) & mask;
+        }
+
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        System.arraycopy(data, offset, chars, charCount, length);
+        charCount += length;
+        if (count + 2 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        int ref = count++;
+        starts[count] = charCount;
+        slots[slot] = ref + 1;
+        if (count * 2 > slots.length) rehash();
+        return ref;
+    }
+
+    int intern(String name) {
+        char[] data = name.toCharArray();
+        return intern(data, 0, data.length);
+    }
+
+    String get(int ref) {
+        return new String(chars, starts[ref], starts[ref + 1] - starts[ref]);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int charCount() {
+        return charCount;
+    }
+
+    /** Caracteres y después inicios, cada bloque alineado a 8 bytes (ver {@link PhotoStore#writeColumns}). */
+    void writeTo(ByteBuffer out) {
+        out.asCharBuffer().put(chars, 0, charCount);
+        PhotoStore.skip(out, 2L * charCount);
+        out.asIntBuffer().put(starts, 0, count + 1);
+        PhotoStore.skip(out, 4L * (count + 1));
+    }
+
+    static NameTable readFrom(ByteBuffer in, int count, int charCount) {
+        char[] chars = new char[charCount];
+        in.asCharBuffer().get(chars);
+        PhotoStore.skip(in, 2L * charCount);
+        int[] starts = new int[count + 1];
+        in.asIntBuffer().get(starts);
+        PhotoStore.skip(in, 4L * (count + 1));
+        if (starts[0] != 0 || starts[count] != charCount) {
+            throw new IllegalArgumentException("Tabla de nombres incoherente");
+        }
+        for (int ref = 0; ref < count; ref++) {
+            if (starts[ref + 1] < starts[ref]) throw new IllegalArgumentException("Nombre " + ref + " con largo negativo");
+        }
+        return new NameTable(chars, starts, count);
+    }
+
+    /** Bytes aproximados que ocupan los arreglos internos. */
+    long estimatedBytes() {
+        return 2L * chars.length + 4L * starts.length + (slots != null ? 4L * slots.length : 0);
+    }
+
+    /** Ajusta los arreglos a lo usado y suelta la tabla hash; después solo se lee. */
+    void trim() {
+        chars = Arrays.copyOf(chars, charCount);
+        starts = Arrays.copyOf(starts, count + 1);
+        slots = null;
+    }
+
+    private boolean equals(int ref, char[] data, int offset, int length) {
+        int start = starts[ref];
+        if (starts[ref + 1] - start != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != data[offset + i]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] bigger = new int[slots.length * 2];
+        int mask = bigger.length - 1;
+        for (int ref = 0; ref < count; ref++) {
+            int start = starts[ref];
+            int slot = hash(chars, start, starts[ref + 1] - start) & mask;
+            while (bigger[slot] != 0) slot = (slot + 1) & mask;
+            bigger[slot] = ref + 1;
+        }
+        slots = bigger;
+    }
+
+    private static int hash(char[] data, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
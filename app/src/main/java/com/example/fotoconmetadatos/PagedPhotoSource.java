@@ -0,0 +1,733 @@
+package com.example.fotoconmetadatos;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vista paginada de la galería sobre un {@link PhotoStore}. Las filas de
+ * MediaStore están todas en columnas compactas; lo caro, leer el EXIF de cada
+ * archivo, se hace por páginas alrededor de lo visible. Las páginas que un
+ * fling ya dejó atrás no llegan a leerse.
+ *
+ * Al refrescar se compara la galería nueva con la anterior en segundo plano y
+ * el listener recibe solo las inserciones, borrados y cambios. Las coordenadas
+ * leídas alimentan un {@link GeoIndex}; con un filtro por zona la vista muestra
+ * solo las filas que devuelve el índice. Ordenada por hora de captura, la vista
+ * lleva un {@link TimelineIndex} con sus secciones de día y mes. La vista de
+ * repetidas muestra solo los grupos de {@link DuplicateIndex}, uno tras otro.
+ *
+ * El estado solo se toca desde el hilo principal; las consultas van al
+ * ejecutor de fondo y sus resultados vuelven por {@code mainExecutor}.
+ */
+public class PagedPhotoSource {
+
+    public static final int PAGE_SIZE = 60;
+    // Páginas que se leen por delante y por detrás de la ventana visible
+    private static final int PRELOAD_PAGES = 1;
+    // Más allá de esta distancia (en páginas) un pedido encolado ya no se lee
+    private static final int KEEP_PAGES = 2;
+    // Filas por tanda al leer todo el EXIF; entre tandas pasan los pedidos de páginas
+    private static final int BACKFILL_ROWS = 256;
+
+    /** Acceso a los datos; se llama siempre desde el ejecutor de fondo. */
+    public interface PageLoader {
+        /** Galería actual, o {@code previous} tal cual si no cambió nada. */
+        PhotoStore snapshot(PhotoStore previous) throws Exception;
+
+        /** EXIF de esas filas de {@code store}, en el mismo orden. */
+        ExifIndex.Entry[] resolveExif(PhotoStore store, int[] rows) throws Exception;
+    }
+
+    /**
+     * Se llama en el hilo principal. Los avisos de {@link ListUpdateCallback}
+     * llegan en el orden en que hay que aplicarlos al adapter.
+     */
+    public interface Listener extends ListUpdateCallback {
+        /** Se aplicó una galería nueva con {@code count} fotos visibles. */
+        void onSnapshot(int count);
+
+        /** Cambió el orden o el filtro: la lista se reemplaza entera. */
+        void onViewReset(int count);
+
+        void onError(Exception e);
+    }
+
+    // Consulta al índice espacial que decide qué fotos se muestran
+    private interface GeoQuery {
+        int run(GeoIndex index, long[] out);
+    }
+
+    // Cambia con switchTo(); las tareas de fondo usan el de cuando se encolaron
+    private PageLoader loader;
+    private final Executor backgroundExecutor;
+    private final Executor mainExecutor;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Set<Integer> loading = new HashSet<>();
+    private final GeoIndex geoIndex = new GeoIndex();
+    // Tras restore() el índice se llena la primera vez que se usa, no antes del primer cuadro
+    private boolean geoIndexPending;
+    private PhotoStore store = PhotoStore.EMPTY;
+    // Cambia con cada galería aplicada y cada EXIF leído
+    private int revision;
+    private Listener listener;
+    private int firstVisible;
+    private int lastVisible = -1;
+    // Copia de la ventana para que el fondo pueda saltarse páginas que ya no interesan
+    private volatile int wantedFirstPage;
+    private volatile int wantedLastPage = -1;
+
+    // Vista: filas de store en el orden en que se muestran; null = todas en orden de galería
+    private GeoQuery query;
+    // Grupos de _ID de fotos repetidas; con ellos la vista no tiene otro filtro ni orden
+    private long[][] groups;
+    // Posición de la vista donde empieza cada grupo
+    private int[] groupStarts;
+    private boolean byCaptureTime;
+    private int[] viewRows;
+    private int viewCount;
+    // Posición de cada fila en la vista, -1 si no se muestra
+    private int[] viewPositions;
+    private TimelineIndex timeline;
+    private boolean viewStale;
+    // Cambia con la galería o el filtro: las posiciones pedidas antes ya no valen
+    private int viewVersion;
+
+    // Lectura de todo el EXIF por tandas
+    private boolean resolvingAll;
+    private boolean backfillRunning;
+    private int backfillCursor;
+    private final List<Runnable> whenResolved = new ArrayList<>();
+
+    public PagedPhotoSource(PageLoader loader, Executor backgroundExecutor, Executor mainExecutor) {
+        this.loader = loader;
+        this.backgroundExecutor = backgroundExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Fotos que se muestran: la galería completa o las que pasan el filtro. */
+    public int size() {
+        return viewRows == null ? store.size() : viewCount;
+    }
+
+    public PhotoStore getStore() {
+        return store;
+    }
+
+    /** Índice de las coordenadas ya leídas; completo tras {@link #resolveAll}. */
+    public GeoIndex getGeoIndex() {
+        fillGeoIndex();
+        return geoIndex;
+    }
+
+    /** Distinta cada vez que cambia lo que hay que guardar de la galería. */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Muestra una galería guardada mientras llega la de MediaStore. No avisa al
+     * listener, así que va antes de conectar el adapter. El siguiente
+     * {@link #refresh} la compara con MediaStore y aplica solo lo que cambió;
+     * si la huella sigue igual ni siquiera consulta.
+     */
+    public void restore(PhotoStore saved) {
+        if (saved == null || store.size() > 0) return;
+        store = saved;
+        viewChanged();
+        geoIndexPending = true;
+    }
+
+    /**
+     * Pasa a otra biblioteca (otro {@link Album}) sin esperar a MediaStore:
+     * muestra {@code saved}, la última galería de ese álbum, o nada si no hay.
+     * Lo que estaba en curso se descarta y se quitan filtro y orden; el
+     * listener recibe onViewReset. El siguiente {@link #refresh} compara
+     * {@code saved} con la biblioteca nueva y aplica solo lo que cambió.
+     */
+    public void switchTo(PageLoader newLoader, PhotoStore saved) {
+        generation.incrementAndGet();
+        loader = newLoader;
+        store = saved != null ? saved : PhotoStore.EMPTY;
+        revision++;
+        resolvingAll = false;
+        whenResolved.clear();
+        backfillCursor = 0;
+        query = null;
+        groups = null;
+        byCaptureTime = false;
+        geoIndex.clear();
+        geoIndexPending = true;
+        rebuildView(true);
+    }
+
+    private void fillGeoIndex() {
+        if (!geoIndexPending) return;
+        geoIndexPending = false;
+        geoIndex.update(PhotoStore.EMPTY, store);
+    }
+
+    public boolean isFiltered() {
+        return query != null || groups != null;
+    }
+
+    public boolean isGrouped() {
+        return groups != null;
+    }
+
+    /** Grupo de repetidas (desde 0) de la foto en {@code position}; -1 fuera de esa vista. */
+    public int groupAt(int position) {
+        if (groupStarts == null || position < 0 || position >= size()) return -1;
+        int index = Arrays.binarySearch(groupStarts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public boolean isSortedByCaptureTime() {
+        return byCaptureTime;
+    }
+
+    /** Secciones de la vista ordenada por captura; null en orden de galería. */
+    public TimelineIndex getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * La foto en {@code position}, o null si no existe. Si su EXIF aún no se
+     * leyó se pide su página y la celda se vuelve a enlazar al tenerlo.
+     */
+    public PhotoItem get(int position) {
+        if (position < 0 || position >= size()) return null;
+        int row = rowAt(position);
+        if (!store.isExifResolved(row)) {
+            int page = position / PAGE_SIZE;
+            // Se enlaza antes del primer aviso de scroll: la ventana se ajusta después
+            if (wantedLastPage < 0) {
+                wantedFirstPage = page - KEEP_PAGES;
+                wantedLastPage = page + KEEP_PAGES;
+            } else if (page < wantedFirstPage || page > wantedLastPage) {
+                wantedFirstPage = Math.min(wantedFirstPage, page - KEEP_PAGES);
+                wantedLastPage = Math.max(wantedLastPage, page + KEEP_PAGES);
+            }
+            requestPage(page);
+        }
+        return PhotoItem.of(store, row);
+    }
+
+    /** Como {@link #get} pero sin provocar ninguna lectura. */
+    public PhotoItem peek(int position) {
+        if (position < 0 || position >= size()) return null;
+        return PhotoItem.of(store, rowAt(position));
+    }
+
+    /** _ID de las fotos de la vista que cumplen {@code filter}, en orden de pantalla. */
+    public long[] idsInView(PhotoStore.RowFilter filter) {
+        int count = size();
+        long[] ids = new long[count];
+        int n = 0;
+        for (int position = 0; position < count; position++) {
+            int row = rowAt(position);
+            if (filter.accept(store, row)) ids[n++] = store.idAt(row);
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /** Informa del rango visible: se leen los EXIF de las páginas de alrededor. */
+    public void setVisibleRange(int first, int last) {
+        if (first < 0 || last < first) return;
+        firstVisible = first;
+        lastVisible = last;
+        int firstPage = first / PAGE_SIZE;
+        int lastPage = last / PAGE_SIZE;
+        wantedFirstPage = firstPage - KEEP_PAGES;
+        wantedLastPage = lastPage + KEEP_PAGES;
+
+        for (int page = firstPage; page <= lastPage; page++) {
+            requestPage(page);
+        }
+        for (int i = 1; i <= PRELOAD_PAGES; i++) {
+            requestPage(lastPage + i);
+            requestPage(firstPage - i);
+        }
+    }
+
+    /**
+     * Muestra solo las fotos a menos de {@code meters} del punto. Se ve enseguida
+     * lo que ya está en el índice; el EXIF que falta se lee por tandas y la
+     * lista se completa a medida que llega.
+     */
+    public void showNear(double latitude, double longitude, double meters) {
+        setQuery((index, out) -> index.queryRadius(latitude, longitude, meters, out));
+    }
+
+    /** Muestra solo las fotos dentro del rectángulo, p. ej. la parte visible de un mapa. */
+    public void showInBox(double minLatitude, double minLongitude,
+                          double maxLatitude, double maxLongitude) {
+        setQuery((index, out) -> index.queryBox(minLatitude, minLongitude, maxLatitude, maxLongitude, out));
+    }
+
+    /**
+     * Muestra solo las fotos repetidas, grupo tras grupo en orden de galería.
+     * Cada grupo es una lista de _ID; los que ya no están se ignoran, y un grupo
+     * que se queda con una sola foto no se muestra.
+     */
+    public void showGroups(long[][] duplicateGroups) {
+        query = null;
+        groups = duplicateGroups;
+        rebuildView(true);
+    }
+
+    /** Quita el filtro y vuelve a la galería completa. */
+    public void showAll() {
+        if (query == null && groups == null) return;
+        query = null;
+        groups = null;
+        rebuildView(true);
+    }
+
+    private void setQuery(GeoQuery newQuery) {
+        boolean wasFiltered = query != null;
+        query = newQuery;
+        if (groups != null) {
+            groups = null;
+            wasFiltered = false;
+        }
+        // Entre dos filtros la vista se compara; desde la galería completa se reemplaza
+        rebuildView(!wasFiltered);
+        resolveAll(null);
+    }
+
+    /**
+     * Ordena por la hora de captura del EXIF en vez de por DATE_ADDED. Ordena
+     * las columnas en memoria, sin volver a leer archivos; lo que falte por
+     * leer se completa por tandas y la vista se reordena al terminar.
+     */
+    public void setSortByCaptureTime(boolean enabled) {
+        if (byCaptureTime == enabled) return;
+        byCaptureTime = enabled;
+        rebuildView(true);
+        if (enabled) resolveAll(null);
+    }
+
+    /**
+     * Lee en segundo plano el EXIF de todas las filas que falten, por tandas, y
+     * lo mantiene completo en los refrescos siguientes. {@code done} (puede ser
+     * null) se llama en el hilo principal cuando no queda nada por leer.
+     */
+    public void resolveAll(Runnable done) {
+        if (done != null) whenResolved.add(done);
+        resolvingAll = true;
+        continueBackfill();
+    }
+
+    /**
+     * Toma la galería nueva y aplica solo las diferencias. Los EXIF que faltan
+     * en la ventana visible se leen antes de publicar, así las celdas nuevas
+     * aparecen ya completas.
+     */
+    public void refresh() {
+        final int refreshGeneration = generation.incrementAndGet();
+        final PhotoStore previous = store;
+        // Con filtro u orden por captura las posiciones se calculan al aplicar
+        final boolean preload = viewRows == null;
+        final int firstPage = Math.max(0, firstVisible / PAGE_SIZE);
+        final int lastPage = Math.max(firstPage, lastVisible / PAGE_SIZE);
+        final PageLoader pageLoader = loader;
+
+        backgroundExecutor.execute(() -> {
+            if (refreshGeneration != generation.get()) return;
+            try {
+                PhotoStore next = pageLoader.snapshot(previous);
+                if (next == previous) return; // Generación sin cambios: ni siquiera se recorre
+
+                int[] rows = preload
+                        ? unresolvedRows(next, firstPage * PAGE_SIZE, (lastPage + 1) * PAGE_SIZE)
+                        : new int[0];
+                ExifIndex.Entry[] entries = rows.length > 0
+                        ? pageLoader.resolveExif(next, rows)
+                        : new ExifIndex.Entry[0];
+                mainExecutor.execute(() -> apply(refreshGeneration, previous, next, rows, entries));
+            } catch (Exception e) {
+                mainExecutor.execute(() -> {
+                    if (refreshGeneration == generation.get() && listener != null) {
+                        listener.onError(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Descarta el refresco en curso; su resultado ya no se aplica. */
+    public void cancel() {
+        generation.incrementAndGet();
+        resolvingAll = false;
+    }
+
+    private void apply(int refreshGeneration, PhotoStore previous, PhotoStore next,
+                       int[] rows, ExifIndex.Entry[] entries) {
+        if (refreshGeneration != generation.get() || store != previous) return;
+        fillGeoIndex();
+        store = next;
+        revision++;
+        backfillCursor = 0;
+        viewChanged();
+        setExif(rows, entries);
+        geoIndex.update(previous, next);
+
+        if (viewRows != null) {
+            // Se vuelve a armar sobre la galería nueva y se compara con lo que se veía
+            updateView(previous);
+        } else if (listener != null) {
+            // Las filas leídas que el diff no toca también hay que volver a enlazarlas
+            BitSet touched = new BitSet(next.size());
+            UpdateBatch.diff(previous, next, new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    touched.set(position, position + count);
+                    listener.onInserted(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    listener.onRemoved(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    listener.onMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    touched.set(position, position + count);
+                    listener.onChanged(position, count, payload);
+                }
+            });
+            notifyResolved(rows, entries, touched);
+        }
+        if (listener != null) listener.onSnapshot(size());
+        if (lastVisible >= 0 && size() > 0) {
+            setVisibleRange(Math.min(firstVisible, size() - 1), Math.min(lastVisible, size() - 1));
+        }
+        continueBackfill();
+    }
+
+    private void viewChanged() {
+        viewVersion++;
+        loading.clear();
+    }
+
+    // Arma la vista según el filtro y el orden; con reset avisa de que cambió entera
+    private void rebuildView(boolean reset) {
+        if (reset) {
+            computeView();
+            viewChanged();
+            if (listener != null) listener.onViewReset(size());
+        } else {
+            updateView(store);
+        }
+    }
+
+    // Arma la vista otra vez y avisa de la diferencia con la anterior, que era sobre oldStore
+    private void updateView(PhotoStore oldStore) {
+        int[] oldRows = viewRows;
+        int oldCount = viewRows == null ? oldStore.size() : viewCount;
+        TimelineIndex oldTimeline = timeline;
+        computeView();
+        viewChanged();
+        if (listener == null) return;
+        // Los grupos no siguen un orden único que se pueda comparar en una pasada
+        if (oldRows == null || viewRows == null || (oldTimeline == null) != (timeline == null)
+                || groups != null) {
+            listener.onViewReset(size());
+            return;
+        }
+        diffView(oldStore, oldRows, oldCount, oldTimeline);
+    }
+
+    private void computeView() {
+        viewStale = false;
+        groupStarts = null;
+        if (query == null && groups == null && !byCaptureTime) {
+            viewRows = null;
+            viewPositions = null;
+            viewCount = 0;
+            timeline = null;
+            return;
+        }
+        int[] rows;
+        int count;
+        if (groups != null) {
+            rows = groupedRows();
+            count = rows.length;
+        } else if (query != null) {
+            fillGeoIndex();
+            long[] ids = new long[geoIndex.size()];
+            int found = query.run(geoIndex, ids);
+            rows = new int[Math.min(found, ids.length)];
+            count = 0;
+            for (int i = 0; i < rows.length; i++) {
+                int row = store.rowOf(ids[i]);
+                if (row >= 0) rows[count++] = row;
+            }
+        } else {
+            count = store.size();
+            rows = new int[count];
+            for (int row = 0; row < count; row++) rows[row] = row;
+        }
+
+        if (groups != null) {
+            timeline = null;
+        } else if (byCaptureTime) {
+            store.sortByCaptureTime(rows, count);
+            timeline = TimelineIndex.build(store, rows, count);
+        } else {
+            Arrays.sort(rows, 0, count);
+            timeline = null;
+        }
+        viewRows = rows;
+        viewCount = count;
+        viewPositions = new int[store.size()];
+        Arrays.fill(viewPositions, -1);
+        for (int position = 0; position < count; position++) {
+            viewPositions[rows[position]] = position;
+        }
+    }
+
+    // Filas de los grupos con dos o más fotos en la galería, cada grupo en orden
+    // de galería y los grupos según su foto más reciente
+    private int[] groupedRows() {
+        int[][] found = new int[groups.length][];
+        int groupCount = 0;
+        int total = 0;
+        for (long[] group : groups) {
+            int[] rows = new int[group.length];
+            int n = 0;
+            for (long id : group) {
+                int row = store.rowOf(id);
+                if (row >= 0) rows[n++] = row;
+            }
+            if (n < 2) continue;
+            Arrays.sort(rows, 0, n);
+            found[groupCount++] = n == rows.length ? rows : Arrays.copyOf(rows, n);
+            total += n;
+        }
+        Arrays.sort(found, 0, groupCount, (a, b) -> Integer.compare(a[0], b[0]));
+
+        int[] rows = new int[total];
+        groupStarts = new int[groupCount];
+        int position = 0;
+        for (int i = 0; i < groupCount; i++) {
+            groupStarts[i] = position;
+            System.arraycopy(found[i], 0, rows, position, found[i].length);
+            position += found[i].length;
+        }
+        return rows;
+    }
+
+    /**
+     * Avisa de la diferencia entre la vista anterior y la actual. Las dos van
+     * ordenadas por la misma clave (captura o DATE_ADDED, y después _ID), así que
+     * basta una pasada. Las claves de captura salen de las líneas de tiempo,
+     * que guardan la hora con que se ordenó cada vista.
+     */
+    private void diffView(PhotoStore oldStore, int[] oldRows, int oldCount, TimelineIndex oldTimeline) {
+        UpdateBatch batch = new UpdateBatch(listener);
+        int i = 0;
+        int j = 0;
+        while (i < oldCount || j < viewCount) {
+            int order;
+            if (i == oldCount) {
+                order = 1;
+            } else if (j == viewCount) {
+                order = -1;
+            } else {
+                long oldKey = timeline != null ? oldTimeline.timeAt(i) : oldStore.dateAddedAt(oldRows[i]);
+                long newKey = timeline != null ? timeline.timeAt(j) : store.dateAddedAt(viewRows[j]);
+                long oldId = oldStore.idAt(oldRows[i]);
+                long newId = store.idAt(viewRows[j]);
+                if (oldKey != newKey) {
+                    order = oldKey > newKey ? -1 : 1;
+                } else {
+                    order = oldId == newId ? 0 : (oldId > newId ? -1 : 1);
+                }
+            }
+
+            if (order < 0) {
+                batch.add(UpdateBatch.REMOVE, j);
+                i++;
+            } else if (order > 0) {
+                batch.add(UpdateBatch.INSERT, j);
+                j++;
+            } else {
+                if (oldStore.dateModifiedAt(oldRows[i]) != store.dateModifiedAt(viewRows[j])) {
+                    batch.add(UpdateBatch.CHANGE, j);
+                }
+                i++;
+                j++;
+            }
+        }
+        batch.flush();
+    }
+
+    private int rowAt(int position) {
+        return viewRows == null ? position : viewRows[position];
+    }
+
+    private int positionOf(int row) {
+        return viewRows == null ? row : viewPositions[row];
+    }
+
+    private static int[] unresolvedRows(PhotoStore store, int from, int to) {
+        to = Math.min(to, store.size());
+        int[] rows = new int[Math.max(0, to - from)];
+        int n = 0;
+        for (int row = from; row < to; row++) {
+            if (!store.isExifResolved(row)) rows[n++] = row;
+        }
+        return n == rows.length ? rows : Arrays.copyOf(rows, n);
+    }
+
+    private void requestPage(int page) {
+        if (page < 0 || loading.contains(page)) return;
+        int to = Math.min((page + 1) * PAGE_SIZE, size());
+        int[] rows = new int[Math.max(0, to - page * PAGE_SIZE)];
+        int n = 0;
+        for (int position = page * PAGE_SIZE; position < to; position++) {
+            int row = rowAt(position);
+            if (!store.isExifResolved(row)) rows[n++] = row;
+        }
+        if (n == 0) return;
+        final int[] pageRows = n == rows.length ? rows : Arrays.copyOf(rows, n);
+
+        loading.add(page);
+        final PhotoStore requested = store;
+        final PageLoader pageLoader = loader;
+        final int requestedVersion = viewVersion;
+        backgroundExecutor.execute(() -> {
+            // Tras un fling largo la cola tiene páginas que ya pasaron de largo
+            if (page < wantedFirstPage || page > wantedLastPage) {
+                mainExecutor.execute(() -> {
+                    if (viewVersion == requestedVersion) loading.remove(page);
+                });
+                return;
+            }
+            ExifIndex.Entry[] entries;
+            try {
+                entries = pageLoader.resolveExif(requested, pageRows);
+            } catch (Exception e) {
+                mainExecutor.execute(() -> {
+                    if (viewVersion != requestedVersion) return;
+                    loading.remove(page);
+                    if (listener != null) listener.onError(e);
+                });
+                return;
+            }
+            mainExecutor.execute(() -> {
+                if (viewVersion == requestedVersion) loading.remove(page);
+                onResolved(requested, pageRows, entries);
+            });
+        });
+    }
+
+    // Continúa la lectura de todo el EXIF con la siguiente tanda pendiente
+    private void continueBackfill() {
+        if (!resolvingAll || backfillRunning) return;
+        int[] rows = new int[BACKFILL_ROWS];
+        int n = 0;
+        int size = store.size();
+        while (backfillCursor < size && n < rows.length) {
+            if (!store.isExifResolved(backfillCursor)) rows[n++] = backfillCursor;
+            backfillCursor++;
+        }
+        if (n == 0) {
+            if (viewStale) updateView(store);
+            List<Runnable> done = new ArrayList<>(whenResolved);
+            whenResolved.clear();
+            for (Runnable callback : done) callback.run();
+            return;
+        }
+
+        final int[] chunk = n == rows.length ? rows : Arrays.copyOf(rows, n);
+        final PhotoStore requested = store;
+        final PageLoader pageLoader = loader;
+        backfillRunning = true;
+        backgroundExecutor.execute(() -> {
+            ExifIndex.Entry[] entries;
+            try {
+                entries = pageLoader.resolveExif(requested, chunk);
+            } catch (Exception e) {
+                mainExecutor.execute(() -> {
+                    backfillRunning = false;
+                    resolvingAll = false;
+                    if (listener != null) listener.onError(e);
+                });
+                return;
+            }
+            mainExecutor.execute(() -> {
+                backfillRunning = false;
+                onResolved(requested, chunk, entries);
+                // Con filtro, lo que aparece se muestra tanda a tanda; reordenar por
+                // captura sí espera al final, ordenar toda la galería en cada tanda no compensa
+                if (viewStale && !byCaptureTime) updateView(store);
+                continueBackfill();
+            });
+        });
+    }
+
+    private void onResolved(PhotoStore requested, int[] rows, ExifIndex.Entry[] entries) {
+        // Con otra galería aplicada las filas ya no corresponden; su EXIF quedó en el índice
+        if (store != requested) return;
+        setExif(rows, entries);
+        if (listener != null) notifyResolved(rows, entries, null);
+    }
+
+    private void setExif(int[] rows, ExifIndex.Entry[] entries) {
+        for (int i = 0; i < rows.length; i++) {
+            ExifIndex.Entry entry = entries[i];
+            if (entry == null) continue;
+            int row = rows[i];
+            store.setExif(row, entry.captureTime, entry.latitude, entry.longitude);
+            revision++;
+            if (entry.hasLocation()) {
+                geoIndex.put(store.idAt(row), entry.latitude, entry.longitude);
+                if (query != null) viewStale = true;
+            }
+            if (byCaptureTime && groups == null && entry.captureTime != CaptureTime.UNKNOWN) viewStale = true;
+        }
+    }
+
+    // Avisa de las filas ya leídas que se muestran, agrupadas en rangos de posiciones
+    private void notifyResolved(int[] rows, ExifIndex.Entry[] entries, BitSet skip) {
+        int start = -1;
+        int end = -1;
+        for (int i = 0; i <= rows.length; i++) {
+            int position = -1;
+            if (i < rows.length && entries[i] != null && (skip == null || !skip.get(rows[i]))) {
+                position = positionOf(rows[i]);
+            }
+            if (position >= 0 && start >= 0 && position == end) {
+                end++;
+                continue;
+            }
+            if (start >= 0) {
+                listener.onChanged(start, end - start, null);
+                start = -1;
+            }
+            if (position >= 0) {
+                start = position;
+                end = position + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.fotoconmetadatos;
+
+/**
+ * Hash perceptual de 64 bits (dHash) de una imagen ya reducida: se promedia la
+ * luminancia en una rejilla de 9 x 8 celdas y cada bit dice si una celda es
+ * más clara que su vecina de la derecha. Dos tomas del mismo motivo difieren
+ * en pocos bits aunque cambien la exposición, la compresión o el tamaño; la
+ * distancia de Hamming mide cuánto se parecen. No depende de Android.
+ */
+public final class PerceptualHash {
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    /** Lado corto mínimo de la imagen reducida para que cada celda promedie varios píxeles. */
+    public static final int MIN_SIZE = 32;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * dHash de {@code width} x {@code height} píxeles ARGB, fila a fila. La
+     * imagen debe tener al menos 9 x 8 píxeles.
+     */
+    public static long dHash(int[] argb, int width, int height) {
+        if (width < COLUMNS || height < ROWS || argb.length < width * height) {
+            throw new IllegalArgumentException(width + "x" + height);
+        }
+        // Suma de luminancia por celda y cuántas columnas de píxeles cayeron en cada una
+        long[] sums = new long[COLUMNS * ROWS];
+        int[] cellOfX = new int[width];
+        int[] columnWidths = new int[COLUMNS];
+        for (int x = 0; x < width; x++) {
+            cellOfX[x] = x * COLUMNS / width;
+            columnWidths[cellOfX[x]]++;
+        }
+        for (int y = 0; y < height; y++) {
+            int rowOffset = (y * ROWS / height) * COLUMNS;
+            int line = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[line + x];
+                // Luma BT.601 en enteros
+                int luma = (77 * (pixel >> 16 & 0xFF) + 150 * (pixel >> 8 & 0xFF) + 29 * (pixel & 0xFF)) >> 8;
+                sums[rowOffset + cellOfX[x]] += luma;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLUMNS - 1; col++) {
+                int left = row * COLUMNS + col;
+                // Media de la izquierda mayor que la de la derecha, sin dividir: mismo alto de fila
+                if (sums[left] * columnWidths[col + 1] > sums[left + 1] * columnWidths[col]) {
+                    hash |= 1L << (row * (COLUMNS - 1) + col);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** Bits distintos entre dos hashes: 0 es idéntica, más de ~20 es otra foto. */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -2,8 +2,6 @@ package com.example.fotoconmetadatos;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,81 +9,302 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
-public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHolder> {
+public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
-    private List<PhotoItem> photoList;
+    // Filas a precargar por delante del scroll
+    private static final int PREFETCH_ROWS = 3;
+    private static final int TYPE_PHOTO = 0;
+    // Cabecera de día cuando la galería se ordena por hora de captura
+    private static final int TYPE_SECTION = 1;
 
-    public PhotoAdapter(List<PhotoItem> photoList) {
-        this.photoList = photoList;
+    private static final Metrics.Timer BIND = Metrics.timer("adapter.bind");
+
+    private final PagedPhotoSource source;
+    private ThumbnailLoader thumbnailLoader;
+    private ThumbnailScheduler scheduler;
+    private int targetSize;
+    private int lastPrefetchStart = RecyclerView.NO_POSITION;
+
+    private final RecyclerView.OnScrollListener prefetchListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (!(recyclerView.getLayoutManager() instanceof GridLayoutManager)) return;
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            // También llega con dy = 0 cuando un layout cambia el rango visible
+            int first = layoutManager.findFirstVisibleItemPosition();
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) return;
+            source.setVisibleRange(toPhotoPosition(first), toPhotoPosition(last));
+            if (dy != 0) {
+                prefetch(layoutManager, dy > 0);
+            }
+        }
+    };
+
+    public PhotoAdapter(PagedPhotoSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        Context context = recyclerView.getContext();
+        thumbnailLoader = ThumbnailLoader.get(context);
+        scheduler = new ThumbnailScheduler(thumbnailLoader);
+        targetSize = targetSizeFor(recyclerView);
+        recyclerView.addOnScrollListener(prefetchListener);
+        if (recyclerView.getLayoutManager() instanceof GridLayoutManager) {
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            layoutManager.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup() {
+                @Override
+                public int getSpanSize(int position) {
+                    // La cabecera ocupa la fila entera
+                    return getItemViewType(position) == TYPE_SECTION ? layoutManager.getSpanCount() : 1;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(prefetchListener);
+        scheduler.shutdown();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        TimelineIndex timeline = source.getTimeline();
+        return timeline != null && timeline.isHeader(position) ? TYPE_SECTION : TYPE_PHOTO;
     }
 
     @NonNull
     @Override
-    public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (viewType == TYPE_SECTION) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_section, parent, false);
+            return new SectionViewHolder(view);
+        }
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_photo, parent, false);
-        return new PhotoViewHolder(view);
+        PhotoViewHolder holder = new PhotoViewHolder(view);
+        view.setOnClickListener(v -> openViewer(v.getContext(), holder.getBindingAdapterPosition()));
+        return holder;
+    }
+
+    // Abre el visor de la foto tocada; las celdas aún sin datos no hacen nada
+    private void openViewer(Context context, int position) {
+        if (position == RecyclerView.NO_POSITION) return;
+        PhotoItem photo = source.peek(toPhotoPosition(position));
+        if (photo == null) return;
+        context.startActivity(PhotoViewerActivity.intentFor(context, photo));
     }
 
     @Override
-    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
-        PhotoItem photo = photoList.get(position);
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder viewHolder, int position) {
+        long start = BIND.start();
+        try {
+            bind(viewHolder, position);
+        } finally {
+            BIND.stop(start);
+        }
+    }
 
-        // Cargar imagen desde Uri
-        Bitmap bitmap = loadThumbnail(holder.itemView.getContext(), photo.getUri());
+    private void bind(RecyclerView.ViewHolder viewHolder, int position) {
+        TimelineIndex timeline = source.getTimeline();
+        if (viewHolder instanceof SectionViewHolder) {
+            long day = timeline != null ? timeline.dayKey(timeline.dayAtAdapter(position)) : CaptureTime.UNKNOWN;
+            ((SectionViewHolder) viewHolder).tvSection.setText(
+                    day == CaptureTime.UNKNOWN ? "Sin fecha" : CaptureTime.formatDay(day));
+            return;
+        }
+        PhotoViewHolder holder = (PhotoViewHolder) viewHolder;
+        PhotoItem photo = source.get(toPhotoPosition(position));
+        ThumbnailCache cache = thumbnailLoader.getMemoryCache();
+        if (photo == null) {
+            // Posición que ya no existe en la galería actual
+            scheduler.cancel(holder);
+            holder.showLoading(cache);
+            holder.tvInfo.setText("");
+            return;
+        }
+
+        // Si está en memoria se muestra ya; si no, se decodifica en segundo plano
+        Bitmap bitmap = thumbnailLoader.peekMemory(photo, targetSize);
         if (bitmap != null) {
-            holder.imageView.setImageBitmap(bitmap);
+            scheduler.cancel(holder);
+            holder.showBitmap(cache, bitmap);
         } else {
-            holder.imageView.setImageResource(android.R.drawable.ic_menu_report_image); // Imagen por defecto
+            holder.showLoading(cache);
+            scheduler.request(holder, photo, targetSize, loaded -> holder.showBitmap(cache, loaded));
         }
 
         // Mostrar información
+        // Los textos se arman aquí, solo para las celdas que se ven
         String info = photo.getName() + "\n";
-        if (photo.getDateTime() != null && !photo.getDateTime().isEmpty()) {
-            info += "Fecha: " + photo.getDateTime() + "\n";
+        int group = source.groupAt(toPhotoPosition(position));
+        if (group >= 0) {
+            info = "Grupo " + (group + 1) + " · " + info;
+        }
+        String dateTime = photo.getDateTime();
+        if (!dateTime.isEmpty()) {
+            info += "Fecha: " + dateTime + "\n";
         }
-        if (photo.getLocation() != null && !photo.getLocation().isEmpty()) {
-            info += "Ubicación: " + photo.getLocation();
+        String location = photo.getLocation();
+        if (!location.isEmpty()) {
+            info += "Ubicación: " + location;
         }
         holder.tvInfo.setText(info);
     }
 
     @Override
     public int getItemCount() {
-        return photoList.size();
+        TimelineIndex timeline = source.getTimeline();
+        return timeline != null ? timeline.adapterCount() : source.size();
     }
 
-    private Bitmap loadThumbnail(Context context, Uri uri) {
-        try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
-            if (inputStream != null) {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inSampleSize = 4; // Reducir tamaño para eficiencia
-                return BitmapFactory.decodeStream(inputStream, null, options);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder viewHolder) {
+        super.onViewRecycled(viewHolder);
+        if (!(viewHolder instanceof PhotoViewHolder)) return;
+        PhotoViewHolder holder = (PhotoViewHolder) viewHolder;
+        scheduler.cancel(holder);
+        holder.showLoading(thumbnailLoader.getMemoryCache());
+    }
+
+    /** Posición de foto en la fuente para una posición del adapter. */
+    public int toPhotoPosition(int adapterPosition) {
+        TimelineIndex timeline = source.getTimeline();
+        return timeline != null ? timeline.toPhotoPosition(adapterPosition) : adapterPosition;
+    }
+
+    /** Posición del adapter de una foto de la fuente. */
+    public int toAdapterPosition(int photoPosition) {
+        TimelineIndex timeline = source.getTimeline();
+        return timeline != null ? timeline.toAdapterPosition(photoPosition) : photoPosition;
+    }
+
+    /**
+     * Avisos de la fuente, en posiciones de foto. Con cabeceras de día una
+     * inserción o un borrado puede crear o quitar secciones: se vuelve a enlazar todo.
+     */
+    public void onPhotosInserted(int position, int count) {
+        if (source.getTimeline() != null) {
+            notifyDataSetChanged();
+        } else {
+            notifyItemRangeInserted(position, count);
+        }
+    }
+
+    public void onPhotosRemoved(int position, int count) {
+        if (source.getTimeline() != null) {
+            notifyDataSetChanged();
+        } else {
+            notifyItemRangeRemoved(position, count);
+        }
+    }
+
+    public void onPhotosMoved(int fromPosition, int toPosition) {
+        if (source.getTimeline() != null) {
+            notifyDataSetChanged();
+        } else {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+    }
+
+    public void onPhotosChanged(int position, int count, Object payload) {
+        // Las cabeceras dentro del rango también se vuelven a enlazar; no cambia nada
+        int start = toAdapterPosition(position);
+        int end = toAdapterPosition(position + count - 1);
+        notifyItemRangeChanged(start, end - start + 1, payload);
+    }
+
+    // La celda recorta con centerCrop: la miniatura debe cubrir tanto el alto fijo como el ancho de columna
+    private static int targetSizeFor(RecyclerView recyclerView) {
+        Context context = recyclerView.getContext();
+        int height = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_height);
+        int columns = recyclerView.getLayoutManager() instanceof GridLayoutManager
+                ? ((GridLayoutManager) recyclerView.getLayoutManager()).getSpanCount() : 1;
+        int columnWidth = context.getResources().getDisplayMetrics().widthPixels / columns;
+        return Math.max(height, columnWidth);
+    }
+
+    // Encola las filas que van a aparecer en la dirección del scroll
+    private void prefetch(GridLayoutManager layoutManager, boolean forward) {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+        first = toPhotoPosition(first);
+        last = toPhotoPosition(last);
+
+        int count = layoutManager.getSpanCount() * PREFETCH_ROWS;
+        int start = forward ? last + 1 : Math.max(0, first - count);
+        int end = forward ? Math.min(source.size(), last + 1 + count) : first;
+        if (start == lastPrefetchStart || start >= end) return;
+        lastPrefetchStart = start;
+
+        // Lo más cercano a la pantalla primero; las filas sin página cargada se saltan
+        List<PhotoItem> ahead = new ArrayList<>(end - start);
+        for (int i = 0; i < end - start; i++) {
+            PhotoItem photo = source.peek(forward ? start + i : end - 1 - i);
+            if (photo != null) ahead.add(photo);
         }
-        return null;
+        scheduler.prefetch(ahead, targetSize);
     }
 
-    public void updateData(List<PhotoItem> newPhotoList) {
-        this.photoList = newPhotoList;
-        notifyDataSetChanged();
+    public ThumbnailScheduler getScheduler() {
+        return scheduler;
+    }
+
+    static class SectionViewHolder extends RecyclerView.ViewHolder {
+        TextView tvSection;
+
+        SectionViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvSection = itemView.findViewById(R.id.tvSection);
+        }
     }
 
     static class PhotoViewHolder extends RecyclerView.ViewHolder {
         ImageView imageView;
         TextView tvInfo;
+        Bitmap shownBitmap;
 
         public PhotoViewHolder(@NonNull View itemView) {
             super(itemView);
             imageView = itemView.findViewById(R.id.imageView);
             tvInfo = itemView.findViewById(R.id.tvInfo);
         }
+
+        /**
+         * Muestra un bitmap ya adquirido en la caché (la celda se queda con esa
+         * referencia) y libera el anterior para que pueda reutilizarse.
+         */
+        void showBitmap(ThumbnailCache cache, Bitmap bitmap) {
+            if (bitmap == shownBitmap) {
+                cache.release(bitmap); // La celda ya tenía su propia referencia
+            } else {
+                cache.release(shownBitmap);
+                shownBitmap = bitmap;
+            }
+            if (bitmap != null) {
+                imageView.setImageBitmap(bitmap);
+            } else {
+                imageView.setImageResource(android.R.drawable.ic_menu_report_image); // Imagen por defecto
+            }
+        }
+
+        void showLoading(ThumbnailCache cache) {
+            cache.release(shownBitmap);
+            shownBitmap = null;
+            imageView.setImageDrawable(null);
+        }
     }
 }
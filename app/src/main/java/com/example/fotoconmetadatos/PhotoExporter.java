@@ -0,0 +1,301 @@
+package com.example.fotoconmetadatos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Copia fotos sin su ubicación para compartirlas. Cada JPEG pasa por
+ * {@link ExifSpliceWriter#removeLocation}: se reconstruye el APP1 Exif sin su
+ * GPS, se quitan los demás APP1 (XMP, un segundo Exif) y la imagen se
+ * transfiere entre canales tal cual, sin decodificar ni recomprimir.
+ *
+ * Las fotos se preparan en un pool de hilos con pocas abiertas a la vez, así
+ * que la memoria no depende de cuántas se exporten. La salida es un archivo
+ * por foto en una carpeta, o un único ZIP que se escribe a medida que llegan.
+ * Una foto que no es JPEG o no se puede leer se salta: nunca sale con su GPS.
+ * No depende de Android.
+ */
+public class PhotoExporter {
+
+    // Fotos abiertas por hilo: la que prepara y la que espera a escribirse
+    private static final int WINDOW_PER_WORKER = 2;
+
+    private static final Metrics.Timer PREPARE = Metrics.timer("export.prepare");
+    private static final Metrics.Timer WRITE = Metrics.timer("export.write");
+    private static final Metrics.Counter BYTES = Metrics.counter("export.bytes");
+    private static final Metrics.Counter ERRORS = Metrics.counter("export.errors");
+
+    /** Abre la foto {@code id} para leer; cerrar el canal la suelta. Se llama desde el pool. */
+    public interface Source {
+        FileChannel open(long id) throws IOException;
+    }
+
+    /** Se llama desde el hilo que exporta. */
+    public interface Listener {
+        void onProgress(Result progress);
+
+        void onItemFailed(long id, Exception e);
+    }
+
+    /** Estado de la exportación en un momento dado. */
+    public static final class Result {
+        public final int total;
+        public final int exported;
+        public final int failed;
+        public final long bytes;
+
+        Result(int total, int exported, int failed, long bytes) {
+            this.total = total;
+            this.exported = exported;
+            this.failed = failed;
+            this.bytes = bytes;
+        }
+
+        public boolean isFinished() {
+            return exported + failed >= total;
+        }
+
+        @Override
+        public String toString() {
+            return (exported + failed) + "/" + total + " (" + failed + " errores, " + bytes + " B)";
+        }
+    }
+
+    private final Source source;
+    private final ExifSpliceWriter writer = new ExifSpliceWriter().removeLocation();
+    private volatile boolean cancelled;
+
+    public PhotoExporter(Source source) {
+        this.source = source;
+    }
+
+    /** Deja de empezar fotos nuevas; las que están en curso terminan. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Escribe cada foto en {@code dir} con su nombre, o con el _ID añadido si
+     * el nombre se repite. {@code names} va en el mismo orden que {@code ids}.
+     */
+    public Result exportToDirectory(long[] ids, String[] names, File dir, int workers, Listener listener)
+            throws IOException, InterruptedException {
+        return exportToDirectory(ids, names, dir, workers, PhotoLoader.backgroundThreads("export"), listener);
+    }
+
+    Result exportToDirectory(long[] ids, String[] names, File dir, int workers, ThreadFactory threads,
+                             Listener listener) throws IOException, InterruptedException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("No se pudo crear " + dir);
+        // Cada hilo copia entre archivos: transferTo entre FileChannel no pasa por la memoria de la app
+        return run(ids, names, workers, threads, listener, (id, name) -> {
+            File file = new File(dir, name);
+            long length;
+            try (FileChannel in = source.open(id);
+                 FileOutputStream out = new FileOutputStream(file)) {
+                ExifSpliceWriter.Splice splice = writer.prepareCopy(in);
+                splice.writeTo(in, out.getChannel());
+                length = splice.length();
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+            return new Prepared(null, null, 0, length);
+        }, null);
+    }
+
+    /**
+     * Escribe todas las fotos en un ZIP sobre {@code out}, sin comprimir: los
+     * JPEG no ganan nada y así la copia es directa. El CRC de cada entrada se
+     * calcula en el pool; a {@code out} solo escribe el hilo que llama. No
+     * cierra {@code out}.
+     */
+    public Result exportToZip(long[] ids, String[] names, OutputStream out, int workers, Listener listener)
+            throws IOException, InterruptedException {
+        return exportToZip(ids, names, out, workers, PhotoLoader.backgroundThreads("export"), listener);
+    }
+
+    Result exportToZip(long[] ids, String[] names, OutputStream out, int workers, ThreadFactory threads,
+                       Listener listener) throws IOException, InterruptedException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        WritableByteChannel channel = Channels.newChannel(zip);
+        Result result = run(ids, names, workers, threads, listener, (id, name) -> {
+            FileChannel in = source.open(id);
+            try {
+                ExifSpliceWriter.Splice splice = writer.prepareCopy(in);
+                CRC32 crc = new CRC32();
+                splice.update(in, crc);
+                return new Prepared(in, splice, crc.getValue(), splice.length());
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }, (prepared, name) -> {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(prepared.length);
+            entry.setCompressedSize(prepared.length);
+            entry.setCrc(prepared.crc);
+            zip.putNextEntry(entry);
+            prepared.splice.writeTo(prepared.in, channel);
+            zip.closeEntry();
+        });
+        zip.finish();
+        zip.flush();
+        return result;
+    }
+
+    // ---- Pool ----
+
+    private interface Step {
+        Prepared prepare(long id, String name) throws IOException;
+    }
+
+    private interface Sink {
+        void write(Prepared prepared, String name) throws IOException;
+    }
+
+    /** Una foto lista para escribir; {@code in} sigue abierto hasta entonces. */
+    private static final class Prepared {
+        final FileChannel in;
+        final ExifSpliceWriter.Splice splice;
+        final long crc;
+        final long length;
+        int index;
+        Exception error;
+        // No llegó a empezar porque se canceló
+        boolean skipped;
+
+        Prepared(FileChannel in, ExifSpliceWriter.Splice splice, long crc, long length) {
+            this.in = in;
+            this.splice = splice;
+            this.crc = crc;
+            this.length = length;
+        }
+
+        void close() {
+            if (in == null) return;
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Result run(long[] ids, String[] names, int workers, ThreadFactory threads, Listener listener,
+                       Step step, Sink sink) throws IOException, InterruptedException {
+        String[] unique = new String[ids.length];
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) unique[i] = uniqueName(names[i], ids[i], used);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, threads);
+        CompletionService<Prepared> completion = new ExecutorCompletionService<>(executor);
+        int window = workers * WINDOW_PER_WORKER;
+        int reportEvery = Math.max(1, ids.length / 100);
+        int submitted = 0;
+        int finished = 0;
+        int exported = 0;
+        int failed = 0;
+        long bytes = 0;
+        try {
+            while (finished < submitted || (submitted < ids.length && !cancelled)) {
+                // Contrapresión: a lo sumo "window" fotos abiertas o esperando al ZIP
+                if (submitted < ids.length && !cancelled && submitted - finished < window) {
+                    int index = submitted++;
+                    completion.submit(() -> prepare(step, index, ids[index], unique[index]));
+                    continue;
+                }
+                Prepared prepared = take(completion);
+                finished++;
+                if (prepared.skipped) continue;
+                if (prepared.error == null && sink != null) {
+                    long start = WRITE.start();
+                    try {
+                        sink.write(prepared, unique[prepared.index]);
+                    } finally {
+                        WRITE.stop(start);
+                        prepared.close();
+                    }
+                }
+                if (prepared.error == null) {
+                    exported++;
+                    bytes += prepared.length;
+                    BYTES.add(prepared.length);
+                } else {
+                    failed++;
+                    ERRORS.increment();
+                    if (listener != null) listener.onItemFailed(ids[prepared.index], prepared.error);
+                }
+                if (listener != null && finished % reportEvery == 0) {
+                    listener.onProgress(new Result(ids.length, exported, failed, bytes));
+                }
+            }
+        } finally {
+            // Si la salida falló, las fotos ya abiertas se sueltan sin escribir
+            cancelled |= finished < submitted;
+            executor.shutdown();
+            while (finished < submitted) {
+                take(completion).close();
+                finished++;
+            }
+        }
+        Result result = new Result(ids.length, exported, failed, bytes);
+        if (listener != null) listener.onProgress(result);
+        return result;
+    }
+
+    private Prepared prepare(Step step, int index, long id, String name) {
+        Prepared prepared;
+        if (cancelled) {
+            prepared = new Prepared(null, null, 0, 0);
+            prepared.skipped = true;
+        } else {
+            long start = PREPARE.start();
+            try {
+                prepared = step.prepare(id, name);
+            } catch (Exception e) {
+                prepared = new Prepared(null, null, 0, 0);
+                prepared.error = e;
+            } finally {
+                PREPARE.stop(start);
+            }
+        }
+        prepared.index = index;
+        return prepared;
+    }
+
+    private static Prepared take(CompletionService<Prepared> completion) throws IOException, InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Sin barras ni "..": no se sale de la carpeta ni se arman rutas en el ZIP. Y sin repetir
+    static String uniqueName(String name, long id, Set<String> used) {
+        String base = name == null || name.isEmpty() || name.startsWith(".")
+                ? id + ".jpg" : name.replace('/', '_').replace('\\', '_');
+        if (used.add(base)) return base;
+        int dot = base.lastIndexOf('.');
+        String unique = dot > 0 ? base.substring(0, dot) + "_" + id + base.substring(dot) : base + "_" + id;
+        used.add(unique);
+        return unique;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.fotoconmetadatos;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link PerceptualHash} de las fotos de MediaStore. Decodifica con el mayor
+ * inSampleSize que deja al menos {@link #DECODE_SIZE} píxeles de lado corto:
+ * el decodificador JPEG reduce al leer, así que nunca hay un bitmap grande.
+ */
+final class PhotoHasher implements DuplicateIndex.Hasher {
+
+    // Holgado sobre PerceptualHash.MIN_SIZE: el inSampleSize solo llega a potencias de dos
+    private static final int DECODE_SIZE = 2 * PerceptualHash.MIN_SIZE;
+
+    private final ContentResolver resolver;
+
+    PhotoHasher(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public long hash(long id) throws IOException {
+        Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream input = open(uri)) {
+            BitmapFactory.decodeStream(input, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("No se pudo leer el tamaño de " + uri);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ThumbnailSizing.sampleSizeFor(options.outWidth, options.outHeight, DECODE_SIZE);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap;
+        try (InputStream input = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (bitmap == null) throw new IOException("No se pudo decodificar " + uri);
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            return PerceptualHash.dHash(pixels, width, height);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Imagen demasiado pequeña: " + uri, e);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream input = resolver.openInputStream(uri);
+        if (input == null) throw new FileNotFoundException(uri.toString());
+        return input;
+    }
+}
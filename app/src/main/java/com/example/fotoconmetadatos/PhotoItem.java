@@ -1,20 +1,36 @@
 package com.example.fotoconmetadatos;
 
+import android.content.ContentUris;
 import android.net.Uri;
+import android.provider.MediaStore;
 
+/**
+ * Una fila de {@link PhotoStore} lista para enlazar. Se crea al enlazar la
+ * celda; el Uri se arma la primera vez que se pide y los textos en cada llamada.
+ */
 public class PhotoItem {
     private final long id;
-    private final Uri uri;
     private final String name;
-    private final String dateTime;
-    private final String location;
+    private final long dateModified;
+    private final long captureTime;
+    private final double latitude;
+    private final double longitude;
+    private Uri uri;
 
-    public PhotoItem(long id, String uriString, String name, String dateTime, String location) {
+    public PhotoItem(long id, String name, long dateModified, long captureTime,
+                     double latitude, double longitude) {
         this.id = id;
-        this.uri = Uri.parse(uriString);
         this.name = name;
-        this.dateTime = dateTime;
-        this.location = location;
+        this.dateModified = dateModified;
+        this.captureTime = captureTime;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /** Objeto de la fila de {@code store} para enlazar una celda. */
+    public static PhotoItem of(PhotoStore store, int row) {
+        return new PhotoItem(store.idAt(row), store.nameAt(row), store.dateModifiedAt(row),
+                store.captureTimeAt(row), store.latitudeAt(row), store.longitudeAt(row));
     }
 
     public long getId() {
@@ -22,6 +38,9 @@ public class PhotoItem {
     }
 
     public Uri getUri() {
+        if (uri == null) {
+            uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+        }
         return uri;
     }
 
@@ -29,11 +48,35 @@ public class PhotoItem {
         return name;
     }
 
+    /** Fecha EXIF como texto, o cadena vacía si no tiene. */
     public String getDateTime() {
-        return dateTime;
+        return CaptureTime.formatExif(captureTime);
     }
 
+    /** Coordenadas como texto, o cadena vacía si no tiene GPS. */
     public String getLocation() {
-        return location;
+        return hasLocation()
+                ? String.format("%.4f, %.4f", latitude, longitude)
+                : "";
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+package com.example.fotoconmetadatos;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link GalleryLoader} sobre MediaStore: una consulta con el cursor para las
+ * filas y {@link ContentResolver#openInputStream} para los bytes de cada foto.
+ * Solo ve las fotos de su {@link Album}.
+ */
+public class PhotoLoader extends GalleryLoader {
+
+    public PhotoLoader(Context context, Album album, ExifIndex exifIndex) {
+        super(new MediaStoreLibrary(context.getApplicationContext(), album), exifIndex, backgroundThreads("exif"));
+    }
+
+    /** Hilos daemon con prioridad de fondo, para no competir con el hilo principal. */
+    static ThreadFactory backgroundThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "PhotoLoader-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class MediaStoreLibrary implements MediaLibrary {
+
+        private static final String TAG = "PhotoLoader";
+        private static final Metrics.Timer QUERY = Metrics.timer("mediastore.query");
+        private static final Metrics.Histogram QUERY_ROWS = Metrics.histogram("mediastore.rows");
+
+        // Debe coincidir con el orden que PhotoStore usa para comparar
+        private static final String SORT_ORDER = MediaStore.Images.Media.DATE_ADDED + " DESC, "
+                + MediaStore.Images.Media._ID + " DESC";
+
+        private final Context context;
+        private final ContentResolver contentResolver;
+        private final Album album;
+
+        MediaStoreLibrary(Context context, Album album) {
+            this.context = context;
+            this.contentResolver = context.getContentResolver();
+            this.album = album;
+        }
+
+        // Versión y generación de cada volumen; cualquier alta, baja o cambio las altera.
+        // Con el álbum delante, la galería de un álbum nunca pasa por vigente en el otro
+        @Override
+        public String fingerprint() {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null;
+            StringBuilder fingerprint = new StringBuilder(album.key).append('|');
+            for (String volume : MediaStore.getExternalVolumeNames(context)) {
+                fingerprint.append(volume).append(':')
+                        .append(MediaStore.getVersion(context, volume)).append(':')
+                        .append(MediaStore.getGeneration(context, volume)).append(';');
+            }
+            return fingerprint.toString();
+        }
+
+        @Override
+        public PhotoStore.Builder query() {
+            String[] projection = {
+                    MediaStore.Images.Media._ID,
+                    MediaStore.Images.Media.DATE_ADDED,
+                    MediaStore.Images.Media.DATE_MODIFIED,
+                    MediaStore.Images.Media.SIZE,
+                    MediaStore.Images.Media.DISPLAY_NAME
+            };
+            String selection = null;
+            String[] selectionArgs = null;
+            if (album == Album.CAPTURES) {
+                // BUCKET_ID tiene índice: solo se recorren las filas de la carpeta. Desde Q
+                // RELATIVE_PATH descarta además cualquier otra carpeta con el mismo hash
+                String bucketId = String.valueOf(Album.bucketIdOf(new File(
+                        Environment.getExternalStorageDirectory(), Album.CAPTURE_DIRECTORY).getPath()));
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    selection = MediaStore.Images.Media.BUCKET_ID + " = ? AND "
+                            + MediaStore.Images.Media.RELATIVE_PATH + " = ?";
+                    selectionArgs = new String[]{bucketId, Album.CAPTURE_DIRECTORY + "/"};
+                } else {
+                    selection = MediaStore.Images.Media.BUCKET_ID + " = ?";
+                    selectionArgs = new String[]{bucketId};
+                }
+            }
+            long start = QUERY.start();
+            try (Cursor cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    projection, selection, selectionArgs, SORT_ORDER)) {
+                if (cursor == null) {
+                    Log.w(TAG, "Cursor es null");
+                    return new PhotoStore.Builder(0);
+                }
+                PhotoStore.Builder builder = new PhotoStore.Builder(cursor.getCount());
+                // El nombre se copia a un búfer reutilizado: ningún String por fila
+                CharArrayBuffer name = new CharArrayBuffer(64);
+                while (cursor.moveToNext()) {
+                    cursor.copyStringToBuffer(4, name);
+                    builder.add(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3),
+                            name.data, name.sizeCopied);
+                }
+                QUERY_ROWS.record(cursor.getCount());
+                return builder;
+            } finally {
+                QUERY.stop(start);
+            }
+        }
+
+        @Override
+        public InputStream open(long id) throws IOException {
+            return contentResolver.openInputStream(uriOf(id));
+        }
+
+        // Formatos distintos de JPEG (PNG, HEIF, WebP...) siguen pasando por ExifInterface
+        @Override
+        public void readOtherFormat(long id, ExifHeaderReader.Result exif) {
+            Uri imageUri = uriOf(id);
+            try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+                if (inputStream != null) {
+                    ExifInterface exifInterface = new ExifInterface(inputStream);
+                    String dateTime = exifInterface.getAttribute(ExifInterface.TAG_DATETIME);
+                    if (dateTime != null) exif.dateTime = dateTime;
+
+                    double[] latLong = exifInterface.getLatLong();
+                    if (latLong != null) {
+                        exif.latitude = latLong[0];
+                        exif.longitude = latLong[1];
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error leyendo EXIF de " + imageUri, e);
+            }
+        }
+
+        private static Uri uriOf(long id) {
+            return ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+        }
+    }
+}
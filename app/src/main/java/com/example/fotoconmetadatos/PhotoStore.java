@@ -0,0 +1,453 @@
+package com.example.fotoconmetadatos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Galería en columnas de primitivos, en el orden en que se muestra (DATE_ADDED
+ * DESC, _ID DESC): ids, fechas, tamaño, hora de captura en milisegundos,
+ * latitud/longitud (NaN sin GPS) y un índice a una {@link NameTable}. Ocupa
+ * unas decenas de bytes por foto; los Uri y los textos para mostrar se crean
+ * al enlazar la celda con {@link PhotoItem#of}. No depende de Android.
+ *
+ * Las columnas de MediaStore no cambian después de construirla; las de EXIF
+ * se completan con {@link #setExif} a medida que se leen, desde el hilo principal.
+ */
+public final class PhotoStore {
+
+    public static final PhotoStore EMPTY = new Builder(0).build(null);
+
+    /** Condición sobre una fila, evaluada sobre las columnas sin crear objetos. */
+    public interface RowFilter {
+        boolean accept(PhotoStore store, int row);
+    }
+
+    private final String fingerprint;
+    private final int size;
+    private final long[] ids;
+    private final long[] dateAdded;
+    private final long[] dateModified;
+    private final long[] fileSizes;
+    private final int[] nameRefs;
+    private final NameTable names;
+    private final long[] captureTimes;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final boolean[] exifResolved;
+    private LongIntMap rowsById;
+
+    private PhotoStore(Builder builder, String fingerprint) {
+        this.fingerprint = fingerprint;
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.dateAdded = Arrays.copyOf(builder.dateAdded, size);
+        this.dateModified = Arrays.copyOf(builder.dateModified, size);
+        this.fileSizes = Arrays.copyOf(builder.fileSizes, size);
+        this.nameRefs = Arrays.copyOf(builder.nameRefs, size);
+        this.captureTimes = Arrays.copyOf(builder.captureTimes, size);
+        this.latitudes = Arrays.copyOf(builder.latitudes, size);
+        this.longitudes = Arrays.copyOf(builder.longitudes, size);
+        this.exifResolved = Arrays.copyOf(builder.exifResolved, size);
+        this.names = builder.names;
+        this.names.trim();
+    }
+
+    private PhotoStore(String fingerprint, int size, long[] ids, long[] dateAdded, long[] dateModified,
+                       long[] fileSizes, int[] nameRefs, NameTable names, long[] captureTimes,
+                       double[] latitudes, double[] longitudes, boolean[] exifResolved) {
+        this.fingerprint = fingerprint;
+        this.size = size;
+        this.ids = ids;
+        this.dateAdded = dateAdded;
+        this.dateModified = dateModified;
+        this.fileSizes = fileSizes;
+        this.nameRefs = nameRefs;
+        this.names = names;
+        this.captureTimes = captureTimes;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.exifResolved = exifResolved;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long idAt(int row) {
+        return ids[row];
+    }
+
+    public long dateAddedAt(int row) {
+        return dateAdded[row];
+    }
+
+    public long dateModifiedAt(int row) {
+        return dateModified[row];
+    }
+
+    public long fileSizeAt(int row) {
+        return fileSizes[row];
+    }
+
+    /** Crea el String del nombre; usar solo al mostrarlo. */
+    public String nameAt(int row) {
+        return names.get(nameRefs[row]);
+    }
+
+    /** Milisegundos de la fecha EXIF, o {@link CaptureTime#UNKNOWN}. */
+    public long captureTimeAt(int row) {
+        return captureTimes[row];
+    }
+
+    public double latitudeAt(int row) {
+        return latitudes[row];
+    }
+
+    public double longitudeAt(int row) {
+        return longitudes[row];
+    }
+
+    public boolean hasLocation(int row) {
+        return !Double.isNaN(latitudes[row]) && !Double.isNaN(longitudes[row]);
+    }
+
+    /** Si el EXIF de la fila ya se leyó (aunque no tuviera fecha ni GPS). */
+    public boolean isExifResolved(int row) {
+        return exifResolved[row];
+    }
+
+    public void setExif(int row, long captureTime, double latitude, double longitude) {
+        captureTimes[row] = captureTime;
+        latitudes[row] = latitude;
+        longitudes[row] = longitude;
+        exifResolved[row] = true;
+    }
+
+    /** Fila de la foto con ese _ID, o -1 si no está. */
+    public int rowOf(long id) {
+        if (rowsById == null) {
+            // Se arma la primera vez que se busca por _ID; el orden de pantalla no lo permite
+            rowsById = new LongIntMap(size);
+            for (int row = 0; row < size; row++) {
+                rowsById.put(ids[row], row);
+            }
+        }
+        int row = rowsById.get(id);
+        return row == LongIntMap.MISSING ? -1 : row;
+    }
+
+    /** Si MediaStore no cambió desde esta foto; sin huella nunca se puede asegurar. */
+    public boolean isCurrent(String currentFingerprint) {
+        return fingerprint != null && fingerprint.equals(currentFingerprint);
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Copia de las columnas, para llevarla a otro hilo mientras esta sigue
+     * recibiendo EXIF. Los nombres no cambian y se comparten.
+     */
+    PhotoStore copy() {
+        return new PhotoStore(fingerprint, size, ids.clone(), dateAdded.clone(), dateModified.clone(),
+                fileSizes.clone(), nameRefs.clone(), names, captureTimes.clone(), latitudes.clone(),
+                longitudes.clone(), exifResolved.clone());
+    }
+
+    /** Bytes que ocupa {@link #writeColumns} para una galería de estas dimensiones. */
+    static long columnBytes(int size, int nameCount, int nameChars) {
+        return 7 * aligned(8L * size) + aligned(4L * size) + aligned(size)
+                + aligned(2L * nameChars) + aligned(4L * (nameCount + 1));
+    }
+
+    long columnBytes() {
+        return columnBytes(size, names.size(), names.charCount());
+    }
+
+    int nameCount() {
+        return names.size();
+    }
+
+    int nameChars() {
+        return names.charCount();
+    }
+
+    /**
+     * Escribe las columnas una tras otra, cada una alineada a 8 bytes y en el
+     * orden de bytes de {@code out}, que debe tener {@link #columnBytes()} libres
+     * y venir en ceros. Es el cuerpo de {@link GallerySnapshot}.
+     */
+    void writeColumns(ByteBuffer out) {
+        putLongs(out, ids, size);
+        putLongs(out, dateAdded, size);
+        putLongs(out, dateModified, size);
+        putLongs(out, fileSizes, size);
+        putLongs(out, captureTimes, size);
+        putDoubles(out, latitudes, size);
+        putDoubles(out, longitudes, size);
+        out.asIntBuffer().put(nameRefs, 0, size);
+        skip(out, 4L * size);
+        int at = out.position();
+        for (int row = 0; row < size; row++) {
+            if (exifResolved[row]) out.put(at + row, (byte) 1);
+        }
+        skip(out, size);
+        names.writeTo(out);
+    }
+
+    /**
+     * Lee lo escrito por {@link #writeColumns}. Lanza IllegalArgumentException
+     * si las columnas no son coherentes entre sí.
+     */
+    static PhotoStore readColumns(ByteBuffer in, int size, int nameCount, int nameChars, String fingerprint) {
+        long[] ids = getLongs(in, size);
+        long[] dateAdded = getLongs(in, size);
+        long[] dateModified = getLongs(in, size);
+        long[] fileSizes = getLongs(in, size);
+        long[] captureTimes = getLongs(in, size);
+        double[] latitudes = getDoubles(in, size);
+        double[] longitudes = getDoubles(in, size);
+        int[] nameRefs = new int[size];
+        in.asIntBuffer().get(nameRefs);
+        skip(in, 4L * size);
+        boolean[] exifResolved = new boolean[size];
+        int at = in.position();
+        for (int row = 0; row < size; row++) {
+            exifResolved[row] = in.get(at + row) != 0;
+            if (nameRefs[row] < 0 || nameRefs[row] >= nameCount) {
+                throw new IllegalArgumentException("Nombre fuera de la tabla en la fila " + row);
+            }
+        }
+        skip(in, size);
+        NameTable names = NameTable.readFrom(in, nameCount, nameChars);
+        return new PhotoStore(fingerprint, size, ids, dateAdded, dateModified, fileSizes, nameRefs, names,
+                captureTimes, latitudes, longitudes, exifResolved);
+    }
+
+    static long aligned(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // Avanza y deja la posición alineada a 8 para la columna siguiente
+    static void skip(ByteBuffer buffer, long bytes) {
+        buffer.position(buffer.position() + (int) aligned(bytes));
+    }
+
+    private static void putLongs(ByteBuffer out, long[] values, int count) {
+        out.asLongBuffer().put(values, 0, count);
+        skip(out, 8L * count);
+    }
+
+    private static void putDoubles(ByteBuffer out, double[] values, int count) {
+        out.asDoubleBuffer().put(values, 0, count);
+        skip(out, 8L * count);
+    }
+
+    private static long[] getLongs(ByteBuffer in, int count) {
+        long[] values = new long[count];
+        in.asLongBuffer().get(values);
+        skip(in, 8L * count);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer in, int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        skip(in, 8L * count);
+        return values;
+    }
+
+    /** Bytes aproximados de las columnas, para comparar con la lista de objetos. */
+    public long estimatedBytes() {
+        return size * (8L * 7 + 4 + 1) + names.estimatedBytes();
+    }
+
+    /** Escribe en {@code out} las filas que cumplen {@code filter}; devuelve cuántas son. */
+    public int filter(RowFilter filter, int[] out) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (filter.accept(this, row)) out[count++] = row;
+        }
+        return count;
+    }
+
+    /**
+     * Ordena en el lugar las primeras {@code count} filas de {@code rows} por hora
+     * de captura, de la más reciente a la más antigua; sin fecha van al final.
+     */
+    public void sortByCaptureTime(int[] rows, int count) {
+        quickSort(rows, 0, count - 1);
+    }
+
+    // Negativo si la fila a va antes que b: captura descendente y después _ID descendente
+    private int compareRows(int a, int b) {
+        if (captureTimes[a] != captureTimes[b]) return captureTimes[a] > captureTimes[b] ? -1 : 1;
+        if (ids[a] != ids[b]) return ids[a] > ids[b] ? -1 : 1;
+        return 0;
+    }
+
+    private void quickSort(int[] rows, int low, int high) {
+        while (high - low > 16) {
+            int pivot = rows[medianOfThree(rows, low, (low + high) >>> 1, high)];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareRows(rows[i], pivot) < 0) i++;
+                while (compareRows(rows[j], pivot) > 0) j--;
+                if (i <= j) {
+                    int tmp = rows[i];
+                    rows[i++] = rows[j];
+                    rows[j--] = tmp;
+                }
+            }
+            // Recursión en la mitad menor: la pila queda en O(log n)
+            if (j - low < high - i) {
+                quickSort(rows, low, j);
+                low = i;
+            } else {
+                quickSort(rows, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= low && compareRows(rows[j], row) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    private int medianOfThree(int[] rows, int a, int b, int c) {
+        if (compareRows(rows[a], rows[b]) > 0) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if (compareRows(rows[b], rows[c]) > 0) {
+            b = c;
+            if (compareRows(rows[a], rows[b]) > 0) b = a;
+        }
+        return b;
+    }
+
+    /** Par de filas de la misma foto en dos galerías; -1 del lado en que no está. */
+    public interface RowVisitor {
+        void visit(int beforeRow, int afterRow);
+    }
+
+    /**
+     * Recorre las dos galerías emparejando las filas de cada foto, en orden de
+     * pantalla. Como ambas están ordenadas por la misma clave basta una pasada: O(n).
+     */
+    public static void walk(PhotoStore before, PhotoStore after, RowVisitor visitor) {
+        int i = 0;
+        int j = 0;
+        while (i < before.size || j < after.size) {
+            int order;
+            if (i == before.size) {
+                order = 1;
+            } else if (j == after.size) {
+                order = -1;
+            } else {
+                order = compare(before.dateAdded[i], before.ids[i], after.dateAdded[j], after.ids[j]);
+            }
+
+            if (order == 0) {
+                visitor.visit(i++, j++);
+            } else if (order < 0) {
+                visitor.visit(i++, -1);
+            } else {
+                visitor.visit(-1, j++);
+            }
+        }
+    }
+
+    // Negativo si (addedA, idA) va antes en pantalla que (addedB, idB)
+    private static int compare(long addedA, long idA, long addedB, long idB) {
+        if (addedA != addedB) return addedA > addedB ? -1 : 1;
+        if (idA != idB) return idA > idB ? -1 : 1;
+        return 0;
+    }
+
+    /** Se llena en una sola pasada por el cursor, fila a fila en orden de pantalla. */
+    public static final class Builder {
+        private int size;
+        private long[] ids;
+        private long[] dateAdded;
+        private long[] dateModified;
+        private long[] fileSizes;
+        private int[] nameRefs;
+        private long[] captureTimes;
+        private double[] latitudes;
+        private double[] longitudes;
+        private boolean[] exifResolved;
+        private final NameTable names = new NameTable();
+
+        public Builder(int capacity) {
+            allocate(Math.max(capacity, 0));
+        }
+
+        /** Agrega una fila sin EXIF; devuelve su posición. */
+        public int add(long id, long added, long modified, long fileSize,
+                       char[] name, int nameLength) {
+            if (size == ids.length) {
+                grow();
+            }
+            int row = size++;
+            ids[row] = id;
+            dateAdded[row] = added;
+            dateModified[row] = modified;
+            fileSizes[row] = fileSize;
+            nameRefs[row] = names.intern(name, 0, nameLength);
+            captureTimes[row] = CaptureTime.UNKNOWN;
+            latitudes[row] = Double.NaN;
+            longitudes[row] = Double.NaN;
+            return row;
+        }
+
+        public int add(long id, long added, long modified, long fileSize, String name) {
+            char[] chars = name != null ? name.toCharArray() : new char[0];
+            return add(id, added, modified, fileSize, chars, chars.length);
+        }
+
+        public void setExif(int row, long captureTime, double latitude, double longitude) {
+            captureTimes[row] = captureTime;
+            latitudes[row] = latitude;
+            longitudes[row] = longitude;
+            exifResolved[row] = true;
+        }
+
+        public PhotoStore build(String fingerprint) {
+            return new PhotoStore(this, fingerprint);
+        }
+
+        private void allocate(int capacity) {
+            ids = new long[capacity];
+            dateAdded = new long[capacity];
+            dateModified = new long[capacity];
+            fileSizes = new long[capacity];
+            nameRefs = new int[capacity];
+            captureTimes = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            exifResolved = new boolean[capacity];
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, ids.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            dateAdded = Arrays.copyOf(dateAdded, capacity);
+            dateModified = Arrays.copyOf(dateModified, capacity);
+            fileSizes = Arrays.copyOf(fileSizes, capacity);
+            nameRefs = Arrays.copyOf(nameRefs, capacity);
+            captureTimes = Arrays.copyOf(captureTimes, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            exifResolved = Arrays.copyOf(exifResolved, capacity);
+        }
+    }
+}
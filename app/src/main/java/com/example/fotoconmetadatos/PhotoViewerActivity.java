@@ -0,0 +1,140 @@
+package com.example.fotoconmetadatos;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Visor de una foto a pantalla completa con {@link TiledImageView}, con la
+ * fecha y la ubicación EXIF encima. Un toque muestra u oculta esos datos.
+ */
+public class PhotoViewerActivity extends AppCompatActivity {
+
+    private static final String TAG = "PhotoViewerActivity";
+    private static final String EXTRA_ID = "photo_id";
+    private static final String EXTRA_NAME = "photo_name";
+    private static final String EXTRA_DATE = "photo_date";
+    private static final String EXTRA_LOCATION = "photo_location";
+
+    private static final Metrics.Timer OPEN = Metrics.timer("viewer.open");
+
+    private final ExecutorService openExecutor =
+            Executors.newSingleThreadExecutor(PhotoLoader.backgroundThreads("viewer"));
+    private TiledImageView tiledImageView;
+    private TextView tvOverlay;
+
+    /** Intent para abrir {@code photo}; la fecha y el GPS ya leídos sirven hasta leer el archivo. */
+    static Intent intentFor(Context context, PhotoItem photo) {
+        return new Intent(context, PhotoViewerActivity.class)
+                .putExtra(EXTRA_ID, photo.getId())
+                .putExtra(EXTRA_NAME, photo.getName())
+                .putExtra(EXTRA_DATE, photo.getDateTime())
+                .putExtra(EXTRA_LOCATION, photo.getLocation());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        DebugMetrics.install();
+        setContentView(R.layout.activity_photo_viewer);
+        tiledImageView = findViewById(R.id.tiledImageView);
+        tvOverlay = findViewById(R.id.tvOverlay);
+
+        Intent intent = getIntent();
+        long id = intent.getLongExtra(EXTRA_ID, -1);
+        String name = intent.getStringExtra(EXTRA_NAME);
+        tvOverlay.setText(overlayText(name, intent.getStringExtra(EXTRA_DATE),
+                intent.getStringExtra(EXTRA_LOCATION)));
+        tiledImageView.setOnClickListener(v -> tvOverlay.setVisibility(
+                tvOverlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE));
+
+        Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+        DisplayMetrics display = getResources().getDisplayMetrics();
+        int viewWidth = display.widthPixels;
+        int viewHeight = display.heightPixels;
+        openExecutor.execute(() -> open(uri, name, viewWidth, viewHeight));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        openExecutor.shutdownNow();
+        tiledImageView.release();
+    }
+
+    // En segundo plano: EXIF del encabezado, decodificador de regiones y vista previa
+    private void open(Uri uri, String name, int viewWidth, int viewHeight) {
+        long start = OPEN.start();
+        ContentResolver resolver = getContentResolver();
+        ExifHeaderReader.Result exif = new ExifHeaderReader.Result();
+        boolean isJpeg = false;
+        BitmapRegionDecoder decoder = null;
+        Bitmap preview;
+        int sample;
+        try {
+            try (InputStream input = resolver.openInputStream(uri)) {
+                if (input != null) isJpeg = new ExifHeaderReader().read(input, exif);
+            }
+            // Con el descriptor el decodificador lee del archivo a demanda, sin copiarlo a memoria
+            try (ParcelFileDescriptor fd = resolver.openFileDescriptor(uri, "r")) {
+                if (fd != null) decoder = BitmapRegionDecoder.newInstance(fd.getFileDescriptor(), false);
+            }
+            if (decoder == null) throw new IOException("Formato no soportado");
+            sample = TiledImageView.previewSampleFor(new TileGrid(decoder.getWidth(), decoder.getHeight()),
+                    exif.orientation, viewWidth, viewHeight);
+            preview = TiledImageView.decodePreview(decoder, sample);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "No se pudo abrir " + uri, e);
+            if (decoder != null) decoder.recycle();
+            runOnUiThread(() -> {
+                Toast.makeText(this, "No se pudo abrir la foto", Toast.LENGTH_SHORT).show();
+                finish();
+            });
+            return;
+        } finally {
+            OPEN.stop(start);
+        }
+
+        BitmapRegionDecoder opened = decoder;
+        boolean fromFile = isJpeg;
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                opened.recycle();
+                return;
+            }
+            tiledImageView.setImage(opened, exif.orientation, preview, sample);
+            if (fromFile) {
+                // Lo recién leído del archivo manda sobre el índice, que puede ir atrasado
+                PhotoItem read = new PhotoItem(0, name, 0, CaptureTime.parseExif(exif.dateTime),
+                        exif.latitude, exif.longitude);
+                tvOverlay.setText(overlayText(name, read.getDateTime(), read.getLocation()));
+            }
+        });
+    }
+
+    private static String overlayText(String name, String dateTime, String location) {
+        StringBuilder text = new StringBuilder(name != null ? name : "");
+        text.append("\nFecha: ").append(dateTime == null || dateTime.isEmpty() ? "sin fecha" : dateTime);
+        text.append("\nUbicación: ").append(location == null || location.isEmpty() ? "sin GPS" : location);
+        return text.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.fotoconmetadatos;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caché en memoria de miniaturas, limitada por bytes a una fracción de la clase de
+ * memoria de la app. La clave es el id de la foto más el tamaño pedido. Los bitmaps
+ * desalojados pasan al {@link BitmapPool} cuando ninguna celda los está mostrando.
+ */
+public class ThumbnailCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "ThumbnailCache";
+
+    // 1/8 de la memoria de la app para miniaturas y 1/3 de eso para reutilizar
+    private static final int MEMORY_FRACTION = 8;
+    private static final int POOL_FRACTION = 3;
+
+    private static ThumbnailCache instance;
+
+    public static synchronized ThumbnailCache get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            ActivityManager am = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+            long maxBytes = (long) am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+            instance = new ThumbnailCache(maxBytes);
+            app.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    private final LruCache<String, Bitmap> cache;
+    private final BitmapPool pool;
+    // Cuántas celdas muestran cada bitmap; solo los que están en 0 se pueden reutilizar
+    private final Map<Bitmap, Integer> inUse = new IdentityHashMap<>();
+    // Desalojados mientras una celda los mostraba; van al pool al liberarse
+    private final Set<Bitmap> evictedInUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    ThumbnailCache(long maxBytes) {
+        this.pool = new BitmapPool(maxBytes / POOL_FRACTION);
+        this.cache = new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, maxBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    recycleIfUnused(oldValue);
+                }
+            }
+        };
+    }
+
+    public static String key(long photoId, int targetSize) {
+        return photoId + "@" + targetSize;
+    }
+
+    /**
+     * Busca la miniatura y, si está, la marca en uso en el mismo paso para que no
+     * pueda pasar al pool entre la búsqueda y el momento de mostrarla.
+     */
+    public synchronized Bitmap getAndAcquire(long photoId, int targetSize) {
+        Bitmap bitmap = cache.get(key(photoId, targetSize));
+        acquire(bitmap);
+        return bitmap;
+    }
+
+    /** Guarda una miniatura que el llamador ya adquirió con {@link #acquire}. */
+    public void put(long photoId, int targetSize, Bitmap bitmap) {
+        cache.put(key(photoId, targetSize), bitmap);
+    }
+
+    public BitmapPool getPool() {
+        return pool;
+    }
+
+    /** Marca que una celda empezó a mostrar {@code bitmap}. */
+    public synchronized void acquire(Bitmap bitmap) {
+        if (bitmap == null) return;
+        Integer count = inUse.get(bitmap);
+        inUse.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /** Marca que una celda dejó de mostrar {@code bitmap}. */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) return;
+        synchronized (this) {
+            Integer count = inUse.get(bitmap);
+            if (count == null) return;
+            if (count > 1) {
+                inUse.put(bitmap, count - 1);
+                return;
+            }
+            inUse.remove(bitmap);
+            if (!evictedInUse.remove(bitmap)) return;
+        }
+        pool.put(bitmap);
+    }
+
+    private void recycleIfUnused(Bitmap bitmap) {
+        synchronized (this) {
+            if (inUse.containsKey(bitmap)) {
+                evictedInUse.add(bitmap);
+                return;
+            }
+        }
+        pool.put(bitmap);
+    }
+
+    public String stats() {
+        return String.format(Locale.US,
+                "miniaturas: %d/%d KB, aciertos %d, fallos %d, desalojos %d, reutilizados %d, pool %d KB",
+                cache.size() / 1024, cache.maxSize() / 1024,
+                cache.hitCount(), cache.missCount(), cache.evictionCount(),
+                pool.getReuseCount(), pool.getCurrentBytes() / 1024);
+    }
+
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+            pool.clear();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+            pool.clear();
+        }
+        Log.d(TAG, "onTrimMemory(" + level + ") " + stats());
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.fotoconmetadatos;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Obtiene la miniatura de una foto pasando por los dos niveles de caché:
+ * memoria ({@link ThumbnailCache}), disco ({@link DiskThumbnailCache}) y, solo si
+ * ambos fallan, la imagen original. Lo decodificado del original se guarda ya
+ * reducido en disco para los siguientes arranques.
+ *
+ * El original se decodifica según el tamaño de la celda: la mayor potencia de
+ * dos que todavía la cubre y un escalado final pequeño (ver {@link ThumbnailSizing}).
+ * Si la miniatura incrustada en el EXIF ya es suficiente, ni se toca la imagen.
+ */
+public class ThumbnailLoader {
+
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int DISK_JPEG_QUALITY = 85;
+
+    private static final Metrics.Timer DECODE = Metrics.timer("thumbnail.decode");
+    private static final Metrics.Timer DISK_DECODE = Metrics.timer("thumbnail.disk_decode");
+    private static final Metrics.Timer DISK_SAVE = Metrics.timer("thumbnail.disk_save");
+    private static final Metrics.Counter EXIF_THUMBNAILS = Metrics.counter("thumbnail.exif_thumbnails");
+
+    private static ThumbnailLoader instance;
+    private static final Map<Album, DiskThumbnailCache> ALBUM_CACHES = new EnumMap<>(Album.class);
+
+    public static synchronized ThumbnailLoader get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new ThumbnailLoader(app.getContentResolver(), ThumbnailCache.get(app),
+                    diskCacheOf(app, Album.ALL));
+        }
+        return instance;
+    }
+
+    /**
+     * Como {@link #get(Context)}, pero con la caché en disco de {@code album}.
+     * Cada álbum guarda sus miniaturas aparte: recorrer todas las fotos no
+     * desaloja las de nuestras capturas. La caché en memoria es común.
+     */
+    public static synchronized ThumbnailLoader get(Context context, Album album) {
+        ThumbnailLoader loader = get(context);
+        DiskThumbnailCache albumCache = diskCacheOf(context.getApplicationContext(), album);
+        if (loader.diskCache != albumCache) {
+            loader.diskCache.flush();
+            loader.diskCache = albumCache;
+        }
+        return loader;
+    }
+
+    private static DiskThumbnailCache diskCacheOf(Context app, Album album) {
+        DiskThumbnailCache cache = ALBUM_CACHES.get(album);
+        if (cache == null) {
+            cache = new DiskThumbnailCache(new File(app.getCacheDir(), album.fileName("thumbnails")),
+                    DISK_CACHE_BYTES);
+            ALBUM_CACHES.put(album, cache);
+        }
+        return cache;
+    }
+
+    interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    // El lector reutiliza un búfer de 68 KB: uno por hilo de decodificación
+    private static final ThreadLocal<ExifHeaderReader> EXIF_READER =
+            ThreadLocal.withInitial(ExifHeaderReader::new);
+    private static final ThreadLocal<ExifHeaderReader.Result> EXIF_RESULT =
+            ThreadLocal.withInitial(ExifHeaderReader.Result::new);
+
+    private final ContentResolver contentResolver;
+    private final ThumbnailCache memoryCache;
+    // Las decodificaciones en curso al cambiar de álbum pueden acabar en la caché anterior
+    private volatile DiskThumbnailCache diskCache;
+
+    ThumbnailLoader(ContentResolver contentResolver, ThumbnailCache memoryCache,
+                    DiskThumbnailCache diskCache) {
+        this.contentResolver = contentResolver;
+        this.memoryCache = memoryCache;
+        this.diskCache = diskCache;
+    }
+
+    public ThumbnailCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public DiskThumbnailCache getDiskCache() {
+        return diskCache;
+    }
+
+    public static String diskKey(PhotoItem photo, int targetSize) {
+        return photo.getId() + "_" + photo.getDateModified() + "@" + targetSize;
+    }
+
+    /** Solo la caché en memoria; se puede llamar desde el hilo principal. */
+    public Bitmap peekMemory(PhotoItem photo, int targetSize) {
+        return memoryCache.getAndAcquire(photo.getId(), targetSize);
+    }
+
+    /**
+     * Devuelve la miniatura de {@code photo} con lado menor cercano a {@code targetSize}.
+     * Hace E/S: llamar desde un hilo de fondo. El bitmap se entrega ya adquirido en
+     * la caché; quien lo recibe debe liberarlo con {@link ThumbnailCache#release}.
+     */
+    public Bitmap load(PhotoItem photo, int targetSize) {
+        Bitmap bitmap = memoryCache.getAndAcquire(photo.getId(), targetSize);
+        if (bitmap != null) return bitmap;
+
+        String diskKey = diskKey(photo, targetSize);
+        File cached = diskCache.get(diskKey);
+        if (cached != null) {
+            long start = DISK_DECODE.start();
+            try {
+                bitmap = decodeSampled(() -> new FileInputStream(cached), 1);
+            } finally {
+                DISK_DECODE.stop(start);
+            }
+        }
+        if (bitmap == null) {
+            long start = DECODE.start();
+            try {
+                bitmap = decodeForTarget(() -> contentResolver.openInputStream(photo.getUri()), targetSize);
+            } finally {
+                DECODE.stop(start);
+            }
+            if (bitmap == null) return null;
+            start = DISK_SAVE.start();
+            try {
+                saveToDisk(diskKey, bitmap, targetSize);
+            } finally {
+                DISK_SAVE.stop(start);
+            }
+        }
+
+        memoryCache.acquire(bitmap);
+        memoryCache.put(photo.getId(), targetSize, bitmap);
+        return bitmap;
+    }
+
+    // Se guarda una copia escalada para que el disco no almacene más píxeles de los que se muestran
+    private void saveToDisk(String diskKey, Bitmap bitmap, int targetSize) {
+        int shortSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap scaled = bitmap;
+        if (shortSide > targetSize) {
+            float scale = (float) targetSize / shortSide;
+            scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        }
+        Bitmap toCompress = scaled;
+        diskCache.put(diskKey, out -> {
+            if (!toCompress.compress(Bitmap.CompressFormat.JPEG, DISK_JPEG_QUALITY, out)) {
+                throw new IOException("No se pudo comprimir la miniatura");
+            }
+        });
+        if (scaled != bitmap) {
+            memoryCache.getPool().put(scaled);
+        }
+    }
+
+    /**
+     * Decodifica una imagen completa para una celda de lado menor {@code targetSize}:
+     * primero prueba la miniatura del EXIF y, si no alcanza, decodifica el original
+     * con el mayor inSampleSize que cubre la celda. Las dimensiones salen de la
+     * misma lectura del encabezado, así que un JPEG se abre dos veces y no tres.
+     */
+    Bitmap decodeForTarget(StreamOpener opener, int targetSize) {
+        ExifHeaderReader.Result header = EXIF_RESULT.get();
+        Bitmap bitmap = decodeExifThumbnail(opener, targetSize, header);
+        if (bitmap != null) {
+            EXIF_THUMBNAILS.increment();
+            return bitmap;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (header.width > 0 && header.height > 0) {
+            options.outWidth = header.width;
+            options.outHeight = header.height;
+        } else {
+            // No es JPEG o el SOF no estaba a mano: las dimensiones las da el decodificador
+            options.inJustDecodeBounds = true;
+            if (!decodeBounds(opener, options) || options.outWidth <= 0) {
+                return null;
+            }
+        }
+        int sampleSize = ThumbnailSizing.sampleSizeFor(options.outWidth, options.outHeight, targetSize);
+        return fitToTarget(decodeInto(opener, options, sampleSize), targetSize);
+    }
+
+    // La miniatura de IFD1 ya está en el búfer del lector: no hace falta más E/S.
+    // Deja en result las dimensiones del original, o 0 si no se pudieron leer
+    private Bitmap decodeExifThumbnail(StreamOpener opener, int targetSize, ExifHeaderReader.Result result) {
+        ExifHeaderReader reader = EXIF_READER.get();
+        result.reset();
+        try (InputStream inputStream = opener.open()) {
+            if (inputStream == null || !reader.read(inputStream, result, true)
+                    || result.thumbnailOffset < 0) {
+                return null;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.reset();
+            return null;
+        }
+
+        byte[] data = reader.getBuffer();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, result.thumbnailOffset, result.thumbnailLength, options);
+        if (Math.min(options.outWidth, options.outHeight) < targetSize) {
+            return null; // Lo habitual: 160x120, demasiado pequeña para la celda
+        }
+
+        int sampleSize = ThumbnailSizing.sampleSizeFor(options.outWidth, options.outHeight, targetSize);
+        prepareDecode(options, sampleSize);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, result.thumbnailOffset,
+                    result.thumbnailLength, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, result.thumbnailOffset,
+                    result.thumbnailLength, options);
+        }
+        return fitToTarget(bitmap, targetSize);
+    }
+
+    // Lo que sobra tras la reducción en potencias de dos se ajusta con un escalado bilineal
+    private Bitmap fitToTarget(Bitmap decoded, int targetSize) {
+        if (decoded == null
+                || !ThumbnailSizing.needsRescale(decoded.getWidth(), decoded.getHeight(), targetSize)) {
+            return decoded;
+        }
+        int[] size = ThumbnailSizing.scaledSize(decoded.getWidth(), decoded.getHeight(), targetSize);
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, size[0], size[1], true);
+        if (scaled != decoded) {
+            memoryCache.getPool().put(decoded);
+        }
+        return scaled;
+    }
+
+    private Bitmap decodeSampled(StreamOpener opener, int sampleSize) {
+        // Leer solo las dimensiones para pedir al pool un bitmap donde quepa
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decodeBounds(opener, options) || options.outWidth <= 0) {
+            return null;
+        }
+        return decodeInto(opener, options, sampleSize);
+    }
+
+    // Pide al pool un bitmap del tamaño resultante para usarlo como inBitmap
+    private void prepareDecode(BitmapFactory.Options options, int sampleSize) {
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true; // Necesario para poder reutilizarlo como inBitmap
+        options.inBitmap = memoryCache.getPool().get(
+                ThumbnailSizing.sampledDimension(options.outWidth, sampleSize),
+                ThumbnailSizing.sampledDimension(options.outHeight, sampleSize),
+                Bitmap.Config.ARGB_8888);
+    }
+
+    private Bitmap decodeInto(StreamOpener opener, BitmapFactory.Options options, int sampleSize) {
+        prepareDecode(options, sampleSize);
+        try {
+            return decodeBitmap(opener, options);
+        } catch (IllegalArgumentException e) {
+            // El bitmap reutilizado no sirvió para este formato: decodificar sin él
+            options.inBitmap = null;
+            return decodeBitmap(opener, options);
+        }
+    }
+
+    private static boolean decodeBounds(StreamOpener opener, BitmapFactory.Options options) {
+        try (InputStream inputStream = opener.open()) {
+            if (inputStream != null) {
+                BitmapFactory.decodeStream(inputStream, null, options);
+                return true;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static Bitmap decodeBitmap(StreamOpener opener, BitmapFactory.Options options) {
+        try (InputStream inputStream = opener.open()) {
+            if (inputStream != null) {
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
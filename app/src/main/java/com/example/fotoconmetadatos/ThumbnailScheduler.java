@@ -0,0 +1,178 @@
+package com.example.fotoconmetadatos;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodifica miniaturas fuera del hilo principal con un pool fijo. Cada pedido
+ * visible va asociado a un destino (la celda); pedir otra foto para el mismo
+ * destino o cancelarlo al reciclar la celda descarta el pedido anterior, así un
+ * bitmap viejo nunca llega a otra celda. Los pedidos visibles salen antes que
+ * los de precarga.
+ */
+public class ThumbnailScheduler {
+
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+    private static final int LATENCY_SAMPLES = 256;
+
+    public interface Callback {
+        /** Se llama en el hilo principal con una referencia ya adquirida en la caché. */
+        void onThumbnail(Bitmap bitmap);
+    }
+
+    private final ThumbnailLoader loader;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger prefetchGeneration = new AtomicInteger();
+    // Solo se usa desde el hilo principal
+    private final Map<Object, Request> active = new HashMap<>();
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+
+    public ThumbnailScheduler(ThumbnailLoader loader) {
+        this.loader = loader;
+        int workers = Math.max(2, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "Thumbnail-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Pide la miniatura para {@code target}, reemplazando cualquier pedido anterior suyo. */
+    public void request(Object target, PhotoItem photo, int targetSize, Callback callback) {
+        cancel(target);
+        Request request = new Request(target, photo, targetSize, PRIORITY_VISIBLE, callback, 0);
+        active.put(target, request);
+        executor.execute(request);
+    }
+
+    public void cancel(Object target) {
+        Request previous = active.remove(target);
+        if (previous != null) {
+            previous.cancelled = true;
+            executor.remove(previous);
+        }
+    }
+
+    /**
+     * Precarga en la caché las fotos indicadas, en ese orden. Reemplaza la precarga
+     * anterior: al cambiar la dirección del scroll lo pendiente ya no sirve.
+     */
+    public void prefetch(List<PhotoItem> photos, int targetSize) {
+        int generation = prefetchGeneration.incrementAndGet();
+        executor.getQueue().removeIf(r -> ((Request) r).priority == PRIORITY_PREFETCH);
+        for (PhotoItem photo : photos) {
+            executor.execute(new Request(null, photo, targetSize, PRIORITY_PREFETCH, null, generation));
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** Percentiles de latencia (encolado hasta bitmap listo) de las últimas decodificaciones, en ms. */
+    public synchronized long[] latencyPercentiles(double... percentiles) {
+        int n = Math.min(latencyCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length && n > 0; i++) {
+            int index = (int) Math.min(n - 1, Math.ceil(percentiles[i] / 100.0 * n) - 1);
+            result[i] = sorted[Math.max(0, index)];
+        }
+        return result;
+    }
+
+    public String stats() {
+        long[] p = latencyPercentiles(50, 90, 99);
+        return String.format(Locale.US, "cola %d, decodificación p50 %d ms, p90 %d ms, p99 %d ms",
+                getQueueDepth(), p[0], p[1], p[2]);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void recordLatency(long millis) {
+        latencies[latencyCount % LATENCY_SAMPLES] = millis;
+        latencyCount++;
+    }
+
+    private final class Request implements Runnable, Comparable<Request> {
+        final Object target;
+        final PhotoItem photo;
+        final int targetSize;
+        final int priority;
+        final Callback callback;
+        final int generation;
+        final long order = sequence.incrementAndGet();
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+        volatile boolean cancelled;
+
+        Request(Object target, PhotoItem photo, int targetSize, int priority,
+                Callback callback, int generation) {
+            this.target = target;
+            this.photo = photo;
+            this.targetSize = targetSize;
+            this.priority = priority;
+            this.callback = callback;
+            this.generation = generation;
+        }
+
+        private boolean isStale() {
+            return cancelled
+                    || (priority == PRIORITY_PREFETCH && generation != prefetchGeneration.get());
+        }
+
+        @Override
+        public void run() {
+            if (isStale()) return;
+            ThumbnailCache cache = loader.getMemoryCache();
+            Bitmap bitmap = loader.load(photo, targetSize);
+            recordLatency(SystemClock.elapsedRealtime() - enqueuedAt);
+
+            if (callback == null) {
+                cache.release(bitmap); // Precarga: basta con dejarlo en la caché
+                return;
+            }
+            mainHandler.post(() -> {
+                if (cancelled || active.get(target) != this) {
+                    cache.release(bitmap);
+                    return;
+                }
+                active.remove(target);
+                callback.onThumbnail(bitmap);
+            });
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.fotoconmetadatos;
+
+/**
+ * Cálculo del tamaño de decodificación de una miniatura. El decodificador JPEG
+ * reduce gratis en potencias de dos, así que se pide la mayor que todavía cubre
+ * la celda y el resto se ajusta con un escalado bilineal pequeño.
+ */
+public final class ThumbnailSizing {
+
+    // Por debajo de este exceso no compensa un escalado adicional
+    private static final float RESCALE_THRESHOLD = 1.25f;
+
+    private ThumbnailSizing() {
+    }
+
+    /**
+     * Mayor potencia de dos tal que el lado menor de la imagen reducida sigue
+     * siendo al menos {@code targetSize}. Nunca es menor que 1.
+     */
+    public static int sampleSizeFor(int width, int height, int targetSize) {
+        int shortSide = Math.min(width, height);
+        if (targetSize <= 0 || shortSide <= targetSize) return 1;
+        int sample = 1;
+        while (shortSide / (sample * 2) >= targetSize) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /** Lado decodificado con {@code sampleSize}; el decodificador redondea hacia arriba. */
+    public static int sampledDimension(int dimension, int sampleSize) {
+        return (dimension + sampleSize - 1) / sampleSize;
+    }
+
+    /** Si el bitmap decodificado excede lo bastante la celda como para escalarlo. */
+    public static boolean needsRescale(int width, int height, int targetSize) {
+        return Math.min(width, height) > targetSize * RESCALE_THRESHOLD;
+    }
+
+    /** Ancho y alto finales conservando la proporción, con lado menor {@code targetSize}. */
+    public static int[] scaledSize(int width, int height, int targetSize) {
+        float scale = (float) targetSize / Math.min(width, height);
+        return new int[]{
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale))
+        };
+    }
+
+    /** Bytes de un bitmap ARGB_8888 decodificado con {@code sampleSize}. */
+    public static long decodedBytes(int width, int height, int sampleSize) {
+        return 4L * sampledDimension(width, sampleSize) * sampledDimension(height, sampleSize);
+    }
+}
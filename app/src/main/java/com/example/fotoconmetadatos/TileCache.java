@@ -0,0 +1,56 @@
+package com.example.fotoconmetadatos;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Teselas decodificadas de la imagen que se está viendo, limitadas por bytes.
+ * Se usa solo desde el hilo principal, que es el que dibuja: una tesela
+ * desalojada ya no se dibuja en el siguiente fotograma y puede pasar al
+ * {@link BitmapPool} para que el hilo de decodificación la reutilice.
+ */
+class TileCache {
+
+    private final LruCache<Long, Bitmap> cache;
+    private final BitmapPool pool;
+
+    TileCache(long maxBytes, long poolBytes) {
+        this.pool = new BitmapPool(poolBytes);
+        this.cache = new LruCache<Long, Bitmap>((int) Math.min(Integer.MAX_VALUE, maxBytes)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                // Solo las teselas enteras sirven como inBitmap de otra tesela
+                if (oldValue != newValue && isFullTile(oldValue)) {
+                    pool.put(oldValue);
+                }
+            }
+        };
+    }
+
+    Bitmap get(long key) {
+        return cache.get(key);
+    }
+
+    void put(long key, Bitmap tile) {
+        cache.put(key, tile);
+    }
+
+    BitmapPool getPool() {
+        return pool;
+    }
+
+    /** Suelta todas las teselas y la memoria para reutilizar. */
+    void clear() {
+        cache.evictAll();
+        pool.clear();
+    }
+
+    static boolean isFullTile(Bitmap bitmap) {
+        return bitmap.getWidth() == TileGrid.TILE_SIZE && bitmap.getHeight() == TileGrid.TILE_SIZE;
+    }
+}
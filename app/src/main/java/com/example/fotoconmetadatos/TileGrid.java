@@ -0,0 +1,147 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Arrays;
+
+/**
+ * Pirámide de teselas de una imagen para {@link TiledImageView}. Cada nivel es
+ * un inSampleSize potencia de dos y en todos la tesela decodificada mide
+ * {@link #TILE_SIZE} píxeles, así que cubre {@code TILE_SIZE * sample} píxeles
+ * de la imagen original: al alejarse se decodifican menos teselas y más
+ * pequeñas, nunca la imagen a resolución completa.
+ *
+ * Las teselas se identifican con un long que empaqueta nivel, columna y fila.
+ * No depende de Android.
+ */
+public final class TileGrid {
+
+    /** Lado de una tesela ya decodificada, en píxeles. */
+    public static final int TILE_SIZE = 512;
+    /** Lado máximo de la vista previa de la imagen entera. */
+    static final int MAX_PREVIEW_SIZE = 2048;
+
+    private static final int MAX_LEVEL = 20;
+    private static final int COORD_BITS = 28;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    private final int width;
+    private final int height;
+
+    public TileGrid(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException(width + "x" + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Nivel para una escala de pantalla (píxeles de pantalla por píxel de la
+     * imagen): el mayor inSampleSize que todavía da al menos un píxel
+     * decodificado por píxel de pantalla.
+     */
+    public static int sampleFor(float scale) {
+        if (!(scale < 1f)) return 1;
+        double ratio = Math.min(1d / scale, 1 << MAX_LEVEL);
+        return Integer.highestOneBit((int) ratio);
+    }
+
+    /**
+     * inSampleSize de la vista previa que se muestra mientras llegan las
+     * teselas: la imagen entera ajustada a la vista, sin pasar de
+     * {@link #MAX_PREVIEW_SIZE} de lado.
+     */
+    public int previewSample(int viewWidth, int viewHeight) {
+        float fit = Math.min((float) viewWidth / width, (float) viewHeight / height);
+        int sample = sampleFor(fit);
+        while (sample < 1 << MAX_LEVEL
+                && (ceilDiv(width, sample) > MAX_PREVIEW_SIZE || ceilDiv(height, sample) > MAX_PREVIEW_SIZE)) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Teselas del nivel {@code sample} que tocan el rectángulo dado en
+     * coordenadas de la imagen, de la más cercana al centro a la más lejana
+     * para que lo que se mira primero llegue antes.
+     */
+    public long[] visibleTiles(int sample, float left, float top, float right, float bottom) {
+        int span = TILE_SIZE * sample;
+        int firstCol = Math.max(0, (int) Math.floor(left / span));
+        int firstRow = Math.max(0, (int) Math.floor(top / span));
+        int lastCol = Math.min(ceilDiv(width, span) - 1, (int) Math.floor(right / span));
+        int lastRow = Math.min(ceilDiv(height, span) - 1, (int) Math.floor(bottom / span));
+        if (firstCol > lastCol || firstRow > lastRow) return new long[0];
+
+        int level = Integer.numberOfTrailingZeros(sample);
+        int cols = lastCol - firstCol + 1;
+        long[] byDistance = new long[cols * (lastRow - firstRow + 1)];
+        float centerX = (left + right) / 2;
+        float centerY = (top + bottom) / 2;
+        for (int row = firstRow, i = 0; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++, i++) {
+                float dx = (col + 0.5f) * span - centerX;
+                float dy = (row + 0.5f) * span - centerY;
+                // Distancia en la parte alta y el índice en la baja: ordenar basta
+                long distance = (long) Math.min(dx * dx + dy * dy, Integer.MAX_VALUE);
+                byDistance[i] = distance << 32 | i;
+            }
+        }
+        Arrays.sort(byDistance);
+        for (int i = 0; i < byDistance.length; i++) {
+            int index = (int) byDistance[i];
+            byDistance[i] = key(level, firstCol + index % cols, firstRow + index / cols);
+        }
+        return byDistance;
+    }
+
+    /** Rectángulo de la tesela en la imagen, recortado al borde: izquierda, arriba, derecha, abajo. */
+    public void bounds(long key, int[] out) {
+        int span = TILE_SIZE * sampleOf(key);
+        out[0] = colOf(key) * span;
+        out[1] = rowOf(key) * span;
+        out[2] = Math.min(width, out[0] + span);
+        out[3] = Math.min(height, out[1] + span);
+    }
+
+    /** Si la tesela no está recortada y se decodifica en exactamente TILE_SIZE x TILE_SIZE. */
+    public boolean isFull(long key) {
+        int span = TILE_SIZE * sampleOf(key);
+        return (colOf(key) + 1L) * span <= width && (rowOf(key) + 1L) * span <= height;
+    }
+
+    public static long key(int level, int col, int row) {
+        return (long) level << (2 * COORD_BITS) | (long) col << COORD_BITS | row;
+    }
+
+    /** La tesela del nivel siguiente (la mitad de resolución) que contiene a esta. */
+    public static long parent(long key) {
+        return key(levelOf(key) + 1, colOf(key) / 2, rowOf(key) / 2);
+    }
+
+    public static int levelOf(long key) {
+        return (int) (key >>> (2 * COORD_BITS));
+    }
+
+    public static int sampleOf(long key) {
+        return 1 << levelOf(key);
+    }
+
+    public static int colOf(long key) {
+        return (int) (key >>> COORD_BITS & COORD_MASK);
+    }
+
+    public static int rowOf(long key) {
+        return (int) (key & COORD_MASK);
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.fotoconmetadatos;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Muestra una foto grande con zoom y desplazamiento sin tenerla nunca entera en
+ * memoria. Debajo va una vista previa de toda la imagen y encima las teselas de
+ * {@link TileGrid} del nivel que corresponde a la escala actual, decodificadas
+ * con {@link BitmapRegionDecoder} en un hilo de fondo. Al mover o ampliar se
+ * cancelan las teselas pedidas que ya no se ven; mientras llega una tesela se
+ * dibuja la del nivel anterior si sigue en la caché.
+ *
+ * El estado se toca solo en el hilo principal. Llamar a {@link #release()} al
+ * destruir la actividad.
+ */
+public class TiledImageView extends View {
+
+    private static final String TAG = "TiledImageView";
+
+    private static final Metrics.Timer TILE_DECODE = Metrics.timer("viewer.tile_decode");
+    private static final Metrics.Counter TILES_CANCELLED = Metrics.counter("viewer.tiles_cancelled");
+
+    // 1/6 de la memoria de la app para teselas y 1/4 de eso para reutilizar
+    private static final int MEMORY_FRACTION = 6;
+    private static final int POOL_FRACTION = 4;
+    // Hasta dos píxeles de pantalla por píxel de la foto
+    private static final float MAX_SCALE = 2f;
+    private static final long[] NO_TILES = new long[0];
+
+    private final ExecutorService decodeExecutor =
+            Executors.newSingleThreadExecutor(PhotoLoader.backgroundThreads("tiles"));
+    private final TileCache cache;
+    // Teselas en cola o decodificándose, por clave
+    private final Map<Long, Future<?>> pending = new HashMap<>();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    private BitmapRegionDecoder decoder;
+    private TileGrid grid;
+    private Bitmap preview;
+    private int previewSample;
+    private boolean released;
+
+    // De la imagen a la pantalla: rotación EXIF, escala y desplazamiento
+    private final Matrix orientMatrix = new Matrix();
+    private final Matrix drawMatrix = new Matrix();
+    private final Matrix inverse = new Matrix();
+    private int orientedWidth;
+    private int orientedHeight;
+    private float scale;
+    private float fitScale;
+    private float maxScale;
+    private float translateX;
+    private float translateY;
+    private long[] wanted = NO_TILES;
+
+    private final RectF visible = new RectF();
+    private final RectF imageRect = new RectF();
+    private final RectF tileRect = new RectF();
+    private final int[] bounds = new int[4];
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long maxBytes = (long) am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+        cache = new TileCache(maxBytes, maxBytes / POOL_FRACTION);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                translateX -= distanceX;
+                translateY -= distanceY;
+                applyMatrix();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                // Alterna entre ajustada a la pantalla y píxel a píxel
+                zoomTo(scale > fitScale * 1.01f ? fitScale : Math.max(1f, fitScale * 2), e.getX(), e.getY());
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(@NonNull MotionEvent e) {
+                return performClick();
+            }
+        });
+    }
+
+    /**
+     * Muestra la imagen de {@code decoder}, que pasa a ser de la vista. La vista
+     * previa es la imagen entera decodificada con {@code previewSample} (ver
+     * {@link #decodePreview}).
+     */
+    public void setImage(BitmapRegionDecoder decoder, int exifOrientation, Bitmap preview, int previewSample) {
+        if (released) {
+            decoder.recycle();
+            return;
+        }
+        this.decoder = decoder;
+        this.grid = new TileGrid(decoder.getWidth(), decoder.getHeight());
+        this.preview = preview;
+        this.previewSample = previewSample;
+
+        int degrees = rotationDegrees(exifOrientation);
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        orientMatrix.setRotate(degrees);
+        if (degrees == 90) {
+            orientMatrix.postTranslate(height, 0);
+        } else if (degrees == 180) {
+            orientMatrix.postTranslate(width, height);
+        } else if (degrees == 270) {
+            orientMatrix.postTranslate(0, width);
+        }
+        orientedWidth = degrees % 180 == 0 ? width : height;
+        orientedHeight = degrees % 180 == 0 ? height : width;
+        imageRect.set(0, 0, width, height);
+        resetToFit();
+    }
+
+    /** La imagen entera reducida con {@code sample}; null si no se pudo. Hace E/S. */
+    public static Bitmap decodePreview(BitmapRegionDecoder decoder, int sample) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return decoder.decodeRegion(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), options);
+    }
+
+    /** inSampleSize de la vista previa para una vista de ese tamaño y esa orientación EXIF. */
+    public static int previewSampleFor(TileGrid grid, int exifOrientation, int viewWidth, int viewHeight) {
+        return rotationDegrees(exifOrientation) % 180 == 0
+                ? grid.previewSample(viewWidth, viewHeight)
+                : grid.previewSample(viewHeight, viewWidth);
+    }
+
+    /** Cancela las decodificaciones, suelta las teselas y cierra el decodificador. */
+    public void release() {
+        if (released) return;
+        released = true;
+        for (Future<?> task : pending.values()) {
+            task.cancel(false);
+        }
+        pending.clear();
+        if (decoder != null) {
+            // Detrás de la tesela en curso, si la hay: el decodificador no se cierra a mitad
+            BitmapRegionDecoder closing = decoder;
+            decodeExecutor.execute(closing::recycle);
+            decoder = null;
+        }
+        decodeExecutor.shutdown();
+        cache.clear();
+        preview = null;
+        wanted = NO_TILES;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (grid != null) resetToFit();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (grid == null) return super.onTouchEvent(event);
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (grid == null) return;
+        canvas.save();
+        canvas.concat(drawMatrix);
+        if (preview != null) {
+            canvas.drawBitmap(preview, null, imageRect, paint);
+        }
+        // Primero lo que haya del nivel anterior para lo que falta, después las teselas del nivel
+        for (long key : wanted) {
+            if (cache.get(key) == null) {
+                long parent = TileGrid.parent(key);
+                if (TileGrid.sampleOf(parent) < previewSample) drawTile(canvas, parent);
+            }
+        }
+        for (long key : wanted) {
+            drawTile(canvas, key);
+        }
+        canvas.restore();
+    }
+
+    private void drawTile(Canvas canvas, long key) {
+        Bitmap tile = cache.get(key);
+        if (tile == null) return;
+        grid.bounds(key, bounds);
+        tileRect.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+        canvas.drawBitmap(tile, null, tileRect, paint);
+    }
+
+    private void resetToFit() {
+        if (getWidth() == 0 || getHeight() == 0) return;
+        fitScale = Math.min((float) getWidth() / orientedWidth, (float) getHeight() / orientedHeight);
+        maxScale = Math.max(MAX_SCALE, fitScale * 2);
+        scale = fitScale;
+        applyMatrix();
+    }
+
+    private void zoomTo(float target, float focusX, float focusY) {
+        if (grid == null) return;
+        float next = Math.max(fitScale, Math.min(maxScale, target));
+        float factor = next / scale;
+        // El punto bajo los dedos se queda donde está
+        translateX = focusX - (focusX - translateX) * factor;
+        translateY = focusY - (focusY - translateY) * factor;
+        scale = next;
+        applyMatrix();
+    }
+
+    private void applyMatrix() {
+        if (grid == null || getWidth() == 0) return;
+        translateX = clampTranslation(translateX, orientedWidth * scale, getWidth());
+        translateY = clampTranslation(translateY, orientedHeight * scale, getHeight());
+        drawMatrix.set(orientMatrix);
+        drawMatrix.postScale(scale, scale);
+        drawMatrix.postTranslate(translateX, translateY);
+        drawMatrix.invert(inverse);
+        updateTiles();
+        invalidate();
+    }
+
+    // Centrada si cabe; si no, sin dejar ver el fondo por los bordes
+    private static float clampTranslation(float translation, float content, int view) {
+        if (content <= view) return (view - content) / 2;
+        return Math.max(view - content, Math.min(0, translation));
+    }
+
+    /** Pide las teselas visibles que faltan y cancela las pedidas que ya no se ven. */
+    private void updateTiles() {
+        int sample = TileGrid.sampleFor(scale);
+        if (decoder == null || sample >= previewSample) {
+            // La vista previa ya tiene toda la resolución que cabe en pantalla
+            wanted = NO_TILES;
+        } else {
+            visible.set(0, 0, getWidth(), getHeight());
+            inverse.mapRect(visible);
+            wanted = grid.visibleTiles(sample, visible.left, visible.top, visible.right, visible.bottom);
+        }
+
+        Set<Long> keep = new HashSet<>(wanted.length * 2);
+        for (long key : wanted) keep.add(key);
+        for (Iterator<Map.Entry<Long, Future<?>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Future<?>> entry = it.next();
+            if (!keep.contains(entry.getKey())) {
+                // Si ya empezó termina igual, y la tesela se guarda para cuando se vuelva
+                entry.getValue().cancel(false);
+                it.remove();
+                TILES_CANCELLED.increment();
+            }
+        }
+        for (long key : wanted) {
+            if (!pending.containsKey(key) && cache.get(key) == null) {
+                BitmapRegionDecoder source = decoder;
+                pending.put(key, decodeExecutor.submit(() -> {
+                    Bitmap tile = decodeTile(source, key);
+                    post(() -> onTileDecoded(key, tile));
+                }));
+            }
+        }
+    }
+
+    private void onTileDecoded(long key, Bitmap tile) {
+        pending.remove(key);
+        if (tile == null || released) return;
+        cache.put(key, tile);
+        for (long visibleKey : wanted) {
+            if (visibleKey == key) {
+                invalidate();
+                return;
+            }
+        }
+    }
+
+    // En el hilo de decodificación
+    private Bitmap decodeTile(BitmapRegionDecoder source, long key) {
+        int[] rect = new int[4];
+        grid.bounds(key, rect);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = TileGrid.sampleOf(key);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        if (grid.isFull(key)) {
+            Bitmap reuse = cache.getPool().get(TileGrid.TILE_SIZE, TileGrid.TILE_SIZE, Bitmap.Config.RGB_565);
+            // El decodificador de regiones escribe en la esquina del inBitmap sin cambiarle el tamaño
+            if (reuse != null && TileCache.isFullTile(reuse)) options.inBitmap = reuse;
+        }
+
+        long start = TILE_DECODE.start();
+        try {
+            Rect region = new Rect(rect[0], rect[1], rect[2], rect[3]);
+            try {
+                return source.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) throw e;
+                // inBitmap no aceptado: se decodifica en uno nuevo
+                options.inBitmap = null;
+                return source.decodeRegion(region, options);
+            }
+        } catch (IllegalStateException e) {
+            return null; // Decodificador ya cerrado
+        } catch (RuntimeException e) {
+            Log.e(TAG, "No se pudo decodificar la tesela " + Long.toHexString(key), e);
+            return null;
+        } finally {
+            TILE_DECODE.stop(start);
+        }
+    }
+
+    private static int rotationDegrees(int exifOrientation) {
+        switch (exifOrientation) {
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            case 8:
+                return 270;
+            default:
+                // Las variantes espejadas (2, 4, 5, 7) son muy raras en cámaras: se muestran sin girar
+                return 0;
+        }
+    }
+}
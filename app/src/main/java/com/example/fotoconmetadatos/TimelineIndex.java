@@ -0,0 +1,184 @@
+package com.example.fotoconmetadatos;
+
+import java.util.Arrays;
+
+/**
+ * Línea de tiempo de una vista ordenada por hora de captura: la hora de cada
+ * posición y los límites ya calculados de cada día y cada mes. Las fotos sin
+ * fecha forman una última sección. Los rangos de fechas, los saltos a una
+ * fecha y la sección de una posición se resuelven con búsqueda binaria.
+ *
+ * Con una cabecera antes de cada día, traduce entre posiciones de foto y
+ * posiciones del adapter.
+ */
+public final class TimelineIndex {
+
+    private final int size;
+    private final long[] times;
+    private final int[] dayStarts;
+    private final long[] dayKeys;
+    private final int dayCount;
+    private final int[] monthStarts;
+    private final int[] monthKeys;
+    private final int monthCount;
+
+    private TimelineIndex(long[] times, int size) {
+        this.size = size;
+        this.times = times;
+        int[] days = new int[Math.max(1, size)];
+        long[] keys = new long[days.length];
+        int[] months = new int[days.length];
+        int[] monthKeysFound = new int[days.length];
+        int dayTotal = 0;
+        int monthTotal = 0;
+        for (int position = 0; position < size; position++) {
+            long time = times[position];
+            long day = time == CaptureTime.UNKNOWN ? CaptureTime.UNKNOWN : CaptureTime.startOfDay(time);
+            if (dayTotal == 0 || keys[dayTotal - 1] != day) {
+                days[dayTotal] = position;
+                keys[dayTotal++] = day;
+                int month = time == CaptureTime.UNKNOWN ? Integer.MIN_VALUE : CaptureTime.monthKey(time);
+                if (monthTotal == 0 || monthKeysFound[monthTotal - 1] != month) {
+                    months[monthTotal] = position;
+                    monthKeysFound[monthTotal++] = month;
+                }
+            }
+        }
+        this.dayStarts = Arrays.copyOf(days, dayTotal);
+        this.dayKeys = Arrays.copyOf(keys, dayTotal);
+        this.dayCount = dayTotal;
+        this.monthStarts = Arrays.copyOf(months, monthTotal);
+        this.monthKeys = Arrays.copyOf(monthKeysFound, monthTotal);
+        this.monthCount = monthTotal;
+    }
+
+    /**
+     * Índice de las primeras {@code count} filas de {@code rows}, que ya deben
+     * estar ordenadas con {@link PhotoStore#sortByCaptureTime}.
+     */
+    public static TimelineIndex build(PhotoStore store, int[] rows, int count) {
+        long[] times = new long[count];
+        for (int position = 0; position < count; position++) {
+            times[position] = store.captureTimeAt(rows[position]);
+        }
+        return new TimelineIndex(times, count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Hora de captura en esa posición, tal como estaba al construir el índice. */
+    public long timeAt(int position) {
+        return times[position];
+    }
+
+    /**
+     * Primera posición con fecha igual o anterior a {@code time}: adonde saltar
+     * para ver esa fecha. {@link #size()} si todas son posteriores.
+     */
+    public int positionAtOrBefore(long time) {
+        // Orden descendente, sin fecha al final: la primera con times[p] <= time
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] > time) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    /** Posiciones [inicio, fin) de las fotos tomadas en [{@code from}, {@code to}). */
+    public int[] range(long from, long to) {
+        // Sin fecha (el menor long) nunca supera un límite: queda siempre fuera
+        int start = positionAtOrBefore(to - 1);
+        int end = Math.max(start, positionAtOrBefore(from - 1));
+        return new int[]{start, end};
+    }
+
+    /** Posiciones de las fotos del día de {@code time}. */
+    public int[] dayRange(long time) {
+        long day = CaptureTime.startOfDay(time);
+        return range(day, day + CaptureTime.MILLIS_PER_DAY);
+    }
+
+    public int dayCount() {
+        return dayCount;
+    }
+
+    public int dayStart(int day) {
+        return dayStarts[day];
+    }
+
+    /** Inicio del día de la sección, o {@link CaptureTime#UNKNOWN} en la de sin fecha. */
+    public long dayKey(int day) {
+        return dayKeys[day];
+    }
+
+    /** Sección de día de la posición. */
+    public int dayOf(int position) {
+        return lastAtOrBelow(dayStarts, dayCount, position);
+    }
+
+    public int monthCount() {
+        return monthCount;
+    }
+
+    public int monthStart(int month) {
+        return monthStarts[month];
+    }
+
+    /** Clave del mes como {@link CaptureTime#monthKey}, o Integer.MIN_VALUE sin fecha. */
+    public int monthKey(int month) {
+        return monthKeys[month];
+    }
+
+    public int monthOf(int position) {
+        return lastAtOrBelow(monthStarts, monthCount, position);
+    }
+
+    /** Posiciones del adapter: las fotos más una cabecera por día. */
+    public int adapterCount() {
+        return size + dayCount;
+    }
+
+    public boolean isHeader(int adapterPosition) {
+        int day = dayAtAdapter(adapterPosition);
+        return day >= 0 && dayStarts[day] + day == adapterPosition;
+    }
+
+    /** Sección de día en esa posición del adapter (cabecera o foto). */
+    public int dayAtAdapter(int adapterPosition) {
+        // La cabecera del día k está en dayStarts[k] + k, creciente en k
+        int low = 0;
+        int high = dayCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (dayStarts[mid] + mid <= adapterPosition) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** Foto en esa posición del adapter; para una cabecera, la primera de su día. */
+    public int toPhotoPosition(int adapterPosition) {
+        int day = dayAtAdapter(adapterPosition);
+        if (day < 0) return 0;
+        if (dayStarts[day] + day == adapterPosition) return dayStarts[day];
+        return adapterPosition - day - 1;
+    }
+
+    public int toAdapterPosition(int photoPosition) {
+        return photoPosition + dayOf(photoPosition) + 1;
+    }
+
+    private static int lastAtOrBelow(int[] starts, int count, int position) {
+        int index = Arrays.binarySearch(starts, 0, count, position);
+        return index >= 0 ? index : -index - 2;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.fotoconmetadatos;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/** Junta operaciones contiguas del mismo tipo en un solo aviso de rango. */
+final class UpdateBatch {
+    static final int NONE = 0;
+    static final int INSERT = 1;
+    static final int REMOVE = 2;
+    static final int CHANGE = 3;
+
+    private final ListUpdateCallback callback;
+    private int type = NONE;
+    private int start;
+    private int count;
+
+    UpdateBatch(ListUpdateCallback callback) {
+        this.callback = callback;
+    }
+
+    void add(int opType, int position) {
+        // Los borrados seguidos ocurren todos en la misma posición
+        int next = type == REMOVE ? start : start + count;
+        if (opType == type && position == next) {
+            count++;
+            return;
+        }
+        flush();
+        type = opType;
+        start = position;
+        count = 1;
+    }
+
+    void flush() {
+        if (type == INSERT) {
+            callback.onInserted(start, count);
+        } else if (type == REMOVE) {
+            callback.onRemoved(start, count);
+        } else if (type == CHANGE) {
+            callback.onChanged(start, count, null);
+        }
+        type = NONE;
+    }
+
+    /**
+     * Envía a {@code callback} las inserciones, borrados y cambios que llevan de
+     * {@code before} a {@code after}, con posiciones válidas al aplicarlos en orden.
+     * Las posiciones de inserciones y cambios son las finales en {@code after}.
+     */
+    static void diff(PhotoStore before, PhotoStore after, ListUpdateCallback callback) {
+        UpdateBatch batch = new UpdateBatch(callback);
+        int[] position = {0};
+        PhotoStore.walk(before, after, (beforeRow, afterRow) -> {
+            if (afterRow < 0) {
+                batch.add(REMOVE, position[0]); // Solo está en la anterior
+                return;
+            }
+            if (beforeRow < 0) {
+                batch.add(INSERT, position[0]); // Solo está en la nueva
+            } else if (before.dateModifiedAt(beforeRow) != after.dateModifiedAt(afterRow)) {
+                batch.add(CHANGE, position[0]);
+            }
+            position[0]++;
+        });
+        batch.flush();
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AlbumTest {
+
+    @Test
+    public void bucketIdMatchesMediaStore() {
+        // El BUCKET_ID de la cámara que MediaStore da a DCIM/Camera
+        assertEquals(-1739773001L, Album.bucketIdOf("/storage/emulated/0/DCIM/Camera"));
+        assertEquals(Album.bucketIdOf("/storage/emulated/0/Pictures/FotoConMetaDatos"),
+                Album.bucketIdOf("/storage/emulated/0/pictures/fotoconmetadatos"));
+    }
+
+    @Test
+    public void allPhotosKeepsTheFilesFromBeforeAlbums() {
+        assertEquals("exif_index.bin", Album.ALL.fileName("exif_index.bin"));
+        assertEquals("captures_exif_index.bin", Album.CAPTURES.fileName("exif_index.bin"));
+        assertNotEquals(Album.CAPTURES.fileName("thumbnails"), Album.ALL.fileName("thumbnails"));
+    }
+
+    @Test
+    public void capturesIsTheDefault() {
+        assertSame(Album.CAPTURES, Album.forKey(null));
+        assertSame(Album.CAPTURES, Album.forKey("otro"));
+        assertSame(Album.ALL, Album.forKey(Album.ALL.key));
+        assertSame(Album.ALL, Album.CAPTURES.other());
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CaptureQueueTest {
+
+    private static final String DATE = "2024:05:01 10:30:00";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ThreadFactory threads = Executors.defaultThreadFactory();
+
+    /** Escribe el EXIF en archivos locales y anota cada paso. */
+    private static class FileProcessor implements CaptureQueue.Processor {
+        final List<String> steps = Collections.synchronizedList(new ArrayList<>());
+        volatile CountDownLatch gate;
+        volatile int failuresLeft;
+
+        @Override
+        public void writeExif(CaptureQueue.Task task) throws IOException {
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("falla simulada");
+            }
+            File file = new File(task.uri);
+            if (!file.exists()) throw new FileNotFoundException(task.uri);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                task.newWriter().rewriteInPlace(channel, channel);
+            }
+            steps.add("exif " + file.getName());
+        }
+
+        @Override
+        public void scan(CaptureQueue.Task task) throws IOException {
+            steps.add("scan " + new File(task.uri).getName());
+        }
+    }
+
+    private File photo(String name) throws IOException {
+        File file = tmp.newFile(name);
+        Files.write(file.toPath(), TestJpegs.jpeg().scanBytes(2000).build());
+        return file;
+    }
+
+    private static ExifHeaderReader.Result read(File file) throws IOException {
+        ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+        assertTrue(new ExifHeaderReader().read(new ByteArrayInputStream(Files.readAllBytes(file.toPath())), result));
+        return result;
+    }
+
+    @Test
+    public void processesCapturesInOrderInTheBackground() throws Exception {
+        File journal = new File(tmp.getRoot(), "queue.bin");
+        FileProcessor processor = new FileProcessor();
+        processor.gate = new CountDownLatch(1);
+        CaptureQueue queue = new CaptureQueue(journal, processor, threads);
+        File a = photo("a.jpg");
+        File b = photo("b.jpg");
+
+        // Encolar no espera al EXIF
+        queue.enqueue(a.getPath(), DATE, 19.4326, -99.1332);
+        queue.enqueue(b.getPath(), DATE, Double.NaN, Double.NaN);
+        assertEquals(2, queue.pendingCount());
+        assertTrue(processor.steps.isEmpty());
+
+        processor.gate.countDown();
+        assertTrue(queue.awaitIdle(5000));
+        assertEquals(List.of("exif a.jpg", "scan a.jpg", "exif b.jpg", "scan b.jpg"), processor.steps);
+        assertEquals(DATE, read(a).dateTime);
+        assertEquals(19.4326, read(a).latitude, 1e-6);
+        assertFalse(read(b).hasLocation());
+        assertFalse("Sin pendientes el diario se borra", journal.exists());
+        queue.shutdown();
+    }
+
+    @Test
+    public void pendingCapturesSurviveARestart() throws Exception {
+        File journal = new File(tmp.getRoot(), "queue.bin");
+        FileProcessor processor = new FileProcessor();
+        processor.gate = new CountDownLatch(1);
+        CaptureQueue queue = new CaptureQueue(journal, processor, threads);
+        File a = photo("a.jpg");
+        File b = photo("b.jpg");
+        queue.enqueue(a.getPath(), DATE, 10, 20);
+        queue.enqueue(b.getPath(), DATE, 30, 40);
+        // El proceso muere antes de escribir nada
+        queue.shutdown();
+        assertTrue(journal.exists());
+
+        FileProcessor next = new FileProcessor();
+        CaptureQueue reopened = new CaptureQueue(journal, next, threads);
+        assertTrue(reopened.awaitIdle(5000));
+        assertEquals(List.of("exif a.jpg", "scan a.jpg", "exif b.jpg", "scan b.jpg"), next.steps);
+        assertEquals(30, read(b).latitude, 1e-6);
+        assertFalse(journal.exists());
+        reopened.shutdown();
+    }
+
+    @Test
+    public void writtenExifIsNotRepeatedAfterRestart() throws Exception {
+        File journal = new File(tmp.getRoot(), "queue.bin");
+        CountDownLatch scanned = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        FileProcessor processor = new FileProcessor() {
+            @Override
+            public void scan(CaptureQueue.Task task) throws IOException {
+                scanned.countDown();
+                try {
+                    never.await(); // El proceso muere durante el escaneo
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        CaptureQueue queue = new CaptureQueue(journal, processor, threads);
+        File a = photo("a.jpg");
+        queue.enqueue(a.getPath(), DATE, 10, 20);
+        assertTrue(scanned.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+
+        FileProcessor next = new FileProcessor();
+        CaptureQueue reopened = new CaptureQueue(journal, next, threads);
+        assertTrue(reopened.awaitIdle(5000));
+        assertEquals(List.of("scan a.jpg"), next.steps);
+        reopened.shutdown();
+    }
+
+    @Test
+    public void retriesTransientErrorsAndDropsDeletedPhotos() throws Exception {
+        File journal = new File(tmp.getRoot(), "queue.bin");
+        FileProcessor processor = new FileProcessor();
+        processor.failuresLeft = 1;
+        CaptureQueue queue = new CaptureQueue(journal, processor, threads);
+        File a = photo("a.jpg");
+        queue.enqueue(a.getPath(), DATE, 10, 20);
+        queue.enqueue(new File(tmp.getRoot(), "borrada.jpg").getPath(), DATE, 10, 20);
+
+        assertTrue(queue.awaitIdle(5000));
+        assertEquals(List.of("exif a.jpg", "scan a.jpg"), processor.steps);
+        assertEquals(10, read(a).latitude, 1e-6);
+        queue.shutdown();
+    }
+
+    @Test
+    public void truncatedJournalKeepsCompleteRecords() throws Exception {
+        File journal = new File(tmp.getRoot(), "queue.bin");
+        FileProcessor processor = new FileProcessor();
+        processor.gate = new CountDownLatch(1);
+        CaptureQueue queue = new CaptureQueue(journal, processor, threads);
+        File a = photo("a.jpg");
+        File b = photo("b.jpg");
+        queue.enqueue(a.getPath(), DATE, 10, 20);
+        queue.enqueue(b.getPath(), DATE, 30, 40);
+        queue.shutdown();
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        FileProcessor next = new FileProcessor();
+        CaptureQueue reopened = new CaptureQueue(journal, next, threads);
+        assertTrue(reopened.awaitIdle(5000));
+        assertEquals(List.of("exif a.jpg", "scan a.jpg"), next.steps);
+        reopened.shutdown();
+    }
+}
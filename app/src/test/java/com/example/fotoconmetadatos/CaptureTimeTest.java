@@ -0,0 +1,47 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureTimeTest {
+
+    @Test
+    public void parseAndFormatRoundTrip() {
+        String[] samples = {"1970:01:01 00:00:00", "2024:02:29 23:59:59", "1969:12:31 12:00:00",
+                "2000:03:01 08:15:30", "2099:12:31 00:00:01"};
+        for (String sample : samples) {
+            assertEquals(sample, CaptureTime.formatExif(CaptureTime.parseExif(sample)));
+        }
+        assertEquals(0, CaptureTime.parseExif("1970:01:01 00:00:00"));
+        assertEquals(CaptureTime.MILLIS_PER_DAY + 1000, CaptureTime.parseExif("1970-01-02 00:00:01"));
+    }
+
+    @Test
+    public void matchesJavaTime() {
+        java.time.LocalDateTime time = java.time.LocalDateTime.of(2021, 7, 14, 18, 5, 9);
+        assertEquals(time.toInstant(java.time.ZoneOffset.UTC).toEpochMilli(),
+                CaptureTime.parseExif("2021:07:14 18:05:09"));
+    }
+
+    @Test
+    public void invalidDatesAreUnknown() {
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif(null));
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif(""));
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif("0000:00:00 00:00:00"));
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif("2024:13:01 00:00:00"));
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif("2024/01/01 00:00:00"));
+        assertEquals(CaptureTime.UNKNOWN, CaptureTime.parseExif("    :  :     :  :  "));
+        assertEquals("", CaptureTime.formatExif(CaptureTime.UNKNOWN));
+    }
+
+    @Test
+    public void dayAndMonthBoundaries() {
+        long time = CaptureTime.parseExif("2023:03:15 17:45:00");
+        assertEquals(CaptureTime.parseExif("2023:03:15 00:00:00"), CaptureTime.startOfDay(time));
+        assertEquals(CaptureTime.parseExif("2023:03:01 00:00:00"), CaptureTime.startOfMonth(time));
+        assertEquals(2023 * 12 + 2, CaptureTime.monthKey(time));
+        long before1970 = CaptureTime.parseExif("1965:05:20 06:00:00");
+        assertEquals(CaptureTime.parseExif("1965:05:01 00:00:00"), CaptureTime.startOfMonth(before1970));
+    }
+}
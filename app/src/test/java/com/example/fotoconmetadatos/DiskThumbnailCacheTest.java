@@ -0,0 +1,151 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.FileWriter;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiskThumbnailCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static DiskThumbnailCache.EntryWriter bytes(int count) {
+        return out -> out.write(new byte[count]);
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        assertTrue(cache.put("1_100_200", bytes(300)));
+        assertTrue(cache.put("2_100_200", bytes(400)));
+        cache.flush();
+
+        DiskThumbnailCache reopened = new DiskThumbnailCache(dir, 10_000);
+        assertEquals(2, reopened.entryCount());
+        assertEquals(700, reopened.size());
+        File file = reopened.get("1_100_200");
+        assertNotNull(file);
+        assertEquals(300, file.length());
+        assertNull(reopened.get("3_100_200"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        DiskThumbnailCache cache = new DiskThumbnailCache(tmp.newFolder(), 1000);
+        cache.put("a", bytes(400));
+        cache.put("b", bytes(400));
+        assertNotNull(cache.get("a"));
+        cache.put("c", bytes(400));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(cache.size() <= 1000);
+    }
+
+    @Test
+    public void accessOrderSurvivesReopen() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 1000);
+        cache.put("a", bytes(400));
+        cache.put("b", bytes(400));
+        cache.get("a");
+        cache.flush();
+
+        DiskThumbnailCache reopened = new DiskThumbnailCache(dir, 1000);
+        reopened.put("c", bytes(400));
+        assertNotNull(reopened.get("a"));
+        assertNull(reopened.get("b"));
+    }
+
+    @Test
+    public void failedWriteLeavesNoEntry() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        assertFalse(cache.put("roto", out -> {
+            out.write(new byte[10]);
+            throw new IOException("falla al comprimir");
+        }));
+        assertNull(cache.get("roto"));
+        assertFalse(new File(dir, "roto").exists());
+        String[] names = dir.list();
+        assertEquals(1, names.length); // Solo el diario
+    }
+
+    @Test
+    public void unjournaledFilesAreIgnored() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        cache.put("a", bytes(10));
+        cache.flush();
+
+        // Un archivo escrito pero nunca anotado (p. ej. el proceso murió antes)
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "huerfano"))) {
+            out.write(new byte[10]);
+        }
+        DiskThumbnailCache reopened = new DiskThumbnailCache(dir, 10_000);
+        assertNull(reopened.get("huerfano"));
+        assertNotNull(reopened.get("a"));
+    }
+
+    @Test
+    public void truncatedJournalKeepsCompleteLines() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        cache.put("a", bytes(10));
+        cache.flush();
+        try (Writer writer = new FileWriter(new File(dir, "journal"), true)) {
+            writer.write("P b");
+        }
+
+        DiskThumbnailCache reopened = new DiskThumbnailCache(dir, 10_000);
+        assertNotNull(reopened.get("a"));
+        assertNull(reopened.get("b"));
+        assertEquals(1, reopened.entryCount());
+    }
+
+    @Test
+    public void missingFileIsAMiss() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        cache.put("a", bytes(10));
+        Files.delete(new File(dir, "a").toPath());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidKeysAreRejected() throws Exception {
+        DiskThumbnailCache cache = new DiskThumbnailCache(tmp.newFolder(), 10_000);
+        assertFalse(cache.put("../fuera", bytes(1)));
+        assertFalse(cache.put("journal", bytes(1)));
+        assertFalse(cache.put("", bytes(1)));
+    }
+
+    @Test
+    public void journalIsCompacted() throws Exception {
+        File dir = tmp.newFolder();
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+        cache.put("a", bytes(10));
+        for (int i = 0; i < 5000; i++) {
+            cache.get("a");
+        }
+        cache.put("b", bytes(10));
+        cache.flush();
+
+        assertTrue(new File(dir, "journal").length() < 5000);
+        DiskThumbnailCache reopened = new DiskThumbnailCache(dir, 10_000);
+        assertEquals(2, reopened.entryCount());
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DuplicateIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<Long> hashed = new ArrayList<>();
+    private final Set<Long> unreadable = new HashSet<>();
+
+    // Las fotos 10 y 11 son la misma toma; el resto, cada una distinta
+    private final DuplicateIndex.Hasher hasher = id -> {
+        hashed.add(id);
+        if (unreadable.contains(id)) throw new IOException("ilegible " + id);
+        if (id == 11) return 0x0F0FL ^ 0b101;
+        return id == 10 ? 0x0F0FL : id * 0x9E3779B97F4A7C15L;
+    };
+
+    private ExifIndex exifIndex() {
+        return new ExifIndex(new File(tmp.getRoot(), "exif_index.bin"));
+    }
+
+    // Lee el "EXIF" a un índice real, como PhotoLoader
+    private PagedPhotoSource.PageLoader loader(ExifIndex index) {
+        return new PagedPhotoSource.PageLoader() {
+            @Override
+            public PhotoStore snapshot(PhotoStore previous) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ExifIndex.Entry[] resolveExif(PhotoStore store, int[] rows) {
+                ExifIndex.Entry[] entries = new ExifIndex.Entry[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    int row = rows[i];
+                    entries[i] = index.put(store.idAt(row), store.dateModifiedAt(row), store.fileSizeAt(row),
+                            "2024:01:01 10:00:00", Double.NaN, Double.NaN);
+                }
+                return entries;
+            }
+        };
+    }
+
+    private static PhotoStore store(long... ids) {
+        PhotoStore.Builder builder = new PhotoStore.Builder(ids.length);
+        for (long id : ids) builder.add(id, id, 1000, 5000, "IMG_" + id);
+        return builder.build("v" + ids.length);
+    }
+
+    private static long[] sorted(long[] ids) {
+        long[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void onlyNewPhotosAreHashed() throws Exception {
+        ExifIndex index = exifIndex();
+        DuplicateIndex duplicates = new DuplicateIndex(index, loader(index), hasher);
+
+        assertEquals(3, duplicates.update(store(1, 2, 10)));
+        assertEquals(0, duplicates.update(store(1, 2, 10)));
+        assertEquals(0, duplicates.groups().length);
+
+        // Llega otra toma de la foto 10
+        hashed.clear();
+        assertEquals(1, duplicates.update(store(1, 2, 10, 11)));
+        assertEquals(List.of(11L), hashed);
+        long[][] groups = duplicates.groups();
+        assertEquals(1, groups.length);
+        assertArrayEquals(new long[]{10, 11}, sorted(groups[0]));
+    }
+
+    @Test
+    public void hashesSurviveReopen() throws Exception {
+        ExifIndex index = exifIndex();
+        new DuplicateIndex(index, loader(index), hasher).update(store(1, 10, 11));
+
+        hashed.clear();
+        ExifIndex reopened = exifIndex();
+        DuplicateIndex duplicates = new DuplicateIndex(reopened, loader(reopened), hasher);
+        assertEquals(0, duplicates.update(store(1, 10, 11)));
+        assertTrue(hashed.isEmpty());
+        assertEquals(3, duplicates.size());
+        assertEquals(1, duplicates.groups().length);
+    }
+
+    @Test
+    public void deletedPhotosLeaveTheirGroup() throws Exception {
+        ExifIndex index = exifIndex();
+        DuplicateIndex duplicates = new DuplicateIndex(index, loader(index), hasher);
+        duplicates.update(store(1, 10, 11));
+        assertEquals(1, duplicates.groups().length);
+
+        duplicates.update(store(1, 10));
+        assertEquals(2, duplicates.size());
+        assertEquals(0, duplicates.groups().length);
+    }
+
+    @Test
+    public void unreadablePhotoIsNotRetried() throws Exception {
+        ExifIndex index = exifIndex();
+        DuplicateIndex duplicates = new DuplicateIndex(index, loader(index), hasher);
+        unreadable.add(2L);
+        assertEquals(1, duplicates.update(store(1, 2)));
+        hashed.clear();
+        assertEquals(0, duplicates.update(store(1, 2)));
+        assertTrue(hashed.isEmpty());
+    }
+
+    @Test
+    public void interruptedUpdateKeepsWhatItHashed() throws Exception {
+        ExifIndex index = exifIndex();
+        DuplicateIndex interrupted = new DuplicateIndex(index, loader(index), id -> {
+            if (id == 2) Thread.currentThread().interrupt();
+            return hasher.hash(id);
+        });
+        try {
+            interrupted.update(store(1, 2, 3));
+            fail("Debía cortarse");
+        } catch (InterruptedException expected) {
+            // El hash de la 2 se calculó antes de ver la interrupción
+        }
+
+        hashed.clear();
+        ExifIndex reopened = exifIndex();
+        assertEquals(1, new DuplicateIndex(reopened, loader(reopened), hasher).update(store(1, 2, 3)));
+        assertEquals(1, hashed.size());
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExifHeaderReaderTest {
+
+    private static final String DATE = "2024:05:01 10:30:00";
+    private static final double DELTA = 1e-6;
+
+    // Sin APP0: TIFF en 12, IFD0 en 20, entrada DateTime en 22 y puntero GPS en 34
+    private static final int IFD0_OFFSET_FIELD = TestJpegs.TIFF_START + 4;
+    private static final int GPS_POINTER_VALUE = TestJpegs.TIFF_START + 8 + 2 + 12 + 8;
+
+    private final ExifHeaderReader reader = new ExifHeaderReader();
+    private final ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+
+    private boolean read(byte[] jpeg) throws IOException {
+        return reader.read(new ByteArrayInputStream(jpeg), result);
+    }
+
+    @Test
+    public void bigEndianWithGps() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).latLong(19.4326, -99.1332).build()));
+        assertEquals(DATE, result.dateTime);
+        assertTrue(result.hasLocation());
+        assertEquals(19.4326, result.latitude, DELTA);
+        assertEquals(-99.1332, result.longitude, DELTA);
+    }
+
+    @Test
+    public void littleEndianWithGps() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().littleEndian().dateTime(DATE).latLong(-33.8688, 151.2093).build()));
+        assertEquals(DATE, result.dateTime);
+        assertEquals(-33.8688, result.latitude, DELTA);
+        assertEquals(151.2093, result.longitude, DELTA);
+    }
+
+    @Test
+    public void missingGps() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).build()));
+        assertEquals(DATE, result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void gpsWithoutDate() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().littleEndian().latLong(40.4168, -3.7038).build()));
+        assertEquals("", result.dateTime);
+        assertEquals(40.4168, result.latitude, DELTA);
+    }
+
+    @Test
+    public void noExifSegment() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().withApp0().build()));
+        assertEquals("", result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void skipsApp0AndXmpBeforeExif() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().withApp0().withXmp().dateTime(DATE).latLong(1.5, 2.5).build()));
+        assertEquals(DATE, result.dateTime);
+        assertEquals(1.5, result.latitude, DELTA);
+    }
+
+    @Test
+    public void notJpeg() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        assertFalse(read(png));
+        assertFalse(read(new byte[0]));
+    }
+
+    @Test
+    public void stopsAtStartOfScan() throws Exception {
+        byte[] withExif = TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).scanBytes(2_000_000).build();
+        assertTrue(read(withExif));
+        assertTrue(reader.getBytesRead() <= 8192);
+
+        byte[] withoutExif = TestJpegs.jpeg().withApp0().scanBytes(2_000_000).build();
+        assertTrue(read(withoutExif));
+        assertTrue(reader.getBytesRead() <= 8192);
+    }
+
+    @Test
+    public void slowStreamReadsTheSame() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().withApp0().dateTime(DATE).latLong(10, 20).build();
+        InputStream oneByteAtATime = new FilterInputStream(new ByteArrayInputStream(jpeg)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public long skip(long n) {
+                return 0;
+            }
+        };
+        assertTrue(reader.read(oneByteAtATime, result));
+        assertEquals(DATE, result.dateTime);
+        assertEquals(20, result.longitude, DELTA);
+    }
+
+    @Test
+    public void resultIsResetBetweenReads() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).build()));
+        assertTrue(read(TestJpegs.jpeg().withApp0().build()));
+        assertEquals("", result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void truncatedApp1() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).build();
+        for (int cut = 2; cut < 140; cut++) {
+            assertTrue(read(Arrays.copyOf(jpeg, cut)));
+        }
+    }
+
+    @Test
+    public void ifd0OffsetOutOfRange() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).build();
+        jpeg[IFD0_OFFSET_FIELD] = 0x7F;
+        assertTrue(read(jpeg));
+        assertEquals("", result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void badByteOrder() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).build();
+        jpeg[TestJpegs.TIFF_START] = 'X';
+        assertTrue(read(jpeg));
+        assertEquals("", result.dateTime);
+    }
+
+    @Test
+    public void gpsPointerOutOfRangeKeepsDate() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).build();
+        jpeg[GPS_POINTER_VALUE] = 0x7F;
+        assertTrue(read(jpeg));
+        assertEquals(DATE, result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void hugeEntryCountIsClamped() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).build();
+        jpeg[TestJpegs.TIFF_START + 8] = (byte) 0xFF;
+        jpeg[TestJpegs.TIFF_START + 9] = (byte) 0xFF;
+        assertTrue(read(jpeg));
+    }
+
+    @Test
+    public void zeroDenominatorDropsLocation() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().dateTime(DATE).latLong(1, 2).build();
+        // El último RATIONAL de la longitud está al final del TIFF
+        int tiffEnd = indexOfDqt(jpeg);
+        Arrays.fill(jpeg, tiffEnd - 4, tiffEnd, (byte) 0);
+        assertTrue(read(jpeg));
+        assertEquals(DATE, result.dateTime);
+        assertFalse(result.hasLocation());
+    }
+
+    @Test
+    public void brokenMarkerStreamStops() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().withApp0().dateTime(DATE).build();
+        jpeg[2] = 0x12; // Donde debería estar el primer marcador
+        assertTrue(read(jpeg));
+        assertEquals("", result.dateTime);
+    }
+
+    @Test
+    public void locatesEmbeddedThumbnail() throws Exception {
+        byte[] thumbnail = new byte[3000];
+        for (int i = 0; i < thumbnail.length; i++) thumbnail[i] = (byte) i;
+        assertTrue(read(TestJpegs.jpeg().littleEndian().dateTime(DATE).latLong(1, 2)
+                .thumbnail(thumbnail).build()));
+
+        assertEquals(DATE, result.dateTime);
+        assertEquals(1, result.latitude, DELTA);
+        assertEquals(thumbnail.length, result.thumbnailLength);
+        byte[] found = Arrays.copyOfRange(reader.getBuffer(), result.thumbnailOffset,
+                result.thumbnailOffset + result.thumbnailLength);
+        assertArrayEquals(thumbnail, found);
+    }
+
+    @Test
+    public void frameSizeAfterExifKeepsTheThumbnail() throws Exception {
+        byte[] thumbnail = new byte[3000];
+        for (int i = 0; i < thumbnail.length; i++) thumbnail[i] = (byte) i;
+        byte[] jpeg = TestJpegs.jpeg().withApp0().dateTime(DATE).latLong(1, 2).thumbnail(thumbnail)
+                .frameSize(4032, 3024).build();
+        assertTrue(reader.read(new ByteArrayInputStream(jpeg), result, true));
+
+        assertEquals(4032, result.width);
+        assertEquals(3024, result.height);
+        assertEquals(DATE, result.dateTime);
+        assertEquals(1, result.latitude, DELTA);
+        byte[] found = Arrays.copyOfRange(reader.getBuffer(), result.thumbnailOffset,
+                result.thumbnailOffset + result.thumbnailLength);
+        assertArrayEquals(thumbnail, found);
+    }
+
+    @Test
+    public void frameSizeWithoutExif() throws Exception {
+        byte[] jpeg = TestJpegs.jpeg().withApp0().frameSize(640, 480).build();
+        assertTrue(reader.read(new ByteArrayInputStream(jpeg), result, true));
+        assertEquals(640, result.width);
+        assertEquals(480, result.height);
+    }
+
+    @Test
+    public void frameSizeOnlyWhenAsked() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).frameSize(640, 480).build()));
+        assertEquals(0, result.width);
+        assertEquals(0, result.height);
+
+        // Sin SOF antes del escaneo no hay dimensiones
+        assertTrue(reader.read(new ByteArrayInputStream(TestJpegs.jpeg().dateTime(DATE).build()), result, true));
+        assertEquals(DATE, result.dateTime);
+        assertEquals(0, result.width);
+    }
+
+    @Test
+    public void noThumbnailWithoutIfd1() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).build()));
+        assertEquals(-1, result.thumbnailOffset);
+    }
+
+    @Test
+    public void readsOrientation() throws Exception {
+        assertTrue(read(TestJpegs.jpeg().orientation(6).dateTime(DATE).latLong(1, 2).build()));
+        assertEquals(6, result.orientation);
+        assertEquals(DATE, result.dateTime);
+        assertEquals(2, result.longitude, DELTA);
+
+        assertTrue(read(TestJpegs.jpeg().littleEndian().orientation(8).build()));
+        assertEquals(8, result.orientation);
+
+        // Fuera de rango o sin etiqueta: sin girar
+        assertTrue(read(TestJpegs.jpeg().orientation(9).build()));
+        assertEquals(1, result.orientation);
+        assertTrue(read(TestJpegs.jpeg().dateTime(DATE).build()));
+        assertEquals(1, result.orientation);
+    }
+
+    private static int indexOfDqt(byte[] jpeg) {
+        for (int i = 2; i < jpeg.length - 1; i++) {
+            if (jpeg[i] == (byte) 0xFF && jpeg[i + 1] == (byte) 0xDB) return i;
+        }
+        throw new AssertionError("sin DQT");
+    }
+}
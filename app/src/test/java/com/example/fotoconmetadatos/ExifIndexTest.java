@@ -0,0 +1,200 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class ExifIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File indexFile() {
+        return new File(tmp.getRoot(), "exif_index.bin");
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        index.put(1, 1000, 5000, "2024:05:01 10:00:00", 19.4326, -99.1332);
+        index.put(2, 2000, 6000, "", Double.NaN, Double.NaN);
+        index.flush();
+
+        ExifIndex reopened = new ExifIndex(indexFile());
+        ExifIndex.Entry withGps = reopened.get(1, 1000, 5000);
+        assertNotNull(withGps);
+        assertEquals("2024:05:01 10:00:00", withGps.dateTime);
+        assertTrue(withGps.hasLocation());
+        assertEquals(19.4326, withGps.latitude, 0.0);
+        assertEquals(-99.1332, withGps.longitude, 0.0);
+
+        ExifIndex.Entry withoutGps = reopened.get(2, 2000, 6000);
+        assertNotNull(withoutGps);
+        assertFalse(withoutGps.hasLocation());
+    }
+
+    @Test
+    public void hashIsKeptWithTheEntry() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        index.put(1, 1000, 5000, "2024:05:01 10:00:00", 1, 2);
+        assertFalse(index.get(1, 1000, 5000).hasHash);
+        // Sin entrada vigente no hay dónde guardarlo
+        assertFalse(index.putHash(1, 1001, 5000, 42));
+        assertFalse(index.putHash(2, 1000, 5000, 42));
+        assertTrue(index.putHash(1, 1000, 5000, -7));
+        index.flush();
+
+        ExifIndex.Entry entry = new ExifIndex(indexFile()).get(1, 1000, 5000);
+        assertTrue(entry.hasHash);
+        assertEquals(-7, entry.hash);
+        assertEquals("2024:05:01 10:00:00", entry.dateTime);
+        assertEquals(1, entry.latitude, 0.0);
+    }
+
+    @Test
+    public void versionOneFileIsReadAndUpgraded() throws Exception {
+        // Formato anterior al hash: sin los dos últimos campos
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                new java.io.FileOutputStream(indexFile()))) {
+            out.writeInt(0x45584958);
+            out.writeInt(1);
+            out.writeByte(1);
+            out.writeLong(1);
+            out.writeLong(1000);
+            out.writeLong(5000);
+            out.writeUTF("2024:05:01 10:00:00");
+            out.writeDouble(1);
+            out.writeDouble(2);
+        }
+        ExifIndex index = new ExifIndex(indexFile());
+        assertFalse(index.get(1, 1000, 5000).hasHash);
+        assertTrue(index.putHash(1, 1000, 5000, 42));
+        index.flush();
+
+        ExifIndex.Entry entry = new ExifIndex(indexFile()).get(1, 1000, 5000);
+        assertEquals(42, entry.hash);
+        assertEquals(2, entry.longitude, 0.0);
+    }
+
+    @Test
+    public void changedImageIsAMiss() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        index.put(1, 1000, 5000, "2024:05:01 10:00:00", 1, 2);
+
+        assertNull(index.get(1, 1001, 5000));
+        assertNull(index.get(1, 1000, 5001));
+        assertNull(index.get(99, 1000, 5000));
+    }
+
+    @Test
+    public void laterPutReplacesEarlierOne() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        index.put(1, 1000, 5000, "a", 1, 2);
+        index.flush();
+        index.put(1, 2000, 5000, "b", 3, 4);
+        index.flush();
+
+        ExifIndex reopened = new ExifIndex(indexFile());
+        assertNull(reopened.get(1, 1000, 5000));
+        assertEquals("b", reopened.get(1, 2000, 5000).dateTime);
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void retainOnlyRemovesDeletedImages() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        for (long id = 1; id <= 5; id++) {
+            index.put(id, id, id, "", Double.NaN, Double.NaN);
+        }
+        index.flush();
+
+        int removed = index.retainOnly(new HashSet<>(Arrays.asList(2L, 4L)));
+        index.flush();
+        assertEquals(3, removed);
+
+        ExifIndex reopened = new ExifIndex(indexFile());
+        assertEquals(2, reopened.size());
+        assertNotNull(reopened.get(2, 2, 2));
+        assertNull(reopened.get(3, 3, 3));
+    }
+
+    @Test
+    public void retainOnlySortedIds() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        for (long id = 1; id <= 5; id++) {
+            index.put(id, id, id, "", Double.NaN, Double.NaN);
+        }
+
+        assertEquals(2, index.retainOnly(new long[]{1, 3, 5}));
+        assertEquals(3, index.size());
+        assertNull(index.get(4, 4, 4));
+    }
+
+    @Test
+    public void truncatedTailKeepsCompleteRecords() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        index.put(1, 1, 1, "uno", Double.NaN, Double.NaN);
+        index.flush();
+        index.put(2, 2, 2, "dos", Double.NaN, Double.NaN);
+        index.flush();
+
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile(), "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        ExifIndex reopened = new ExifIndex(indexFile());
+        assertNotNull(reopened.get(1, 1, 1));
+        assertNull(reopened.get(2, 2, 2));
+
+        // El siguiente flush reescribe el archivo sin el registro roto
+        reopened.put(3, 3, 3, "tres", Double.NaN, Double.NaN);
+        reopened.flush();
+        ExifIndex again = new ExifIndex(indexFile());
+        assertEquals(2, again.size());
+        assertNotNull(again.get(3, 3, 3));
+    }
+
+    @Test
+    public void garbageFileIsIgnored() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile(), "rw")) {
+            raf.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        }
+
+        ExifIndex index = new ExifIndex(indexFile());
+        assertEquals(0, index.size());
+        index.put(1, 1, 1, "", Double.NaN, Double.NaN);
+        index.flush();
+        assertEquals(1, new ExifIndex(indexFile()).size());
+    }
+
+    @Test
+    public void churnCompactsFile() throws Exception {
+        ExifIndex index = new ExifIndex(indexFile());
+        for (int round = 0; round < 10; round++) {
+            for (long id = 0; id < 100; id++) {
+                index.put(id, round, 1, "2024:01:01 00:00:00", Double.NaN, Double.NaN);
+            }
+            index.flush();
+        }
+        long compacted = indexFile().length();
+
+        // Diez versiones de 100 entradas no deben ocupar diez veces el espacio
+        ExifIndex single = new ExifIndex(new File(tmp.getRoot(), "single.bin"));
+        for (long id = 0; id < 100; id++) {
+            single.put(id, 0, 1, "2024:01:01 00:00:00", Double.NaN, Double.NaN);
+        }
+        single.flush();
+        assertTrue(compacted < 3 * new File(tmp.getRoot(), "single.bin").length());
+
+        ExifIndex reopened = new ExifIndex(indexFile());
+        assertEquals(100, reopened.size());
+        assertNotNull(reopened.get(42, 9, 1));
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExifSpliceWriterTest {
+
+    private static final String OLD_DATE = "2020:01:01 00:00:00";
+    private static final String NEW_DATE = "2024:05:01 10:30:00";
+    private static final double DELTA = 1e-6;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ExifHeaderReader reader = new ExifHeaderReader();
+    private final ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+
+    private File write(byte[] jpeg) throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), jpeg);
+        return file;
+    }
+
+    private byte[] rewrite(byte[] jpeg, ExifSpliceWriter writer) throws IOException {
+        File file = write(jpeg);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            writer.rewriteInPlace(channel, channel);
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private void read(byte[] jpeg) throws IOException {
+        assertTrue(reader.read(new ByteArrayInputStream(jpeg), result));
+    }
+
+    private static void assertSameImageData(byte[] original, byte[] rewritten) {
+        byte[] before = Arrays.copyOfRange(original, TestJpegs.indexOfSos(original), original.length);
+        byte[] after = Arrays.copyOfRange(rewritten, TestJpegs.indexOfSos(rewritten), rewritten.length);
+        assertArrayEquals(before, after);
+    }
+
+    @Test
+    public void addsDateAndGpsToExistingExif() throws Exception {
+        byte[] original = TestJpegs.jpeg().orientation(6).dateTime(OLD_DATE).scanBytes(300_000).build();
+        byte[] rewritten = rewrite(original,
+                new ExifSpliceWriter().setDateTime(NEW_DATE).setLatLong(19.4326, -99.1332));
+
+        read(rewritten);
+        assertEquals(NEW_DATE, result.dateTime);
+        assertEquals(19.4326, result.latitude, DELTA);
+        assertEquals(-99.1332, result.longitude, DELTA);
+        assertEquals(6, TestJpegs.ifd0Short(rewritten, 0x0112));
+        assertSameImageData(original, rewritten);
+    }
+
+    @Test
+    public void keepsLittleEndianOrder() throws Exception {
+        byte[] original = TestJpegs.jpeg().littleEndian().orientation(3).dateTime(OLD_DATE).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setLatLong(-33.8688, 151.2093));
+
+        assertEquals('I', rewritten[TestJpegs.indexOfExif(rewritten) + 6]);
+        read(rewritten);
+        assertEquals(OLD_DATE, result.dateTime);
+        assertEquals(-33.8688, result.latitude, DELTA);
+        assertEquals(3, TestJpegs.ifd0Short(rewritten, 0x0112));
+    }
+
+    @Test
+    public void replacesExistingGps() throws Exception {
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).latLong(1, 2).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setLatLong(-10.5, 20.25));
+
+        read(rewritten);
+        assertEquals(-10.5, result.latitude, DELTA);
+        assertEquals(20.25, result.longitude, DELTA);
+        assertSameImageData(original, rewritten);
+    }
+
+    @Test
+    public void insertsExifAfterJfifWhenMissing() throws Exception {
+        byte[] original = TestJpegs.jpeg().withApp0().build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setDateTime(NEW_DATE));
+
+        assertEquals((byte) 0xE0, rewritten[3]);
+        read(rewritten);
+        assertEquals(NEW_DATE, result.dateTime);
+        assertFalse(result.hasLocation());
+        assertSameImageData(original, rewritten);
+    }
+
+    @Test
+    public void smallerSegmentIsPaddedInPlace() throws Exception {
+        // Con una fecha más corta el APP1 no crece y la imagen no se mueve
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).latLong(1, 2).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setDateTime("2024:05:01"));
+
+        assertEquals(original.length, rewritten.length);
+        assertEquals(TestJpegs.indexOfSos(original), TestJpegs.indexOfSos(rewritten));
+        read(rewritten);
+        assertEquals("2024:05:01", result.dateTime);
+        assertEquals(1, result.latitude, DELTA);
+    }
+
+    @Test
+    public void copyToMatchesInPlaceRewrite() throws Exception {
+        byte[] original = TestJpegs.jpeg().withApp0().dateTime(OLD_DATE).scanBytes(50_000).build();
+        File source = write(original);
+        File target = tmp.newFile();
+        ExifSpliceWriter writer = new ExifSpliceWriter().setDateTime(NEW_DATE).setLatLong(5, 6);
+
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileOutputStream out = new FileOutputStream(target)) {
+            writer.copyTo(in.getChannel(), out.getChannel());
+        }
+        byte[] copied = Files.readAllBytes(target.toPath());
+
+        assertArrayEquals(rewrite(original, writer), copied);
+        assertArrayEquals(original, Files.readAllBytes(source.toPath()));
+    }
+
+    @Test
+    public void rewritingTwiceIsStable() throws Exception {
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).build();
+        ExifSpliceWriter writer = new ExifSpliceWriter().setDateTime(NEW_DATE).setLatLong(7, 8);
+        byte[] once = rewrite(original, writer);
+        byte[] twice = rewrite(once, writer);
+        assertArrayEquals(once, twice);
+    }
+
+    @Test
+    public void keepsEmbeddedThumbnail() throws Exception {
+        byte[] thumbnail = new byte[2000];
+        Arrays.fill(thumbnail, (byte) 7);
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).thumbnail(thumbnail).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setLatLong(3, 4));
+
+        read(rewritten);
+        assertEquals(3, result.latitude, DELTA);
+        assertEquals(thumbnail.length, result.thumbnailLength);
+        assertArrayEquals(thumbnail, Arrays.copyOfRange(reader.getBuffer(),
+                result.thumbnailOffset, result.thumbnailOffset + result.thumbnailLength));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonJpeg() throws Exception {
+        rewrite(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0}, new ExifSpliceWriter());
+    }
+
+    @Test
+    public void unreadableExifIsReplaced() throws Exception {
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).build();
+        original[TestJpegs.TIFF_START] = 'X';
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().setDateTime(NEW_DATE));
+
+        read(rewritten);
+        assertEquals(NEW_DATE, result.dateTime);
+        assertSameImageData(original, rewritten);
+    }
+
+    @Test
+    public void removeLocationKeepsTheRestOfTheExif() throws Exception {
+        byte[] original = TestJpegs.jpeg().orientation(6).dateTime(OLD_DATE).latLong(19.4326, -99.1332)
+                .scanBytes(20_000).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().removeLocation());
+
+        read(rewritten);
+        assertFalse(result.hasLocation());
+        assertEquals(OLD_DATE, result.dateTime);
+        assertEquals(6, TestJpegs.ifd0Short(rewritten, 0x0112));
+        assertSameImageData(original, rewritten);
+    }
+
+    private static final String XMP_GPS = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF"
+            + " xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"><rdf:Description"
+            + " xmlns:exif=\"http://ns.adobe.com/exif/1.0/\" exif:GPSLatitude=\"19,25.956N\""
+            + " exif:GPSLongitude=\"99,7.992W\"/></rdf:RDF></x:xmpmeta>";
+
+    private static boolean contains(byte[] haystack, String needle) {
+        return new String(haystack, java.nio.charset.StandardCharsets.ISO_8859_1).contains(needle);
+    }
+
+    private static int count(byte[] haystack, String needle) {
+        String text = new String(haystack, java.nio.charset.StandardCharsets.ISO_8859_1);
+        int count = 0;
+        for (int at = text.indexOf(needle); at >= 0; at = text.indexOf(needle, at + 1)) count++;
+        return count;
+    }
+
+    private byte[] copy(byte[] jpeg, ExifSpliceWriter writer) throws IOException {
+        File source = write(jpeg);
+        File target = tmp.newFile();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileOutputStream out = new FileOutputStream(target)) {
+            writer.copyTo(in.getChannel(), out.getChannel());
+        }
+        return Files.readAllBytes(target.toPath());
+    }
+
+    @Test
+    public void removeLocationDropsXmpAndSecondExif() throws Exception {
+        byte[] original = TestJpegs.jpeg().withApp0().withXmp(XMP_GPS).dateTime(OLD_DATE).latLong(19.4326, -99.1332)
+                .withSecondExif(19.4326, -99.1332).scanBytes(20_000).build();
+        assertTrue(contains(original, "GPSLatitude"));
+        assertEquals(2, count(original, "Exif\0\0"));
+
+        byte[] copied = copy(original, new ExifSpliceWriter().removeLocation());
+
+        assertFalse(contains(copied, "GPSLatitude"));
+        assertFalse(contains(copied, "ns.adobe.com"));
+        assertEquals(1, count(copied, "Exif\0\0"));
+        read(copied);
+        assertFalse(result.hasLocation());
+        assertEquals(OLD_DATE, result.dateTime);
+        assertSameImageData(original, copied);
+    }
+
+    @Test
+    public void removeLocationDropsXmpEvenWithoutExifGps() throws Exception {
+        byte[] original = TestJpegs.jpeg().withXmp(XMP_GPS).dateTime(OLD_DATE).scanBytes(10_000).build();
+        File source = write(original);
+        ExifSpliceWriter writer = new ExifSpliceWriter().removeLocation();
+        byte[] copied = copy(original, writer);
+
+        assertFalse(contains(copied, "GPSLatitude"));
+        read(copied);
+        assertEquals(OLD_DATE, result.dateTime);
+        assertSameImageData(original, copied);
+        try (RandomAccessFile in = new RandomAccessFile(source, "r")) {
+            ExifSpliceWriter.Splice splice = writer.prepareCopy(in.getChannel());
+            assertEquals(copied.length, splice.length());
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            splice.update(in.getChannel(), crc);
+            java.util.zip.CRC32 expected = new java.util.zip.CRC32();
+            expected.update(copied);
+            assertEquals(expected.getValue(), crc.getValue());
+        }
+    }
+
+    @Test
+    public void removeLocationInPlaceBlanksXmp() throws Exception {
+        byte[] original = TestJpegs.jpeg().withXmp(XMP_GPS).dateTime(OLD_DATE).latLong(1, 2)
+                .scanBytes(10_000).build();
+        byte[] rewritten = rewrite(original, new ExifSpliceWriter().removeLocation());
+
+        assertFalse(contains(rewritten, "GPSLatitude"));
+        read(rewritten);
+        assertFalse(result.hasLocation());
+        assertSameImageData(original, rewritten);
+    }
+
+    @Test
+    public void preparedCopyWithoutLocationIsVerbatim() throws Exception {
+        byte[] original = TestJpegs.jpeg().withApp0().dateTime(OLD_DATE).scanBytes(10_000).build();
+        try (RandomAccessFile in = new RandomAccessFile(write(original), "r")) {
+            ExifSpliceWriter.Splice splice = new ExifSpliceWriter().removeLocation().prepareCopy(in.getChannel());
+            assertEquals(original.length, splice.length());
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            splice.update(in.getChannel(), crc);
+            java.util.zip.CRC32 expected = new java.util.zip.CRC32();
+            expected.update(original);
+            assertEquals(expected.getValue(), crc.getValue());
+        }
+    }
+
+    @Test
+    public void preparedCopyMatchesCopyTo() throws Exception {
+        byte[] original = TestJpegs.jpeg().dateTime(OLD_DATE).latLong(1, 2).scanBytes(150_000).build();
+        File source = write(original);
+        File target = tmp.newFile();
+        ExifSpliceWriter writer = new ExifSpliceWriter().removeLocation();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileOutputStream out = new FileOutputStream(target)) {
+            writer.copyTo(in.getChannel(), out.getChannel());
+        }
+        byte[] copied = Files.readAllBytes(target.toPath());
+
+        try (RandomAccessFile in = new RandomAccessFile(source, "r")) {
+            ExifSpliceWriter.Splice splice = writer.prepareCopy(in.getChannel());
+            assertEquals(copied.length, splice.length());
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            splice.update(in.getChannel(), crc);
+            java.util.zip.CRC32 expected = new java.util.zip.CRC32();
+            expected.update(copied);
+            assertEquals(expected.getValue(), crc.getValue());
+        }
+        read(copied);
+        assertFalse(result.hasLocation());
+        assertSameImageData(original, copied);
+    }
+}
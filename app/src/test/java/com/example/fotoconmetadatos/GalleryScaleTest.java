@@ -0,0 +1,378 @@
+package com.example.fotoconmetadatos;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.Assert.*;
+
+/**
+ * Carga completa de galerías sintéticas de 1.000, 10.000 y 100.000 fotos por
+ * el mismo camino que la app: {@link GalleryLoader} + {@link PagedPhotoSource},
+ * con scroll por la parte de arriba y después la lectura de todo el EXIF.
+ * Falla si se pasa del presupuesto de tiempo, de heap o de bytes leídos por
+ * foto, así una regresión de la carga rompe {@code ./gradlew test}.
+ *
+ * Los presupuestos dejan margen de sobra para una máquina de CI lenta; lo que
+ * miden de verdad se imprime en cada ejecución.
+ */
+public class GalleryScaleTest {
+
+    private static final long SEED = 42;
+    private static final int VIEWPORT = 24; // 3 columnas x 8 filas
+    private static final int SCROLLED = 3000;
+
+    // El lector solo toca los encabezados: unos pocos KB de fotos de 256 KB
+    private static final long MAX_BYTES_READ_PER_PHOTO = 16 * 1024;
+    // PhotoStore, índice EXIF e índices auxiliares; sin nada por foto fuera de eso
+    private static final long MAX_RETAINED_BYTES_PER_PHOTO = 600;
+    private static final long MAX_PEAK_HEAP_BYTES_PER_PHOTO = 1000;
+    private static final long HEAP_SLACK_BYTES = 8L * 1024 * 1024;
+    // Leer la galería guardada va antes del primer cuadro: copias en bloque, sin E/S por foto
+    private static final long MAX_SNAPSHOT_RESTORE_MILLIS = 250;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<ExecutorService> executors = new ArrayList<>();
+    private final List<GalleryLoader> loaders = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (ExecutorService executor : executors) executor.shutdownNow();
+        for (GalleryLoader loader : loaders) loader.shutdown();
+    }
+
+    @Test
+    public void thousandPhotos() throws Exception {
+        checkLoad(1_000, 2_000);
+    }
+
+    @Test
+    public void tenThousandPhotos() throws Exception {
+        checkLoad(10_000, 4_000);
+    }
+
+    @Test
+    public void hundredThousandPhotos() throws Exception {
+        checkLoad(100_000, 15_000);
+    }
+
+    @Test
+    public void hundredThousandPhotoReport() throws Exception {
+        int size = 100_000;
+        SyntheticLibrary library = new SyntheticLibrary(size, SEED);
+        GalleryLoader loader = new GalleryLoader(library, new ExifIndex(new File(tmp.getRoot(), "exif_index.bin")),
+                Executors.defaultThreadFactory());
+        loaders.add(loader);
+        // Recién consultada y sin índice: el informe lee el EXIF de todas
+        PhotoStore store = loader.snapshot(null);
+        CountingWriter out = new CountingWriter();
+        HeapWatcher heap = new HeapWatcher();
+
+        long start = System.nanoTime();
+        heap.start();
+        int rows = new MetadataExporter(loader).export(store, MetadataExporter.Format.CSV, out,
+                Executors.defaultThreadFactory());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long peak = heap.stop();
+        // Las medidas van en los mensajes: un fallo las muestra todas
+        String measured = String.format(Locale.ROOT, "Informe de %,d fotos: %,d ms, %,d B de CSV, pico %,d B/foto",
+                size, millis, out.chars, peak / size);
+
+        assertEquals(size, rows);
+        assertEquals(size + 1, out.lines);
+        assertEquals(library.expectedWithLocation(), out.linesWithLocation);
+        assertTrue(measured, millis <= 15_000);
+        // Lo que crece es el índice EXIF, no el texto: nunca hay más de unas tandas formateadas
+        assertTrue(measured, peak <= MAX_PEAK_HEAP_BYTES_PER_PHOTO * size + HEAP_SLACK_BYTES);
+    }
+
+    /** Descarta el CSV contando líneas, y las que terminan con longitud (sin campo vacío al final). */
+    private static final class CountingWriter extends java.io.Writer {
+        long chars;
+        int lines;
+        int linesWithLocation;
+        private char last;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                char c = buffer[i];
+                if (c == '\n') {
+                    lines++;
+                    if (last != ',' && lines > 1) linesWithLocation++;
+                }
+                last = c;
+            }
+            chars += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private void checkLoad(int size, long maxMillis) throws Exception {
+        SyntheticLibrary library = new SyntheticLibrary(size, SEED);
+        File indexFile = new File(tmp.getRoot(), "exif_index.bin");
+        HeapWatcher heap = new HeapWatcher();
+
+        long start = System.nanoTime();
+        heap.start();
+        Gallery gallery = new Gallery(library, indexFile);
+        gallery.refreshAndWait(size);
+        gallery.scroll(Math.min(size, SCROLLED));
+        gallery.resolveAllAndWait();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long retained = heap.retained();
+        long peak = heap.stop();
+
+        long bytesRead = library.bytesServed.get();
+        String measured = String.format(Locale.ROOT,
+                "%,d fotos: %,d ms, %,d B leídos/foto, %,d B retenidos/foto, pico %,d B/foto",
+                size, millis, bytesRead / size, retained / size, peak / size);
+
+        // Todo resuelto y con los valores correctos, incluidas las dañadas
+        int withLocation = 0;
+        for (int position = 0; position < size; position++) {
+            PhotoItem item = gallery.source.peek(position);
+            long id = item.getId();
+            assertEquals(size - position, id);
+            SyntheticLibrary.Kind kind = library.kindOf(id);
+            assertEquals("Foto " + id + " (" + kind + ")", kind.hasLocation, item.hasLocation());
+            if (item.hasLocation()) {
+                withLocation++;
+                assertEquals(SyntheticLibrary.placeOf(id)[0], item.getLatitude(), 1e-4);
+                assertEquals(SyntheticLibrary.placeOf(id)[1], item.getLongitude(), 1e-4);
+            }
+        }
+        assertEquals(library.expectedWithLocation(), withLocation);
+        assertEquals(bytesRead, gallery.loader.getHeaderBytesRead());
+        assertTrue(library.otherFormatReads.get() > 0);
+
+        assertTrue(measured, millis <= maxMillis);
+        assertTrue(measured, bytesRead <= MAX_BYTES_READ_PER_PHOTO * size);
+        assertTrue(measured, retained <= MAX_RETAINED_BYTES_PER_PHOTO * size + HEAP_SLACK_BYTES);
+        assertTrue(measured, peak <= MAX_PEAK_HEAP_BYTES_PER_PHOTO * size + HEAP_SLACK_BYTES);
+
+        // Arranque en frío con la galería guardada
+        File snapshotFile = new File(tmp.getRoot(), "gallery_snapshot.bin");
+        new GallerySnapshot(gallery.source.getStore().copy(), -1, -1, 0).write(snapshotFile);
+        long restoreStart = System.nanoTime();
+        GallerySnapshot snapshot = GallerySnapshot.read(snapshotFile);
+        long restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restoreStart);
+        assertEquals(size, snapshot.store.size());
+        assertTrue(String.format(Locale.ROOT, "%,d fotos desde la galería guardada: %,d ms (%,d B)",
+                size, restoreMillis, snapshotFile.length()), restoreMillis <= MAX_SNAPSHOT_RESTORE_MILLIS);
+
+        // Arranque siguiente: todo sale del índice, sin abrir ningún archivo
+        int opens = library.opens.get();
+        long warmStart = System.nanoTime();
+        Gallery warm = new Gallery(library, indexFile);
+        warm.refreshAndWait(size);
+        warm.resolveAllAndWait();
+        long warmMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmStart);
+        assertEquals(opens, library.opens.get());
+        assertEquals(bytesRead, library.bytesServed.get());
+        assertTrue(String.format(Locale.ROOT, "%,d fotos desde el índice: %,d ms", size, warmMillis),
+                warmMillis <= maxMillis / 3);
+    }
+
+    /** La galería de la app sin vistas: el hilo principal es el de la prueba. */
+    private final class Gallery {
+        final GalleryLoader loader;
+        final PagedPhotoSource source;
+        final LinkedBlockingQueue<Runnable> main = new LinkedBlockingQueue<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        int firstVisible;
+        int lastVisible = VIEWPORT - 1;
+
+        Gallery(SyntheticLibrary library, File indexFile) {
+            loader = new GalleryLoader(library, new ExifIndex(indexFile), Executors.defaultThreadFactory());
+            loaders.add(loader);
+            ExecutorService background = Executors.newSingleThreadExecutor();
+            executors.add(background);
+            source = new PagedPhotoSource(loader, background, main::add);
+            source.setListener(new PagedPhotoSource.Listener() {
+                @Override
+                public void onInserted(int position, int count) {
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    // El adaptador vuelve a enlazar solo las celdas visibles que cambiaron
+                    int from = Math.max(position, firstVisible);
+                    int to = Math.min(position + count - 1, lastVisible);
+                    for (int p = from; p <= to; p++) bind(p);
+                }
+
+                @Override
+                public void onSnapshot(int count) {
+                }
+
+                @Override
+                public void onViewReset(int count) {
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    error.set(e);
+                }
+            });
+        }
+
+        void refreshAndWait(int size) throws Exception {
+            source.refresh();
+            pumpUntil(() -> source.size() == size);
+        }
+
+        // Como un scroll lento: cada pantalla se enlaza entera y se deja llegar lo pedido
+        void scroll(int positions) throws Exception {
+            for (int first = 0; first < positions; first += VIEWPORT) {
+                int last = Math.min(positions, first + VIEWPORT) - 1;
+                firstVisible = first;
+                lastVisible = last;
+                source.setVisibleRange(first, last);
+                for (int p = first; p <= last; p++) bind(p);
+                pump();
+            }
+        }
+
+        void resolveAllAndWait() throws Exception {
+            AtomicBoolean done = new AtomicBoolean();
+            source.resolveAll(() -> done.set(true));
+            pumpUntil(done::get);
+        }
+
+        // Lo que hace onBindViewHolder con cada celda, salvo la miniatura
+        private void bind(int position) {
+            PhotoItem item = source.get(position);
+            if (item == null) return;
+            item.getName();
+            item.getDateTime();
+            item.getLocation();
+        }
+
+        private void pump() throws Exception {
+            Runnable task;
+            while ((task = main.poll()) != null) task.run();
+            checkError();
+        }
+
+        private void pumpUntil(BooleanSupplier condition) throws Exception {
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (!condition.getAsBoolean()) {
+                Runnable task = main.poll(100, TimeUnit.MILLISECONDS);
+                if (task != null) task.run();
+                checkError();
+                assertTrue("La galería no terminó de cargar", System.nanoTime() < deadline);
+            }
+        }
+
+        private void checkError() throws Exception {
+            Exception e = error.get();
+            if (e != null) throw e;
+        }
+    }
+
+    /**
+     * Heap vivo durante la carga: lo que queda después de cada GC, que a
+     * diferencia del uso instantáneo no cuenta la basura pendiente de recoger.
+     */
+    private static final class HeapWatcher implements NotificationListener {
+        private final AtomicLong peak = new AtomicLong();
+        private final Set<String> heapPools = new HashSet<>();
+        private long baseline;
+
+        void start() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+            }
+            baseline = liveHeap();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        /** Lo que sigue vivo ahora, por encima de lo que había al empezar. */
+        long retained() {
+            long retained = liveHeap() - baseline;
+            peak.accumulateAndGet(retained + baseline, Math::max);
+            return retained;
+        }
+
+        /** Pico de heap vivo por encima del de partida. */
+        long stop() throws Exception {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter) gc).removeNotificationListener(this);
+                }
+            }
+            return Math.max(0, peak.get() - baseline);
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                    .equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(pool.getKey())) used += pool.getValue().getUsed();
+            }
+            peak.accumulateAndGet(used, Math::max);
+        }
+
+        private static long liveHeap() {
+            for (int i = 0; i < 3; i++) System.gc();
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+    }
+}
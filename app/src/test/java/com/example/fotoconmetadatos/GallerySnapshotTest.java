@@ -0,0 +1,123 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class GallerySnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static PhotoStore gallery(int size, String fingerprint) {
+        PhotoStore.Builder builder = new PhotoStore.Builder(size);
+        for (int i = 0; i < size; i++) {
+            long id = size - i;
+            // Nombres repetidos y con acentos: la tabla los guarda una vez
+            int row = builder.add(id, id, 1_700_000_000L + id, 1000 + id, "FOTO_" + (id % 50) + "_año.jpg");
+            if (id % 3 == 0) builder.setExif(row, id * 1000, 40 + id * 1e-6, -3 - id * 1e-6);
+            if (id % 3 == 1) builder.setExif(row, CaptureTime.UNKNOWN, Double.NaN, Double.NaN);
+        }
+        return builder.build(fingerprint);
+    }
+
+    @Test
+    public void roundTripKeepsEveryColumn() throws Exception {
+        PhotoStore store = gallery(5000, "external_primary:1:42;");
+        File file = new File(tmp.getRoot(), "gallery.bin");
+        new GallerySnapshot(store, 4321, 5000 - 4321, -37).write(file);
+
+        GallerySnapshot read = GallerySnapshot.read(file);
+        assertNotNull(read);
+        PhotoStore copy = read.store;
+        assertEquals(store.size(), copy.size());
+        assertTrue(copy.isCurrent("external_primary:1:42;"));
+        for (int row = 0; row < store.size(); row++) {
+            assertEquals(store.idAt(row), copy.idAt(row));
+            assertEquals(store.dateAddedAt(row), copy.dateAddedAt(row));
+            assertEquals(store.dateModifiedAt(row), copy.dateModifiedAt(row));
+            assertEquals(store.fileSizeAt(row), copy.fileSizeAt(row));
+            assertEquals(store.nameAt(row), copy.nameAt(row));
+            assertEquals(store.captureTimeAt(row), copy.captureTimeAt(row));
+            assertEquals(store.latitudeAt(row), copy.latitudeAt(row), 0);
+            assertEquals(store.longitudeAt(row), copy.longitudeAt(row), 0);
+            assertEquals(store.isExifResolved(row), copy.isExifResolved(row));
+        }
+        assertEquals(4321, read.anchorId);
+        assertEquals(-37, read.anchorOffset);
+        assertEquals(5000 - 4321, read.scrollPosition());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void withoutFingerprintOrPhotos() throws Exception {
+        File file = new File(tmp.getRoot(), "gallery.bin");
+        new GallerySnapshot(PhotoStore.EMPTY, -1, -1, 0).write(file);
+
+        GallerySnapshot read = GallerySnapshot.read(file);
+        assertNotNull(read);
+        assertEquals(0, read.store.size());
+        assertFalse(read.store.isCurrent(null));
+        assertEquals(0, read.scrollPosition());
+    }
+
+    @Test
+    public void anchorFollowsThePhotoWhenPositionIsStale() throws Exception {
+        File file = new File(tmp.getRoot(), "gallery.bin");
+        // Se guardó con la vista ordenada por captura: la posición no sirve
+        new GallerySnapshot(gallery(100, "v1"), 60, -1, 0).write(file);
+        assertEquals(40, GallerySnapshot.read(file).scrollPosition());
+
+        new GallerySnapshot(gallery(100, "v1"), 60, 3, 0).write(file);
+        assertEquals(40, GallerySnapshot.read(file).scrollPosition());
+
+        new GallerySnapshot(gallery(100, "v1"), 5000, 3, 0).write(file);
+        assertEquals(0, GallerySnapshot.read(file).scrollPosition());
+    }
+
+    @Test
+    public void damagedFilesAreIgnored() throws Exception {
+        File file = new File(tmp.getRoot(), "gallery.bin");
+        assertNull(GallerySnapshot.read(file));
+
+        new GallerySnapshot(gallery(300, "v1"), -1, -1, 0).write(file);
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 8);
+        }
+        assertNull(GallerySnapshot.read(file));
+
+        new GallerySnapshot(gallery(300, "v1"), -1, -1, 0).write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0x12345678);
+        }
+        assertNull(GallerySnapshot.read(file));
+
+        // Índice de nombre fuera de la tabla: columnas incoherentes
+        PhotoStore store = gallery(300, null);
+        new GallerySnapshot(store, -1, -1, 0).write(file);
+        long nameRefsAt = 40 + 7 * 8L * 300;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(nameRefsAt);
+            raf.writeInt(-1);
+        }
+        assertNull(GallerySnapshot.read(file));
+    }
+
+    @Test
+    public void copyIsIndependentOfLaterExif() {
+        PhotoStore store = gallery(10, "v1");
+        PhotoStore copy = store.copy();
+        // La fila 2 es la foto 8, todavía sin leer
+        store.setExif(2, 5, 1, 2);
+        assertEquals(CaptureTime.UNKNOWN, copy.captureTimeAt(2));
+        assertFalse(copy.isExifResolved(2));
+        assertEquals(store.nameAt(2), copy.nameAt(2));
+    }
+}
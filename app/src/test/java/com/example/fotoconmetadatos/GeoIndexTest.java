@@ -0,0 +1,189 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeoIndexTest {
+
+    private static final int COUNT = 100_000;
+
+    /** Fotos repartidas en unas pocas zonas de trabajo, como en el campo. */
+    private static final class Library {
+        final long[] ids = new long[COUNT];
+        final double[] latitudes = new double[COUNT];
+        final double[] longitudes = new double[COUNT];
+
+        Library(Random random) {
+            double[][] sites = {{40.4168, -3.7038}, {-33.45, -70.66}, {19.43, -99.13}, {64.1, -21.9},
+                    {-16.5, 179.99}};
+            for (int i = 0; i < COUNT; i++) {
+                ids[i] = i + 1;
+                double[] site = sites[random.nextInt(sites.length)];
+                latitudes[i] = site[0] + random.nextGaussian() * 0.05;
+                longitudes[i] = normalize(site[1] + random.nextGaussian() * 0.05);
+            }
+        }
+
+        long[] radius(double latitude, double longitude, double meters) {
+            long[] out = new long[COUNT];
+            int n = 0;
+            for (int i = 0; i < COUNT; i++) {
+                if (!Double.isNaN(latitudes[i])
+                        && GeoIndex.distanceMeters(latitude, longitude, latitudes[i], longitudes[i]) <= meters) {
+                    out[n++] = ids[i];
+                }
+            }
+            return sorted(out, n);
+        }
+
+        long[] box(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+            long[] out = new long[COUNT];
+            int n = 0;
+            for (int i = 0; i < COUNT; i++) {
+                double lon = longitudes[i];
+                boolean inLongitude = minLongitude <= maxLongitude
+                        ? lon >= minLongitude && lon <= maxLongitude
+                        : lon >= minLongitude || lon <= maxLongitude;
+                if (latitudes[i] >= minLatitude && latitudes[i] <= maxLatitude && inLongitude) {
+                    out[n++] = ids[i];
+                }
+            }
+            return sorted(out, n);
+        }
+    }
+
+    private static double normalize(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+    private static long[] sorted(long[] ids, int count) {
+        long[] out = Arrays.copyOf(ids, count);
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static long[] radius(GeoIndex index, double latitude, double longitude, double meters) {
+        long[] out = new long[index.size()];
+        int n = index.queryRadius(latitude, longitude, meters, out);
+        return sorted(out, n);
+    }
+
+    private static GeoIndex build(Library library) {
+        GeoIndex index = new GeoIndex();
+        for (int i = 0; i < COUNT; i++) {
+            index.put(library.ids[i], library.latitudes[i], library.longitudes[i]);
+        }
+        return index;
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(1);
+        Library library = new Library(random);
+        GeoIndex index = build(library);
+        assertEquals(COUNT, index.size());
+
+        for (int q = 0; q < 50; q++) {
+            int i = random.nextInt(COUNT);
+            double meters = 50 + random.nextInt(3000);
+            assertArrayEquals(library.radius(library.latitudes[i], library.longitudes[i], meters),
+                    radius(index, library.latitudes[i], library.longitudes[i], meters));
+        }
+        long[] out = new long[COUNT];
+        int n = index.queryBox(40.3, -3.8, 40.5, -3.6, out);
+        assertArrayEquals(library.box(40.3, -3.8, 40.5, -3.6), sorted(out, n));
+    }
+
+    @Test
+    public void queriesAcrossTheAntimeridian() {
+        Library library = new Library(new Random(2));
+        GeoIndex index = build(library);
+
+        assertArrayEquals(library.radius(-16.5, 179.99, 5000), radius(index, -16.5, 179.99, 5000));
+        assertArrayEquals(library.radius(-16.5, -179.98, 8000), radius(index, -16.5, -179.98, 8000));
+        long[] out = new long[COUNT];
+        int n = index.queryBox(-16.6, 179.95, -16.4, -179.95, out);
+        assertArrayEquals(library.box(-16.6, 179.95, -16.4, -179.95), sorted(out, n));
+        assertTrue(n > 0);
+    }
+
+    @Test
+    public void incrementalChangesMatchLinearScan() {
+        Random random = new Random(3);
+        Library library = new Library(random);
+        GeoIndex index = build(library);
+
+        for (int change = 0; change < 20_000; change++) {
+            int i = random.nextInt(COUNT);
+            int kind = random.nextInt(3);
+            if (kind == 0) {
+                library.latitudes[i] = Double.NaN; // Se borró o perdió el GPS
+                index.remove(library.ids[i]);
+            } else {
+                library.latitudes[i] = 40.4168 + random.nextGaussian() * 0.01;
+                library.longitudes[i] = -3.7038 + random.nextGaussian() * 0.01;
+                index.put(library.ids[i], library.latitudes[i], library.longitudes[i]);
+            }
+            if (change % 4000 == 0) {
+                assertArrayEquals(library.radius(40.4168, -3.7038, 800), radius(index, 40.4168, -3.7038, 800));
+            }
+        }
+        assertArrayEquals(library.radius(40.4168, -3.7038, 800), radius(index, 40.4168, -3.7038, 800));
+        int live = 0;
+        for (double latitude : library.latitudes) if (!Double.isNaN(latitude)) live++;
+        assertEquals(live, index.size());
+    }
+
+    @Test
+    public void updateFollowsTheStoreDiff() {
+        PhotoStore.Builder first = new PhotoStore.Builder(3);
+        first.setExif(first.add(3, 3, 0, 0, "a"), 0, 40.0, -3.0);
+        first.setExif(first.add(2, 2, 0, 0, "b"), 0, 40.0, -3.0);
+        first.add(1, 1, 0, 0, "c");
+        PhotoStore before = first.build(null);
+        GeoIndex index = new GeoIndex();
+        index.update(PhotoStore.EMPTY, before);
+        assertEquals(2, index.size());
+
+        PhotoStore.Builder second = new PhotoStore.Builder(3);
+        second.setExif(second.add(4, 4, 0, 0, "d"), 0, 41.0, -3.0); // Nueva
+        second.setExif(second.add(3, 3, 0, 0, "a"), 0, 41.0, -3.0); // Movida
+        second.setExif(second.add(1, 1, 0, 0, "c"), 0, 40.0, -3.0); // Ahora con GPS; la 2 se borró
+        index.update(before, second.build(null));
+
+        assertEquals(3, index.size());
+        assertFalse(index.contains(2));
+        assertArrayEquals(new long[]{1}, radius(index, 40.0, -3.0, 100));
+        assertArrayEquals(new long[]{3, 4}, radius(index, 41.0, -3.0, 100));
+    }
+
+    @Test
+    public void radiusQueryUnderAMillisecond() {
+        Random random = new Random(4);
+        Library library = new Library(random);
+        GeoIndex index = build(library);
+        long[] out = new long[COUNT];
+
+        // Calentamiento para que el JIT compile el recorrido
+        for (int q = 0; q < 2000; q++) {
+            int i = random.nextInt(COUNT);
+            index.queryRadius(library.latitudes[i], library.longitudes[i], 250, out);
+        }
+        int queries = 1000;
+        long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            int i = random.nextInt(COUNT);
+            index.queryRadius(library.latitudes[i], library.longitudes[i], 250, out);
+            index.queryBox(library.latitudes[i] - 0.01, library.longitudes[i] - 0.01,
+                    library.latitudes[i] + 0.01, library.longitudes[i] + 0.01, out);
+        }
+        double perQueryMs = (System.nanoTime() - start) / 1e6 / (2 * queries);
+        assertTrue("Consulta media " + perQueryMs + " ms", perQueryMs < 1);
+    }
+}
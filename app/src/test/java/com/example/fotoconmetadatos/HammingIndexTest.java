@@ -0,0 +1,96 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HammingIndexTest {
+
+    // Cambia n bits distintos al azar
+    private static long flip(long hash, int n, Random random) {
+        long result = hash;
+        while (Long.bitCount(result ^ hash) < n) result ^= 1L << random.nextInt(64);
+        return result;
+    }
+
+    @Test
+    public void searchMatchesBruteForce() {
+        Random random = new Random(7);
+        HammingIndex index = new HammingIndex();
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++) {
+            // La mitad son variantes cercanas de fotos anteriores
+            hashes[i] = i > 0 && i % 2 == 0
+                    ? flip(hashes[random.nextInt(i)], random.nextInt(12), random)
+                    : random.nextLong();
+            index.put(i, hashes[i]);
+        }
+        assertEquals(hashes.length, index.size());
+
+        for (int q = 0; q < 200; q++) {
+            long query = flip(hashes[random.nextInt(hashes.length)], random.nextInt(4), random);
+            for (int distance : new int[]{0, 3, 8, HammingIndex.MAX_DISTANCE}) {
+                long[] found = index.search(query, distance);
+                Arrays.sort(found);
+                long[] expected = new long[hashes.length];
+                int n = 0;
+                for (int i = 0; i < hashes.length; i++) {
+                    if (PerceptualHash.distance(hashes[i], query) <= distance) expected[n++] = i;
+                }
+                assertArrayEquals(Arrays.copyOf(expected, n), found);
+            }
+        }
+    }
+
+    @Test
+    public void removedAndReplacedHashesAreNotFound() {
+        HammingIndex index = new HammingIndex();
+        index.put(1, 0xFFL);
+        index.put(2, 0xFEL);
+        index.remove(1);
+        assertFalse(index.contains(1));
+        assertArrayEquals(new long[]{2}, index.search(0xFFL, 1));
+
+        index.put(2, ~0xFEL);
+        assertEquals(0, index.search(0xFFL, 8).length);
+        assertEquals(~0xFEL, index.hashOf(2));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void churnCompactsAndKeepsLiveHashes() {
+        HammingIndex index = new HammingIndex();
+        for (int i = 0; i < 5000; i++) index.put(i, i * 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < 4000; i++) index.remove(i);
+        assertEquals(1000, index.size());
+        long[] ids = index.ids();
+        Arrays.sort(ids);
+        assertEquals(4000, ids[0]);
+        assertEquals(4999, ids[ids.length - 1]);
+        assertArrayEquals(new long[]{4321}, index.search(4321 * 0x9E3779B97F4A7C15L, 0));
+    }
+
+    @Test
+    public void groupsJoinChainsOfNearHashes() {
+        HammingIndex index = new HammingIndex();
+        // 1-2-3 en cadena: 1 y 3 están a 10 bits, pero 2 los une
+        index.put(1, 0L);
+        index.put(2, 0x1FL);
+        index.put(3, 0x3FFL);
+        index.put(4, 0xFFFF_FFFF_0000_0000L);
+        index.put(5, 0xFFFF_FFFF_0000_0001L);
+        index.put(6, 0x00FF_00FF_00FF_00FFL);
+
+        long[][] groups = index.groups(5);
+        assertEquals(2, groups.length);
+        long[] first = groups[0].clone();
+        long[] second = groups[1].clone();
+        Arrays.sort(first);
+        Arrays.sort(second);
+        assertArrayEquals(new long[]{1, 2, 3}, first);
+        assertArrayEquals(new long[]{4, 5}, second);
+    }
+}
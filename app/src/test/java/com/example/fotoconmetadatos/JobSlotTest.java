@@ -0,0 +1,125 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import static org.junit.Assert.*;
+
+public class JobSlotTest {
+
+    // El "hilo principal": lo que le mandan los trabajos corre cuando la prueba lo vacía
+    private final ConcurrentLinkedQueue<Runnable> main = new ConcurrentLinkedQueue<>();
+    private final List<Thread> started = new ArrayList<>();
+    private final ThreadFactory threads = runnable -> {
+        Thread thread = new Thread(runnable);
+        started.add(thread);
+        return thread;
+    };
+    private final JobSlot<Integer, String> slot = new JobSlot<>(main::add, threads);
+
+    private static final class RecordingUi implements JobSlot.Ui<Integer, String> {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onProgress(Integer progress) {
+            events.add("p" + progress);
+        }
+
+        @Override
+        public void onFinished(String result, Exception error) {
+            events.add(error != null ? "error " + error.getMessage() : "fin " + result);
+        }
+    }
+
+    // Espera a que terminen los hilos del trabajo y corre lo que mandaron al principal
+    private void finish() throws InterruptedException {
+        for (Thread thread : started) thread.join();
+        while (!main.isEmpty()) main.poll().run();
+    }
+
+    @Test
+    public void resultWaitsForTheNextUiAfterRecreation() throws Exception {
+        RecordingUi first = new RecordingUi();
+        slot.attach(first);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(slot.start(progress -> {
+            progress.accept(1);
+            release.await();
+            progress.accept(2);
+            return "ok";
+        }, null));
+
+        // Rotación: la actividad vieja se suelta antes de que termine
+        slot.detach(first);
+        release.countDown();
+        finish();
+        assertTrue(first.events.isEmpty());
+        assertFalse(slot.isRunning());
+
+        RecordingUi second = new RecordingUi();
+        slot.attach(second);
+        assertEquals(List.of("fin ok"), second.events);
+        // Se entrega una sola vez
+        slot.attach(new RecordingUi());
+        assertEquals(1, second.events.size());
+    }
+
+    @Test
+    public void recreatedUiSeesTheLastProgress() throws Exception {
+        CountDownLatch reported = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        slot.start(progress -> {
+            progress.accept(7);
+            reported.countDown();
+            release.await();
+            return "ok";
+        }, null);
+        reported.await();
+        while (!main.isEmpty()) main.poll().run();
+
+        RecordingUi ui = new RecordingUi();
+        slot.attach(ui);
+        assertEquals(List.of("p7"), ui.events);
+        release.countDown();
+        finish();
+        assertEquals(List.of("p7", "fin ok"), ui.events);
+    }
+
+    @Test
+    public void secondStartWhileRunningIsRefused() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        slot.start(progress -> {
+            release.await();
+            return "uno";
+        }, release::countDown);
+        assertFalse(slot.start(progress -> "dos", null));
+        assertEquals(1, started.size());
+
+        RecordingUi ui = new RecordingUi();
+        slot.attach(ui);
+        slot.cancel();
+        finish();
+        assertEquals(List.of("fin uno"), ui.events);
+    }
+
+    @Test
+    public void abandonedResultIsDropped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        slot.start(progress -> {
+            release.await();
+            throw new IllegalStateException("cortado");
+        }, release::countDown);
+        slot.abandon();
+        finish();
+
+        RecordingUi ui = new RecordingUi();
+        slot.attach(ui);
+        assertTrue(ui.events.isEmpty());
+        assertFalse(slot.isRunning());
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongIntMapTest {
+
+    @Test
+    public void behavesLikeHashMap() {
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            // Pocas claves: muchas colisiones, sobrescrituras y borrados
+            long key = random.nextInt(5000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000 * 1024L; key += 1024) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntMap.MISSING : value, map.get(key));
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        LongIntMap map = new LongIntMap(16);
+        map.put(-7, 3);
+        map.put(Long.MAX_VALUE, 4);
+        assertEquals(3, map.get(-7));
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(LongIntMap.MISSING, map.get(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MetadataBatchJobTest {
+
+    private static final double LAT = 19.4326;
+    private static final double LON = -99.1332;
+    private static final double DELTA = 1e-6;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // Los hilos de PhotoLoader fijan la prioridad con android.os.Process, que no existe fuera del dispositivo
+    private final ThreadFactory threads = Executors.defaultThreadFactory();
+    private final Map<Long, File> photos = new HashMap<>();
+    private final Map<Long, AtomicInteger> writes = new ConcurrentHashMap<>();
+
+    private long[] createPhotos(int count) throws IOException {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            long id = 1000 + i;
+            File file = tmp.newFile("IMG_" + id + ".jpg");
+            Files.write(file.toPath(), TestJpegs.jpeg().dateTime("2020:01:01 00:00:00").scanBytes(4000).build());
+            photos.put(id, file);
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    // Como MediaStoreExif pero sobre archivos
+    private final MetadataBatchJob.Target fileTarget = (id, writer) -> {
+        File file = photos.get(id);
+        if (file == null) throw new IOException("No existe " + id);
+        writes.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            writer.rewriteInPlace(channel, channel);
+        }
+    };
+
+    private ExifHeaderReader.Result read(long id) throws IOException {
+        ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+        try (InputStream in = new FileInputStream(photos.get(id))) {
+            assertTrue(new ExifHeaderReader().read(in, result));
+        }
+        return result;
+    }
+
+    private static class RecordingListener implements MetadataBatchJob.Listener {
+        final List<MetadataBatchJob.Progress> progress = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> failed = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onProgress(MetadataBatchJob.Progress p) {
+            progress.add(p);
+        }
+
+        @Override
+        public void onItemFailed(long id, Exception e) {
+            failed.add(id);
+        }
+    }
+
+    @Test
+    public void writesLocationToEveryPhotoAndKeepsDate() throws Exception {
+        long[] ids = createPhotos(40);
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        MetadataBatchJob job = MetadataBatchJob.create(journal, ids, new MetadataBatchJob.Tags(null, LAT, LON));
+        RecordingListener listener = new RecordingListener();
+
+        MetadataBatchJob.Progress result = job.run(fileTarget, 4, threads, listener);
+
+        assertTrue(result.isFinished());
+        assertEquals(40, result.done);
+        assertEquals(0, result.failed);
+        assertTrue(result.photosPerSecond() > 0);
+        assertFalse("Un lote terminado borra su diario", journal.exists());
+        for (long id : ids) {
+            ExifHeaderReader.Result exif = read(id);
+            assertTrue(exif.hasLocation());
+            assertEquals(LAT, exif.latitude, DELTA);
+            assertEquals(LON, exif.longitude, DELTA);
+            assertEquals("2020:01:01 00:00:00", exif.dateTime);
+            assertEquals(1, writes.get(id).get());
+        }
+        MetadataBatchJob.Progress last = listener.progress.get(listener.progress.size() - 1);
+        assertEquals(40, last.done);
+        assertTrue(listener.progress.size() > 1);
+    }
+
+    @Test
+    public void failuresAreCollectedPerPhoto() throws Exception {
+        long[] ids = createPhotos(10);
+        long[] withMissing = new long[ids.length + 2];
+        System.arraycopy(ids, 0, withMissing, 0, ids.length);
+        withMissing[ids.length] = 1;
+        withMissing[ids.length + 1] = 2;
+        MetadataBatchJob job = MetadataBatchJob.create(new File(tmp.getRoot(), "journal.bin"), withMissing,
+                new MetadataBatchJob.Tags("2024:05:01 10:30:00", Double.NaN, Double.NaN));
+        RecordingListener listener = new RecordingListener();
+
+        MetadataBatchJob.Progress result = job.run(fileTarget, 3, threads, listener);
+
+        assertTrue(result.isFinished());
+        assertEquals(10, result.done);
+        assertEquals(2, result.failed);
+        List<Long> failed = new ArrayList<>(listener.failed);
+        Collections.sort(failed);
+        assertEquals(List.of(1L, 2L), failed);
+        assertEquals(2, job.getFailedIds().size());
+        assertEquals("No existe 1", job.getFailedMessages().get(job.getFailedIds().indexOf(1L)));
+        assertEquals("2024:05:01 10:30:00", read(ids[0]).dateTime);
+        assertFalse(read(ids[0]).hasLocation());
+    }
+
+    @Test
+    public void resumesOnlyTheRemainingPhotos() throws Exception {
+        long[] ids = createPhotos(30);
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        MetadataBatchJob job = MetadataBatchJob.create(journal, ids, new MetadataBatchJob.Tags(null, LAT, LON));
+        // Se detiene a mitad, como si se cerrara la app
+        AtomicInteger seen = new AtomicInteger();
+        MetadataBatchJob.Target stopping = (id, writer) -> {
+            fileTarget.rewrite(id, writer);
+            if (seen.incrementAndGet() == 10) job.cancel();
+        };
+
+        MetadataBatchJob.Progress first = job.run(stopping, 1, threads, null);
+        assertFalse(first.isFinished());
+        assertTrue(journal.exists());
+
+        MetadataBatchJob resumed = MetadataBatchJob.resume(journal);
+        assertNotNull(resumed);
+        assertEquals(30, resumed.getTotal());
+        assertEquals(30 - first.done, resumed.getRemaining());
+        assertEquals(LAT, resumed.getTags().latitude, DELTA);
+        assertNull(resumed.getTags().dateTime);
+
+        MetadataBatchJob.Progress second = resumed.run(fileTarget, 4, threads, null);
+        assertTrue(second.isFinished());
+        assertEquals(30, second.done);
+        assertFalse(journal.exists());
+        for (long id : ids) {
+            assertEquals("Cada foto se escribe una sola vez", 1, writes.get(id).get());
+            assertTrue(read(id).hasLocation());
+        }
+    }
+
+    @Test
+    public void truncatedLastRecordIsRepeated() throws Exception {
+        long[] ids = createPhotos(5);
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        MetadataBatchJob job = MetadataBatchJob.create(journal, ids, new MetadataBatchJob.Tags(null, LAT, LON));
+        AtomicInteger seen = new AtomicInteger();
+        job.run((id, writer) -> {
+            fileTarget.rewrite(id, writer);
+            if (seen.incrementAndGet() == 3) job.cancel();
+        }, 1, threads, null);
+
+        // El proceso murió a mitad del último registro
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        MetadataBatchJob resumed = MetadataBatchJob.resume(journal);
+        assertNotNull(resumed);
+        assertEquals(3, resumed.getRemaining());
+
+        resumed.run(fileTarget, 2, threads, null);
+        assertEquals(2, writes.get(ids[2]).get());
+        for (long id : ids) {
+            ExifHeaderReader.Result exif = read(id);
+            assertEquals(LAT, exif.latitude, DELTA);
+            assertEquals(LON, exif.longitude, DELTA);
+        }
+    }
+
+    @Test
+    public void recordsAfterATruncatedOneSurviveTheNextResume() throws Exception {
+        long[] ids = createPhotos(8);
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        MetadataBatchJob job = MetadataBatchJob.create(journal, ids, new MetadataBatchJob.Tags(null, LAT, LON));
+        AtomicInteger seen = new AtomicInteger();
+        job.run((id, writer) -> {
+            fileTarget.rewrite(id, writer);
+            if (seen.incrementAndGet() == 2) job.cancel();
+        }, 1, threads, null);
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+
+        // Segunda ejecución tras el corte: sus registros van después del último completo
+        MetadataBatchJob resumed = MetadataBatchJob.resume(journal);
+        assertEquals(7, resumed.getRemaining());
+        AtomicInteger seenAgain = new AtomicInteger();
+        resumed.run((id, writer) -> {
+            fileTarget.rewrite(id, writer);
+            if (seenAgain.incrementAndGet() == 3) resumed.cancel();
+        }, 1, threads, null);
+
+        MetadataBatchJob last = MetadataBatchJob.resume(journal);
+        assertNotNull(last);
+        assertEquals(4, last.getRemaining());
+        last.run(fileTarget, 2, threads, null);
+        assertFalse(journal.exists());
+        for (long id : ids) {
+            // Solo la foto del registro cortado se escribió dos veces
+            assertEquals(id == ids[1] ? 2 : 1, writes.get(id).get());
+        }
+    }
+
+    @Test
+    public void impossibleLengthInHeaderIsIgnored() throws Exception {
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        MetadataBatchJob.create(journal, new long[]{1, 2, 3}, new MetadataBatchJob.Tags(null, LAT, LON));
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            // El número de _ID va justo antes de la lista
+            raf.seek(raf.length() - 3 * 8 - 4);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        assertNull(MetadataBatchJob.resume(journal));
+    }
+
+    @Test
+    public void missingOrForeignJournalIsIgnored() throws Exception {
+        File journal = new File(tmp.getRoot(), "journal.bin");
+        assertNull(MetadataBatchJob.resume(journal));
+        Files.write(journal.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertNull(MetadataBatchJob.resume(journal));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MetadataExporterTest {
+
+    private static final ThreadFactory THREADS = Thread::new;
+
+    private final List<Integer> requestedRows = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger batches = new AtomicInteger();
+
+    // Las pares tienen GPS; la lectura de cada tanda tarda distinto para desordenar los hilos
+    private final PagedPhotoSource.PageLoader loader = new PagedPhotoSource.PageLoader() {
+        @Override
+        public PhotoStore snapshot(PhotoStore previous) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ExifIndex.Entry[] resolveExif(PhotoStore store, int[] rows) throws Exception {
+            Thread.sleep(batches.incrementAndGet() % 2 == 0 ? 0 : 5);
+            ExifIndex.Entry[] entries = new ExifIndex.Entry[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                long id = store.idAt(rows[i]);
+                requestedRows.add(rows[i]);
+                entries[i] = new ExifIndex.Entry(0, 0, "2024:05:01 10:30:00",
+                        id % 2 == 0 ? 40.4168 : Double.NaN, id % 2 == 0 ? -3.7038 : Double.NaN);
+            }
+            return entries;
+        }
+    };
+
+    private static PhotoStore store(int size) {
+        PhotoStore.Builder builder = new PhotoStore.Builder(size);
+        for (int i = 0; i < size; i++) {
+            long id = size - i;
+            builder.add(id, id, 1000, 5000, "IMG_" + id + ".jpg");
+        }
+        return builder.build("v" + size);
+    }
+
+    @Test
+    public void csvRowsComeOutInGalleryOrder() throws Exception {
+        int size = 3 * MetadataExporter.BATCH + 7;
+        PhotoStore store = store(size);
+        // Ya resuelta en la galería: no se vuelve a leer
+        store.setExif(0, CaptureTime.parseExif("2020:01:02 03:04:05"), -34.6037, -58.3816);
+        StringWriter out = new StringWriter();
+
+        int rows = new MetadataExporter(loader).export(store, MetadataExporter.Format.CSV, out, THREADS);
+
+        assertEquals(size, rows);
+        assertEquals(size - 1, requestedRows.size());
+        assertFalse(requestedRows.contains(0));
+        String[] lines = out.toString().split("\n");
+        assertEquals(size + 1, lines.length);
+        assertEquals("id,nombre,fecha_captura,latitud,longitud", lines[0]);
+        assertEquals(size + ",IMG_" + size + ".jpg,2020-01-02T03:04:05,-34.603700,-58.381600", lines[1]);
+        for (int row = 1; row < size; row++) {
+            long id = size - row;
+            String expected = id + ",IMG_" + id + ".jpg,2024-05-01T10:30:00,"
+                    + (id % 2 == 0 ? "40.416800,-3.703800" : ",");
+            assertEquals(expected, lines[row + 1]);
+        }
+    }
+
+    @Test
+    public void geoJsonHasOneFeaturePerPhoto() throws Exception {
+        int size = MetadataExporter.BATCH + 3;
+        StringWriter out = new StringWriter();
+        new MetadataExporter(loader).export(store(size), MetadataExporter.Format.GEOJSON, out, THREADS);
+
+        String json = out.toString();
+        assertTrue(json.startsWith("{\"type\":\"FeatureCollection\",\"features\":[\n{\"type\":\"Feature\""));
+        assertTrue(json.endsWith("}}\n]}\n"));
+        assertEquals(size, json.split("\"type\":\"Feature\",").length - 1);
+        assertEquals(size - 1, json.split("\\},\n\\{").length - 1);
+        // GeoJSON va en longitud, latitud
+        assertTrue(json.contains("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":"
+                + "[-3.703800,40.416800]},\"properties\":{\"id\":" + (size - 1)
+                + ",\"nombre\":\"IMG_" + (size - 1) + ".jpg\",\"fecha_captura\":\"2024-05-01T10:30:00\"}}"));
+        assertTrue(json.contains("\"geometry\":null,\"properties\":{\"id\":" + size + ","));
+    }
+
+    @Test
+    public void namesAreEscaped() {
+        StringBuilder csv = new StringBuilder();
+        MetadataExporter.appendCsv(csv, 7, "obra, \"norte\".jpg", CaptureTime.UNKNOWN, Double.NaN, Double.NaN);
+        assertEquals("7,\"obra, \"\"norte\"\".jpg\",,,\n", csv.toString());
+
+        StringBuilder json = new StringBuilder();
+        MetadataExporter.appendFeature(json, 7, "a\"b\\c\n", CaptureTime.UNKNOWN, Double.NaN, Double.NaN);
+        assertTrue(json.toString().contains("\"nombre\":\"a\\\"b\\\\c\\u000a\",\"fecha_captura\":null"));
+    }
+
+    @Test
+    public void coordinatesUseFixedDecimals() {
+        StringBuilder out = new StringBuilder();
+        MetadataExporter.appendCoordinate(out, 0.00001);
+        out.append(' ');
+        MetadataExporter.appendCoordinate(out, -0.5);
+        out.append(' ');
+        MetadataExporter.appendCoordinate(out, 179.9999999);
+        assertEquals("0.000010 -0.500000 180.000000", out.toString());
+    }
+
+    @Test
+    public void cancelStopsAfterTheBatchesInFlight() throws Exception {
+        int size = 20 * MetadataExporter.BATCH;
+        MetadataExporter exporter = new MetadataExporter(loader);
+        StringWriter out = new StringWriter() {
+            @Override
+            public void write(String text) {
+                super.write(text);
+                if (!text.startsWith("id,")) exporter.cancel();
+            }
+        };
+        int rows = exporter.export(store(size), MetadataExporter.Format.CSV, out, THREADS);
+        // La primera tanda cancela: salen solo las que ya estaban pedidas
+        assertEquals(MetadataExporter.WINDOW * MetadataExporter.BATCH, rows);
+        assertEquals(rows + 1, out.toString().split("\n").length);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @After
+    public void tearDown() {
+        Metrics.setTracer(null);
+    }
+
+    @Test
+    public void sameNameGivesSameMetric() {
+        assertSame(Metrics.counter("prueba.mismo"), Metrics.counter("prueba.mismo"));
+        assertSame(Metrics.timer("prueba.mismo"), Metrics.timer("prueba.mismo"));
+        assertNotSame(Metrics.histogram("prueba.a"), Metrics.histogram("prueba.b"));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        Metrics.Counter counter = Metrics.counter("prueba.concurrente");
+        Metrics.Histogram histogram = Metrics.histogram("prueba.concurrente");
+        long before = counter.get();
+        long countBefore = histogram.count();
+        int threads = 8;
+        int perThread = 50_000;
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    counter.increment();
+                    histogram.record(i + offset);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        go.countDown();
+        for (Thread worker : workers) worker.join();
+
+        assertEquals(before + threads * perThread, counter.get());
+        assertEquals(countBefore + threads * perThread, histogram.count());
+        assertEquals(perThread - 1 + threads - 1, histogram.max());
+    }
+
+    @Test
+    public void percentilesStayWithinOneEighth() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long v = 1; v <= 10_000; v++) histogram.record(v);
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(50_005_000, histogram.sum());
+        assertBetween(5_000, histogram.percentile(0.50));
+        assertBetween(9_000, histogram.percentile(0.90));
+        assertBetween(9_900, histogram.percentile(0.99));
+        // Nunca más allá del máximo visto
+        assertEquals(10_000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void bucketsCoverTheWholeRange() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789, Long.MAX_VALUE};
+        int previous = -1;
+        for (long value : values) {
+            int bucket = Metrics.Histogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            assertTrue(value <= Metrics.Histogram.upperBound(bucket));
+            previous = bucket;
+        }
+        assertEquals(Long.MAX_VALUE, Metrics.Histogram.upperBound(Metrics.Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void timerOpensAndClosesTraceSection() {
+        List<String> trace = new ArrayList<>();
+        Metrics.setTracer(new Metrics.Tracer() {
+            @Override
+            public void begin(String section) {
+                trace.add("+" + section);
+            }
+
+            @Override
+            public void end() {
+                trace.add("-");
+            }
+        });
+        Metrics.Timer timer = Metrics.timer("prueba.traza");
+        long count = timer.getHistogram().count();
+
+        long start = timer.start();
+        timer.stop(start);
+        timer.record(5_000);
+
+        assertEquals(List.of("+prueba.traza", "-"), trace);
+        assertEquals(count + 2, timer.getHistogram().count());
+    }
+
+    @Test
+    public void jsonListsEveryMetricAndResetClearsThem() {
+        Metrics.counter("prueba.json").add(3);
+        Metrics.timer("prueba.json").record(2_500_000);
+        Metrics.histogram("prueba.json").record(42);
+
+        String json = Metrics.toJson();
+        assertTrue(json, json.contains("\"prueba.json\": 3"));
+        assertTrue(json, json.contains("\"prueba.json\": {\"count\": 1, \"mean_us\": 2500.0"));
+        assertTrue(json, json.contains("\"prueba.json\": {\"count\": 1, \"mean\": 42.0, \"p50\": 42"));
+        assertTrue(json.startsWith("{") && json.endsWith("}"));
+
+        Metrics.reset();
+        assertEquals(0, Metrics.counter("prueba.json").get());
+        assertEquals(0, Metrics.timer("prueba.json").getHistogram().count());
+        assertEquals(0, Metrics.histogram("prueba.json").max());
+    }
+
+    private static void assertBetween(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+}
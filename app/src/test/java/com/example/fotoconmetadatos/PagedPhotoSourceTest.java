@@ -0,0 +1,527 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PagedPhotoSourceTest {
+
+    private static final int PAGE = PagedPhotoSource.PAGE_SIZE;
+
+    /**
+     * Biblioteca falsa: la foto i tiene id {@code total - i}, así el orden
+     * (DATE_ADDED DESC, _ID DESC) coincide con el de las posiciones.
+     */
+    private static final class FakeLoader implements PagedPhotoSource.PageLoader {
+        long[] ids = new long[0];
+        long[] modified = new long[0];
+        String fingerprint = "v1";
+        int snapshots;
+        final List<long[]> requests = new ArrayList<>();
+        // Hace de ExifIndex: lo ya leído vuelve en la siguiente galería
+        final Set<Long> indexed = new HashSet<>();
+
+        void setTotal(int total) {
+            ids = new long[total];
+            modified = new long[total];
+            for (int i = 0; i < total; i++) {
+                ids[i] = total - i;
+            }
+            fingerprint = "v" + total;
+        }
+
+        @Override
+        public PhotoStore snapshot(PhotoStore previous) {
+            if (previous.isCurrent(fingerprint)) return previous;
+            snapshots++;
+            // DATE_ADDED igual al id: el orden del store coincide con el de ids
+            PhotoStore.Builder builder = new PhotoStore.Builder(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                int row = builder.add(ids[i], ids[i], modified[i], 1000, "IMG_" + ids[i]);
+                if (indexed.contains(ids[i])) {
+                    builder.setExif(row, CaptureTime.parseExif(dateTimeOf(ids[i])), latitudeOf(ids[i]), -3.0);
+                }
+            }
+            return builder.build(fingerprint);
+        }
+
+        @Override
+        public ExifIndex.Entry[] resolveExif(PhotoStore store, int[] rows) {
+            long[] requested = new long[rows.length];
+            ExifIndex.Entry[] entries = new ExifIndex.Entry[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                long id = store.idAt(rows[i]);
+                requested[i] = id;
+                indexed.add(id);
+                if (indexOf(id) >= 0) {
+                    entries[i] = new ExifIndex.Entry(store.dateModifiedAt(rows[i]), 1000,
+                            dateTimeOf(id), latitudeOf(id), -3.0);
+                }
+            }
+            requests.add(requested);
+            return entries;
+        }
+
+        // Las pares en la obra (40, -3); las impares a unos 110 km
+        static double latitudeOf(long id) {
+            return id % 2 == 0 ? 40.0 : 41.0;
+        }
+
+        // Las fotos se importaron desordenadas: la hora de captura no sigue al _ID
+        long importedId = -1;
+
+        String dateTimeOf(long id) {
+            if (id == importedId) return "2019:05:05 08:00:00";
+            return String.format(java.util.Locale.ROOT, "2024:01:%02d 10:%02d:00", 1 + id % 7, id % 60);
+        }
+
+        // Los ids están en orden descendente
+        private int indexOf(long id) {
+            int low = 0;
+            int high = ids.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] == id) return mid;
+                if (ids[mid] > id) low = mid + 1; else high = mid - 1;
+            }
+            return -1;
+        }
+
+        int rowsRequested() {
+            int n = 0;
+            for (long[] request : requests) n += request.length;
+            return n;
+        }
+    }
+
+    private final FakeLoader loader = new FakeLoader();
+    private final ArrayDeque<Runnable> background = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> main = new ArrayDeque<>();
+    private final List<String> updates = new ArrayList<>();
+    private int snapshotsApplied;
+    private PagedPhotoSource source;
+
+    @Before
+    public void setUp() {
+        source = new PagedPhotoSource(loader, background::add, main::add);
+        source.setListener(new PagedPhotoSource.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("+" + position + "x" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("-" + position + "x" + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                fail("No se esperan movimientos");
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("~" + position + "x" + count);
+            }
+
+            @Override
+            public void onSnapshot(int count) {
+                snapshotsApplied++;
+            }
+
+            @Override
+            public void onViewReset(int count) {
+                updates.add("=" + count);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.getMessage());
+            }
+        });
+    }
+
+    // Ejecuta todo lo pendiente en ambos "hilos" hasta que no quede nada
+    private void drain() {
+        while (!background.isEmpty() || !main.isEmpty()) {
+            while (!background.isEmpty()) background.poll().run();
+            while (!main.isEmpty()) main.poll().run();
+        }
+    }
+
+    @Test
+    public void refreshOnlyReadsExifOfTheFirstPage() {
+        loader.setTotal(100_000);
+        source.refresh();
+        drain();
+
+        assertEquals(1, snapshotsApplied);
+        assertEquals(100_000, source.size());
+        assertEquals(PAGE, loader.rowsRequested());
+        assertEquals("IMG_99995", source.peek(5).getName());
+        assertEquals(loader.dateTimeOf(99_995), source.peek(5).getDateTime());
+        // Más allá de lo visible las filas existen, todavía sin EXIF
+        assertEquals(100_000 - PAGE, source.peek(PAGE).getId());
+        assertEquals("", source.peek(PAGE).getDateTime());
+    }
+
+    @Test
+    public void unresolvedRowReadsItsPage() {
+        loader.setTotal(1000);
+        source.refresh();
+        drain();
+        updates.clear();
+
+        PhotoItem item = source.get(PAGE * 3 + 1);
+        assertEquals(1000 - (PAGE * 3 + 1), item.getId());
+        assertFalse(item.hasLocation());
+        drain();
+        assertTrue(source.peek(PAGE * 3 + 1).hasLocation());
+        assertEquals("~" + PAGE * 3 + "x" + PAGE, updates.get(updates.size() - 1));
+    }
+
+    @Test
+    public void scrollingReadsOnlyPagesNearTheViewport() {
+        loader.setTotal(100_000);
+        source.refresh();
+        drain();
+
+        for (int first = 0; first < 50_000; first += 10) {
+            source.setVisibleRange(first, first + 9);
+            drain();
+        }
+        // Cada página se lee una sola vez, y nada más allá de la precarga
+        int lastPage = 50_000 / PAGE + 1;
+        assertTrue(loader.rowsRequested() <= (lastPage + 1) * PAGE);
+        assertFalse(source.getStore().isExifResolved(60_000));
+    }
+
+    @Test
+    public void flingSkipsPagesThatScrolledPast() {
+        loader.setTotal(100_000);
+        source.refresh();
+        drain();
+        loader.requests.clear();
+
+        // Pedidos encolados sin que el fondo llegue a correr
+        for (int first = 0; first < 30_000; first += 600) {
+            source.setVisibleRange(first, first + 9);
+        }
+        drain();
+
+        // Solo se leyeron las páginas alrededor del destino
+        assertTrue(loader.rowsRequested() <= 6 * PAGE);
+    }
+
+    @Test
+    public void unchangedGenerationDoesNothing() {
+        loader.setTotal(500);
+        source.refresh();
+        drain();
+        int requests = loader.requests.size();
+        updates.clear();
+
+        source.refresh();
+        drain();
+        assertEquals(1, loader.snapshots);
+        assertEquals(requests, loader.requests.size());
+        assertTrue(updates.isEmpty());
+    }
+
+    @Test
+    public void newPhotoTouchesOneCell() {
+        loader.setTotal(500);
+        source.refresh();
+        drain();
+        source.setVisibleRange(0, 9);
+        drain();
+        loader.requests.clear();
+        updates.clear();
+
+        // Una captura nueva: id 501 al principio
+        long[] ids = new long[501];
+        ids[0] = 501;
+        System.arraycopy(loader.ids, 0, ids, 1, 500);
+        loader.ids = ids;
+        loader.modified = new long[501];
+        loader.fingerprint = "v2";
+        source.refresh();
+        assertNotNull(source.peek(0)); // Todavía se ve lo anterior
+        drain();
+
+        assertEquals(501, source.size());
+        assertEquals("[+0x1]", updates.toString());
+        // Solo la foto nueva necesita leer su EXIF
+        assertEquals(1, loader.requests.size());
+        assertArrayEquals(new long[]{501}, loader.requests.get(0));
+        assertTrue(source.peek(0).hasLocation());
+        assertEquals(501, source.peek(0).getId());
+        assertEquals(500, source.peek(1).getId());
+    }
+
+    @Test
+    public void deletedAndEditedPhotosAreDiffed() {
+        loader.setTotal(100);
+        source.refresh();
+        drain();
+        updates.clear();
+
+        long[] ids = new long[99];
+        long[] modified = new long[99];
+        for (int i = 0, j = 0; i < 100; i++) {
+            if (i == 3) continue; // Borrada
+            ids[j] = loader.ids[i];
+            modified[j] = i == 10 ? 7 : 0; // Editada
+            j++;
+        }
+        loader.ids = ids;
+        loader.modified = modified;
+        loader.fingerprint = "v2";
+        source.refresh();
+        drain();
+
+        // La fila 59 es la primera de la página siguiente, que ahora entra en la ventana
+        assertEquals("[-3x1, ~9x1, ~59x1]", updates.toString());
+        assertEquals(7, source.peek(9).getDateModified());
+    }
+
+    @Test
+    public void nearbyFilterCompletesAsExifIsRead() {
+        loader.setTotal(1000);
+        source.refresh();
+        drain();
+        updates.clear();
+
+        source.showNear(40.0, -3.0, 250);
+        // De entrada, solo lo ya leído: la primera página
+        assertEquals(PAGE / 2, source.size());
+        drain();
+
+        assertTrue(source.isFiltered());
+        assertEquals(500, source.size());
+        assertEquals(500, source.getGeoIndex().queryRadius(40.0, -3.0, 250, new long[1000]));
+        for (int i = 0; i < source.size(); i++) {
+            assertEquals(0, source.peek(i).getId() % 2);
+        }
+        // Siempre en el orden de la galería
+        assertEquals(1000, source.peek(0).getId());
+        assertEquals(998, source.peek(1).getId());
+
+        source.showAll();
+        assertEquals(1000, source.size());
+        assertEquals("=1000", updates.get(updates.size() - 1));
+    }
+
+    @Test
+    public void duplicateGroupsAreShownTogether() {
+        loader.setTotal(100);
+        source.refresh();
+        drain();
+
+        // Un grupo con una foto que ya no está y otro de una sola foto visible
+        source.showGroups(new long[][]{{3, 90, 50}, {7, 1000}, {95, 96}});
+        assertTrue(source.isGrouped());
+        assertTrue(source.isFiltered());
+        // Primero el grupo de la foto más reciente, cada uno en orden de galería
+        assertEquals(5, source.size());
+        long[] expected = {96, 95, 90, 50, 3};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], source.peek(i).getId());
+        }
+        assertEquals(0, source.groupAt(0));
+        assertEquals(0, source.groupAt(1));
+        assertEquals(1, source.groupAt(2));
+        assertEquals(1, source.groupAt(4));
+        assertEquals(-1, source.groupAt(5));
+
+        // Buscar por lugar sale de los grupos
+        source.showNear(40.0, -3.0, 250);
+        assertFalse(source.isGrouped());
+        source.showGroups(new long[][]{{95, 96}});
+        source.showAll();
+        assertFalse(source.isFiltered());
+        assertEquals(100, source.size());
+        assertEquals(-1, source.groupAt(0));
+    }
+
+    @Test
+    public void filteredViewFollowsRefreshes() {
+        loader.setTotal(100);
+        source.resolveAll(null);
+        source.refresh();
+        drain();
+        source.showInBox(39.9, -3.1, 40.1, -2.9);
+        assertEquals(50, source.size());
+
+        // Se borra la 100 y llega la 102: la nueva aparece al leer su EXIF
+        long[] ids = new long[100];
+        ids[0] = 102;
+        System.arraycopy(loader.ids, 1, ids, 1, 99);
+        loader.ids = ids;
+        loader.modified = new long[100];
+        loader.fingerprint = "v2";
+        source.refresh();
+        drain();
+
+        assertEquals(50, source.size());
+        assertEquals(102, source.peek(0).getId());
+        assertFalse(source.getGeoIndex().contains(100));
+    }
+
+    @Test
+    public void sortByCaptureTimeUsesTheStoredTimes() {
+        loader.setTotal(1000);
+        source.refresh();
+        drain();
+        updates.clear();
+
+        source.setSortByCaptureTime(true);
+        drain();
+        int read = loader.rowsRequested();
+        assertEquals(1000, read);
+
+        // Todo ordenado por captura, con las secciones de cada día
+        TimelineIndex timeline = source.getTimeline();
+        assertEquals(1000, source.size());
+        assertEquals(7, timeline.dayCount());
+        for (int i = 1; i < source.size(); i++) {
+            assertTrue(source.peek(i - 1).getCaptureTime() >= source.peek(i).getCaptureTime());
+        }
+        long day3 = CaptureTime.parseExif("2024:01:03 00:00:00");
+        int[] range = timeline.dayRange(day3);
+        for (int i = range[0]; i < range[1]; i++) {
+            assertEquals(day3, CaptureTime.startOfDay(source.peek(i).getCaptureTime()));
+        }
+        assertEquals(1000 / 7, range[1] - range[0], 1);
+
+        // Volver y ordenar otra vez no lee ningún archivo
+        source.setSortByCaptureTime(false);
+        source.setSortByCaptureTime(true);
+        drain();
+        assertEquals(read, loader.rowsRequested());
+        assertEquals("=1000", updates.get(updates.size() - 1));
+    }
+
+    @Test
+    public void newPhotoLandsInItsDayWhenSortedByCapture() {
+        loader.setTotal(100);
+        source.resolveAll(null);
+        source.setSortByCaptureTime(true);
+        source.refresh();
+        drain();
+        updates.clear();
+
+        // Llega una foto antigua (importada): va al final, no arriba
+        long[] ids = new long[101];
+        ids[0] = 101;
+        System.arraycopy(loader.ids, 0, ids, 1, 100);
+        loader.ids = ids;
+        loader.modified = new long[101];
+        loader.fingerprint = "v2";
+        loader.importedId = 101;
+        source.refresh();
+        drain();
+
+        // Entra en la sección sin fecha y, leído su EXIF, pasa a su día: aquí el más antiguo
+        assertEquals("+100x1", updates.get(0));
+        assertEquals(101, source.size());
+        assertEquals(101, source.peek(100).getId());
+        assertEquals("2019:05:05 08:00:00", source.peek(100).getDateTime());
+        assertEquals(CaptureTime.parseExif("2019:05:05 00:00:00"),
+                source.getTimeline().dayKey(source.getTimeline().dayCount() - 1));
+    }
+
+    @Test
+    public void restoredGalleryShowsAtOnceAndRefreshAppliesOnlyChanges() {
+        loader.setTotal(1000);
+        loader.indexed.add(1000L);
+        loader.indexed.add(999L);
+        PhotoStore saved = loader.snapshot(PhotoStore.EMPTY);
+        loader.snapshots = 0;
+
+        source.restore(saved);
+        assertEquals(1000, source.size());
+        assertEquals("IMG_1000", source.peek(0).getName());
+        assertTrue(source.peek(1).hasLocation());
+        // El índice espacial se arma al pedirlo, no al restaurar
+        assertEquals(2, source.getGeoIndex().size());
+
+        // MediaStore no cambió: ni se consulta ni se avisa nada
+        source.refresh();
+        drain();
+        assertEquals(0, loader.snapshots);
+        assertEquals(0, snapshotsApplied);
+        assertTrue(updates.isEmpty());
+
+        // Llegaron tres fotos mientras la app estaba cerrada
+        int revision = source.getRevision();
+        loader.setTotal(1003);
+        source.refresh();
+        drain();
+        assertEquals(1003, source.size());
+        assertEquals("+0x3", updates.get(0));
+        assertNotEquals(revision, source.getRevision());
+    }
+
+    @Test
+    public void switchingAlbumsKeepsEachGalleryAndQueriesOnlyWhatChanged() {
+        loader.setTotal(1000);
+        loader.fingerprint = "all|v1000";
+        source.refresh();
+        drain();
+        source.setSortByCaptureTime(true);
+        PhotoStore all = source.getStore();
+        // Página pedida con el álbum anterior que aún no se leyó
+        source.get(PAGE * 5);
+
+        FakeLoader captures = new FakeLoader();
+        captures.setTotal(20);
+        captures.fingerprint = "captures|v20";
+        updates.clear();
+        source.switchTo(captures, null);
+        assertEquals("=0", updates.get(0));
+        assertEquals(0, source.size());
+        assertFalse(source.isSortedByCaptureTime());
+        assertEquals(0, source.getGeoIndex().size());
+
+        source.refresh();
+        drain();
+        assertEquals(20, source.size());
+        assertEquals("IMG_20", source.peek(0).getName());
+        // Solo se leyeron nuestras fotos; la página pendiente no tocó la galería nueva
+        assertEquals(20, captures.rowsRequested());
+        assertEquals(20, source.getGeoIndex().size());
+
+        // Al volver la galería guardada se ve ya y, sin cambios, no se consulta nada
+        int snapshots = loader.snapshots;
+        int requests = loader.requests.size();
+        updates.clear();
+        source.switchTo(loader, all);
+        assertEquals("=1000", updates.get(0));
+        assertEquals(1000, source.size());
+        source.refresh();
+        drain();
+        assertSame(all, source.getStore());
+        assertEquals(snapshots, loader.snapshots);
+        assertEquals(requests, loader.requests.size());
+    }
+
+    @Test
+    public void staleRefreshIsIgnored() {
+        loader.setTotal(10);
+        source.refresh();
+        source.cancel();
+        drain();
+
+        assertEquals(0, snapshotsApplied);
+        assertEquals(0, source.size());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PerceptualHashTest {
+
+    // Degradado diagonal con una mancha clara: un motivo con estructura
+    private static int[] scene(int width, int height, int brightness, int spotX) {
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = (x * 160 / width + y * 60 / height);
+                int dx = x * 100 / width - spotX;
+                int dy = y * 100 / height - 40;
+                if (dx * dx + dy * dy < 400) level += 60;
+                level = Math.max(0, Math.min(255, level + brightness));
+                argb[y * width + x] = 0xFF000000 | level << 16 | level << 8 | level;
+            }
+        }
+        return argb;
+    }
+
+    @Test
+    public void sameImageHasTheSameHash() {
+        long a = PerceptualHash.dHash(scene(64, 48, 0, 30), 64, 48);
+        long b = PerceptualHash.dHash(scene(64, 48, 0, 30), 64, 48);
+        assertEquals(0, PerceptualHash.distance(a, b));
+    }
+
+    @Test
+    public void exposureAndSizeChangesStayClose() {
+        long base = PerceptualHash.dHash(scene(64, 48, 0, 30), 64, 48);
+        long brighter = PerceptualHash.dHash(scene(64, 48, 25, 30), 64, 48);
+        long smaller = PerceptualHash.dHash(scene(40, 30, 0, 30), 40, 30);
+        assertTrue(PerceptualHash.distance(base, brighter) <= DuplicateIndex.NEAR_DISTANCE);
+        assertTrue(PerceptualHash.distance(base, smaller) <= DuplicateIndex.NEAR_DISTANCE);
+    }
+
+    @Test
+    public void differentImagesAreFar() {
+        long scene = PerceptualHash.dHash(scene(64, 48, 0, 30), 64, 48);
+        // La misma escena espejada: los gradientes van al revés
+        int[] mirrored = scene(64, 48, 0, 70);
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 32; x++) {
+                int left = y * 64 + x;
+                int right = y * 64 + 63 - x;
+                int swap = mirrored[left];
+                mirrored[left] = mirrored[right];
+                mirrored[right] = swap;
+            }
+        }
+        long other = PerceptualHash.dHash(mirrored, 64, 48);
+        assertTrue(PerceptualHash.distance(scene, other) > 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallImageIsRejected() {
+        PerceptualHash.dHash(new int[8 * 8], 8, 8);
+    }
+}
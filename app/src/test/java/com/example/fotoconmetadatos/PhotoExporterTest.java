@@ -0,0 +1,173 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class PhotoExporterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final ThreadFactory THREADS = Thread::new;
+
+    private final Map<Long, File> photos = new HashMap<>();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger maxOpen = new AtomicInteger();
+
+    // Cuenta los canales abiertos a la vez para comprobar la ventana
+    private final PhotoExporter.Source source = id -> {
+        File file = photos.get(id);
+        if (file == null) throw new FileNotFoundException("foto " + id);
+        int now = open.incrementAndGet();
+        maxOpen.accumulateAndGet(now, Math::max);
+        return new RandomAccessFile(file, "r") {
+            @Override
+            public void close() throws IOException {
+                open.decrementAndGet();
+                super.close();
+            }
+        }.getChannel();
+    };
+
+    private byte[] addPhoto(long id, byte[] jpeg) throws IOException {
+        File file = tmp.newFile("src_" + id + ".jpg");
+        Files.write(file.toPath(), jpeg);
+        photos.put(id, file);
+        return jpeg;
+    }
+
+    private static byte[] withGps(int scanBytes) {
+        return TestJpegs.jpeg().dateTime("2024:05:01 10:30:00").latLong(19.4326, -99.1332)
+                .scanBytes(scanBytes).build();
+    }
+
+    private static void assertCleanCopy(byte[] original, byte[] copy) throws IOException {
+        ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+        assertTrue(new ExifHeaderReader().read(new ByteArrayInputStream(copy), result));
+        assertFalse(result.hasLocation());
+        assertEquals("2024:05:01 10:30:00", result.dateTime);
+        int sos = TestJpegs.indexOfSos(original);
+        assertArrayEquals(Arrays.copyOfRange(original, sos, original.length),
+                Arrays.copyOfRange(copy, TestJpegs.indexOfSos(copy), copy.length));
+    }
+
+    @Test
+    public void directoryExportStripsGpsAndSkipsWhatItCannotClean() throws Exception {
+        byte[] first = addPhoto(1, withGps(40_000));
+        byte[] second = addPhoto(2, withGps(5_000));
+        addPhoto(3, new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0});
+        List<Long> failedIds = new ArrayList<>();
+        File dir = new File(tmp.getRoot(), "share");
+
+        PhotoExporter.Result result = new PhotoExporter(source).exportToDirectory(new long[]{1, 2, 3, 4},
+                new String[]{"IMG_1.jpg", "IMG_1.jpg", "logo.png", "IMG_4.jpg"}, dir, 2, THREADS,
+                new PhotoExporter.Listener() {
+                    @Override
+                    public void onProgress(PhotoExporter.Result progress) {
+                    }
+
+                    @Override
+                    public void onItemFailed(long id, Exception e) {
+                        failedIds.add(id);
+                    }
+                });
+
+        assertEquals(2, result.exported);
+        assertEquals(2, result.failed);
+        assertTrue(result.isFinished());
+        failedIds.sort(null);
+        assertEquals(List.of(3L, 4L), failedIds);
+        // El nombre repetido lleva el _ID; lo que no se pudo limpiar no queda a medias
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"IMG_1.jpg", "IMG_1_2.jpg"}, names);
+        assertCleanCopy(first, Files.readAllBytes(new File(dir, "IMG_1.jpg").toPath()));
+        assertCleanCopy(second, Files.readAllBytes(new File(dir, "IMG_1_2.jpg").toPath()));
+        assertEquals(0, open.get());
+    }
+
+    @Test
+    public void zipExportStreamsEveryPhotoWithABoundedWindow() throws Exception {
+        int count = 60;
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        byte[][] originals = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i + 1;
+            names[i] = "IMG_" + (i + 1) + ".jpg";
+            originals[i] = addPhoto(ids[i], withGps(2_000 + 500 * i));
+        }
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        PhotoExporter.Result result = new PhotoExporter(source).exportToZip(ids, names, zip, 3, THREADS, null);
+        assertEquals(count, result.exported);
+        assertEquals(0, result.failed);
+        assertTrue(maxOpen.get() <= 3 * 2);
+        assertEquals(0, open.get());
+
+        int entries = 0;
+        long bytes = 0;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                int id = Integer.parseInt(entry.getName().replaceAll("\\D", ""));
+                // STORED: el lector comprueba tamaño y CRC precalculados
+                byte[] copy = in.readAllBytes();
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertCleanCopy(originals[id - 1], copy);
+                bytes += copy.length;
+                entries++;
+            }
+        }
+        assertEquals(count, entries);
+        assertEquals(bytes, result.bytes);
+    }
+
+    @Test
+    public void cancelStopsStartingPhotos() throws Exception {
+        long[] ids = new long[20];
+        String[] names = new String[20];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+            names[i] = "IMG_" + ids[i] + ".jpg";
+            addPhoto(ids[i], withGps(1_000));
+        }
+        PhotoExporter exporter = new PhotoExporter(source);
+        PhotoExporter.Result result = exporter.exportToZip(ids, names, new ByteArrayOutputStream(), 1, THREADS,
+                new PhotoExporter.Listener() {
+                    @Override
+                    public void onProgress(PhotoExporter.Result progress) {
+                        if (progress.exported == 5) exporter.cancel();
+                    }
+
+                    @Override
+                    public void onItemFailed(long id, Exception e) {
+                        fail(e.getMessage());
+                    }
+                });
+        assertFalse(result.isFinished());
+        assertTrue(result.exported >= 5 && result.exported < ids.length);
+        assertEquals(0, result.failed);
+        assertEquals(0, open.get());
+    }
+}
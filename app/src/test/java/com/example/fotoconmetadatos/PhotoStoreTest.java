@@ -0,0 +1,219 @@
+package com.example.fotoconmetadatos;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PhotoStoreTest {
+
+    /** Aplica los avisos a una lista de ids para comprobar que llevan de una foto a otra. */
+    private static final class Replay implements ListUpdateCallback {
+        final List<Long> list = new ArrayList<>();
+        final PhotoStore after;
+        final List<String> ops = new ArrayList<>();
+
+        Replay(PhotoStore before, PhotoStore after) {
+            for (int i = 0; i < before.size(); i++) list.add(before.idAt(i));
+            this.after = after;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            ops.add("+" + position + "x" + count);
+            for (int i = 0; i < count; i++) list.add(position + i, -1L);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            ops.add("-" + position + "x" + count);
+            for (int i = 0; i < count; i++) list.remove(position);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            fail();
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            ops.add("~" + position + "x" + count);
+            for (int i = 0; i < count; i++) list.set(position + i, -2L);
+        }
+
+        // Las posiciones nuevas o cambiadas quedan marcadas; el resto debe coincidir
+        void assertMatches() {
+            assertEquals(after.size(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) >= 0) assertEquals(after.idAt(i), (long) list.get(i));
+            }
+        }
+    }
+
+    // Fotos con DATE_ADDED = id, ordenadas como en pantalla
+    private static PhotoStore snapshot(long[] ids, long[] modified) {
+        PhotoStore.Builder builder = new PhotoStore.Builder(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            builder.add(ids[i], ids[i], modified[i], 0, "IMG_" + ids[i]);
+        }
+        return builder.build(null);
+    }
+
+    @Test
+    public void insertAtTopIsOneOperation() {
+        PhotoStore before = snapshot(new long[]{5, 4, 3}, new long[3]);
+        PhotoStore after = snapshot(new long[]{7, 6, 5, 4, 3}, new long[5]);
+        Replay replay = new Replay(before, after);
+        UpdateBatch.diff(before, after, replay);
+        assertEquals("[+0x2]", replay.ops.toString());
+        replay.assertMatches();
+    }
+
+    @Test
+    public void removalsAndChangesAreGrouped() {
+        PhotoStore before = snapshot(new long[]{9, 8, 7, 6, 5, 4}, new long[6]);
+        PhotoStore after = snapshot(new long[]{9, 6, 5, 4}, new long[]{0, 0, 1, 1});
+        Replay replay = new Replay(before, after);
+        UpdateBatch.diff(before, after, replay);
+        assertEquals("[-1x2, ~2x2]", replay.ops.toString());
+        replay.assertMatches();
+    }
+
+    @Test
+    public void identicalSnapshotsProduceNothing() {
+        PhotoStore before = snapshot(new long[]{3, 2, 1}, new long[3]);
+        Replay replay = new Replay(before, before);
+        UpdateBatch.diff(before, snapshot(new long[]{3, 2, 1}, new long[3]), replay);
+        assertTrue(replay.ops.isEmpty());
+    }
+
+    @Test
+    public void randomEditsReplayCorrectly() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            long[] before = randomIds(random);
+            long[] after = randomIds(random);
+            PhotoStore a = snapshot(before, new long[before.length]);
+            PhotoStore b = snapshot(after, new long[after.length]);
+            Replay replay = new Replay(a, b);
+            UpdateBatch.diff(a, b, replay);
+            replay.assertMatches();
+        }
+    }
+
+    @Test
+    public void fingerprintMatchesOnlyWhenKnown() {
+        assertFalse(new PhotoStore.Builder(0).build(null).isCurrent(null));
+        PhotoStore snapshot = new PhotoStore.Builder(0).build("a");
+        assertTrue(snapshot.isCurrent("a"));
+        assertFalse(snapshot.isCurrent("b"));
+    }
+
+    @Test
+    public void columnsKeepRowsWithoutObjects() {
+        PhotoStore.Builder builder = new PhotoStore.Builder(2);
+        char[] name = "IMG_0001.jpg".toCharArray();
+        int row = builder.add(10, 100, 200, 3000, name, name.length);
+        builder.add(9, 90, 190, 2000, "IMG_0001.jpg");
+        builder.add(8, 80, 180, 1000, "IMG_0002.jpg"); // Obliga a crecer
+        builder.setExif(row, CaptureTime.parseExif("2023:06:01 12:30:00"), 40.4168, -3.7038);
+        PhotoStore store = builder.build(null);
+
+        assertEquals(3, store.size());
+        assertTrue(store.isExifResolved(0));
+        assertFalse(store.isExifResolved(1));
+        assertFalse(store.hasLocation(1));
+        assertEquals(CaptureTime.UNKNOWN, store.captureTimeAt(1));
+        assertEquals("IMG_0001.jpg", store.nameAt(1));
+        assertEquals("IMG_0002.jpg", store.nameAt(2));
+
+        PhotoItem item = PhotoItem.of(store, 0);
+        assertEquals(10, item.getId());
+        assertEquals("IMG_0001.jpg", item.getName());
+        assertEquals("2023:06:01 12:30:00", item.getDateTime());
+        assertTrue(item.hasLocation());
+        assertEquals("", PhotoItem.of(store, 2).getLocation());
+    }
+
+    @Test
+    public void hundredThousandPhotosFitInAFewMegabytes() {
+        PhotoStore.Builder builder = new PhotoStore.Builder(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            builder.add(100_000 - i, 100_000 - i, 0, 2_500_000, "IMG_2024" + (100_000 + i) + ".jpg");
+        }
+        PhotoStore store = builder.build(null);
+        // 61 bytes de columnas más el nombre; una lista de objetos pasaba de 300 bytes por foto
+        assertTrue(store.estimatedBytes() / store.size() < 110);
+    }
+
+    @Test
+    public void filterAndSortByCaptureTime() {
+        PhotoStore.Builder builder = new PhotoStore.Builder(0);
+        long[] captures = new long[200];
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            int row = builder.add(200 - i, 200 - i, 0, 0, "IMG_" + i);
+            captures[i] = random.nextInt(10) == 0 ? CaptureTime.UNKNOWN : random.nextInt(50) * 1000L;
+            double latitude = i % 3 == 0 ? Double.NaN : 10;
+            builder.setExif(row, captures[i], latitude, 20);
+        }
+        PhotoStore store = builder.build(null);
+
+        int[] rows = new int[store.size()];
+        int count = store.filter((s, row) -> s.hasLocation(row), rows);
+        assertEquals(200 - 67, count);
+        store.sortByCaptureTime(rows, count);
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(store.hasLocation(rows[i]));
+            if (i == 0) continue;
+            long previous = store.captureTimeAt(rows[i - 1]);
+            long current = store.captureTimeAt(rows[i]);
+            assertTrue(previous > current
+                    || (previous == current && store.idAt(rows[i - 1]) > store.idAt(rows[i])));
+        }
+    }
+
+    @Test
+    public void filterAndSortDoNotAllocate() {
+        PhotoStore.Builder builder = new PhotoStore.Builder(50_000);
+        Random random = new Random(5);
+        for (int i = 0; i < 50_000; i++) {
+            int row = builder.add(50_000 - i, 50_000 - i, 0, 0, "IMG_" + i);
+            builder.setExif(row, random.nextInt(1_000_000) * 1000L, i % 2 == 0 ? 1 : Double.NaN, 1);
+        }
+        PhotoStore store = builder.build(null);
+        int[] rows = new int[store.size()];
+        PhotoStore.RowFilter withGps = (s, row) -> s.hasLocation(row);
+        store.sortByCaptureTime(rows, store.filter(withGps, rows)); // Calentamiento
+
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        int count = store.filter(withGps, rows);
+        store.sortByCaptureTime(rows, count);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(25_000, count);
+        // Margen para lo que asigne la propia medición
+        assertTrue("Asignó " + allocated + " bytes", allocated < 1024);
+    }
+
+    // Subconjunto aleatorio de 1..40 en orden descendente
+    private static long[] randomIds(Random random) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 40; id >= 1; id--) {
+            if (random.nextBoolean()) ids.add(id);
+        }
+        long[] out = new long[ids.size()];
+        for (int i = 0; i < out.length; i++) out[i] = ids.get(i);
+        return out;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.fotoconmetadatos;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Biblioteca de fotos sintética para las pruebas de escala: {@code size} filas
+ * con la mezcla de una galería real (cámara y móvil, con y sin GPS, sin EXIF,
+ * otros formatos y encabezados dañados). Los bytes salen de unas pocas
+ * plantillas compartidas, así que 100.000 fotos no ocupan más memoria que 20.
+ * La foto i tiene id {@code size - i} y DATE_ADDED igual al id, como en
+ * {@link PagedPhotoSourceTest}.
+ */
+final class SyntheticLibrary implements GalleryLoader.MediaLibrary {
+
+    /** Tipos de foto; la tabla de {@link #kindOf} fija cuántas hay de cada uno. */
+    enum Kind {
+        CAMERA(true), PHONE(true), NO_GPS(false), NO_EXIF(false), XMP_FIRST(true),
+        TRUNCATED(false), BAD_LENGTH(false), BAD_IFD(false), OTHER_FORMAT(false), VANISHED(false);
+
+        final boolean hasLocation;
+
+        Kind(boolean hasLocation) {
+            this.hasLocation = hasLocation;
+        }
+    }
+
+    // Porcentaje acumulado de cada tipo, en el orden de Kind
+    private static final int[] MIX = {40, 60, 84, 90, 94, 95, 96, 97, 99, 100};
+
+    private static final int VARIANTS = 4;
+    private static final double[][] PLACES = {
+            {40.4168, -3.7038}, {-34.6037, -58.3816}, {19.4326, -99.1332}, {48.8566, 2.3522}
+    };
+    private static final int SCAN_BYTES = 256 * 1024;
+
+    private final int size;
+    private final long seed;
+    private final byte[][][] templates = new byte[Kind.values().length][VARIANTS][];
+    final AtomicLong bytesServed = new AtomicLong();
+    final AtomicInteger opens = new AtomicInteger();
+    final AtomicInteger otherFormatReads = new AtomicInteger();
+
+    SyntheticLibrary(int size, long seed) {
+        this.size = size;
+        this.seed = seed;
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            String dateTime = "2023:0" + (variant + 1) + ":1" + variant + " 12:34:56";
+            double[] place = PLACES[variant];
+            byte[] camera = TestJpegs.jpeg().dateTime(dateTime).latLong(place[0], place[1])
+                    .orientation(6).thumbnail(new byte[6 * 1024]).scanBytes(SCAN_BYTES).build();
+            templates[Kind.CAMERA.ordinal()][variant] = camera;
+            templates[Kind.PHONE.ordinal()][variant] = TestJpegs.jpeg().withApp0().littleEndian()
+                    .dateTime(dateTime).latLong(place[0], place[1]).thumbnail(new byte[3 * 1024])
+                    .scanBytes(SCAN_BYTES).build();
+            templates[Kind.NO_GPS.ordinal()][variant] = TestJpegs.jpeg().withApp0().dateTime(dateTime)
+                    .scanBytes(SCAN_BYTES).build();
+            templates[Kind.NO_EXIF.ordinal()][variant] = TestJpegs.jpeg().withApp0()
+                    .scanBytes(SCAN_BYTES).build();
+            templates[Kind.XMP_FIRST.ordinal()][variant] = TestJpegs.jpeg().withXmp().dateTime(dateTime)
+                    .latLong(place[0], place[1]).scanBytes(SCAN_BYTES).build();
+            // El archivo termina antes del IFD de GPS, como una copia interrumpida
+            templates[Kind.TRUNCATED.ordinal()][variant] =
+                    Arrays.copyOf(camera, TestJpegs.TIFF_START + 24);
+            templates[Kind.BAD_LENGTH.ordinal()][variant] = badLength(camera);
+            templates[Kind.BAD_IFD.ordinal()][variant] = badIfd(camera);
+            templates[Kind.OTHER_FORMAT.ordinal()][variant] = png();
+        }
+    }
+
+    static Kind kindOf(long id, long seed) {
+        long h = (id ^ seed) * 0x9E3779B97F4A7C15L;
+        int bucket = (int) ((h >>> 33) % 100);
+        for (int i = 0; i < MIX.length; i++) {
+            if (bucket < MIX[i]) return Kind.values()[i];
+        }
+        throw new AssertionError();
+    }
+
+    Kind kindOf(long id) {
+        return kindOf(id, seed);
+    }
+
+    static int variantOf(long id) {
+        return (int) (id % VARIANTS);
+    }
+
+    static double[] placeOf(long id) {
+        return PLACES[variantOf(id)];
+    }
+
+    /** Fotos que deberían acabar con GPS. */
+    int expectedWithLocation() {
+        int count = 0;
+        for (long id = 1; id <= size; id++) {
+            if (kindOf(id).hasLocation) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String fingerprint() {
+        return "sintetica:" + size + ":" + seed;
+    }
+
+    @Override
+    public PhotoStore.Builder query() {
+        PhotoStore.Builder builder = new PhotoStore.Builder(size);
+        // Como el cursor real: el nombre va a un búfer reutilizado
+        char[] name = new char[32];
+        for (int i = 0; i < size; i++) {
+            long id = size - i;
+            int length = writeName(id, name);
+            builder.add(id, id, 1_700_000_000L + id, fileSize(id), name, length);
+        }
+        return builder;
+    }
+
+    @Override
+    public InputStream open(long id) {
+        Kind kind = kindOf(id);
+        // Borrada entre la consulta y la lectura: el proveedor devuelve null
+        if (kind == Kind.VANISHED) return null;
+        opens.incrementAndGet();
+        return new CountingStream(new ByteArrayInputStream(templates[kind.ordinal()][variantOf(id)]));
+    }
+
+    @Override
+    public void readOtherFormat(long id, ExifHeaderReader.Result result) {
+        otherFormatReads.incrementAndGet();
+    }
+
+    private long fileSize(long id) {
+        Kind kind = kindOf(id);
+        return kind == Kind.VANISHED ? 0 : templates[kind.ordinal()][variantOf(id)].length;
+    }
+
+    private static int writeName(long id, char[] out) {
+        String prefix = "IMG_";
+        prefix.getChars(0, prefix.length(), out, 0);
+        int at = prefix.length();
+        String digits = Long.toString(id);
+        digits.getChars(0, digits.length(), out, at);
+        at += digits.length();
+        ".jpg".getChars(0, 4, out, at);
+        return at + 4;
+    }
+
+    // Longitud de APP1 menor que 2: el lector tiene que rendirse sin leer de más
+    private static byte[] badLength(byte[] jpeg) {
+        byte[] copy = jpeg.clone();
+        copy[4] = 0;
+        copy[5] = 1;
+        return copy;
+    }
+
+    // Desplazamiento de IFD0 muy fuera del segmento
+    private static byte[] badIfd(byte[] jpeg) {
+        byte[] copy = jpeg.clone();
+        int ifdOffset = TestJpegs.TIFF_START + 4;
+        copy[ifdOffset] = 0x7F;
+        copy[ifdOffset + 1] = (byte) 0xFF;
+        copy[ifdOffset + 2] = (byte) 0xFF;
+        copy[ifdOffset + 3] = (byte) 0xF0;
+        return copy;
+    }
+
+    private static byte[] png() {
+        byte[] png = new byte[4096];
+        byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        System.arraycopy(signature, 0, png, 0, signature.length);
+        return png;
+    }
+
+    /** Cuenta todo lo que sale del "disco", incluidos los saltos. */
+    private final class CountingStream extends FilterInputStream {
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) bytesServed.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) bytesServed.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytesServed.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.fotoconmetadatos;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Genera JPEG sintéticos para las pruebas: SOI, APP0/APP1 opcionales, un DQT
+ * falso y un SOS seguido de bytes de "imagen". Sin APP0 el TIFF empieza en el
+ * byte 12 (FFD8 + FFE1 + longitud + "Exif\0\0").
+ */
+final class TestJpegs {
+
+    static final int TIFF_START = 12;
+
+    private TestJpegs() {
+    }
+
+    static Builder jpeg() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private boolean littleEndian;
+        private boolean app0;
+        private String xmp;
+        private double[] secondExifLatLong;
+        private String dateTime;
+        private double[] latLong;
+        private int orientation;
+        private byte[] thumbnail;
+        private int scanBytes = 1024;
+        private int width;
+        private int height;
+
+        Builder littleEndian() {
+            littleEndian = true;
+            return this;
+        }
+
+        Builder withApp0() {
+            app0 = true;
+            return this;
+        }
+
+        Builder withXmp() {
+            return withXmp("<x/>");
+        }
+
+        /** APP1 XMP con {@code packet} antes del Exif. */
+        Builder withXmp(String packet) {
+            xmp = packet;
+            return this;
+        }
+
+        /** Un segundo APP1 Exif, tras el primero, con solo este GPS. */
+        Builder withSecondExif(double latitude, double longitude) {
+            secondExifLatLong = new double[]{latitude, longitude};
+            return this;
+        }
+
+        Builder dateTime(String value) {
+            dateTime = value;
+            return this;
+        }
+
+        Builder latLong(double latitude, double longitude) {
+            latLong = new double[]{latitude, longitude};
+            return this;
+        }
+
+        Builder orientation(int value) {
+            orientation = value;
+            return this;
+        }
+
+        /** Miniatura de IFD1; no hace falta que sea un JPEG válido para el lector. */
+        Builder thumbnail(byte[] bytes) {
+            thumbnail = bytes;
+            return this;
+        }
+
+        /** Añade un SOF0 con estas dimensiones entre el DQT y el SOS. */
+        Builder frameSize(int frameWidth, int frameHeight) {
+            width = frameWidth;
+            height = frameHeight;
+            return this;
+        }
+
+        Builder scanBytes(int count) {
+            scanBytes = count;
+            return this;
+        }
+
+        byte[] build() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(0xFF);
+            out.write(0xD8);
+            if (app0) {
+                byte[] jfif = {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+                segment(out, 0xE0, jfif);
+            }
+            if (xmp != null) {
+                segment(out, 0xE1, ("http://ns.adobe.com/xap/1.0/\0" + xmp).getBytes(StandardCharsets.US_ASCII));
+            }
+            if (dateTime != null || latLong != null || orientation != 0 || thumbnail != null) {
+                exifSegment(out, tiff(littleEndian, orientation, dateTime, latLong, thumbnail));
+            }
+            if (secondExifLatLong != null) {
+                exifSegment(out, tiff(littleEndian, 0, null, secondExifLatLong, null));
+            }
+            segment(out, 0xDB, new byte[65]);
+            if (width > 0) {
+                segment(out, 0xC0, new byte[]{8, (byte) (height >> 8), (byte) height,
+                        (byte) (width >> 8), (byte) width, 1, 1, 0x11, 0});
+            }
+            segment(out, 0xDA, new byte[10]);
+            byte[] scan = new byte[scanBytes];
+            new Random(scanBytes).nextBytes(scan);
+            for (int i = 0; i < scan.length; i++) {
+                if (scan[i] == (byte) 0xFF) scan[i] = 0; // Sin marcadores dentro del escaneo
+            }
+            out.write(scan, 0, scan.length);
+            out.write(0xFF);
+            out.write(0xD9);
+            return out.toByteArray();
+        }
+    }
+
+    private static void exifSegment(ByteArrayOutputStream out, byte[] tiff) {
+        byte[] payload = new byte[6 + tiff.length];
+        System.arraycopy("Exif\0\0".getBytes(StandardCharsets.US_ASCII), 0, payload, 0, 6);
+        System.arraycopy(tiff, 0, payload, 6, tiff.length);
+        segment(out, 0xE1, payload);
+    }
+
+    static void segment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        out.write(0xFF);
+        out.write(marker);
+        int length = payload.length + 2;
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(payload, 0, payload.length);
+    }
+
+    /**
+     * TIFF con IFD0 (Orientation, DateTime, puntero GPS), IFD de GPS en
+     * grados/minutos/segundos e IFD1 con la miniatura al final.
+     */
+    static byte[] tiff(boolean littleEndian, int orientation, String dateTime, double[] latLong,
+                       byte[] thumbnail) {
+        ByteBuffer b = ByteBuffer.allocate(512 + (thumbnail != null ? thumbnail.length : 0));
+        b.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        b.put(littleEndian ? (byte) 'I' : (byte) 'M');
+        b.put(littleEndian ? (byte) 'I' : (byte) 'M');
+        b.putShort((short) 42);
+        b.putInt(8);
+
+        int entries = (orientation != 0 ? 1 : 0) + (dateTime != null ? 1 : 0) + (latLong != null ? 1 : 0);
+        int dataStart = 8 + 2 + entries * 12 + 4;
+        byte[] dateBytes = dateTime != null
+                ? (dateTime + "\0").getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        int gpsIfd = dataStart + dateBytes.length;
+        int ifd1 = gpsIfd + (latLong != null ? 2 + 4 * 12 + 4 + 48 : 0);
+
+        b.putShort((short) entries);
+        if (orientation != 0) {
+            b.putShort((short) 0x0112).putShort((short) 3).putInt(1)
+                    .putShort((short) orientation).putShort((short) 0);
+        }
+        if (dateTime != null) {
+            b.putShort((short) 0x0132).putShort((short) 2).putInt(dateBytes.length).putInt(dataStart);
+        }
+        if (latLong != null) {
+            b.putShort((short) 0x8825).putShort((short) 4).putInt(1).putInt(gpsIfd);
+        }
+        b.putInt(thumbnail != null ? ifd1 : 0);
+        b.put(dateBytes);
+
+        if (latLong != null) {
+            int rationals = gpsIfd + 2 + 4 * 12 + 4;
+            b.putShort((short) 4);
+            b.putShort((short) 1).putShort((short) 2).putInt(2)
+                    .put((byte) (latLong[0] < 0 ? 'S' : 'N')).put((byte) 0).putShort((short) 0);
+            b.putShort((short) 2).putShort((short) 5).putInt(3).putInt(rationals);
+            b.putShort((short) 3).putShort((short) 2).putInt(2)
+                    .put((byte) (latLong[1] < 0 ? 'W' : 'E')).put((byte) 0).putShort((short) 0);
+            b.putShort((short) 4).putShort((short) 5).putInt(3).putInt(rationals + 24);
+            b.putInt(0);
+            putDegrees(b, Math.abs(latLong[0]));
+            putDegrees(b, Math.abs(latLong[1]));
+        }
+
+        if (thumbnail != null) {
+            int thumbnailAt = ifd1 + 2 + 2 * 12 + 4;
+            b.putShort((short) 2);
+            b.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailAt);
+            b.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+            b.putInt(0);
+            b.put(thumbnail);
+        }
+
+        byte[] out = new byte[b.position()];
+        b.flip();
+        b.get(out);
+        return out;
+    }
+
+    /** Valor SHORT de una etiqueta de IFD0, o -1 si no está. */
+    static int ifd0Short(byte[] jpeg, int tag) {
+        int tiff = indexOfExif(jpeg) + 6;
+        ByteBuffer b = ByteBuffer.wrap(jpeg);
+        b.order(jpeg[tiff] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifd = tiff + b.getInt(tiff + 4);
+        int count = b.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((b.getShort(entry) & 0xFFFF) == tag) return b.getShort(entry + 8) & 0xFFFF;
+        }
+        return -1;
+    }
+
+    static int indexOfExif(byte[] jpeg) {
+        for (int i = 0; i < jpeg.length - 6; i++) {
+            if (jpeg[i] == 'E' && jpeg[i + 1] == 'x' && jpeg[i + 2] == 'i' && jpeg[i + 3] == 'f'
+                    && jpeg[i + 4] == 0 && jpeg[i + 5] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Posición del marcador SOS; lo que sigue son los datos de la imagen. */
+    static int indexOfSos(byte[] jpeg) {
+        int at = 2;
+        while (at + 4 <= jpeg.length) {
+            if ((jpeg[at + 1] & 0xFF) == 0xDA) return at;
+            at += 2 + (((jpeg[at + 2] & 0xFF) << 8) | (jpeg[at + 3] & 0xFF));
+        }
+        return -1;
+    }
+
+    private static void putDegrees(ByteBuffer b, double value) {
+        int degrees = (int) value;
+        double minutesFull = (value - degrees) * 60;
+        int minutes = (int) minutesFull;
+        long seconds = Math.round((minutesFull - minutes) * 60 * 10000);
+        b.putInt(degrees).putInt(1);
+        b.putInt(minutes).putInt(1);
+        b.putInt((int) seconds).putInt(10000);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailSizingTest {
+
+    // Celda de 200dp en una pantalla xxhdpi
+    private static final int CELL = 525;
+
+    @Test
+    public void sampleStillCoversTheCell() {
+        int[][] sources = {{8165, 6124}, {4032, 3024}, {1920, 1080}, {1080, 1920}, {640, 480}, {525, 525}};
+        for (int[] size : sources) {
+            int sample = ThumbnailSizing.sampleSizeFor(size[0], size[1], CELL);
+            int shortSide = Math.min(ThumbnailSizing.sampledDimension(size[0], sample),
+                    ThumbnailSizing.sampledDimension(size[1], sample));
+            assertTrue(shortSide >= Math.min(CELL, Math.min(size[0], size[1])));
+            // La siguiente potencia de dos ya no cubriría la celda
+            assertTrue(Math.min(size[0], size[1]) / (sample * 2) < CELL);
+        }
+    }
+
+    @Test
+    public void knownSampleSizes() {
+        assertEquals(8, ThumbnailSizing.sampleSizeFor(8165, 6124, CELL));
+        assertEquals(4, ThumbnailSizing.sampleSizeFor(4032, 3024, CELL));
+        assertEquals(2, ThumbnailSizing.sampleSizeFor(1920, 1080, CELL));
+        assertEquals(1, ThumbnailSizing.sampleSizeFor(640, 480, CELL));
+        assertEquals(1, ThumbnailSizing.sampleSizeFor(100, 100, 0));
+    }
+
+    @Test
+    public void smallImagesAreNotOverReduced() {
+        // Antes inSampleSize = 4 dejaba una foto de 640x480 en 160x120
+        int sample = ThumbnailSizing.sampleSizeFor(640, 480, CELL);
+        assertEquals(480, ThumbnailSizing.sampledDimension(480, sample));
+    }
+
+    @Test
+    public void largePhotosUseFarLessMemory() {
+        // 50 MP: con inSampleSize = 4 se decodificaban ~12 MB por celda
+        long before = ThumbnailSizing.decodedBytes(8165, 6124, 4);
+        int sample = ThumbnailSizing.sampleSizeFor(8165, 6124, CELL);
+        int[] scaled = ThumbnailSizing.scaledSize(
+                ThumbnailSizing.sampledDimension(8165, sample),
+                ThumbnailSizing.sampledDimension(6124, sample), CELL);
+        long after = 4L * scaled[0] * scaled[1];
+
+        assertTrue(before > 12_000_000);
+        assertEquals(4L * 700 * 525, after);
+        assertTrue(before / after >= 8);
+    }
+
+    @Test
+    public void rescaleOnlyWhenWorthIt() {
+        assertFalse(ThumbnailSizing.needsRescale(600, 600, CELL));
+        assertTrue(ThumbnailSizing.needsRescale(1020, 765, CELL));
+        int[] size = ThumbnailSizing.scaledSize(1020, 765, CELL);
+        assertEquals(CELL, size[1]);
+        assertEquals(700, size[0]);
+    }
+}
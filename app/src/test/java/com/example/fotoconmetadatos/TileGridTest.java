@@ -0,0 +1,80 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileGridTest {
+
+    // Sensor de 50 MP
+    private static final int WIDTH = 8160;
+    private static final int HEIGHT = 6120;
+
+    @Test
+    public void sampleIsLargestPowerOfTwoBelowZoomOut() {
+        assertEquals(1, TileGrid.sampleFor(2f));
+        assertEquals(1, TileGrid.sampleFor(1f));
+        assertEquals(1, TileGrid.sampleFor(0.6f));
+        assertEquals(2, TileGrid.sampleFor(0.5f));
+        assertEquals(4, TileGrid.sampleFor(0.13f));
+        assertEquals(8, TileGrid.sampleFor(0.1f));
+        assertEquals(1 << 20, TileGrid.sampleFor(0f));
+    }
+
+    @Test
+    public void previewFitsTheViewWithoutFullResolution() {
+        TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        // Ajustada a 1080 de ancho la escala es 0.13: el nivel 4 aún cubre la pantalla
+        assertEquals(4, grid.previewSample(1080, 2400));
+        assertEquals(4, grid.previewSample(2400, 1080));
+        // En una tableta grande cabría a 1/2, pero pasaría de 2048 de lado
+        assertEquals(4, grid.previewSample(4000, 3000));
+        assertEquals(1, new TileGrid(800, 600).previewSample(1080, 2400));
+    }
+
+    @Test
+    public void keysRoundTrip() {
+        long key = TileGrid.key(5, 123_456, 7);
+        assertEquals(5, TileGrid.levelOf(key));
+        assertEquals(32, TileGrid.sampleOf(key));
+        assertEquals(123_456, TileGrid.colOf(key));
+        assertEquals(7, TileGrid.rowOf(key));
+        assertEquals(TileGrid.key(6, 61_728, 3), TileGrid.parent(key));
+    }
+
+    @Test
+    public void visibleTilesAreClippedToTheImageAndCenterFirst() {
+        TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        // A escala 1 una pantalla ve unas 3 x 6 teselas de 512
+        long[] tiles = grid.visibleTiles(1, 3000, 2000, 4080, 4400);
+        assertEquals(3 * 6, tiles.length);
+        long center = tiles[0];
+        assertEquals(6, TileGrid.colOf(center));
+        assertEquals(6, TileGrid.rowOf(center));
+        for (long key : tiles) {
+            assertEquals(0, TileGrid.levelOf(key));
+            assertTrue(TileGrid.colOf(key) >= 5 && TileGrid.colOf(key) <= 7);
+            assertTrue(TileGrid.rowOf(key) >= 3 && TileGrid.rowOf(key) <= 8);
+        }
+
+        // Más allá de los bordes no hay teselas
+        long[] all = grid.visibleTiles(4, -5000, -5000, 50_000, 50_000);
+        assertEquals(4 * 3, all.length);
+        assertEquals(0, grid.visibleTiles(1, 9000, 0, 9500, 100).length);
+    }
+
+    @Test
+    public void edgeTilesAreCut() {
+        TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        int[] bounds = new int[4];
+        long corner = TileGrid.key(2, 3, 2);
+        grid.bounds(corner, bounds);
+        assertArrayEquals(new int[]{6144, 4096, WIDTH, HEIGHT}, bounds);
+        assertFalse(grid.isFull(corner));
+
+        long inner = TileGrid.key(2, 1, 1);
+        grid.bounds(inner, bounds);
+        assertArrayEquals(new int[]{2048, 2048, 4096, 4096}, bounds);
+        assertTrue(grid.isFull(inner));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.fotoconmetadatos;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimelineIndexTest {
+
+    private static TimelineIndex timeline(String... dateTimes) {
+        long[] times = new long[dateTimes.length];
+        for (int i = 0; i < times.length; i++) times[i] = CaptureTime.parseExif(dateTimes[i]);
+        return timeline(times);
+    }
+
+    private static TimelineIndex timeline(long[] times) {
+        PhotoStore.Builder builder = new PhotoStore.Builder(times.length);
+        for (int i = 0; i < times.length; i++) {
+            int row = builder.add(i + 1, i + 1, 0, 0, "IMG_" + i);
+            builder.setExif(row, times[i], Double.NaN, Double.NaN);
+        }
+        PhotoStore store = builder.build(null);
+        int[] rows = new int[store.size()];
+        for (int i = 0; i < rows.length; i++) rows[i] = i;
+        store.sortByCaptureTime(rows, rows.length);
+        return TimelineIndex.build(store, rows, rows.length);
+    }
+
+    @Test
+    public void bucketsByDayAndMonth() {
+        TimelineIndex timeline = timeline("2024:03:02 09:00:00", "", "2024:02:28 10:00:00",
+                "2024:03:02 18:00:00", "2024:03:01 12:00:00", "2024:02:28 11:00:00");
+
+        // 03-02 (2), 03-01 (1), 02-28 (2), sin fecha (1)
+        assertEquals(4, timeline.dayCount());
+        assertEquals(0, timeline.dayStart(0));
+        assertEquals(2, timeline.dayStart(1));
+        assertEquals(3, timeline.dayStart(2));
+        assertEquals(5, timeline.dayStart(3));
+        assertEquals(CaptureTime.UNKNOWN, timeline.dayKey(3));
+        assertEquals(CaptureTime.parseExif("2024:02:28 00:00:00"), timeline.dayKey(2));
+
+        assertEquals(3, timeline.monthCount());
+        assertEquals(3, timeline.monthStart(1));
+        assertEquals(2024 * 12 + 1, timeline.monthKey(1));
+        assertEquals(1, timeline.monthOf(4));
+        assertEquals(2, timeline.dayOf(4));
+    }
+
+    @Test
+    public void rangesAndJumps() {
+        TimelineIndex timeline = timeline("2024:03:02 09:00:00", "", "2024:02:28 10:00:00",
+                "2024:03:02 18:00:00", "2024:03:01 12:00:00", "2024:02:28 11:00:00");
+
+        assertArrayEquals(new int[]{0, 2}, timeline.dayRange(CaptureTime.parseExif("2024:03:02 00:00:00")));
+        assertArrayEquals(new int[]{3, 5}, timeline.range(CaptureTime.parseExif("2024:02:01 00:00:00"),
+                CaptureTime.parseExif("2024:03:01 00:00:00")));
+        // Un día sin fotos da un rango vacío en el lugar que le tocaría
+        assertArrayEquals(new int[]{3, 3}, timeline.dayRange(CaptureTime.parseExif("2024:02:29 00:00:00")));
+        // Lo sin fecha no entra en ningún rango
+        assertArrayEquals(new int[]{5, 5}, timeline.range(Long.MIN_VALUE + 1, CaptureTime.parseExif("2000:01:01 00:00:00")));
+
+        assertEquals(2, timeline.positionAtOrBefore(CaptureTime.parseExif("2024:03:01 23:59:59")));
+        assertEquals(0, timeline.positionAtOrBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void adapterPositionsIncludeOneHeaderPerDay() {
+        TimelineIndex timeline = timeline("2024:03:02 09:00:00", "", "2024:02:28 10:00:00",
+                "2024:03:02 18:00:00", "2024:03:01 12:00:00", "2024:02:28 11:00:00");
+
+        // [H 0 1 H 2 H 3 4 H 5]
+        assertEquals(10, timeline.adapterCount());
+        boolean[] headers = {true, false, false, true, false, true, false, false, true, false};
+        for (int i = 0; i < headers.length; i++) {
+            assertEquals("posición " + i, headers[i], timeline.isHeader(i));
+        }
+        for (int photo = 0; photo < timeline.size(); photo++) {
+            int adapterPosition = timeline.toAdapterPosition(photo);
+            assertFalse(timeline.isHeader(adapterPosition));
+            assertEquals(photo, timeline.toPhotoPosition(adapterPosition));
+        }
+        assertEquals(3, timeline.toPhotoPosition(5));
+        assertEquals(2, timeline.dayAtAdapter(7));
+    }
+
+    @Test
+    public void hundredThousandRangeQueriesMatchLinearScan() {
+        Random random = new Random(9);
+        long[] times = new long[100_000];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = random.nextInt(50) == 0 ? CaptureTime.UNKNOWN
+                    : CaptureTime.dayStart(2010 + random.nextInt(14), 1 + random.nextInt(12), 1 + random.nextInt(28))
+                    + random.nextInt(24) * 3_600_000L;
+        }
+        TimelineIndex timeline = timeline(times);
+        for (int q = 0; q < 100; q++) {
+            long from = CaptureTime.dayStart(2010 + random.nextInt(14), 1 + random.nextInt(12), 1);
+            long to = from + random.nextInt(90) * CaptureTime.MILLIS_PER_DAY;
+            int expected = 0;
+            for (long time : times) {
+                if (time != CaptureTime.UNKNOWN && time >= from && time < to) expected++;
+            }
+            int[] range = timeline.range(from, to);
+            assertEquals(expected, range[1] - range[0]);
+            for (int i = range[0]; i < range[1]; i++) {
+                assertTrue(timeline.timeAt(i) >= from && timeline.timeAt(i) < to);
+            }
+        }
+    }
+}
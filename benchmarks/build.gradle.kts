@@ -0,0 +1,59 @@
+// Benchmarks JMH de la lógica de metadatos, en la JVM del equipo (sin Android).
+// Todos: ./gradlew :benchmarks:jmh
+// Uno solo: ./gradlew :benchmarks:jmh -PjmhIncludes=ExifReadBenchmark
+// Resultados en build/results/jmh/results.json, con la tasa de asignación de -prof gc.
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+// Las clases de la app que no dependen de Android se compilan desde su sitio, sin copiarlas
+val appPackage = "com/example/fotoconmetadatos"
+val pureAppClasses = listOf(
+    "CaptureTime", "ExifHeaderReader", "ExifIndex", "ExifSpliceWriter", "GeoIndex",
+    "LongIntMap", "NameTable", "PhotoStore", "ThumbnailSizing", "TimelineIndex"
+)
+
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf(rootProject.file("app/src/main/java")))
+            pureAppClasses.forEach { include("$appPackage/$it.java") }
+        }
+    }
+    named("jmh") {
+        java {
+            // El generador de JPEG de las pruebas de la app arma el corpus sintético
+            srcDir(rootProject.file("app/src/test/java"))
+            include("$appPackage/TestJpegs.java", "$appPackage/Benchmark*.java", "$appPackage/*Benchmark.java")
+        }
+    }
+}
+
+dependencies {
+    // Lector EXIF de referencia: ExifInterface necesita el framework de Android
+    jmhImplementation(libs.metadata.extractor)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("2s")
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    benchmarkMode.add("thrpt")
+    timeUnit.set("s")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
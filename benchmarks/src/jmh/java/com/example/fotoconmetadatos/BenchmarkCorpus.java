@@ -0,0 +1,90 @@
+package com.example.fotoconmetadatos;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Corpus sintético para los benchmarks: JPEG de distintos tamaños y formas de
+ * encabezado armados con {@link TestJpegs}, siempre los mismos bytes. Los
+ * tamaños imitan lo que hay en una galería real, de una miniatura a una foto
+ * de 12 MP.
+ */
+final class BenchmarkCorpus {
+
+    /** Nombres válidos para {@link #jpeg}; los benchmarks los usan como @Param. */
+    static final String CAMERA_12MP = "camara_12mp";
+    static final String PHONE_LITTLE_ENDIAN = "telefono_le";
+    static final String XMP_FIRST = "xmp_primero";
+    static final String WITHOUT_GPS = "sin_gps";
+    static final String WITHOUT_EXIF = "sin_exif";
+    static final String SMALL = "pequena";
+
+    private static final String DATE = "2023:07:14 18:42:05";
+
+    private BenchmarkCorpus() {
+    }
+
+    static byte[] jpeg(String name) {
+        switch (name) {
+            case CAMERA_12MP:
+                return TestJpegs.jpeg().orientation(6).dateTime(DATE).latLong(19.4326, -99.1332)
+                        .thumbnail(filler(12 * 1024)).scanBytes(3 * 1024 * 1024).build();
+            case PHONE_LITTLE_ENDIAN:
+                return TestJpegs.jpeg().littleEndian().withApp0().dateTime(DATE).latLong(-34.6037, -58.3816)
+                        .thumbnail(filler(8 * 1024)).scanBytes(1536 * 1024).build();
+            case XMP_FIRST:
+                return TestJpegs.jpeg().withXmp().dateTime(DATE).latLong(40.4168, -3.7038)
+                        .scanBytes(800 * 1024).build();
+            case WITHOUT_GPS:
+                return TestJpegs.jpeg().dateTime(DATE).scanBytes(400 * 1024).build();
+            case WITHOUT_EXIF:
+                return TestJpegs.jpeg().withApp0().scanBytes(200 * 1024).build();
+            case SMALL:
+                return TestJpegs.jpeg().dateTime(DATE).latLong(4.7110, -74.0721).scanBytes(40 * 1024).build();
+            default:
+                throw new IllegalArgumentException("Foto desconocida: " + name);
+        }
+    }
+
+    /** Escribe la foto en {@code dir} y devuelve el archivo. */
+    static File write(File dir, String name) throws IOException {
+        File file = new File(dir, name + ".jpg");
+        Files.write(file.toPath(), jpeg(name));
+        return file;
+    }
+
+    /**
+     * Galería de {@code size} fotos en orden de pantalla: 70 % con GPS alrededor
+     * de unas pocas ciudades, capturas repartidas en diez años y un 5 % sin fecha.
+     */
+    static PhotoStore gallery(int size, long seed) {
+        double[][] cities = {{19.43, -99.13}, {40.42, -3.70}, {-34.60, -58.38}, {4.71, -74.07}, {35.68, 139.69}};
+        long now = 1_700_000_000_000L;
+        long tenYears = 10L * 365 * CaptureTime.MILLIS_PER_DAY;
+        Random random = new Random(seed);
+        PhotoStore.Builder builder = new PhotoStore.Builder(size);
+        for (int i = 0; i < size; i++) {
+            long id = size - i;
+            long added = now / 1000 - i * 60L;
+            int row = builder.add(id, added, added, 2_000_000 + random.nextInt(3_000_000), "IMG_" + id + ".jpg");
+            long captureTime = random.nextInt(20) == 0 ? CaptureTime.UNKNOWN : now - (long) (random.nextDouble() * tenYears);
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            if (random.nextInt(10) < 7) {
+                double[] city = cities[random.nextInt(cities.length)];
+                latitude = city[0] + random.nextGaussian() * 0.05;
+                longitude = city[1] + random.nextGaussian() * 0.05;
+            }
+            builder.setExif(row, captureTime, latitude, longitude);
+        }
+        return builder.build("bench-" + size + "-" + seed);
+    }
+
+    private static byte[] filler(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.fotoconmetadatos;
+
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.exif.GpsDirectory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lectura de fecha y GPS del encabezado: {@link ExifHeaderReader} contra una
+ * biblioteca EXIF general. ExifInterface depende del framework de Android y no
+ * corre en la JVM del equipo; metadata-extractor hace el mismo trabajo (parsear
+ * el APP1 completo en objetos) y sirve de referencia. Las fotos están en
+ * memoria para medir solo el parseo.
+ */
+@State(Scope.Thread)
+public class ExifReadBenchmark {
+
+    // Solo el lector de APP1 "Exif", lo más parecido a lo que hace la galería
+    private static final List<JpegSegmentMetadataReader> EXIF_ONLY =
+            Collections.singletonList(new ExifReader());
+
+    @Param({BenchmarkCorpus.CAMERA_12MP, BenchmarkCorpus.PHONE_LITTLE_ENDIAN, BenchmarkCorpus.XMP_FIRST,
+            BenchmarkCorpus.WITHOUT_GPS, BenchmarkCorpus.WITHOUT_EXIF})
+    public String photo;
+
+    private byte[] jpeg;
+    private final ExifHeaderReader reader = new ExifHeaderReader();
+    private final ExifHeaderReader.Result result = new ExifHeaderReader.Result();
+
+    @Setup
+    public void setUp() {
+        jpeg = BenchmarkCorpus.jpeg(photo);
+    }
+
+    @Benchmark
+    public void headerReader(Blackhole blackhole) throws Exception {
+        blackhole.consume(reader.read(new ByteArrayInputStream(jpeg), result));
+        blackhole.consume(result.dateTime);
+        blackhole.consume(result.latitude);
+        blackhole.consume(result.longitude);
+    }
+
+    @Benchmark
+    public void metadataExtractor(Blackhole blackhole) throws Exception {
+        Metadata metadata = JpegMetadataReader.readMetadata(new ByteArrayInputStream(jpeg), EXIF_ONLY);
+        ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        blackhole.consume(ifd0 != null ? ifd0.getString(ExifIFD0Directory.TAG_DATETIME) : null);
+        GpsDirectory gps = metadata.getFirstDirectoryOfType(GpsDirectory.class);
+        blackhole.consume(gps != null ? gps.getGeoLocation() : null);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.fotoconmetadatos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+
+/**
+ * El camino de escritura de la cámara: {@link ExifSpliceWriter#rewriteInPlace}
+ * sobre un archivo real, y {@link ExifSpliceWriter#copyTo} hacia un canal que
+ * descarta los bytes. Con las mismas etiquetas la reescritura es idempotente,
+ * así que tras la primera cada iteración mide el caso estable en que el APP1
+ * nuevo cabe en el hueco del anterior; incluye el force() de cada escritura.
+ */
+@State(Scope.Thread)
+public class ExifWriteBenchmark {
+
+    @Param({BenchmarkCorpus.CAMERA_12MP, BenchmarkCorpus.PHONE_LITTLE_ENDIAN, BenchmarkCorpus.WITHOUT_EXIF})
+    public String photo;
+
+    private File dir;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private final WritableByteChannel discard = Channels.newChannel(OutputStream.nullOutputStream());
+    private final ExifSpliceWriter writer = new ExifSpliceWriter()
+            .setDateTime("2024:05:01 10:30:00")
+            .setLatLong(19.4326, -99.1332);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("exif-write").toFile();
+        file = new RandomAccessFile(BenchmarkCorpus.write(dir, photo), "rw");
+        channel = file.getChannel();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        file.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void rewriteInPlace() throws IOException {
+        writer.rewriteInPlace(channel, channel);
+    }
+
+    @Benchmark
+    public void copyToChannel() throws IOException {
+        writer.copyTo(channel, discard);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.fotoconmetadatos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Construcción y consulta de los índices en memoria de la galería sobre una
+ * biblioteca sintética: el espacial ({@link GeoIndex}), la línea de tiempo
+ * ({@link TimelineIndex}) con su orden, la búsqueda por _ID y la carga del
+ * índice EXIF persistente, que es lo que cuesta un arranque en frío.
+ */
+@State(Scope.Thread)
+public class IndexBenchmark {
+
+    @Param({"10000", "100000"})
+    public int photos;
+
+    private PhotoStore store;
+    private PhotoStore edited;
+    private GeoIndex geoIndex;
+    private GeoIndex updatedIndex;
+    private boolean updatedIsEdited;
+    private int[] rows;
+    private int[] sortedRows;
+    private TimelineIndex timeline;
+    private long[] out;
+    private long[] probeIds;
+    private long[] probeTimes;
+    private int probe;
+    private File exifIndexFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        store = BenchmarkCorpus.gallery(photos, 1);
+        edited = editOnePercent(store);
+
+        geoIndex = new GeoIndex();
+        fill(geoIndex, store);
+        updatedIndex = new GeoIndex();
+        fill(updatedIndex, store);
+
+        rows = new int[photos];
+        for (int i = 0; i < photos; i++) rows[i] = i;
+        sortedRows = rows.clone();
+        store.sortByCaptureTime(sortedRows, photos);
+        timeline = TimelineIndex.build(store, sortedRows, photos);
+        out = new long[photos];
+
+        Random random = new Random(2);
+        probeIds = new long[1024];
+        probeTimes = new long[1024];
+        for (int i = 0; i < probeIds.length; i++) {
+            probeIds[i] = store.idAt(random.nextInt(photos));
+            probeTimes[i] = store.captureTimeAt(random.nextInt(photos));
+        }
+
+        exifIndexFile = Files.createTempFile("exif_index", ".bin").toFile();
+        ExifIndex exifIndex = new ExifIndex(exifIndexFile);
+        for (int row = 0; row < photos; row++) {
+            exifIndex.put(store.idAt(row), store.dateModifiedAt(row), store.fileSizeAt(row),
+                    CaptureTime.formatExif(store.captureTimeAt(row)), store.latitudeAt(row), store.longitudeAt(row));
+        }
+        exifIndex.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        exifIndexFile.delete();
+    }
+
+    @Benchmark
+    public int geoIndexBuild() {
+        GeoIndex index = new GeoIndex();
+        fill(index, store);
+        return index.size();
+    }
+
+    /** Lo que hace un refresco: aplicar las diferencias entre dos galerías. */
+    @Benchmark
+    public int geoIndexUpdate() {
+        if (updatedIsEdited) {
+            updatedIndex.update(edited, store);
+        } else {
+            updatedIndex.update(store, edited);
+        }
+        updatedIsEdited = !updatedIsEdited;
+        return updatedIndex.size();
+    }
+
+    /** El filtro "cerca de aquí" en el centro de una ciudad. */
+    @Benchmark
+    public int geoQueryRadius() {
+        return geoIndex.queryRadius(19.43, -99.13, 250, out);
+    }
+
+    /** La parte visible de un mapa de ciudad. */
+    @Benchmark
+    public int geoQueryBox() {
+        return geoIndex.queryBox(40.35, -3.80, 40.50, -3.60, out);
+    }
+
+    @Benchmark
+    public int[] sortByCaptureTime() {
+        System.arraycopy(rows, 0, sortedRows, 0, photos);
+        store.sortByCaptureTime(sortedRows, photos);
+        return sortedRows;
+    }
+
+    @Benchmark
+    public TimelineIndex timelineBuild() {
+        return TimelineIndex.build(store, sortedRows, photos);
+    }
+
+    /** Saltar a una fecha. */
+    @Benchmark
+    public int timelineSeek() {
+        probe = (probe + 1) & (probeTimes.length - 1);
+        return timeline.positionAtOrBefore(probeTimes[probe]);
+    }
+
+    /** Buscar la fila de una foto por _ID, como al aplicar un cambio de MediaStore. */
+    @Benchmark
+    public int rowById() {
+        probe = (probe + 1) & (probeIds.length - 1);
+        return store.rowOf(probeIds[probe]);
+    }
+
+    @Benchmark
+    public int exifIndexLoad() {
+        ExifIndex index = new ExifIndex(exifIndexFile);
+        index.load();
+        return index.size();
+    }
+
+    private static void fill(GeoIndex index, PhotoStore store) {
+        for (int row = 0; row < store.size(); row++) {
+            if (store.hasLocation(row)) index.put(store.idAt(row), store.latitudeAt(row), store.longitudeAt(row));
+        }
+    }
+
+    // La misma galería con el 1 % de las fotos movidas de sitio
+    private static PhotoStore editOnePercent(PhotoStore store) {
+        Random random = new Random(3);
+        PhotoStore.Builder builder = new PhotoStore.Builder(store.size());
+        for (int row = 0; row < store.size(); row++) {
+            int copy = builder.add(store.idAt(row), store.dateAddedAt(row), store.dateModifiedAt(row),
+                    store.fileSizeAt(row), store.nameAt(row));
+            double latitude = store.latitudeAt(row);
+            double longitude = store.longitudeAt(row);
+            if (random.nextInt(100) == 0) {
+                latitude = random.nextDouble() * 180 - 90;
+                longitude = random.nextDouble() * 360 - 180;
+            }
+            builder.setExif(copy, store.captureTimeAt(row), latitude, longitude);
+        }
+        return builder.build(null);
+    }
+}
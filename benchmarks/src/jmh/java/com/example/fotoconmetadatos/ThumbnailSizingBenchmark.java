@@ -0,0 +1,53 @@
+package com.example.fotoconmetadatos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cálculo del tamaño de decodificación de miniaturas para una mezcla de
+ * resoluciones de cámara y tamaños de celda. Se hace al enlazar cada celda,
+ * así que lo que importa es que no asigne memoria en el camino habitual.
+ */
+@State(Scope.Thread)
+public class ThumbnailSizingBenchmark {
+
+    private static final int[][] SIZES = {
+            {4032, 3024}, {3024, 4032}, {4000, 3000}, {1920, 1080}, {1080, 1920},
+            {8000, 6000}, {640, 480}, {300, 300}, {12000, 9000}, {2448, 3264}
+    };
+    private static final int[] TARGETS = {128, 256, 360, 540, 720};
+    private static final int OPERATIONS = 50;
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public long sampleSize() {
+        long sum = 0;
+        for (int[] size : SIZES) {
+            for (int target : TARGETS) {
+                int sample = ThumbnailSizing.sampleSizeFor(size[0], size[1], target);
+                sum += sample + ThumbnailSizing.decodedBytes(size[0], size[1], sample);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void sampleAndScale(Blackhole blackhole) {
+        for (int[] size : SIZES) {
+            for (int target : TARGETS) {
+                int sample = ThumbnailSizing.sampleSizeFor(size[0], size[1], target);
+                int width = ThumbnailSizing.sampledDimension(size[0], sample);
+                int height = ThumbnailSizing.sampledDimension(size[1], sample);
+                if (ThumbnailSizing.needsRescale(width, height, target)) {
+                    blackhole.consume(ThumbnailSizing.scaledSize(width, height, target));
+                } else {
+                    blackhole.consume(width);
+                }
+            }
+        }
+    }
+}